@@ -1,5 +1,3 @@
-import sun.security.action.GetLongAction;
-
 /**
  * The BPlusTree class implements B+-trees. Each BPlusTree stores its elements in the main memory (not on disks) for
  * simplicity reasons.
@@ -18,6 +16,234 @@ public class BPlusTree {
 	 */
 	protected Node root;
 
+	/**
+	 * The strategy that the nodes of this BPlusTree use for locating keys.
+	 */
+	protected SearchStrategy searchStrategy;
+
+	/**
+	 * The Path that records the descents of this BPlusTree (reused by every operation).
+	 */
+	protected Path path = new Path();
+
+	/**
+	 * The token that marks the nodes that this BPlusTree may change in place. Nodes carrying another token may be
+	 * shared with snapshots and are copied before they are changed.
+	 */
+	protected Object owner = new Object();
+
+	/**
+	 * A flag indicating whether or not this BPlusTree may share nodes with snapshots. Once nodes are shared, the last
+	 * pointers of leaf nodes are no longer kept up to date and Cursors advance along their Paths instead (until
+	 * unshare() takes the nodes over again).
+	 */
+	protected boolean shared;
+
+	/**
+	 * The trees that may share nodes with this BPlusTree, including this BPlusTree (null if no nodes are shared). A
+	 * BPlusTree, its snapshots and their snapshots hold the same collection.
+	 */
+	protected java.util.Queue<java.lang.ref.WeakReference<BPlusTree>> sharers;
+
+	/**
+	 * The policy that decides where full nodes of this BPlusTree are split.
+	 */
+	protected SplitPolicy splitPolicy = SplitPolicy.EVEN;
+
+	/**
+	 * The key inserted last (used by SplitPolicy.ADAPTIVE).
+	 */
+	Object lastKey;
+
+	/**
+	 * The length of the current run of ascending insertions (or, if negative, of descending insertions).
+	 */
+	int run;
+
+	/**
+	 * The number of times that the key ranges of the leaf nodes of this BPlusTree have changed (by splits, merges
+	 * and redistributions).
+	 */
+	int structureVersion;
+
+	/**
+	 * The leaf node into which the last insertion that did not split a node went (null if there is no such node).
+	 * The next insertion goes directly into this node, without a descent, if its key falls in the key range of the
+	 * node and neither the root nor the key ranges of the leaf nodes have changed in the meantime.
+	 */
+	Node cachedLeaf;
+
+	/**
+	 * The root when cachedLeaf was cached.
+	 */
+	Node cachedRoot;
+
+	/**
+	 * The structureVersion when cachedLeaf was cached.
+	 */
+	int cachedStructureVersion;
+
+	/**
+	 * The smallest key that cachedLeaf may contain (null if cachedLeaf is the first leaf node).
+	 */
+	Object cachedLow;
+
+	/**
+	 * The key above the keys that cachedLeaf may contain (null if cachedLeaf is the last leaf node).
+	 */
+	Object cachedHigh;
+
+	/**
+	 * The SearchStrategy enumeration lists the ways in which a Node can locate a key among its keys.
+	 */
+	public enum SearchStrategy {
+
+		/**
+		 * Compares the keys one by one. This is the fastest strategy for small nodes.
+		 */
+		LINEAR,
+
+		/**
+		 * Halves the range of candidate keys at each comparison.
+		 */
+		BINARY,
+
+		/**
+		 * Estimates the position of the key from the numeric values of the keys and finishes with a short scan. This
+		 * strategy assumes integer keys (Byte, Short, Integer or Long) in their natural order and falls back to
+		 * BINARY for other keys. It is chosen automatically only for keys that are declared to be integers spread
+		 * uniformly over their range (see {@link #forKeys(int, boolean)}), since the estimates can be far off for
+		 * skewed keys.
+		 */
+		INTERPOLATION;
+
+		/**
+		 * The largest fanout for which LINEAR is chosen automatically. This is the largest fanout up to which LINEAR
+		 * was never slower than BINARY, for uniformly distributed as well as skewed Integer keys, in
+		 * test/SearchStrategyBenchmark (which prints this crossover).
+		 */
+		public static final int LINEAR_FANOUT_THRESHOLD = 64;
+
+		/**
+		 * The smallest fanout for which INTERPOLATION is chosen automatically for uniformly distributed integer keys.
+		 * From this fanout on, INTERPOLATION was faster than both LINEAR and BINARY for such keys in
+		 * test/SearchStrategyBenchmark.
+		 */
+		public static final int INTERPOLATION_FANOUT_THRESHOLD = 32;
+
+		/**
+		 * Returns the strategy that suits nodes of the specified fanout.
+		 * 
+		 * @param fanout
+		 *            the maximum number of pointers that each node can have.
+		 * @return LINEAR for small fanouts; BINARY otherwise.
+		 */
+		public static SearchStrategy forFanout(int fanout) {
+			return forKeys(fanout, false);
+		}
+
+		/**
+		 * Returns the strategy that suits nodes of the specified fanout and the specified kind of keys.
+		 * 
+		 * @param fanout
+		 *            the maximum number of pointers that each node can have.
+		 * @param uniformIntegers
+		 *            true if the keys are integers (Byte, Short, Integer or Long) spread roughly uniformly over their
+		 *            range.
+		 * @return INTERPOLATION for uniformly distributed integer keys and large fanouts; otherwise LINEAR for small
+		 *         fanouts and BINARY for large ones.
+		 */
+		public static SearchStrategy forKeys(int fanout, boolean uniformIntegers) {
+			if (uniformIntegers && fanout >= INTERPOLATION_FANOUT_THRESHOLD)
+				return INTERPOLATION;
+			return fanout <= LINEAR_FANOUT_THRESHOLD ? LINEAR : BINARY;
+		}
+
+	}
+
+	/**
+	 * The SplitPolicy enumeration lists the ways in which a full node can be split. An uneven split keeps
+	 * UNEVEN_SPLIT_FRACTION of the entries on the side that further insertions are not expected to reach, so that
+	 * ascending (or descending) keys leave nodes nearly full instead of half full. The node that receives the few
+	 * remaining entries may then have fewer entries than a node normally must have until later insertions fill it.
+	 */
+	public enum SplitPolicy {
+
+		/**
+		 * Splits every full node in half.
+		 */
+		EVEN,
+
+		/**
+		 * Splits the last node at each level unevenly when the new entry goes at its end (as with auto-increment or
+		 * timestamp keys) and every other node in half.
+		 */
+		RIGHTMOST,
+
+		/**
+		 * Splits a node unevenly when the latest insertions form an ascending run of at least SEQUENTIAL_RUN_LENGTH
+		 * keys and the new entry goes at the end of the node (or form a descending run and the new entry goes at the
+		 * beginning of the node), and every other node in half.
+		 */
+		ADAPTIVE;
+
+		/**
+		 * The fraction of the entries that an uneven split keeps on one side.
+		 */
+		public static final double UNEVEN_SPLIT_FRACTION = 0.9;
+
+		/**
+		 * The number of consecutive ascending (or descending) insertions after which ADAPTIVE splits unevenly.
+		 */
+		public static final int SEQUENTIAL_RUN_LENGTH = 8;
+
+	}
+
+	/**
+	 * The number of keys below which INTERPOLATION finishes its search with a scan.
+	 */
+	static final int INTERPOLATION_SCAN_LENGTH = 8;
+
+	/**
+	 * A Path records the nodes visited by a descent from the root of a BPlusTree so that splits, merges and
+	 * redistributions can reach the parent of a node without searching for it again.
+	 */
+	protected static class Path {
+
+		/**
+		 * The visited nodes (nodes[0] is the root and nodes[length - 1] is a leaf node).
+		 */
+		Node[] nodes = new Node[8];
+
+		/**
+		 * indices[i] is the position of nodes[i + 1] among the pointers of nodes[i].
+		 */
+		int[] indices = new int[8];
+
+		/**
+		 * The number of visited nodes.
+		 */
+		int length;
+
+		/**
+		 * Appends the specified node to this Path.
+		 * 
+		 * @param node
+		 *            the node to append.
+		 * @param index
+		 *            the position of the next node on this Path among the pointers of the specified node.
+		 */
+		void push(Node node, int index) {
+			if (length == nodes.length) {
+				nodes = java.util.Arrays.copyOf(nodes, length * 2);
+				indices = java.util.Arrays.copyOf(indices, length * 2);
+			}
+			nodes[length] = node;
+			indices[length++] = index;
+		}
+
+	}
+
 	/**
 	 * The Node class implements nodes that constitute a B+-tree. Each Node instance has multiple pointers to other
 	 * nodes. At each node, the number of keys is smaller than the number of pointers by one.
@@ -42,12 +268,23 @@ public class BPlusTree {
 		 */
 		Object[] pointers;
 
+		/**
+		 * The version word of this Node. OptimisticBPlusTree increments it whenever this Node is locked or changed;
+		 * an odd value means that a writer holds the lock of this Node.
+		 */
+		volatile long version;
+
+		/**
+		 * The token of the BPlusTree that may change this Node in place.
+		 */
+		Object owner = BPlusTree.this.owner;
+
 		/**
 		 * Constructs a Node.
 		 */
 		protected Node(int fanout) {
 			numberOfKeys = 0;
-			keys = new Comparable[fanout - 1];
+			keys = new Object[fanout - 1];
 			pointers = new Object[fanout];
 		}
 
@@ -62,13 +299,11 @@ public class BPlusTree {
 			keys = new Object[node.keys.length];
 			System.arraycopy(node.keys, 0, keys, 0, node.keys.length);
 			pointers = new Object[node.pointers.length];
-			for (int i = 0; i < node.pointers.length; i++) {
-				Object pointer = node.pointers[i];
-				if (pointer instanceof Node)
-					pointers[i] = new Node((Node) pointer); // copy construct the node.
-				else
-					pointers[i] = pointer;
-			}
+			if (node.isLeafNode()) // the last pointer (to the next leaf node) is set by the BPlusTree being constructed
+				System.arraycopy(node.pointers, 0, pointers, 0, node.numberOfKeys);
+			else
+				for (int i = 0; i <= node.numberOfKeys; i++)
+					pointers[i] = new Node((Node) node.pointers[i]); // copy construct the child.
 		}
 
 		/**
@@ -101,6 +336,17 @@ public class BPlusTree {
 			return numberOfKeys < fanout - 1;
 		}
 
+		/**
+		 * Determines whether or not this Node has fewer entries than a non-root node must have.
+		 * 
+		 * @return true if this Node has too few entries; false otherwise.
+		 */
+		protected boolean isUnderfull() {
+			if (isLeafNode())
+				return numberOfKeys < fanout / 2; // a leaf node needs at least ceil((fanout - 1) / 2) values
+			return numberOfKeys + 1 < (fanout + 1) / 2; // a non-leaf node needs at least ceil(fanout / 2) pointers
+		}
+
 		/**
 		 * Returns the first index i such that keys[i] >= the given key.
 		 * 
@@ -109,11 +355,8 @@ public class BPlusTree {
 		 * @return the first index i such that keys[i] >= the given key; -1 if there is no such i.
 		 */
 		protected int findIndexGE(Object key) {
-			for (int i = 0; i < numberOfKeys; i++) {
-				if (compare(keys[i], key) >= 0)
-					return i;
-			}
-			return -1;
+			int i = lowerBound(key);
+			return i < numberOfKeys ? i : -1;
 		}
 
 		/**
@@ -124,11 +367,109 @@ public class BPlusTree {
 		 * @return the largest index i such that keys[i] < the given key; -1 if there is no such i.
 		 */
 		protected int findIndexL(Object key) {
-			for (int i = numberOfKeys - 1; i >= 0; i--) {
-				if (compare(keys[i], key) < 0)
-					return i;
+			return lowerBound(key) - 1;
+		}
+
+		/**
+		 * Returns the first index i such that keys[i] >= the given key using the SearchStrategy of this BPlusTree.
+		 * 
+		 * @param key
+		 *            the given key.
+		 * @return the first index i such that keys[i] >= the given key; numberOfKeys if there is no such i.
+		 */
+		protected int lowerBound(Object key) {
+			if (searchStrategy == SearchStrategy.LINEAR)
+				return linearLowerBound(key, 0, numberOfKeys);
+			if (searchStrategy == SearchStrategy.INTERPOLATION && isIntegral(key) && numberOfKeys > 0
+					&& isIntegral(keys[0]))
+				return interpolationLowerBound(((Number) key).longValue());
+			return binaryLowerBound(key, 0, numberOfKeys);
+		}
+
+		/**
+		 * Returns the first index i in [from, to) such that keys[i] >= the given key by comparing the keys one by one.
+		 * 
+		 * @param key
+		 *            the given key.
+		 * @param from
+		 *            the first index to examine.
+		 * @param to
+		 *            the index after the last index to examine.
+		 * @return the first index i in [from, to) such that keys[i] >= the given key; to if there is no such i.
+		 */
+		protected int linearLowerBound(Object key, int from, int to) {
+			while (from < to && compare(keys[from], key) < 0)
+				from++;
+			return from;
+		}
+
+		/**
+		 * Returns the first index i in [from, to) such that keys[i] >= the given key by using binary search.
+		 * 
+		 * @param key
+		 *            the given key.
+		 * @param from
+		 *            the first index to examine.
+		 * @param to
+		 *            the index after the last index to examine.
+		 * @return the first index i in [from, to) such that keys[i] >= the given key; to if there is no such i.
+		 */
+		protected int binaryLowerBound(Object key, int from, int to) {
+			while (from < to) {
+				int mid = (from + to) >>> 1;
+				if (compare(keys[mid], key) < 0)
+					from = mid + 1;
+				else
+					to = mid;
+			}
+			return from;
+		}
+
+		/**
+		 * Returns the first index i such that keys[i] >= the given key by using interpolation search. All the keys of
+		 * this Node must be integers.
+		 * 
+		 * @param key
+		 *            the given key.
+		 * @return the first index i such that keys[i] >= the given key; numberOfKeys if there is no such i.
+		 */
+		protected int interpolationLowerBound(long key) {
+			int from = 0;
+			int to = numberOfKeys; // keys before from are < key and keys at or after to are >= key
+			while (to - from > INTERPOLATION_SCAN_LENGTH) {
+				long first = ((Number) keys[from]).longValue();
+				long last = ((Number) keys[to - 1]).longValue();
+				if (key <= first)
+					return from;
+				if (key > last)
+					return to;
+				// first < key <= last, so the probe lies in [from, to - 1]
+				int probe = from + (int) (((double) key - first) / ((double) last - first) * (to - 1 - from));
+				if (((Number) keys[probe]).longValue() < key)
+					from = probe + 1;
+				else
+					to = probe;
 			}
-			return -1;
+			while (from < to && ((Number) keys[from]).longValue() < key)
+				from++;
+			return from;
+		}
+
+		/**
+		 * Returns the position of the pointer to follow in order to find the specified key (assuming that this Node
+		 * is a non-leaf node).
+		 * 
+		 * @param key
+		 *            the search key.
+		 * @return the position of the pointer to follow in order to find the specified key.
+		 */
+		protected int childIndex(Object key) {
+			int i = findIndexGE(key); // find smallest i such that keys[i] >= key
+			if (i < 0) // if no i such that keys[i] >= key
+				return numberOfKeys;
+			if (compare(key, keys[i]) == 0) // if keys[i] = key
+				return i + 1;
+			return i;
 		}
 
 		/**
@@ -182,6 +523,25 @@ public class BPlusTree {
 			numberOfKeys++;
 		}
 
+		/**
+		 * Inserts the specified key at the specified location and the specified pointer right after it (assuming that
+		 * this Node is a non-leaf node with room for them).
+		 * 
+		 * @param key
+		 *            the key to insert.
+		 * @param pointer
+		 *            the pointer to insert.
+		 * @param pos
+		 *            the insertion position of the key.
+		 */
+		protected void insertChild(Object key, Object pointer, int pos) {
+			System.arraycopy(keys, pos, keys, pos + 1, numberOfKeys - pos);
+			System.arraycopy(pointers, pos + 1, pointers, pos + 2, numberOfKeys - pos);
+			keys[pos] = key;
+			pointers[pos + 1] = pointer;
+			numberOfKeys++;
+		}
+
 		/**
 		 * Inserts the specified key and value assuming that this Node has room for them and is a leaf node.
 		 * 
@@ -191,524 +551,2356 @@ public class BPlusTree {
 		 *            the value to insert.
 		 */
 		protected void insertInLeaf(Object key, Object value) {
-			if (numberOfKeys == 0 || compare(key, keys[0]) < 0) {
-				insert(key, value, 0);
-			} else {
-				int i = findIndexL(key);
-				insert(key, value, i + 1);
-			}
+			insert(key, value, lowerBound(key));
 		}
 
-	}
+		/**
+		 * Removes the key and the value at the specified location (assuming that this Node is a leaf node).
+		 * 
+		 * @param pos
+		 *            the position of the key to remove.
+		 */
+		protected void remove(int pos) {
+			numberOfKeys--;
+			System.arraycopy(keys, pos + 1, keys, pos, numberOfKeys - pos);
+			System.arraycopy(pointers, pos + 1, pointers, pos, numberOfKeys - pos);
+			keys[numberOfKeys] = null;
+			pointers[numberOfKeys] = null;
+		}
 
-	/**
-	 * Constructs a BPlusTree.
-	 * 
-	 * @param fanout
-	 *            the maximum number of pointers that each node of this BPlusTree can have.
-	 */
-	public BPlusTree(int fanout) {
-		this.fanout = fanout;
-	}
+		/**
+		 * Removes the key at the specified location and the pointer right after it (assuming that this Node is a
+		 * non-leaf node).
+		 * 
+		 * @param pos
+		 *            the position of the key to remove.
+		 */
+		protected void removeAfter(int pos) {
+			numberOfKeys--;
+			System.arraycopy(keys, pos + 1, keys, pos, numberOfKeys - pos);
+			System.arraycopy(pointers, pos + 2, pointers, pos + 1, numberOfKeys - pos);
+			keys[numberOfKeys] = null;
+			pointers[numberOfKeys + 1] = null;
+		}
 
-	/**
-	 * Copy-constructs a BPlusTree.
-	 * 
-	 * @param tree
-	 *            another tree to copy from.
-	 */
-	public BPlusTree(BPlusTree tree) {
-		this.fanout = tree.fanout;
-		this.root = new Node(tree.root);
 	}
 
 	/**
-	 * Finds the node in this BPlusTree that must be responsible for the specified key.
-	 * 
-	 * @param key
-	 *            the search key.
-	 * @return the node in this BPlusTree that must be responsible for the specified key.
+	 * A BulkLoader builds a BPlusTree bottom-up from entries that arrive in key order. Each level keeps one node that
+	 * is being filled and one completed node that has not yet been handed to the level above, so that the last two
+	 * nodes of every level can be balanced when the input ends.
 	 */
-	public Node find(Object key) {
-		Node c = root;
-		while (!c.isLeafNode()) {
-			int i = c.findIndexGE(key); // find smallest i such that c.keys[i] >= key
-			if (i < 0) { // if no i such that c.keys[i] >= key
-				c = (Node) c.getLastNonNullPointer();
-			} else if (compare(key, c.keys[i]) == 0) {
-				c = (Node) c.pointers[i + 1];
-			} else { // if c.keys[i] = key
-				c = (Node) c.pointers[i];
-			}
+	protected class BulkLoader {
+
+		/**
+		 * The number of values to put in each leaf node.
+		 */
+		int leafCapacity;
+
+		/**
+		 * The number of pointers to put in each non-leaf node.
+		 */
+		int nonLeafCapacity;
+
+		/**
+		 * current.get(i) is the node being filled at level i (level 0 consists of leaf nodes).
+		 */
+		java.util.ArrayList<Node> current = new java.util.ArrayList<Node>();
+
+		/**
+		 * currentKeys.get(i) is the smallest key under current.get(i).
+		 */
+		java.util.ArrayList<Object> currentKeys = new java.util.ArrayList<Object>();
+
+		/**
+		 * pending.get(i) is the completed node at level i that has not been added to level i + 1 yet.
+		 */
+		java.util.ArrayList<Node> pending = new java.util.ArrayList<Node>();
+
+		/**
+		 * pendingKeys.get(i) is the smallest key under pending.get(i).
+		 */
+		java.util.ArrayList<Object> pendingKeys = new java.util.ArrayList<Object>();
+
+		/**
+		 * Constructs a BulkLoader.
+		 * 
+		 * @param fillFactor
+		 *            the fraction of each node to fill (nodes are always filled at least to the minimum occupancy).
+		 */
+		protected BulkLoader(double fillFactor) {
+			leafCapacity = Math.max(Math.max(1, fanout / 2), Math.min(fanout - 1,
+					(int) Math.round((fanout - 1) * fillFactor)));
+			nonLeafCapacity = Math.max((fanout + 1) / 2, Math.min(fanout, (int) Math.round(fanout * fillFactor)));
 		}
-		return c;
-	}
 
-	/**
-	 * Finds the parent node of the specified node.
-	 * 
-	 * @param node
-	 *            the node of which the parent needs to be found.
-	 * @return the parent node of the specified node; null if the parent cannot be found.
-	 */
-	public Node findParent(Node node) {
-		Node p = root;
-		while (p != null) {
-			Object key = node.keys[0];
-			int i = p.findIndexGE(key); // find smallest i such that p.keys[i] >= key
-			Node c;
-			if (i < 0) { // if no i such that p.keys[i] >= key
-				c = (Node) p.getLastNonNullPointer();
-			} else if (compare(key, p.keys[i]) == 0) {
-				c = (Node) p.pointers[i + 1];
-			} else { // if p.keys[i] = key
-				c = (Node) p.pointers[i];
-			}
-			if (c == node) { // if found the parent of the node.
-				return p;
+		/**
+		 * Appends the specified key and value to the leaf level.
+		 * 
+		 * @param key
+		 *            the key (no smaller than any key added before).
+		 * @param value
+		 *            the value.
+		 */
+		protected void addEntry(Object key, Object value) {
+			ensureLevel(0);
+			Node l = current.get(0);
+			if (l == null || l.numberOfKeys == leafCapacity) {
+				Node nl = new Node(fanout); // create a new leaf node
+				if (l != null) {
+					l.pointers[fanout - 1] = nl; // set the last pointer of l to nl
+					complete(0);
+				}
+				current.set(0, nl);
+				currentKeys.set(0, l == null ? key : separator(l.keys[l.numberOfKeys - 1], key));
+				l = nl;
 			}
-			p = c;
+			l.keys[l.numberOfKeys] = key;
+			l.pointers[l.numberOfKeys++] = value;
 		}
-		return null;
-	}
 
-	/**
-	 * Inserts the specified key and the value into this BPlusTree.
-	 * 
-	 * @param key
-	 *            the key to insert.
-	 * @param value
-	 *            the value to insert.
-	 */
-	public void insert(Object key, Object value) {
-		Node l;
-		if (root == null) { // if the root is null
-			root = new Node(fanout);
-			l = root;
-		} else { // if root is not null
-			l = find(key);
-		}
-		if (l.hasRoom()) { // if node l has room for the new entry
-			l.insertInLeaf(key, value);
-		} else { // if split is required (l is a leaf node)
-			Node t = new Node(fanout + 1); // create a temporary node
-			for (int i = 0; i < l.numberOfKeys; i++) { // copy everything to the temporary node
-				t.insert(l.keys[i], l.pointers[i], i);
-			}
-			t.insertInLeaf(key, value); // insert the key and values to the temporary node
-			Node nl = new Node(fanout); // create a new leaf node
-			nl.pointers[nl.pointers.length - 1] = l.pointers[l.pointers.length - 1]; // set the last pointer of n to
-			// node nl
-			l.clear(); // clear node l
-			l.pointers[l.pointers.length - 1] = nl; // set the last pointer of l to nl
-			int m = (int) Math.ceil(fanout / 2.0); // compute the split point
-			for (int i = 0; i < m; i++) { // put the first half into node l
-				l.insert(t.keys[i], t.pointers[i], i);
+		/**
+		 * Appends a pointer to the specified node to the specified non-leaf level.
+		 * 
+		 * @param level
+		 *            the level to add the pointer to (at least 1).
+		 * @param key
+		 *            the smallest key under the node.
+		 * @param child
+		 *            the node.
+		 */
+		protected void addChild(int level, Object key, Node child) {
+			ensureLevel(level);
+			Node n = current.get(level);
+			if (n != null && n.numberOfKeys + 1 == nonLeafCapacity) {
+				complete(level);
+				n = null;
 			}
-			for (int i = m; i < t.numberOfKeys; i++) { // put the second half to node nl
-				nl.insert(t.keys[i], t.pointers[i], i - m);
+			if (n == null) {
+				n = new Node(fanout);
+				n.pointers[0] = child;
+				current.set(level, n);
+				currentKeys.set(level, key);
+			} else {
+				n.keys[n.numberOfKeys] = key;
+				n.pointers[++n.numberOfKeys] = child;
 			}
-			insertInParent(l, nl.keys[0], nl); // use the first key of nl as the separator.
 		}
-	}
 
-	/**
-	 * Inserts pointers to the specified nodes into an appropriate parent node.
-	 * 
-	 * @param n
-	 *            a node.
-	 * @param key
-	 *            the key that splits the nodes
-	 * @param nn
-	 *            a new node.
-	 */
-	void insertInParent(Node n, Object key, Node nn) {
-		if (n == root) { // if the root was split
-			root = new Node(fanout); // create a new node
-			root.insert(key, n, 0); // make the new root point to the nodes.
-			root.pointers[1] = nn;
-			return;
+		/**
+		 * Marks the node being filled at the specified level as completed and hands the previously completed node to
+		 * the level above.
+		 * 
+		 * @param level
+		 *            the level.
+		 */
+		void complete(int level) {
+			if (pending.get(level) != null)
+				addChild(level + 1, pendingKeys.get(level), pending.get(level));
+			pending.set(level, current.get(level));
+			pendingKeys.set(level, currentKeys.get(level));
+			current.set(level, null);
 		}
-		Node p = findParent(n);
-		if (p.hasRoom()) {
-			p.insertAfter(key, nn, n); // insert key and nn right after n
-		} else { // if split is required
-			Node t = new Node(fanout + 1); // crate a temporary node
-			for (int i = 0; i < p.numberOfKeys; i++) { // copy everything of p to the temporary node
-				t.insert(p.keys[i], p.pointers[i], i);
-			}
-			t.pointers[p.numberOfKeys] = p.pointers[p.numberOfKeys];
-			t.insertAfter(key, nn, n); // insert key and nn after n
-			p.clear(); // clear p
-			int m = (int) Math.ceil(fanout / 2.0); // compute the split point
 
-			for (int i = 0; i < m - 1; i++) { // put the first half back to p
-				p.insert(t.keys[i], t.pointers[i], i);
+		/**
+		 * Makes sure that the state for the specified level exists.
+		 * 
+		 * @param level
+		 *            the level.
+		 */
+		void ensureLevel(int level) {
+			while (current.size() <= level) {
+				current.add(null);
+				currentKeys.add(null);
+				pending.add(null);
+				pendingKeys.add(null);
 			}
-			p.pointers[m - 1] = t.pointers[m - 1];
+		}
 
-			Node np = new Node(fanout); // create a new node
-			for (int i = m; i < t.numberOfKeys; i++) { // put the second half to np
-				np.insert(t.keys[i], t.pointers[i], i - m);
+		/**
+		 * Balances the last two nodes of every level and completes the levels bottom-up.
+		 * 
+		 * @return the root of the constructed tree; null if no entry has been added.
+		 */
+		protected Node finish() {
+			for (int level = 0; level < current.size(); level++) {
+				Node w = pending.get(level);
+				Node c = current.get(level);
+				if (w == null && level == current.size() - 1) { // if c is the only node at the top level
+					if (!c.isLeafNode() && c.numberOfKeys == 0) // if the last two nodes below were merged
+						return (Node) c.pointers[0];
+					return c;
+				}
+				if (w != null) {
+					if (c.isUnderfull()) {
+						int keys = w.numberOfKeys + c.numberOfKeys + (level == 0 ? 0 : 1);
+						if (keys <= fanout - 1) { // if the two nodes fit in a single node
+							merge(w, currentKeys.get(level), c);
+							c = null;
+						} else { // move entries from w to c until c has enough entries
+							currentKeys.set(level, borrow(level, w, c));
+						}
+					}
+					addChild(level + 1, pendingKeys.get(level), w);
+				}
+				if (c != null)
+					addChild(level + 1, currentKeys.get(level), c);
 			}
-			np.pointers[t.numberOfKeys - m] = t.pointers[t.numberOfKeys];
+			return null;
+		}
 
-			insertInParent(p, t.keys[m - 1], np); // use the middle key as the separator
+		/**
+		 * Moves entries from the end of the specified left node to the front of the specified right node until the
+		 * right node is no longer underfull.
+		 * 
+		 * @param level
+		 *            the level of the nodes.
+		 * @param left
+		 *            the left node.
+		 * @param right
+		 *            the right node.
+		 * @return the smallest key under the right node after the move.
+		 */
+		Object borrow(int level, Node left, Node right) {
+			Object key = currentKeys.get(level);
+			while (right.isUnderfull()) {
+				int last = left.numberOfKeys - 1;
+				if (level == 0) {
+					right.insert(left.keys[last], left.pointers[last], 0);
+					left.remove(last);
+					key = separator(left.keys[last - 1], right.keys[0]);
+				} else {
+					System.arraycopy(right.keys, 0, right.keys, 1, right.numberOfKeys);
+					System.arraycopy(right.pointers, 0, right.pointers, 1, right.numberOfKeys + 1);
+					right.keys[0] = key;
+					right.pointers[0] = left.pointers[last + 1];
+					right.numberOfKeys++;
+					key = left.keys[last];
+					left.keys[last] = null;
+					left.pointers[last + 1] = null;
+					left.numberOfKeys--;
+				}
+			}
+			return key;
 		}
-	}
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	protected int compare(Object k1, Object k2) {
-		return ((Comparable) k1).compareTo(k2);
 	}
 
 	/**
-	 * Deletes the specified key and the value from this BPlusTree.
-	 * 
-	 * @param key
-	 *            the key to delete.
-	 * @param value
-	 *            the value to delete.
+	 * A Cursor streams the entries of a BPlusTree whose keys fall in a range, in ascending or descending key order. A
+	 * Cursor descends from the root only once. After that, an ascending Cursor follows the last pointers of the leaf
+	 * nodes (or, if the BPlusTree shares nodes with snapshots, backtracks along its own Path) and a descending Cursor
+	 * backtracks along its own Path. Advancing a Cursor allocates nothing, and a Cursor that is no longer advanced
+	 * needs no cleanup. The BPlusTree must not be modified while a Cursor is in use, but a Cursor over a snapshot stays
+	 * valid no matter how the original BPlusTree changes.
 	 */
-	public void delete(Object key, Object value) {
-
-		/*Page 498, deletion algorithm, Database System Concepts: 6th Edition, Korth
-		 * 
-		 * */
+	public class Cursor {
 
-		Node l = find(key); // Find node which contains the key
-		for(int i=0; i<l.numberOfKeys; i++)
-			if(l.keys[i]==key && key!=null)
-				delete_entry(l, key, value); 
+		/**
+		 * The lower bound of the range (null if the range has no lower bound).
+		 */
+		Object fromKey;
 
-		// Delete_Entry would be called, when we find the node responsible for the key. 
-		// Call the function, only if the key/value is present
-	}
+		/**
+		 * A flag indicating whether or not the range includes fromKey.
+		 */
+		boolean fromInclusive;
 
-	public void delete_entry(Node n, Object key, Object value){
-		//int m = (int) Math.ceil(fanout / 2.0); // Formula
+		/**
+		 * The upper bound of the range (null if the range has no upper bound).
+		 */
+		Object toKey;
 
-		int i=0, indexDelete = 0;
+		/**
+		 * A flag indicating whether or not the range includes toKey.
+		 */
+		boolean toInclusive;
 
-		// delete (K, P) from N
-		for(i=0; i<n.numberOfKeys; i++)
-			if(n.keys[i]==key){ // Key found in the node.
-				n.keys[i]=null; // Delete the key
+		/**
+		 * A flag indicating whether or not this Cursor returns entries in descending key order.
+		 */
+		boolean descending;
 
-				indexDelete = i; // Storing the Index of deletion, to be used for shifting
-			}
+		/**
+		 * The Path that leads to the current leaf node.
+		 */
+		Path path = new Path();
 
-		shift(indexDelete, n); // Shift to the left (pointers/values) in node n
+		/**
+		 * The current leaf node (null if this Cursor is exhausted).
+		 */
+		Node leaf;
 
-		// N is the root and N has only one remaining child
-		if(n==root && noOfpointers(root)==1){ 
+		/**
+		 * The position of the next entry to examine in the current leaf node.
+		 */
+		int index;
 
-			//make the child of N the new root of the tree and delete N
+		/**
+		 * A flag indicating whether or not entries outside the starting bound may still be encountered.
+		 */
+		boolean skipping = true;
 
-			for(i=0; i<n.pointers.length; i++){
-				if(n.pointers[i]!=null) // Checking for child. This iwll be the new root node.
-					root = (Node)n.pointers[i];
-			}
+		/**
+		 * The key of the current entry.
+		 */
+		Object key;
 
-			n.clear(); // Delete N
+		/**
+		 * The value of the current entry.
+		 */
+		Object value;
 
+		/**
+		 * Constructs a Cursor.
+		 * 
+		 * @param fromKey
+		 *            the lower bound of the range (null if the range has no lower bound).
+		 * @param fromInclusive
+		 *            a flag indicating whether or not the range includes fromKey.
+		 * @param toKey
+		 *            the upper bound of the range (null if the range has no upper bound).
+		 * @param toInclusive
+		 *            a flag indicating whether or not the range includes toKey.
+		 * @param descending
+		 *            a flag indicating whether or not the entries must be returned in descending key order.
+		 */
+		protected Cursor(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive, boolean descending) {
+			this.fromKey = fromKey;
+			this.fromInclusive = fromInclusive;
+			this.toKey = toKey;
+			this.toInclusive = toInclusive;
+			this.descending = descending;
+			if (root == null)
+				return;
+			if (!descending) {
+				if (fromKey == null) {
+					leaf = descend(root, true);
+				} else {
+					leaf = findFirst(fromKey, path); // duplicates of fromKey may precede a separator equal to it
+					index = leaf.lowerBound(fromKey);
+				}
+			} else {
+				if (toKey == null) {
+					leaf = descend(root, false);
+					index = leaf.numberOfKeys - 1;
+				} else {
+					leaf = findLast(toKey, path); // duplicates of toKey may follow several separators equal to it
+					int i = leaf.lowerBound(toKey);
+					while (i < leaf.numberOfKeys && compare(leaf.keys[i], toKey) == 0)
+						i++;
+					index = i - 1;
+				}
+			}
 		}
 
-		//int m = (int) Math.ceil(fanout / 2.0);
-		else if( noOfpointers(n) < 2 ){ //N has too few values/pointers
-
-			// Let N' be the previous or next child of parent(N)
-
-			Node nParent = findParent(n); // Parent of Node N
-
-			int nPos = 0; // Position of N
-			int n_pos = 0; // Position of N'
-
-			// Get the position of N in parent
-			for(i=0; i < nParent.pointers.length; i++)
-				if((Node)nParent.pointers[i]==n)
-					nPos = i;
-
-
-			//K' be the value between pointers N and N in parent(N)
-			Object k_;
-			int k_pos = 0;
-
-			if(nPos==0){ // When N' is next node of same parent
-				k_ = nParent.keys[nPos];
-				n_pos = nPos + 1;
-				k_pos = nPos;
-			}
-			else {// if(nPos==1){ // N' is previous/predecessor of N
-				n_pos = nPos - 1;
-				k_pos = n_pos;
-				k_ = nParent.keys[n_pos];
+		/**
+		 * Advances this Cursor to the next entry in the range.
+		 * 
+		 * @return true if this Cursor has moved to an entry; false if there are no more entries in the range.
+		 */
+		public boolean next() {
+			if (descending)
+				return previous();
+			while (leaf != null) {
+				if (index < leaf.numberOfKeys) {
+					Object k = leaf.keys[index];
+					if (skipping && fromKey != null) { // skip the keys that precede the range
+						int c = compare(k, fromKey);
+						if (c < 0 || c == 0 && !fromInclusive) {
+							index++;
+							continue;
+						}
+					}
+					skipping = false;
+					if (toKey != null) {
+						int c = compare(k, toKey);
+						if (c > 0 || c == 0 && !toInclusive)
+							break;
+					}
+					key = k;
+					value = leaf.pointers[index++];
+					return true;
+				}
+				leaf = shared ? nextLeaf() : (Node) leaf.pointers[fanout - 1]; // move on to the next leaf node
+				index = 0;
 			}
+			return exhaust();
+		}
 
-			Node n_ = (Node)nParent.pointers[n_pos];
-
-			//entries in N and N' can fit in a single node
+		/**
+		 * Moves this Cursor to the entry with the next smaller key in the range (assuming that this Cursor is
+		 * descending).
+		 * 
+		 * @return true if this Cursor has moved to an entry; false if there are no more entries in the range.
+		 */
+		boolean previous() {
+			while (leaf != null) {
+				if (index >= 0) {
+					Object k = leaf.keys[index];
+					if (skipping && toKey != null) { // skip the keys that follow the range
+						int c = compare(k, toKey);
+						if (c > 0 || c == 0 && !toInclusive) {
+							index--;
+							continue;
+						}
+					}
+					skipping = false;
+					if (fromKey != null) {
+						int c = compare(k, fromKey);
+						if (c < 0 || c == 0 && !fromInclusive)
+							break;
+					}
+					key = k;
+					value = leaf.pointers[index--];
+					return true;
+				}
+				leaf = previousLeaf();
+				if (leaf != null)
+					index = leaf.numberOfKeys - 1;
+			}
+			return exhaust();
+		}
 
-			// Fanout being the max capacity
-			if( ( ((Node)nParent.pointers[nPos]).numberOfKeys + ((Node)nParent.pointers[n_pos]).numberOfKeys ) < fanout){
+		/**
+		 * Marks this Cursor as exhausted.
+		 * 
+		 * @return false.
+		 */
+		boolean exhaust() {
+			leaf = null;
+			key = null;
+			value = null;
+			return false;
+		}
 
-				// N is a predecessor of N'
-				if(nPos < n_pos){
-					// Swap N and N'
+		/**
+		 * Returns the leaf node that precedes the current leaf node by backtracking along the Path.
+		 * 
+		 * @return the leaf node that precedes the current leaf node; null if the current leaf node is the first one.
+		 */
+		Node previousLeaf() {
+			for (int level = path.length - 2; level >= 0; level--) {
+				if (path.indices[level] > 0) {
+					path.length = level + 1;
+					Node c = (Node) path.nodes[level].pointers[--path.indices[level]];
+					return descend(c, false);
+				}
+			}
+			return null;
+		}
 
-					/* temp = n
-					 * n = n_
-					 * n_ = temp
-					 * */
+		/**
+		 * Returns the leaf node that follows the current leaf node by backtracking along the Path.
+		 * 
+		 * @return the leaf node that follows the current leaf node; null if the current leaf node is the last one.
+		 */
+		Node nextLeaf() {
+			for (int level = path.length - 2; level >= 0; level--) {
+				if (path.indices[level] < path.nodes[level].numberOfKeys) {
+					path.length = level + 1;
+					Node c = (Node) path.nodes[level].pointers[++path.indices[level]];
+					return descend(c, true);
+				}
+			}
+			return null;
+		}
 
-					// Simple Swap using 3 variables. Here swapping Pointers as well as keys.
+		/**
+		 * Descends from the specified node to its leftmost or rightmost leaf node and appends the visited nodes to
+		 * the Path.
+		 * 
+		 * @param c
+		 *            the node to start from.
+		 * @param leftmost
+		 *            true to reach the leftmost leaf node; false to reach the rightmost leaf node.
+		 * @return the leaf node reached.
+		 */
+		Node descend(Node c, boolean leftmost) {
+			while (!c.isLeafNode()) {
+				int i = leftmost ? 0 : c.numberOfKeys;
+				path.push(c, i);
+				c = (Node) c.pointers[i];
+			}
+			path.push(c, -1);
+			return c;
+		}
 
-					Node temp = new Node(fanout);
-					temp.numberOfKeys = 0;
+		/**
+		 * Returns the key of the current entry.
+		 * 
+		 * @return the key of the current entry; null if this Cursor is not on an entry.
+		 */
+		public Object getKey() {
+			return key;
+		}
 
-					// Temp <-- N
+		/**
+		 * Returns the value of the current entry.
+		 * 
+		 * @return the value of the current entry; null if this Cursor is not on an entry.
+		 */
+		public Object getValue() {
+			return value;
+		}
 
-					for(i=0; i<n.numberOfKeys; i++){
-						temp.keys[i] = n.keys[i];
-						temp.numberOfKeys++;
-					}
+	}
 
-					for(i=0; i<fanout; i++)
-						temp.pointers[i] = n.pointers[i];
+	/**
+	 * A RangeDeleter deletes the entries whose keys fall in a range. It descends only along the two paths that lead
+	 * to the ends of the range: the subtrees between the paths lie entirely in the range and are unlinked from their
+	 * parents at once, and only the leaf nodes at the ends of the range are trimmed. The nodes on the two paths are
+	 * then rebalanced bottom-up, once per level, by merging them with or moving entries from their siblings.
+	 */
+	protected class RangeDeleter {
 
+		/**
+		 * The lower bound of the range (null if the range has no lower bound).
+		 */
+		Object fromKey;
 
+		/**
+		 * A flag indicating whether or not the range includes fromKey.
+		 */
+		boolean fromInclusive;
 
-					// N <-- N'
-					n.numberOfKeys=0;
+		/**
+		 * The upper bound of the range (null if the range has no upper bound).
+		 */
+		Object toKey;
 
-					for(i=0; i<n_.numberOfKeys; i++){
-						n.keys[i] = n_.keys[i];
-						n.numberOfKeys++;
-					}
+		/**
+		 * A flag indicating whether or not the range includes toKey.
+		 */
+		boolean toInclusive;
 
-					for(i=0; i<fanout; i++)
-						n.pointers[i] = n_.pointers[i];
+		/**
+		 * The subtree right before the range whose last leaf node precedes the first remaining leaf node in the range
+		 * (null if there is no such subtree).
+		 */
+		Node leftSubtree;
 
+		/**
+		 * The subtree right after the range whose first leaf node follows the last remaining leaf node in the range
+		 * (null if there is no such subtree).
+		 */
+		Node rightSubtree;
 
-					// N' <-- Temp
-					n_.numberOfKeys=0;
+		/**
+		 * The last leaf node kept so far (null if no leaf node has been kept yet).
+		 */
+		Node kept;
 
-					for(i=0; i<temp.numberOfKeys; i++){
-						n_.keys[i] = temp.keys[i];
-						n_.numberOfKeys++;
-					}
+		/**
+		 * A flag indicating whether or not leaf nodes have been dropped since the last leaf node was kept.
+		 */
+		boolean dropped;
 
-					for(i=0; i<fanout; i++)
-						n_.pointers[i] = temp.pointers[i];
+		/**
+		 * A flag indicating whether or not a leaf node has been kept or dropped yet.
+		 */
+		boolean started;
 
-					temp.clear(); // Delete temp, as its not needed
-				}
+		/**
+		 * Constructs a RangeDeleter.
+		 * 
+		 * @param fromKey
+		 *            the lower bound of the range (null if the range has no lower bound).
+		 * @param fromInclusive
+		 *            a flag indicating whether or not the range includes fromKey.
+		 * @param toKey
+		 *            the upper bound of the range (null if the range has no upper bound).
+		 * @param toInclusive
+		 *            a flag indicating whether or not the range includes toKey.
+		 */
+		protected RangeDeleter(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive) {
+			this.fromKey = fromKey;
+			this.fromInclusive = fromInclusive;
+			this.toKey = toKey;
+			this.toInclusive = toInclusive;
+		}
 
-				// N is not a leaf
-				if(!n.isLeafNode()){
+		/**
+		 * Deletes the entries in the range from this BPlusTree.
+		 */
+		protected void run() {
+			structureVersion++;
+			if (root.owner != owner)
+				root = copy(root);
+			if (remove(root, fromKey == null, toKey == null)) {
+				root = new Node(fanout);
+				return;
+			}
+			if (dropped && !shared) // link the last leaf node kept to the leaf node after the range
+				link(rightSubtree == null ? null : leaf(rightSubtree, true));
+			rebalance(root, fromKey == null, toKey == null);
+			while (!root.isLeafNode() && root.numberOfKeys == 0) // if the root has only one child
+				root = (Node) root.pointers[0];
+		}
 
+		/**
+		 * Returns the position of the first key in the specified node that is not below the range.
+		 * 
+		 * @param n
+		 *            a node.
+		 * @return the position of the first key in the specified node that is not below the range.
+		 */
+		int start(Node n) {
+			if (fromKey == null)
+				return 0;
+			int i = n.lowerBound(fromKey);
+			if (!fromInclusive)
+				while (i < n.numberOfKeys && compare(n.keys[i], fromKey) == 0)
+					i++;
+			return i;
+		}
 
-					//append K' and all pointers and values in N to N'
-					n_.keys[n_.numberOfKeys++] = k_;
+		/**
+		 * Returns the position of the first key in the specified node that is above the range.
+		 * 
+		 * @param n
+		 *            a node.
+		 * @return the position of the first key in the specified node that is above the range; numberOfKeys if
+		 *         there is no such key.
+		 */
+		int end(Node n) {
+			if (toKey == null)
+				return n.numberOfKeys;
+			int i = n.lowerBound(toKey);
+			if (toInclusive)
+				while (i < n.numberOfKeys && compare(n.keys[i], toKey) == 0)
+					i++;
+			return i;
+		}
 
-					for(i=0; i < n_.numberOfKeys; i++){
-						n_.pointers[n_.numberOfKeys] = n.pointers[i];
-						n_.keys[n_.numberOfKeys++] = n.keys[i];
-					}
-					if(n.pointers[n.numberOfKeys]!=null) // Last pointer
-						n_.pointers[n_.numberOfKeys] = n.pointers[n.numberOfKeys];
+		/**
+		 * Removes the entries in the range from the subtree rooted at the specified node. In a non-leaf node, child
+		 * a (the first child that may hold keys in the range) and child b (the last such child) are visited and the
+		 * children between them are dropped. A child is dropped without being visited when all of its keys are
+		 * known to lie in the range.
+		 * 
+		 * @param n
+		 *            a node that this BPlusTree may change in place.
+		 * @param lowerOpen
+		 *            a flag indicating whether or not no key in the subtree is below the range.
+		 * @param upperOpen
+		 *            a flag indicating whether or not no key in the subtree is above the range.
+		 * @return true if the subtree has no entries left; false otherwise.
+		 */
+		boolean remove(Node n, boolean lowerOpen, boolean upperOpen) {
+			int a = lowerOpen ? 0 : start(n);
+			int b = upperOpen ? n.numberOfKeys : end(n);
+			if (n.isLeafNode()) {
+				int removed = b - a;
+				if (removed > 0) {
+					System.arraycopy(n.keys, b, n.keys, a, n.numberOfKeys - b);
+					System.arraycopy(n.pointers, b, n.pointers, a, n.numberOfKeys - b);
+					java.util.Arrays.fill(n.keys, n.numberOfKeys - removed, n.numberOfKeys, null);
+					java.util.Arrays.fill(n.pointers, n.numberOfKeys - removed, n.numberOfKeys, null);
+					n.numberOfKeys -= removed;
 				}
-				else{   // N is a leaf
-
-					//append all (Ki , Pi) pairs in N to N'
-					for(i=0; i < n.numberOfKeys; i++){
-						n_.pointers[n_.numberOfKeys] = n.pointers[i];
-						n_.keys[n_.numberOfKeys++] = n.keys[i];
-					}
-
-
-					// set N'.Pn = N.Pn
-					// Pn is the last pointer, hence (fanout-1)
-					n_.pointers[fanout-1] = n.pointers[fanout -1];
+				if (n.numberOfKeys == 0) {
+					drop();
+					return true;
 				}
+				keep(n);
+				return false;
+			}
+			if (!started && a > 0)
+				leftSubtree = (Node) n.pointers[a - 1];
+			if (b < n.numberOfKeys)
+				rightSubtree = (Node) n.pointers[b + 1];
+			boolean upperOpenB = upperOpen && b == n.numberOfKeys;
+			int children = n.numberOfKeys + 1;
+			boolean emptyA = remove(n, a, lowerOpen && a == 0, a < b || upperOpenB);
+			if (b - a > 1) { // drop the children between a and b
+				drop();
+				int gone = b - a - 1;
+				System.arraycopy(n.keys, b - 1, n.keys, a, n.numberOfKeys - b + 1);
+				System.arraycopy(n.pointers, b, n.pointers, a + 1, n.numberOfKeys - b + 1);
+				java.util.Arrays.fill(n.keys, n.numberOfKeys - gone, n.numberOfKeys, null);
+				java.util.Arrays.fill(n.pointers, n.numberOfKeys + 1 - gone, n.numberOfKeys + 1, null);
+				n.numberOfKeys -= gone;
+				children -= gone;
+				b = a + 1;
+			}
+			boolean emptyB = b > a && remove(n, b, true, upperOpenB);
+			if (emptyB) {
+				removeChild(n, b);
+				children--;
+			}
+			if (emptyA) {
+				removeChild(n, a);
+				children--;
+			}
+			return children == 0;
+		}
 
-
-				/* WHen root or Internal Node (Non Leaf) has exactly 1 child, make sure that its the left. In the example, I was getting a null child
-				 * after deletion of 20, hence needed to delete.*/
-				if(nParent.numberOfKeys==1)
-					nParent.pointers[nPos] = null;
-
-				delete_entry(nParent, k_, n); // delete entry(parent(N), K', N);
-				n.clear(); // Delete Node N
+		/**
+		 * Removes the entries in the range from the subtree rooted at the specified child of the specified node, or
+		 * drops the child if all of its keys lie in the range.
+		 * 
+		 * @param p
+		 *            a node that this BPlusTree may change in place.
+		 * @param i
+		 *            the position of the child.
+		 * @param lowerOpen
+		 *            a flag indicating whether or not no key in the subtree is below the range.
+		 * @param upperOpen
+		 *            a flag indicating whether or not no key in the subtree is above the range.
+		 * @return true if the subtree has no entries left; false otherwise.
+		 */
+		boolean remove(Node p, int i, boolean lowerOpen, boolean upperOpen) {
+			if (lowerOpen && upperOpen) {
+				drop();
+				return true;
 			}
+			return remove(writableChild(p, i), lowerOpen, upperOpen);
+		}
 
-			else{ // /* Redistribution: borrow an entry from N' */
+		/**
+		 * Removes the specified child of the specified node together with a key next to it.
+		 * 
+		 * @param n
+		 *            a non-leaf node that this BPlusTree may change in place.
+		 * @param i
+		 *            the position of the child.
+		 */
+		void removeChild(Node n, int i) {
+			if (n.numberOfKeys == 0) {
+				n.pointers[0] = null;
+			} else if (i > 0) {
+				n.removeAfter(i - 1);
+			} else {
+				n.numberOfKeys--;
+				System.arraycopy(n.keys, 1, n.keys, 0, n.numberOfKeys);
+				System.arraycopy(n.pointers, 1, n.pointers, 0, n.numberOfKeys + 1);
+				n.keys[n.numberOfKeys] = null;
+				n.pointers[n.numberOfKeys + 1] = null;
+			}
+		}
 
+		/**
+		 * Records that leaf nodes have been dropped.
+		 */
+		void drop() {
+			started = true;
+			dropped = true;
+		}
 
-				// N' is a predecessor of N
-				if(n_pos < nPos){
+		/**
+		 * Records that the specified leaf node has been kept, linking it to the previous leaf node kept if leaf
+		 * nodes have been dropped in between.
+		 * 
+		 * @param l
+		 *            the leaf node.
+		 */
+		void keep(Node l) {
+			started = true;
+			if (dropped && !shared)
+				link(l);
+			kept = l;
+			dropped = false;
+		}
 
-					// If N is not a leaf
-					if(!n.isLeafNode()){
+		/**
+		 * Makes the specified leaf node the next leaf node of the last leaf node kept (or, if no leaf node has been
+		 * kept yet, of the last leaf node before the range).
+		 * 
+		 * @param next
+		 *            the leaf node (null if there is no leaf node after the range).
+		 */
+		void link(Node next) {
+			Node l = kept != null ? kept : leftSubtree == null ? null : leaf(leftSubtree, false);
+			if (l != null)
+				l.pointers[fanout - 1] = next;
+		}
 
-						int mPos = 0; // Position of last pointer
+		/**
+		 * Returns the first or the last leaf node in the subtree rooted at the specified node.
+		 * 
+		 * @param n
+		 *            the root of the subtree.
+		 * @param first
+		 *            true if the first leaf node is needed; false if the last leaf node is needed.
+		 * @return the first or the last leaf node in the subtree rooted at the specified node.
+		 */
+		Node leaf(Node n, boolean first) {
+			while (!n.isLeafNode())
+				n = (Node) n.pointers[first ? 0 : n.numberOfKeys];
+			return n;
+		}
 
-						for(i=0; i<n_.pointers.length; i++){
-							if(n_.pointers[i]!=null){
-								mPos++;
-								//break;
-							}
-						}
+		/**
+		 * Rebalances the nodes on the paths to the ends of the range, bottom-up, in the subtree rooted at the
+		 * specified node.
+		 * 
+		 * @param n
+		 *            a node that this BPlusTree may change in place.
+		 * @param lowerOpen
+		 *            a flag indicating whether or not no key in the subtree is below the range.
+		 * @param upperOpen
+		 *            a flag indicating whether or not no key in the subtree is above the range.
+		 */
+		void rebalance(Node n, boolean lowerOpen, boolean upperOpen) {
+			if (n.isLeafNode())
+				return;
+			int a = lowerOpen ? 0 : start(n);
+			int b = upperOpen ? n.numberOfKeys : end(n);
+			for (int i = a; i <= b; i++)
+				rebalance(writableChild(n, i), i > a || lowerOpen && a == 0,
+						i < b || upperOpen && b == n.numberOfKeys);
+			fix(n, a, b);
+		}
 
-						//let m be such that N'.Pm is the last pointer in N'
-						Object m = n_.pointers[mPos];
+	}
 
-						//remove (N'.Km−1, N'.Pm) from N'
+	/**
+	 * A Compactor packs the nodes of a BPlusTree at a target fill factor, a few nodes per step, so that it can run
+	 * between other operations on the BPlusTree. It sweeps the leaf level from left to right first and then each
+	 * non-leaf level in turn. In each step, it takes a run of adjacent nodes that share a parent, moves their entries
+	 * into as few of them as the target fill factor allows, and removes the emptied nodes from the parent. A parent
+	 * left underfull is merged with, or takes entries from, a sibling, so the BPlusTree stays valid after every step
+	 * and loses height as the upper levels shrink. The position of the sweep is kept as a key, so the changes made
+	 * to the BPlusTree between steps do not invalidate it.
+	 */
+	public class Compactor {
 
-						Object tempKm = n_.keys[mPos-1];  // Storing this for further use before removal
+		/**
+		 * The fraction of each node to fill.
+		 */
+		double targetFill;
 
-						n_.keys[mPos-1] = null;
-						n_.numberOfKeys--;
-						n_.pointers[mPos] = null;
+		/**
+		 * The level being compacted (0 for the leaf level).
+		 */
+		int level;
 
-						//insert (N'.Pm, K) as the first pointer and value in N, by shifting other pointers and values right
+		/**
+		 * The smallest key that the next run may contain (null if the next run starts at the beginning of the
+		 * level).
+		 */
+		Object from;
 
-						n.insert(k_, m, 0);
+		/**
+		 * A flag indicating whether or not every level has been compacted.
+		 */
+		boolean done;
 
-						//replace K' in parent(N) by N'.Km−1
-						nParent =  findParent(n);
-						nParent.keys[k_pos] = nParent.keys[mPos-1];
+		/**
+		 * The height of the BPlusTree when this Compactor was created.
+		 */
+		int initialHeight;
 
-					}
-					else{ // N is a Leaf
+		/**
+		 * The number of nodes removed so far.
+		 */
+		long reclaimedNodes;
 
-						int mPos = 0; // Position of last pointer
-						Object lastkey = n.keys[n.numberOfKeys]; // Last key
+		/**
+		 * The Path that records the descents of this Compactor.
+		 */
+		Path path = new Path();
 
-						for(i=0; i<n_.pointers.length; i++){
-							if(n_.pointers[i]!=null){
-								mPos++;
-								//break;
-							}
-						}
+		/**
+		 * Constructs a Compactor.
+		 * 
+		 * @param targetFill
+		 *            the fraction of each node to fill (0 < targetFill <= 1).
+		 * @throws IllegalArgumentException
+		 *             if the target fill factor is not in (0, 1].
+		 */
+		protected Compactor(double targetFill) {
+			if (!(targetFill > 0 && targetFill <= 1))
+				throw new IllegalArgumentException("target fill factor " + targetFill + " is not in (0, 1]");
+			this.targetFill = targetFill;
+			this.initialHeight = height();
+		}
 
-						Object tempKm = n_.keys[mPos]; // Storing this for further use before removal
+		/**
+		 * Compacts the next run of nodes.
+		 * 
+		 * @param nodes
+		 *            the maximum number of nodes in the run.
+		 * @return true if there is more to compact; false if every level has been compacted.
+		 */
+		public boolean step(int nodes) {
+			int height = height();
+			if (done || level >= height - 1) { // if the level to compact is the root level
+				done = true;
+				return false;
+			}
+			path.length = 0;
+			Node c = root;
+			for (int l = height - 1; l > level + 1; l--) {
+				int i = from == null ? 0 : c.childIndex(from);
+				path.push(c, i);
+				c = (Node) c.pointers[i];
+			}
+			path.push(c, -1);
+			int pl = path.length - 1;
+			Node p = writable(path, pl);
+			int i = from == null ? 0 : p.childIndex(from);
+			long reclaimed = reclaimedNodes;
+			int n = pack(p, i, Math.min(Math.max(nodes, 2), p.numberOfKeys + 1 - i));
+			int end = i + n; // the position of the child where the next run starts
+			Node last = (Node) p.pointers[end - 1];
+			if ((n > 1 || reclaimedNodes > reclaimed) && size(last) < capacity(last.isLeafNode()))
+				end--; // the next run starts with the last child of this run, which has room for more entries
+			while (end > i && end <= p.numberOfKeys && from != null && compare(p.keys[end - 1], from) <= 0)
+				end++; // skip the children that the key of the next run cannot reach (because of duplicate keys)
+			if (end > i && end <= p.numberOfKeys) { // if the next run starts with a later child of the parent
+				from = p.keys[end - 1];
+			} else if (end > i) { // the next run starts in the next parent
+				Object previous = from;
+				from = null;
+				for (int l = pl - 1; l >= 0 && from == null; l--)
+					for (int j = path.indices[l]; j < path.nodes[l].numberOfKeys && from == null; j++)
+						if (previous == null || compare(path.nodes[l].keys[j], previous) > 0)
+							from = path.nodes[l].keys[j];
+				if (from == null) // if the end of the level has been reached
+					level++;
+			}
+			for (int l = pl; l > 0; l--) { // repair the underfull nodes on the path
+				if (((Node) path.nodes[l - 1].pointers[path.indices[l - 1]]).isUnderfull())
+					reclaimedNodes += fix(path.nodes[l - 1], path.indices[l - 1], path.indices[l - 1]);
+			}
+			while (!root.isLeafNode() && root.numberOfKeys == 0) { // if the root has only one child
+				root = (Node) root.pointers[0];
+				reclaimedNodes++;
+			}
+			return true;
+		}
 
-						Object m = n_.pointers[mPos];
-						//remove (N'.Pm, N'.Km) from N'
+		/**
+		 * Compacts every level that has not been compacted yet.
+		 */
+		public void run() {
+			while (step(fanout))
+				;
+		}
 
-						n_.pointers[mPos] = null;
-						n_.keys[mPos] = null;
-						n_.numberOfKeys--;
+		/**
+		 * Moves the entries of the specified adjacent children of the specified node into as few of the children as
+		 * the target fill factor allows and removes the emptied children. The children are filled in turn and the
+		 * last one takes the remaining entries, so that the next run can start with it. If the remaining entries
+		 * would leave the last one underfull, the run is extended by the next child of the parent (or, at the end
+		 * of the parent, the remaining entries are shared evenly with the child before).
+		 * 
+		 * @param p
+		 *            a non-leaf node that this BPlusTree may change in place.
+		 * @param i
+		 *            the position of the first child.
+		 * @param k
+		 *            the number of children.
+		 * @return the number of children that remain in place of the run.
+		 */
+		int pack(Node p, int i, int k) {
+			structureVersion++;
+			boolean leaf = ((Node) p.pointers[i]).isLeafNode();
+			int capacity = capacity(leaf);
+			int min = leaf ? fanout / 2 : (fanout + 1) / 2;
+			int total = 0;
+			for (int j = 0; j < k; j++)
+				total += size((Node) p.pointers[i + j]);
+			while (i + k <= p.numberOfKeys && (total - 1) % capacity + 1 < min) // extend the run instead of leaving
+				total += size((Node) p.pointers[i + k++]); // its last child underfull
+			int n = Math.max((total + capacity - 1) / capacity, 1);
+			if (n > k)
+				return k;
+			int[] sizes = new int[n]; // fill the children in turn, leaving the remaining entries to the last one
+			for (int j = 0; j < n; j++)
+				sizes[j] = Math.min(capacity, total - j * capacity);
+			if (n > 1 && sizes[n - 1] < min) { // if the last child of the parent would be underfull
+				int s = sizes[n - 2] + sizes[n - 1];
+				if (s <= (leaf ? fanout - 1 : fanout)) {
+					sizes[n - 2] = s;
+					n--;
+				} else {
+					sizes[n - 2] = s - s / 2;
+					sizes[n - 1] = s / 2;
+				}
+			}
+			boolean same = n == k;
+			for (int j = 0; j < n && same; j++)
+				same = sizes[j] == size((Node) p.pointers[i + j]);
+			if (same) // if the entries would stay where they are
+				return k;
+			Object[] keys = new Object[total];
+			Object[] pointers = new Object[total];
+			int t = 0;
+			int m = 0;
+			for (int j = 0; j < k; j++) {
+				Node c = (Node) p.pointers[i + j];
+				if (!leaf && j > 0) // the key between the children in p
+					keys[m++] = p.keys[i + j - 1];
+				System.arraycopy(c.keys, 0, keys, m, c.numberOfKeys);
+				m += c.numberOfKeys;
+				System.arraycopy(c.pointers, 0, pointers, t, c.numberOfKeys + (leaf ? 0 : 1));
+				t += c.numberOfKeys + (leaf ? 0 : 1);
+			}
+			Object next = leaf ? ((Node) p.pointers[i + k - 1]).pointers[fanout - 1] : null;
+			t = 0;
+			m = 0;
+			for (int j = 0; j < n; j++) {
+				int size = sizes[j];
+				Node c = writableChild(p, i + j);
+				java.util.Arrays.fill(c.keys, null);
+				java.util.Arrays.fill(c.pointers, null);
+				System.arraycopy(pointers, t, c.pointers, 0, size);
+				t += size;
+				if (leaf) {
+					System.arraycopy(keys, m, c.keys, 0, size);
+					m += size;
+					c.numberOfKeys = size;
+					if (j > 0) {
+						Node previous = (Node) p.pointers[i + j - 1];
+						p.keys[i + j - 1] = separator(previous.keys[previous.numberOfKeys - 1], c.keys[0]);
+					}
+				} else {
+					System.arraycopy(keys, m, c.keys, 0, size - 1);
+					m += size - 1;
+					c.numberOfKeys = size - 1;
+					if (j < n - 1) // the key between this child and the next moves up to p
+						p.keys[i + j] = keys[m++];
+				}
+			}
+			if (leaf && !shared) // relink the remaining leaf nodes
+				for (int j = 0; j < n; j++)
+					((Node) p.pointers[i + j]).pointers[fanout - 1] = j < n - 1 ? p.pointers[i + j + 1] : next;
+			int removed = k - n; // remove children i + n to i + k - 1 and the keys before them
+			System.arraycopy(p.keys, i + k - 1, p.keys, i + n - 1, p.numberOfKeys - (i + k - 1));
+			System.arraycopy(p.pointers, i + k, p.pointers, i + n, p.numberOfKeys + 1 - (i + k));
+			java.util.Arrays.fill(p.keys, p.numberOfKeys - removed, p.numberOfKeys, null);
+			java.util.Arrays.fill(p.pointers, p.numberOfKeys + 1 - removed, p.numberOfKeys + 1, null);
+			p.numberOfKeys -= removed;
+			reclaimedNodes += removed;
+			return n;
+		}
 
-						//insert (N'.Pm, K'.Km) as the first pointer and value in N, by shifting other pointers and values right
-						n.insert(lastkey, m, 0);
+		/**
+		 * Returns the number of entries that the Compactor puts in each node at the specified level.
+		 * 
+		 * @param leaf
+		 *            true for the leaf level; false for a non-leaf level.
+		 * @return the number of values (for a leaf node) or children (for a non-leaf node) that the Compactor puts
+		 *         in each node.
+		 */
+		int capacity(boolean leaf) {
+			int max = leaf ? fanout - 1 : fanout;
+			int min = leaf ? fanout / 2 : (fanout + 1) / 2;
+			return Math.max(min, Math.min(max, (int) Math.ceil(targetFill * max)));
+		}
 
-						//replace K' in parent(N) by N'.Km
-						nParent =  findParent(n);
-						nParent.keys[k_pos] = nParent.keys[mPos];
+		/**
+		 * Returns the number of values (for a leaf node) or children (for a non-leaf node) of the specified node.
+		 * 
+		 * @param n
+		 *            a node.
+		 * @return the number of values or children of the specified node.
+		 */
+		int size(Node n) {
+			return n.isLeafNode() ? n.numberOfKeys : n.numberOfKeys + 1;
+		}
 
-					}
-				}
-				else
-				{
-					// Symmetric case
+		/**
+		 * Determines whether or not every level has been compacted.
+		 * 
+		 * @return true if every level has been compacted; false otherwise.
+		 */
+		public boolean isDone() {
+			return done;
+		}
 
-					// If N is not a leaf
-					if(!n.isLeafNode()){
+		/**
+		 * Returns the number of nodes removed so far.
+		 * 
+		 * @return the number of nodes removed so far.
+		 */
+		public long getReclaimedNodeCount() {
+			return reclaimedNodes;
+		}
 
-						//let m be such that N'.Pm is the last pointer in N'
+		/**
+		 * Returns an estimate of the number of bytes reclaimed so far (assuming 4-byte references, as on a 64-bit JVM
+		 * with compressed references).
+		 * 
+		 * @return an estimate of the number of bytes reclaimed so far.
+		 */
+		public long getReclaimedBytes() {
+			long node = 32 + 16 + 4L * (fanout - 1) + 16 + 4L * fanout; // a Node, its keys and its pointers
+			return reclaimedNodes * node;
+		}
 
-						int mPos = 0; // Position of last pointer
+		/**
+		 * Returns the height of the BPlusTree when this Compactor was created.
+		 * 
+		 * @return the height of the BPlusTree when this Compactor was created.
+		 */
+		public int getInitialHeight() {
+			return initialHeight;
+		}
 
-						for(i=0; i<n_.pointers.length; i++){
-							if(n_.pointers[i]!=null){
-								mPos++;
-								//break;
-							}
-						}
+		/**
+		 * Returns the change in the height of the BPlusTree since this Compactor was created.
+		 * 
+		 * @return the change in the height of the BPlusTree since this Compactor was created (negative if the
+		 *         BPlusTree has become shorter).
+		 */
+		public int getHeightChange() {
+			return height() - initialHeight;
+		}
 
-						Object m = n_.pointers[mPos];
+	}
 
-						//remove (N'.Km−1, N'.Pm) from N'
+	/**
+	 * Constructs a BPlusTree.
+	 * 
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this BPlusTree can have.
+	 */
+	public BPlusTree(int fanout) {
+		this(fanout, SearchStrategy.forFanout(fanout));
+	}
 
-						Object tempKm = n_.keys[mPos-1];  // Storing this for further use before removal
+	/**
+	 * Constructs a BPlusTree.
+	 * 
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this BPlusTree can have.
+	 * @param searchStrategy
+	 *            the strategy that the nodes of this BPlusTree use for locating keys.
+	 */
+	public BPlusTree(int fanout, SearchStrategy searchStrategy) {
+		this.fanout = fanout;
+		this.searchStrategy = searchStrategy;
+	}
 
-						n_.keys[mPos-1] = null;
-						n_.numberOfKeys--;
-						n_.pointers[mPos] = null;
+	/**
+	 * Copy-constructs a BPlusTree.
+	 * 
+	 * @param tree
+	 *            another tree to copy from.
+	 */
+	public BPlusTree(BPlusTree tree) {
+		this.fanout = tree.fanout;
+		this.searchStrategy = tree.searchStrategy;
+		this.splitPolicy = tree.splitPolicy;
+		if (tree.root != null) {
+			this.root = new Node(tree.root);
+			adopt(root, null); // link the copied leaf nodes
+		}
+	}
 
-						//insert (N'.Pm, K) as the first pointer and value in N, by shifting other pointers and values right
-						n.insert(k_, m, 0);
+	/**
+	 * Returns a snapshot of this BPlusTree in constant time. The snapshot and this BPlusTree share all of their nodes
+	 * at first; each of them then copies only the nodes on the root-to-leaf paths (and the siblings) that it changes,
+	 * so both stay independently readable and modifiable, and the nodes that neither of them references any more are
+	 * reclaimed by the garbage collector. Once the snapshot has been reclaimed as well, the next update of this
+	 * BPlusTree takes over its nodes again (see unshare()).
+	 * 
+	 * @return a snapshot of this BPlusTree.
+	 */
+	public BPlusTree snapshot() {
+		unshare();
+		BPlusTree snapshot = newEmptyTree();
+		snapshot.root = root;
+		snapshot.shared = shared = true;
+		owner = new Object(); // from now on, every existing node is copied before it is changed
+		if (sharers == null) {
+			sharers = new java.util.concurrent.ConcurrentLinkedQueue<java.lang.ref.WeakReference<BPlusTree>>();
+			sharers.add(new java.lang.ref.WeakReference<BPlusTree>(this));
+		}
+		snapshot.sharers = sharers;
+		sharers.add(new java.lang.ref.WeakReference<BPlusTree>(snapshot));
+		return snapshot;
+	}
 
-						//replace K' in parent(N) by N'.Km−1
-						nParent =  findParent(n);
-						nParent.keys[k_pos] = nParent.keys[mPos-1];
+	/**
+	 * Returns a new empty tree of the same class as this BPlusTree and with the same settings (fanout, SearchStrategy
+	 * and SplitPolicy). snapshot() makes it share the nodes of this BPlusTree. Subclasses override this method so
+	 * that their snapshots keep their behavior, and override snapshot() as well if they keep state besides the nodes.
+	 * 
+	 * @return a new empty tree of the same class as this BPlusTree and with the same settings.
+	 */
+	protected BPlusTree newEmptyTree() {
+		BPlusTree tree = new BPlusTree(fanout, searchStrategy);
+		tree.splitPolicy = splitPolicy;
+		return tree;
+	}
 
-					}
-					else{ // N is a Leaf
+	/**
+	 * Stops sharing nodes once every other tree that may share nodes with this BPlusTree (its snapshots, the tree it
+	 * is a snapshot of and their snapshots) has been reclaimed by the garbage collector. This BPlusTree then takes
+	 * over all of its nodes and links its leaf nodes again: it no longer copies nodes before changing them, Cursors
+	 * follow the links again, and the old leaf nodes that the stale links of shared leaf nodes kept reachable can be
+	 * reclaimed. Each update calls this method before it descends, while no Path or link is in use.
+	 */
+	void unshare() {
+		if (sharers == null)
+			return;
+		for (java.util.Iterator<java.lang.ref.WeakReference<BPlusTree>> i = sharers.iterator(); i.hasNext();) {
+			BPlusTree t = i.next().get();
+			if (t == null)
+				i.remove();
+			else if (t != this)
+				return; // t may still read the shared nodes
+		}
+		sharers = null;
+		shared = false;
+		if (root != null)
+			adopt(root, null);
+	}
 
-						int mPos = 0; // Position of last pointer
-						Object lastkey = n.keys[n.numberOfKeys]; // Last key
+	/**
+	 * Makes this BPlusTree the owner of the specified node and its descendants and links their leaf nodes in key
+	 * order.
+	 * 
+	 * @param n
+	 *            a node.
+	 * @param previous
+	 *            the leaf node that precedes the leaf nodes under n (null if there is none).
+	 * @return the last leaf node under n.
+	 */
+	Node adopt(Node n, Node previous) {
+		n.owner = owner;
+		if (n.isLeafNode()) {
+			if (previous != null)
+				previous.pointers[fanout - 1] = n;
+			n.pointers[fanout - 1] = null;
+			return n;
+		}
+		for (int i = 0; i <= n.numberOfKeys; i++)
+			previous = adopt((Node) n.pointers[i], previous);
+		return previous;
+	}
 
-						for(i=0; i<n_.pointers.length; i++){
-							if(n_.pointers[i]!=null){
-								mPos++;
-								//break;
-							}
-						}
+	/**
+	 * Makes the node at the specified level of the specified Path modifiable by this BPlusTree. If the node may be
+	 * shared with a snapshot, it is replaced by a copy, and so are its ancestors on the Path.
+	 * 
+	 * @param path
+	 *            a Path from the root.
+	 * @param level
+	 *            the level of the node on the Path.
+	 * @return the node that this BPlusTree may change in place.
+	 */
+	Node writable(Path path, int level) {
+		Node n = path.nodes[level];
+		if (n.owner == owner)
+			return n;
+		Node c = copy(n);
+		path.nodes[level] = c;
+		if (level == 0)
+			root = c;
+		else
+			writable(path, level - 1).pointers[path.indices[level - 1]] = c;
+		return c;
+	}
 
-						Object tempKm = n_.keys[mPos];
+	/**
+	 * Makes the specified child of the specified node modifiable by this BPlusTree.
+	 * 
+	 * @param p
+	 *            a node that this BPlusTree may change in place.
+	 * @param i
+	 *            the position of the child among the pointers of p.
+	 * @return the child that this BPlusTree may change in place.
+	 */
+	Node writableChild(Node p, int i) {
+		Node c = (Node) p.pointers[i];
+		if (c.owner != owner)
+			p.pointers[i] = c = copy(c);
+		return c;
+	}
 
-						Object m = n_.pointers[mPos];
+	/**
+	 * Returns a copy of the specified node that shares its keys, values and children. The copy of a leaf node does not
+	 * point to the next leaf node because that pointer may be stale.
+	 * 
+	 * @param n
+	 *            the node to copy.
+	 * @return a copy of the specified node.
+	 */
+	Node copy(Node n) {
+		Node c = new Node(fanout);
+		c.numberOfKeys = n.numberOfKeys;
+		System.arraycopy(n.keys, 0, c.keys, 0, n.numberOfKeys);
+		if (n.isLeafNode())
+			System.arraycopy(n.pointers, 0, c.pointers, 0, n.numberOfKeys);
+		else
+			System.arraycopy(n.pointers, 0, c.pointers, 0, n.numberOfKeys + 1);
+		return c;
+	}
 
-						//remove (N'.Pm, N'.Km) from N'
-						n_.pointers[mPos] = null;
-						n_.keys[mPos] = null;
-						n_.numberOfKeys--;
+	/**
+	 * Returns the Path that records the descents of this BPlusTree.
+	 * 
+	 * @return the Path that records the descents of this BPlusTree.
+	 */
+	protected Path path() {
+		return path;
+	}
 
-						//insert (N'.Pm, K'.Km) as the first pointer and value in N, by shifting other pointers and values right
-						n.insert(lastkey, m, 0);
+	/**
+	 * Finds the node in this BPlusTree that must be responsible for the specified key. The nodes visited on the way
+	 * are recorded in the Path of this BPlusTree.
+	 * 
+	 * @param key
+	 *            the search key.
+	 * @return the node in this BPlusTree that must be responsible for the specified key.
+	 */
+	public Node find(Object key) {
+		return find(key, path());
+	}
 
-						//replace K' in parent(N) by N'.Km
-						nParent =  findParent(n);
-						nParent.keys[k_pos] = nParent.keys[mPos];
-					}
+	/**
+	 * Finds the node in this BPlusTree that must be responsible for the specified key and records the nodes visited
+	 * on the way in the specified Path.
+	 * 
+	 * @param key
+	 *            the search key.
+	 * @param path
+	 *            the Path to record the visited nodes in.
+	 * @return the node in this BPlusTree that must be responsible for the specified key.
+	 */
+	protected Node find(Object key, Path path) {
+		path.length = 0;
+		Node c = root;
+		while (!c.isLeafNode()) {
+			int i = c.childIndex(key);
+			path.push(c, i);
+			c = (Node) c.pointers[i];
+		}
+		path.push(c, -1);
+		return c;
+	}
 
-				}
+	/**
+	 * Finds the leftmost leaf node in this BPlusTree that may contain the specified key and records the nodes visited
+	 * on the way in the specified Path. Unlike find(Object, Path), this method descends to the left of a separator
+	 * equal to the key, so it reaches the first of the duplicates of the key even if they span several leaf nodes.
+	 * 
+	 * @param key
+	 *            the search key.
+	 * @param path
+	 *            the Path to record the visited nodes in.
+	 * @return the leftmost leaf node in this BPlusTree that may contain the specified key.
+	 */
+	protected Node findFirst(Object key, Path path) {
+		path.length = 0;
+		Node c = root;
+		while (!c.isLeafNode()) {
+			int i = c.findIndexGE(key); // the first child whose keys may be greater than or equal to key
+			if (i < 0)
+				i = c.numberOfKeys;
+			path.push(c, i);
+			c = (Node) c.pointers[i];
+		}
+		path.push(c, -1);
+		return c;
+	}
+
+	/**
+	 * Finds the rightmost leaf node in this BPlusTree that may contain the specified key and records the nodes visited
+	 * on the way in the specified Path. Unlike find(Object, Path), this method descends to the right of the last
+	 * separator equal to the key (rather than the first), so it reaches the last of the duplicates of the key even if
+	 * a node has several separators equal to the key.
+	 * 
+	 * @param key
+	 *            the search key.
+	 * @param path
+	 *            the Path to record the visited nodes in.
+	 * @return the rightmost leaf node in this BPlusTree that may contain the specified key.
+	 */
+	protected Node findLast(Object key, Path path) {
+		path.length = 0;
+		Node c = root;
+		while (!c.isLeafNode()) {
+			int i = c.lowerBound(key);
+			while (i < c.numberOfKeys && compare(c.keys[i], key) == 0)
+				i++;
+			path.push(c, i);
+			c = (Node) c.pointers[i];
+		}
+		path.push(c, -1);
+		return c;
+	}
+
+	/**
+	 * Finds the leaf node that holds the first entry with the specified key and records the nodes visited on the way
+	 * in the specified Path. The duplicates of a key may end in the leaf node before a separator equal to the key,
+	 * which find(Object, Path) passes by, so this method starts from the leaf node that findFirst reaches and moves
+	 * to the next leaf node if every key of that leaf node is smaller than the specified key.
+	 * 
+	 * @param key
+	 *            the search key.
+	 * @param path
+	 *            the Path to record the visited nodes in.
+	 * @return the leaf node that holds the first entry with the specified key (if this BPlusTree contains the key).
+	 */
+	protected Node findEntry(Object key, Path path) {
+		Node l = findFirst(key, path);
+		while (l.numberOfKeys > 0 && compare(l.keys[l.numberOfKeys - 1], key) < 0) {
+			Node next = nextLeaf(path);
+			if (next == null) // if l is the last leaf node
+				return l;
+			l = next;
+		}
+		return l;
+	}
+
+	/**
+	 * Moves the specified Path from the leaf node at its end to the next leaf node.
+	 * 
+	 * @param path
+	 *            a Path from the root to a leaf node.
+	 * @return the next leaf node; null if the leaf node at the end of the Path is the last one (in which case the Path
+	 *         is left unchanged).
+	 */
+	Node nextLeaf(Path path) {
+		int level = path.length - 2; // the lowest ancestor with a child after the path
+		while (level >= 0 && path.indices[level] == path.nodes[level].numberOfKeys)
+			level--;
+		if (level < 0)
+			return null;
+		path.length = level + 1;
+		Node c = (Node) path.nodes[level].pointers[++path.indices[level]];
+		while (!c.isLeafNode()) {
+			path.push(c, 0);
+			c = (Node) c.pointers[0];
+		}
+		path.push(c, -1);
+		return c;
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return the value associated with the specified key; null if this BPlusTree does not contain the key.
+	 */
+	public Object get(Object key) {
+		if (root == null)
+			return null;
+		Node l = find(key);
+		int i = l.lowerBound(key);
+		return i < l.numberOfKeys && compare(l.keys[i], key) == 0 ? l.pointers[i] : null;
+	}
+
+	/**
+	 * Inserts the specified key and the value into this BPlusTree. A key that falls in the key range of the leaf node
+	 * that received the previous insertion goes into that node without a descent (see cachedLeaf), so appending keys
+	 * in ascending order mostly skips the descent.
+	 * 
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 */
+	public void insert(Object key, Object value) {
+		unshare();
+		if (root == null) // if the root is null
+			root = new Node(fanout);
+		Node l = cachedLeaf;
+		if (l != null && cachedRoot == root && cachedStructureVersion == structureVersion && l.owner == owner
+				&& l.hasRoom() && (cachedLow == null || compare(key, cachedLow) >= 0)
+				&& (cachedHigh == null || compare(key, cachedHigh) < 0)) { // if the key belongs to the cached leaf
+			recordInsertion(key);
+			int n = l.numberOfKeys;
+			l.insert(key, value, n > 0 && compare(key, l.keys[n - 1]) > 0 ? n : l.lowerBound(key));
+			return;
+		}
+		Path path = path();
+		l = find(key, path);
+		insertAt(path, key, value, l.lowerBound(key));
+	}
+
+	/**
+	 * Inserts the specified key and value at the specified position of the leaf node at the end of the specified
+	 * Path, splitting the node if it is full.
+	 * 
+	 * @param path
+	 *            a Path from the root to a leaf node.
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 * @param pos
+	 *            the insertion position of the key in the leaf node.
+	 */
+	void insertAt(Path path, Object key, Object value, int pos) {
+		recordInsertion(key);
+		Node l = writable(path, path.length - 1);
+		if (l.hasRoom()) { // if node l has room for the new entry
+			l.insert(key, value, pos);
+			cacheLeaf(path);
+		} else { // if split is required (l is a leaf node)
+			Node nl = splitLeaf(l, key, value, pos, splitPoint(path, path.length - 1, pos));
+			insertInParent(path, path.length - 1, separator(l.keys[l.numberOfKeys - 1], nl.keys[0]), nl);
+		}
+	}
+
+	/**
+	 * Associates the specified value with the specified key. If this BPlusTree contains the key, the value of its
+	 * (first) entry is replaced; otherwise, a new entry is inserted. Either way, the tree is descended only once.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @return the value previously associated with the key; null if this BPlusTree did not contain the key.
+	 */
+	public Object put(Object key, Object value) {
+		unshare();
+		if (root == null) // if the root is null
+			root = new Node(fanout);
+		Path path = path();
+		Node l = find(key, path);
+		int pos = l.lowerBound(key);
+		if (pos < l.numberOfKeys && compare(l.keys[pos], key) == 0) { // if the key is present
+			l = writable(path, path.length - 1);
+			Object previous = l.pointers[pos];
+			l.pointers[pos] = value;
+			return previous;
+		}
+		insertAt(path, key, value, pos);
+		return null;
+	}
+
+	/**
+	 * Inserts the specified key and value unless this BPlusTree already contains the key, descending the tree only
+	 * once.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @return the value associated with the key; null if this BPlusTree did not contain the key (and the new entry
+	 *         has been inserted).
+	 */
+	public Object putIfAbsent(Object key, Object value) {
+		unshare();
+		if (root == null) // if the root is null
+			root = new Node(fanout);
+		Path path = path();
+		Node l = find(key, path);
+		int pos = l.lowerBound(key);
+		if (pos < l.numberOfKeys && compare(l.keys[pos], key) == 0) // if the key is present
+			return l.pointers[pos];
+		insertAt(path, key, value, pos);
+		return null;
+	}
+
+	/**
+	 * Associates the specified key with the value that the specified function computes from the key and its current
+	 * value (null if this BPlusTree does not contain the key), descending the tree only once. If the function returns
+	 * null, the (first) entry of the key is deleted. The function must not modify this BPlusTree.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @param remapping
+	 *            the function that computes the new value from the key and the current value.
+	 * @return the new value associated with the key; null if the key is no longer in this BPlusTree.
+	 */
+	public Object compute(Object key, java.util.function.BiFunction<Object, Object, Object> remapping) {
+		unshare();
+		if (root == null) // if the root is null
+			root = new Node(fanout);
+		Path path = path();
+		Node l = find(key, path);
+		int pos = l.lowerBound(key);
+		boolean present = pos < l.numberOfKeys && compare(l.keys[pos], key) == 0;
+		Object value = remapping.apply(key, present ? l.pointers[pos] : null);
+		if (present) {
+			if (value == null)
+				delete_entry(path, path.length - 1, pos);
+			else
+				writable(path, path.length - 1).pointers[pos] = value;
+		} else if (value != null)
+			insertAt(path, key, value, pos);
+		return value;
+	}
+
+	/**
+	 * Sets the policy that decides where full nodes of this BPlusTree are split.
+	 * 
+	 * @param splitPolicy
+	 *            the policy that decides where full nodes of this BPlusTree are split.
+	 */
+	public void setSplitPolicy(SplitPolicy splitPolicy) {
+		this.splitPolicy = splitPolicy;
+	}
+
+	/**
+	 * Returns the policy that decides where full nodes of this BPlusTree are split.
+	 * 
+	 * @return the policy that decides where full nodes of this BPlusTree are split.
+	 */
+	public SplitPolicy getSplitPolicy() {
+		return splitPolicy;
+	}
+
+	/**
+	 * Records the specified key as the key inserted last, extending or restarting the current run of ascending (or
+	 * descending) insertions. Runs are tracked only under SplitPolicy.ADAPTIVE.
+	 * 
+	 * @param key
+	 *            the key being inserted.
+	 */
+	void recordInsertion(Object key) {
+		if (splitPolicy != SplitPolicy.ADAPTIVE)
+			return;
+		int c = lastKey == null ? 0 : compare(key, lastKey);
+		if (c > 0)
+			run = run > 0 ? run + 1 : 1;
+		else if (c < 0)
+			run = run < 0 ? run - 1 : -1;
+		lastKey = key;
+	}
+
+	/**
+	 * Caches the leaf node at the end of the specified Path together with its key range, which is bounded by the
+	 * nearest keys of its ancestors on either side of the Path.
+	 * 
+	 * @param path
+	 *            a Path from the root to a leaf node that this BPlusTree may change in place.
+	 */
+	void cacheLeaf(Path path) {
+		cachedLeaf = path.nodes[path.length - 1];
+		cachedRoot = root;
+		cachedStructureVersion = structureVersion;
+		cachedLow = null;
+		cachedHigh = null;
+		for (int l = path.length - 2; l >= 0 && (cachedLow == null || cachedHigh == null); l--) {
+			Node n = path.nodes[l];
+			int i = path.indices[l];
+			if (cachedLow == null && i > 0)
+				cachedLow = n.keys[i - 1];
+			if (cachedHigh == null && i < n.numberOfKeys)
+				cachedHigh = n.keys[i];
+		}
+	}
+
+	/**
+	 * Returns the number of entries that stay in the full node at the specified level of the specified Path when
+	 * the node is split, according to the SplitPolicy of this BPlusTree.
+	 * 
+	 * @param path
+	 *            a Path from the root.
+	 * @param level
+	 *            the level of the full node on the Path.
+	 * @param pos
+	 *            the insertion position of the new key in the node.
+	 * @return the number of values (for a leaf node) or pointers (for a non-leaf node) that stay in the node.
+	 */
+	int splitPoint(Path path, int level, int pos) {
+		Node n = path.nodes[level];
+		int bias = 0; // 1 to keep most entries in the node, -1 to move most entries to the new node
+		if (splitPolicy == SplitPolicy.RIGHTMOST && pos == n.numberOfKeys) {
+			bias = 1;
+			for (int l = 0; l < level && bias > 0; l++)
+				if (path.indices[l] < path.nodes[l].numberOfKeys) // if the node is not the last at its level
+					bias = 0;
+		} else if (splitPolicy == SplitPolicy.ADAPTIVE) {
+			if (run >= SplitPolicy.SEQUENTIAL_RUN_LENGTH && pos == n.numberOfKeys)
+				bias = 1;
+			else if (run <= -SplitPolicy.SEQUENTIAL_RUN_LENGTH && pos == 0)
+				bias = -1;
+		}
+		if (bias == 0)
+			return (fanout + 1) / 2;
+		boolean leaf = n.isLeafNode();
+		int entries = leaf ? fanout : fanout + 1; // the number of values (or pointers) including the new one
+		int most = (int) Math.round(SplitPolicy.UNEVEN_SPLIT_FRACTION * entries);
+		int m = bias > 0 ? most : entries - most;
+		return Math.max(leaf ? 1 : 2, Math.min(fanout - 1, m));
+	}
+
+	/**
+	 * Splits the specified full leaf node while inserting the specified key and value. The first m entries stay in
+	 * the node and the remaining entries are moved once to a new leaf node.
+	 * 
+	 * @param l
+	 *            the leaf node to split.
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 * @param pos
+	 *            the insertion position of the key in l.
+	 * @param m
+	 *            the number of entries that stay in l (ceil(fanout / 2) for an even split; see splitPoint).
+	 * @return the new leaf node.
+	 */
+	Node splitLeaf(Node l, Object key, Object value, int pos, int m) {
+		structureVersion++;
+		int n = l.numberOfKeys;
+		Node nl = new Node(fanout); // create a new leaf node
+		if (pos < m) { // if the new entry belongs to the first half
+			int moved = n - (m - 1);
+			System.arraycopy(l.keys, m - 1, nl.keys, 0, moved);
+			System.arraycopy(l.pointers, m - 1, nl.pointers, 0, moved);
+			java.util.Arrays.fill(l.keys, m - 1, n, null);
+			java.util.Arrays.fill(l.pointers, m - 1, n, null);
+			l.numberOfKeys = m - 1;
+			nl.numberOfKeys = moved;
+			l.insert(key, value, pos);
+		} else { // if the new entry belongs to the second half
+			System.arraycopy(l.keys, m, nl.keys, 0, pos - m);
+			System.arraycopy(l.pointers, m, nl.pointers, 0, pos - m);
+			nl.keys[pos - m] = key;
+			nl.pointers[pos - m] = value;
+			System.arraycopy(l.keys, pos, nl.keys, pos - m + 1, n - pos);
+			System.arraycopy(l.pointers, pos, nl.pointers, pos - m + 1, n - pos);
+			java.util.Arrays.fill(l.keys, m, n, null);
+			java.util.Arrays.fill(l.pointers, m, n, null);
+			l.numberOfKeys = m;
+			nl.numberOfKeys = n + 1 - m;
+		}
+		nl.pointers[fanout - 1] = l.pointers[fanout - 1]; // set the last pointer of nl to the next node of l
+		l.pointers[fanout - 1] = nl; // set the last pointer of l to nl
+		return nl;
+	}
+
+	/**
+	 * Inserts pointers to the specified nodes into an appropriate parent node. A full parent node is split in place:
+	 * its first pointers (ceil(fanout / 2) of them for an even split; see splitPoint) stay and the remaining entries
+	 * are moved once to a new node.
+	 * 
+	 * @param path
+	 *            the Path that leads to the node that was split.
+	 * @param level
+	 *            the position of the node that was split on the Path.
+	 * @param key
+	 *            the key that splits the nodes
+	 * @param nn
+	 *            a new node.
+	 */
+	void insertInParent(Path path, int level, Object key, Node nn) {
+		Node n = path.nodes[level];
+		if (level == 0) { // if the root was split
+			root = new Node(fanout); // create a new node
+			root.insert(key, n, 0); // make the new root point to the nodes.
+			root.pointers[1] = nn;
+			return;
+		}
+		Node p = path.nodes[level - 1];
+		int pos = path.indices[level - 1]; // the position of key in p (n is p.pointers[pos])
+		if (p.hasRoom()) {
+			p.insertChild(key, nn, pos); // insert key and nn right after n
+			return;
+		}
+		// if split is required
+		int m = splitPoint(path, level - 1, pos); // compute the split point (the number of pointers that stay in p)
+		int keys = p.numberOfKeys;
+		Node np = new Node(fanout); // create a new node
+		Object separator;
+		if (pos < m - 1) { // if key and nn belong to the first half
+			separator = p.keys[m - 2];
+			System.arraycopy(p.keys, m - 1, np.keys, 0, keys - m + 1);
+			System.arraycopy(p.pointers, m - 1, np.pointers, 0, keys - m + 2);
+			java.util.Arrays.fill(p.keys, m - 2, keys, null);
+			java.util.Arrays.fill(p.pointers, m - 1, keys + 1, null);
+			p.numberOfKeys = m - 2;
+			p.insertChild(key, nn, pos);
+		} else if (pos == m - 1) { // if key is the middle key
+			separator = key;
+			System.arraycopy(p.keys, m - 1, np.keys, 0, keys - m + 1);
+			np.pointers[0] = nn;
+			System.arraycopy(p.pointers, m, np.pointers, 1, keys - m + 1);
+			java.util.Arrays.fill(p.keys, m - 1, keys, null);
+			java.util.Arrays.fill(p.pointers, m, keys + 1, null);
+			p.numberOfKeys = m - 1;
+		} else { // if key and nn belong to the second half
+			separator = p.keys[m - 1];
+			System.arraycopy(p.keys, m, np.keys, 0, pos - m);
+			System.arraycopy(p.pointers, m, np.pointers, 0, pos - m + 1);
+			np.keys[pos - m] = key;
+			np.pointers[pos - m + 1] = nn;
+			System.arraycopy(p.keys, pos, np.keys, pos - m + 1, keys - pos);
+			System.arraycopy(p.pointers, pos + 1, np.pointers, pos - m + 2, keys - pos);
+			java.util.Arrays.fill(p.keys, m - 1, keys, null);
+			java.util.Arrays.fill(p.pointers, m, keys + 1, null);
+			p.numberOfKeys = m - 1;
+		}
+		np.numberOfKeys = fanout - m;
+		insertInParent(path, level - 1, separator, np); // use the middle key as the separator
+	}
+
+	/**
+	 * Inserts the specified entries into this BPlusTree. The entries are sorted by key and every run of consecutive
+	 * entries that belongs to the same leaf node is applied after a single descent. A leaf node that overflows is
+	 * split once into as many nodes as needed rather than once per entry.
+	 * 
+	 * @param entries
+	 *            the key/value pairs to insert.
+	 */
+	public void insertAll(java.util.Collection<? extends util.Pair<?, ?>> entries) {
+		unshare();
+		util.Pair<?, ?>[] batch = entries.toArray(new util.Pair<?, ?>[entries.size()]);
+		java.util.Arrays.sort(batch, new java.util.Comparator<util.Pair<?, ?>>() {
+			@Override
+			public int compare(util.Pair<?, ?> e1, util.Pair<?, ?> e2) {
+				return BPlusTree.this.compare(e1.getFirst(), e2.getFirst());
+			}
+		});
+		if (root == null && batch.length > 0)
+			root = new Node(fanout);
+		Path path = path();
+		for (int i = 0; i < batch.length;) {
+			Node l = find(batch[i].getFirst(), path);
+			Object upper = upperBound(path);
+			int j = i + 1; // the entries in batch[i..j) belong to l
+			while (j < batch.length && (upper == null || compare(batch[j].getFirst(), upper) < 0))
+				j++;
+			l = writable(path, path.length - 1);
+			if (l.numberOfKeys + (j - i) <= fanout - 1) { // if l has room for the entries
+				for (int k = i; k < j; k++)
+					l.insertInLeaf(batch[k].getFirst(), batch[k].getSecond());
+			} else if (j - i == 1) { // if a regular split suffices
+				Object key = batch[i].getFirst();
+				int pos = l.lowerBound(key);
+				Node nl = splitLeaf(l, key, batch[i].getSecond(), pos, splitPoint(path, path.length - 1, pos));
+				insertInParent(path, path.length - 1, separator(l.keys[l.numberOfKeys - 1], nl.keys[0]), nl);
+			} else {
+				mergeAndSplitLeaf(path, batch, i, j);
+			}
+			i = j;
+		}
+	}
+
+	/**
+	 * Returns the smallest key that the nodes on the specified Path send to a node to the right of the path.
+	 * 
+	 * @param path
+	 *            a Path that leads to a leaf node.
+	 * @return the upper bound (exclusive) of the keys that belong to the leaf node; null if there is no such bound.
+	 */
+	Object upperBound(Path path) {
+		for (int level = path.length - 2; level >= 0; level--) {
+			Node n = path.nodes[level];
+			int i = path.indices[level];
+			if (i < n.numberOfKeys)
+				return n.keys[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Merges the specified entries into the full leaf node at the end of the specified Path and splits the result
+	 * evenly into as few nodes as possible.
+	 * 
+	 * @param path
+	 *            the Path that leads to the leaf node.
+	 * @param batch
+	 *            the entries sorted by key.
+	 * @param from
+	 *            the position of the first entry that belongs to the leaf node.
+	 * @param to
+	 *            the position after the last entry that belongs to the leaf node.
+	 */
+	void mergeAndSplitLeaf(Path path, util.Pair<?, ?>[] batch, int from, int to) {
+		structureVersion++;
+		int level = path.length - 1;
+		Node l = path.nodes[level];
+		int total = l.numberOfKeys + to - from;
+		Object[] keys = new Object[total];
+		Object[] values = new Object[total];
+		for (int i = 0, j = from, k = 0; k < total; k++) { // merge the entries of l with the new entries
+			if (j == to || i < l.numberOfKeys && compare(l.keys[i], batch[j].getFirst()) <= 0) {
+				keys[k] = l.keys[i];
+				values[k] = l.pointers[i++];
+			} else {
+				keys[k] = batch[j].getFirst();
+				values[k] = batch[j++].getSecond();
+			}
+		}
+		int nodes = (total + fanout - 2) / (fanout - 1); // the number of nodes needed
+		Object next = l.pointers[fanout - 1];
+		l.clear();
+		Node n = l;
+		for (int k = 0, node = 0; node < nodes; node++) {
+			int size = total / nodes + (node < total % nodes ? 1 : 0);
+			if (node > 0) {
+				Node nn = new Node(fanout);
+				n.pointers[fanout - 1] = nn;
+				n = nn;
+			}
+			System.arraycopy(keys, k, n.keys, 0, size);
+			System.arraycopy(values, k, n.pointers, 0, size);
+			n.numberOfKeys = size;
+			k += size;
+		}
+		n.pointers[fanout - 1] = next;
+		for (Node b = l, c = (Node) l.pointers[fanout - 1]; c != next; b = c, c = (Node) c.pointers[fanout - 1]) {
+			boolean parentHasRoom = level > 0 && path.nodes[level - 1].hasRoom();
+			insertInParent(path, level, separator(b.keys[b.numberOfKeys - 1], c.keys[0]), c);
+			if (parentHasRoom) { // c now follows the previous node in the same parent
+				path.nodes[level] = c;
+				path.indices[level - 1]++;
+			} else { // the parent was split, so find the new parent of c
+				Node d = findFirst(c.keys[0], path); // duplicates of c.keys[0] may precede c, so look for c itself
+				while (d != c)
+					d = nextLeaf(path);
+				level = path.length - 1;
+			}
+		}
+	}
+
+	/**
+	 * Deletes the entries with the specified keys from this BPlusTree. The keys are sorted and every run of
+	 * consecutive keys that belongs to the same leaf node is deleted after a single descent as long as the leaf node
+	 * does not become underfull.
+	 * 
+	 * @param keys
+	 *            the keys to delete.
+	 */
+	public void deleteAll(java.util.Collection<?> keys) {
+		unshare();
+		if (root == null)
+			return;
+		Object[] batch = keys.toArray();
+		java.util.Arrays.sort(batch, new java.util.Comparator<Object>() {
+			@Override
+			public int compare(Object k1, Object k2) {
+				return BPlusTree.this.compare(k1, k2);
 			}
+		});
+		Path path = path();
+		for (int i = 0; i < batch.length;) {
+			Node l = findEntry(batch[i], path);
+			Object upper = upperBound(path);
+			do {
+				int pos = l.findIndexGE(batch[i]);
+				if (pos >= 0 && compare(l.keys[pos], batch[i]) == 0) {
+					l = writable(path, path.length - 1);
+					if (path.length > 1 && l.numberOfKeys <= fanout / 2) { // if l would become underfull
+						delete_entry(path, path.length - 1, pos); // merge or redistribute and descend again
+						i++;
+						break;
+					}
+					l.remove(pos);
+				}
+				i++;
+			} while (i < batch.length && (upper == null || compare(batch[i], upper) < 0));
+		}
+	}
+
+	/**
+	 * Deletes the entries whose keys fall in the specified range. Whole subtrees inside the range are unlinked at
+	 * once and only the nodes on the paths to the two ends of the range are trimmed and rebalanced (see
+	 * RangeDeleter), so the cost depends on the height of the tree rather than on the number of deleted entries.
+	 * 
+	 * @param fromKey
+	 *            the lower bound of the range (null if the range has no lower bound).
+	 * @param fromInclusive
+	 *            a flag indicating whether or not the range includes fromKey.
+	 * @param toKey
+	 *            the upper bound of the range (null if the range has no upper bound).
+	 * @param toInclusive
+	 *            a flag indicating whether or not the range includes toKey.
+	 */
+	public void deleteRange(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive) {
+		unshare();
+		if (root == null)
+			return;
+		if (fromKey != null && toKey != null) {
+			int c = compare(fromKey, toKey);
+			if (c > 0 || c == 0 && !(fromInclusive && toInclusive)) // if the range is empty
+				return;
+		}
+		new RangeDeleter(fromKey, fromInclusive, toKey, toInclusive).run();
+	}
 
+	/**
+	 * Deletes the entries whose keys are at least fromKey and smaller than toKey.
+	 * 
+	 * @param fromKey
+	 *            the lower bound of the range (inclusive).
+	 * @param toKey
+	 *            the upper bound of the range (exclusive).
+	 */
+	public void deleteRange(Object fromKey, Object toKey) {
+		deleteRange(fromKey, true, toKey, false);
+	}
+
+	/**
+	 * Returns a Compactor that packs the nodes of this BPlusTree at the specified fill factor, a few nodes per step
+	 * (see Compactor.step). Other operations may run on this BPlusTree between the steps.
+	 * 
+	 * @param targetFill
+	 *            the fraction of each node to fill (0 < targetFill <= 1).
+	 * @return a Compactor that packs the nodes of this BPlusTree at the specified fill factor.
+	 * @throws IllegalArgumentException
+	 *             if the target fill factor is not in (0, 1].
+	 */
+	public Compactor compactor(double targetFill) {
+		unshare();
+		return new Compactor(targetFill);
+	}
+
+	/**
+	 * Packs every node of this BPlusTree at the specified fill factor.
+	 * 
+	 * @param targetFill
+	 *            the fraction of each node to fill (0 < targetFill <= 1).
+	 * @return the Compactor that has packed the nodes (which reports the space reclaimed and the change in height).
+	 * @throws IllegalArgumentException
+	 *             if the target fill factor is not in (0, 1].
+	 */
+	public Compactor compact(double targetFill) {
+		unshare();
+		Compactor compactor = new Compactor(targetFill);
+		compactor.run();
+		return compactor;
+	}
 
+	/**
+	 * Replaces the contents of this BPlusTree with the specified entries by building the tree bottom-up instead of
+	 * inserting the entries one by one. Leaf nodes are filled up to the specified fill factor and linked through their
+	 * last pointers, and the non-leaf levels are built while the entries are read, in a single pass.
+	 * 
+	 * @param entries
+	 *            the key/value pairs to load in ascending key order.
+	 * @param fillFactor
+	 *            the fraction of each node to fill (0 < fillFactor <= 1).
+	 * @throws IllegalArgumentException
+	 *             if the fill factor is not in (0, 1] or the entries are not sorted by key.
+	 */
+	public void bulkLoad(java.util.Iterator<? extends util.Pair<?, ?>> entries, double fillFactor) {
+		if (!(fillFactor > 0 && fillFactor <= 1))
+			throw new IllegalArgumentException("fill factor " + fillFactor + " is not in (0, 1]");
+		BulkLoader loader = new BulkLoader(fillFactor);
+		Object previous = null;
+		boolean first = true;
+		while (entries.hasNext()) {
+			util.Pair<?, ?> entry = entries.next();
+			Object key = entry.getFirst();
+			if (!first && compare(previous, key) > 0)
+				throw new IllegalArgumentException("key " + key + " follows key " + previous + " (input is not sorted)");
+			loader.addEntry(key, entry.getSecond());
+			previous = key;
+			first = false;
 		}
+		root = loader.finish();
+	}
+
+	/**
+	 * Returns a Cursor over the entries of this BPlusTree whose keys fall in the specified range, in ascending key
+	 * order.
+	 * 
+	 * @param fromKey
+	 *            the lower bound of the range (null if the range has no lower bound).
+	 * @param fromInclusive
+	 *            a flag indicating whether or not the range includes fromKey.
+	 * @param toKey
+	 *            the upper bound of the range (null if the range has no upper bound).
+	 * @param toInclusive
+	 *            a flag indicating whether or not the range includes toKey.
+	 * @return a Cursor positioned before the first entry in the range.
+	 */
+	public Cursor scan(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive) {
+		return new Cursor(fromKey, fromInclusive, toKey, toInclusive, false);
+	}
+
+	/**
+	 * Returns a Cursor over the entries of this BPlusTree whose keys fall in the specified range.
+	 * 
+	 * @param fromKey
+	 *            the lower bound of the range (null if the range has no lower bound).
+	 * @param fromInclusive
+	 *            a flag indicating whether or not the range includes fromKey.
+	 * @param toKey
+	 *            the upper bound of the range (null if the range has no upper bound).
+	 * @param toInclusive
+	 *            a flag indicating whether or not the range includes toKey.
+	 * @param descending
+	 *            a flag indicating whether or not the entries must be returned in descending key order.
+	 * @return a Cursor positioned before the first entry to return.
+	 */
+	public Cursor scan(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive, boolean descending) {
+		return new Cursor(fromKey, fromInclusive, toKey, toInclusive, descending);
+	}
 
+	/**
+	 * Determines whether or not the specified key is an integer that INTERPOLATION can search for.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return true if the key is a Byte, Short, Integer or Long; false otherwise.
+	 */
+	static boolean isIntegral(Object key) {
+		return key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte;
+	}
+
+	/**
+	 * Compares the specified keys. byte[] keys (see util.OrderedBytes) are compared in unsigned lexicographic order
+	 * and all other keys by their natural order.
+	 * 
+	 * @param k1
+	 *            the first key.
+	 * @param k2
+	 *            the second key.
+	 * @return a negative integer, zero, or a positive integer if the first key is smaller than, equal to, or greater
+	 *         than the second key, respectively.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected int compare(Object k1, Object k2) {
+		if (k1 instanceof byte[])
+			return java.util.Arrays.compareUnsigned((byte[]) k1, (byte[]) k2);
+		return ((Comparable) k1).compareTo(k2);
 	}
 
-	private void shift(int index, Node n){
-		int i=0;
-		// Shifting keys/ pointers to the left. Suppose I'm deleting |10|20|, 10 here, I need to shift 20 to the left, else it'll have null value
-		if(index!=n.numberOfKeys-1){
-			for(i=index; i<n.numberOfKeys-1;i++){
-				n.keys[i] = n.keys[i+1];
-				n.pointers[i] = n.pointers[i+1];
+	/**
+	 * Returns the key to store in a non-leaf node between the nodes that hold the specified keys: a key s such that
+	 * left < s <= right. This method returns right itself, so a separator is a reference to a key that a leaf node
+	 * already holds and costs no memory of its own (a truncated copy, as used by B+-trees that store key bytes in
+	 * their nodes, would only add an object per separator). Subclasses that store keys by value may return shorter
+	 * separators.
+	 * 
+	 * @param left
+	 *            the largest key on the left side.
+	 * @param right
+	 *            the smallest key on the right side.
+	 * @return a key s such that left < s <= right.
+	 */
+	protected Object separator(Object left, Object right) {
+		return right;
+	}
+
+	/**
+	 * Returns the height of this BPlusTree.
+	 * 
+	 * @return the number of levels of this BPlusTree (0 if it is empty).
+	 */
+	public int height() {
+		int height = 0;
+		for (Node n = root; n != null; n = n.isLeafNode() ? null : (Node) n.pointers[0])
+			height++;
+		return height;
+	}
+
+	/**
+	 * Deletes the specified key and the value from this BPlusTree (Database System Concepts, 6th Edition, page 498).
+	 * 
+	 * @param key
+	 *            the key to delete.
+	 * @param value
+	 *            the value to delete.
+	 */
+	public void delete(Object key, Object value) {
+		unshare();
+		if (root == null)
+			return;
+		Path path = path();
+		Node l = findEntry(key, path); // find the node which contains the key
+		int i = l.findIndexGE(key);
+		if (i >= 0 && compare(l.keys[i], key) == 0) // delete the entry only if the key is present
+			delete_entry(path, path.length - 1, i);
+	}
+
+	/**
+	 * Deletes an entry from the node at the specified position on the specified Path. If the node ends up with too
+	 * few entries, it is merged with, or borrows an entry from, a sibling, and the parent found on the Path is
+	 * updated accordingly.
+	 * 
+	 * @param path
+	 *            the Path that leads to the node.
+	 * @param level
+	 *            the position of the node on the Path.
+	 * @param pos
+	 *            the position of the key to delete; for a non-leaf node, the pointer right after the key is deleted
+	 *            as well.
+	 */
+	void delete_entry(Path path, int level, int pos) {
+		Node n = writable(path, level);
+		if (n.isLeafNode())
+			n.remove(pos);
+		else
+			n.removeAfter(pos);
+		if (level == 0) { // if n is the root
+			if (!n.isLeafNode() && n.numberOfKeys == 0) { // if the root has only one remaining child
+				root = (Node) n.pointers[0]; // make the child the new root
+				n.clear();
 			}
-			n.pointers[i] = n.pointers[i+1];
-			n.pointers[i+1]=null; // After shifting, we get 1 last pointer which is not gonna be used. Hence null.
-			n.keys[n.numberOfKeys-1]=null; // This key is shifted, left, hence null now.
+			return;
+		}
+		if (!n.isUnderfull())
+			return;
+		Node p = path.nodes[level - 1];
+		int i = path.indices[level - 1]; // the position of n in p
+		int k = i > 0 ? i - 1 : i; // the position of the key between n and its sibling in p
+		Node left = writableChild(p, k);
+		Node right = writableChild(p, k + 1);
+		int keys = left.numberOfKeys + right.numberOfKeys + (n.isLeafNode() ? 0 : 1);
+		if (keys <= fanout - 1) { // if the entries in n and its sibling fit in a single node
+			merge(left, p.keys[k], right);
+			delete_entry(path, level - 1, k); // delete the key between the nodes and the pointer to right
+		} else if (left == n) { // redistribution: borrow an entry from the next sibling
+			borrowFromRight(p, k, left, right);
+		} else { // redistribution: borrow an entry from the previous sibling
+			borrowFromLeft(p, k, left, right);
 		}
-		n.numberOfKeys--; // After deletion, decrease the no. of Keys for the node.
 	}
 
-	private int noOfpointers(Node p){
+	/**
+	 * Makes sure that none of the specified children of the specified node is underfull. An underfull child is
+	 * merged with, or takes entries from, a sibling. When non-leaf children are merged or exchange entries, their
+	 * children are fixed in turn because one of them may be a node that has been left underfull for lack of a
+	 * sibling and now has one.
+	 * 
+	 * @param n
+	 *            a non-leaf node that this BPlusTree may change in place.
+	 * @param a
+	 *            the position of the first child to examine.
+	 * @param b
+	 *            the position of the last child to examine.
+	 * @return the number of nodes removed by merging.
+	 */
+	int fix(Node n, int a, int b) {
+		int merges = 0;
+		for (int i = a; i <= b && i <= n.numberOfKeys && n.numberOfKeys > 0;) {
+			if (!((Node) n.pointers[i]).isUnderfull()) {
+				i++;
+				continue;
+			}
+			int k = i < n.numberOfKeys ? i : i - 1; // pair the child with its next sibling if there is one
+			Node left = writableChild(n, k);
+			Node right = writableChild(n, k + 1);
+			int seam = left.numberOfKeys + 1; // the position of the first child of right after a merge
+			if (rebalance(n, k)) {
+				merges++;
+				if (!left.isLeafNode())
+					merges += fix(left, seam - 1, seam);
+				b = Math.max(b - 1, k);
+			} else {
+				if (!left.isLeafNode()) { // the moved children may sit next to a child left underfull
+					merges += fix(left, 0, left.numberOfKeys);
+					merges += fix(right, 0, right.numberOfKeys);
+				}
+				b = Math.max(b, k + 1);
+			}
+			i = k; // examine the children again because fixing the seam may have removed entries
+		}
+		return merges;
+	}
 
-		// Find number of pointers in a node.
+	/**
+	 * Merges the specified adjacent children of the specified node if their entries fit in a single node, or
+	 * otherwise moves entries between them until neither of them is underfull.
+	 * 
+	 * @param p
+	 *            a node that this BPlusTree may change in place.
+	 * @param k
+	 *            the position of the key between the children in p.
+	 * @return true if the children were merged; false otherwise.
+	 */
+	boolean rebalance(Node p, int k) {
+		Node left = writableChild(p, k);
+		Node right = writableChild(p, k + 1);
+		int keys = left.numberOfKeys + right.numberOfKeys + (left.isLeafNode() ? 0 : 1);
+		if (keys <= fanout - 1) {
+			merge(left, p.keys[k], right);
+			p.removeAfter(k);
+			return true;
+		}
+		while (left.isUnderfull())
+			borrowFromRight(p, k, left, right);
+		while (right.isUnderfull())
+			borrowFromLeft(p, k, left, right);
+		return false;
+	}
 
-		int count = 0;
-		for(int i=0; i < p.pointers.length; i++){
-			if(p.pointers[i]!=null)
-				count++; // Count increments, when node is not maintaining null pointers
+	/**
+	 * Appends every entry of the specified right node to the specified left node and clears the right node.
+	 * 
+	 * @param left
+	 *            the left node.
+	 * @param key
+	 *            the key between the nodes in their parent.
+	 * @param right
+	 *            the right node.
+	 */
+	void merge(Node left, Object key, Node right) {
+		structureVersion++;
+		int n = left.numberOfKeys;
+		if (left.isLeafNode()) {
+			System.arraycopy(right.keys, 0, left.keys, n, right.numberOfKeys);
+			System.arraycopy(right.pointers, 0, left.pointers, n, right.numberOfKeys);
+			left.numberOfKeys += right.numberOfKeys;
+			left.pointers[fanout - 1] = right.pointers[fanout - 1]; // set the last pointer of left to the next node
+		} else {
+			left.keys[n] = key; // the key between the nodes separates the pointers of the nodes
+			System.arraycopy(right.keys, 0, left.keys, n + 1, right.numberOfKeys);
+			System.arraycopy(right.pointers, 0, left.pointers, n + 1, right.numberOfKeys + 1);
+			left.numberOfKeys += right.numberOfKeys + 1;
 		}
-		return count; // Final count of pointers in the node.
+		right.clear();
 	}
 
+	/**
+	 * Moves the first entry of the specified right node to the end of the specified left node.
+	 * 
+	 * @param p
+	 *            the parent of the nodes.
+	 * @param k
+	 *            the position of the key between the nodes in the parent.
+	 * @param left
+	 *            the left node.
+	 * @param right
+	 *            the right node.
+	 */
+	void borrowFromRight(Node p, int k, Node left, Node right) {
+		structureVersion++;
+		if (left.isLeafNode()) {
+			left.insert(right.keys[0], right.pointers[0], left.numberOfKeys);
+			right.remove(0);
+			p.keys[k] = separator(left.keys[left.numberOfKeys - 1], right.keys[0]);
+		} else {
+			left.keys[left.numberOfKeys] = p.keys[k];
+			left.pointers[left.numberOfKeys + 1] = right.pointers[0];
+			left.numberOfKeys++;
+			p.keys[k] = right.keys[0];
+			System.arraycopy(right.pointers, 1, right.pointers, 0, right.numberOfKeys);
+			right.pointers[right.numberOfKeys] = null;
+			right.numberOfKeys--;
+			System.arraycopy(right.keys, 1, right.keys, 0, right.numberOfKeys);
+			right.keys[right.numberOfKeys] = null;
+		}
+	}
+
+	/**
+	 * Moves the last entry of the specified left node to the front of the specified right node.
+	 * 
+	 * @param p
+	 *            the parent of the nodes.
+	 * @param k
+	 *            the position of the key between the nodes in the parent.
+	 * @param left
+	 *            the left node.
+	 * @param right
+	 *            the right node.
+	 */
+	void borrowFromLeft(Node p, int k, Node left, Node right) {
+		structureVersion++;
+		int last = left.numberOfKeys - 1;
+		if (right.isLeafNode()) {
+			right.insert(left.keys[last], left.pointers[last], 0);
+			left.remove(last);
+			p.keys[k] = separator(left.keys[last - 1], right.keys[0]);
+		} else {
+			System.arraycopy(right.keys, 0, right.keys, 1, right.numberOfKeys);
+			System.arraycopy(right.pointers, 0, right.pointers, 1, right.numberOfKeys + 1);
+			right.keys[0] = p.keys[k];
+			right.pointers[0] = left.pointers[last + 1];
+			right.numberOfKeys++;
+			p.keys[k] = left.keys[last];
+			left.keys[last] = null;
+			left.pointers[last + 1] = null;
+			left.numberOfKeys--;
+		}
+	}
 
 }
@@ -149,7 +149,7 @@ public class BPlusTreeVisualizer extends util.ZoomView implements java.awt.event
 				} else if (command[0].equals("delete")) {
 					tree.delete(Integer.parseInt(command[1]), null);
 				}
-				trees.add(new util.Pair<BPlusTree, String>(new BPlusTree(tree), line));
+				trees.add(new util.Pair<BPlusTree, String>(tree.snapshot(), line));
 			}
 		} catch (Exception e) {
 			// e.printStackTrace();
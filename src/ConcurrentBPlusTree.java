@@ -0,0 +1,526 @@
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ConcurrentBPlusTree class implements B-link trees (Lehman and Yao, Efficient Locking for Concurrent Operations
+ * on B-Trees, 1981), which allow any number of threads to search and update a tree at the same time. Every node
+ * carries a high key (the upper bound of the keys that belong to the node) and a right-link to its right sibling. As
+ * in BPlusTree, the last pointer of each node is reserved for the right sibling. A node whose high key is not greater
+ * than the search key has been split since its parent was read, and the search recovers by following the
+ * right-link. Searches therefore take no locks, and updates lock only the node that they change (and, while a split
+ * propagates, the parent that receives the new separator).
+ *
+ * Writers change nodes in place, so an update allocates nothing unless it splits a node. Since Java has no atomic
+ * page writes, each node carries a version word that a writer makes odd while it changes the node (as in
+ * OptimisticBPlusTree). Readers read a node between two reads of its version word and read it again if a writer
+ * changed it in the meantime. Deletions remove entries from leaf nodes without merging nodes.
+ */
+public class ConcurrentBPlusTree {
+
+	/**
+	 * The maximum number of children that each node of this ConcurrentBPlusTree can have.
+	 */
+	protected int fanout;
+
+	/**
+	 * The root node of this ConcurrentBPlusTree.
+	 */
+	protected volatile Node root;
+
+	/**
+	 * The lock that serializes the installation of new root nodes.
+	 */
+	protected final ReentrantLock rootLock = new ReentrantLock();
+
+	/**
+	 * The stack of each thread, which records the rightmost node that insert visits at each non-leaf level (indexed
+	 * by level). It is replaced by a larger one only when the tree has grown, so inserts allocate no stack.
+	 */
+	protected final ThreadLocal<Node[]> stacks = new ThreadLocal<Node[]>() {
+
+		@Override
+		protected Node[] initialValue() {
+			return new Node[8];
+		}
+
+	};
+
+	/**
+	 * The Node class implements nodes that constitute a ConcurrentBPlusTree.
+	 */
+	protected class Node {
+
+		/**
+		 * The level of this Node (0 for leaf nodes).
+		 */
+		final int level;
+
+		/**
+		 * The version word of this Node, which is odd while a writer changes this Node and advances each time the
+		 * change completes.
+		 */
+		volatile long version;
+
+		/**
+		 * The number of keys in this Node.
+		 */
+		int numberOfKeys;
+
+		/**
+		 * The keys of this Node.
+		 */
+		final Object[] keys;
+
+		/**
+		 * The values (for a leaf node) or children (for a non-leaf node), followed by the right-link in the last
+		 * slot.
+		 */
+		final Object[] pointers;
+
+		/**
+		 * The upper bound (exclusive) of the keys that belong to this Node (null if this Node is the rightmost node
+		 * of its level).
+		 */
+		Object highKey;
+
+		/**
+		 * The lock that writers hold while they change this Node.
+		 */
+		final ReentrantLock lock = new ReentrantLock();
+
+		/**
+		 * Constructs an empty Node.
+		 *
+		 * @param level
+		 *            the level of the Node (0 for leaf nodes).
+		 */
+		protected Node(int level) {
+			this.level = level;
+			this.keys = new Object[fanout - 1];
+			this.pointers = new Object[capacity() + 1];
+		}
+
+		/**
+		 * Determines whether or not this Node is a leaf node.
+		 *
+		 * @return true if this Node is a leaf node; false otherwise.
+		 */
+		protected boolean isLeafNode() {
+			return level == 0;
+		}
+
+		/**
+		 * Returns the number of slots for values or children (excluding the right-link) in this Node.
+		 *
+		 * @return the number of slots for values or children in this Node.
+		 */
+		int capacity() {
+			return isLeafNode() ? fanout - 1 : fanout;
+		}
+
+		/**
+		 * Returns the right sibling of this Node.
+		 *
+		 * @return the right sibling; null if there is no right sibling.
+		 */
+		Node right() {
+			return (Node) pointers[pointers.length - 1];
+		}
+
+		/**
+		 * Waits until no writer is changing this Node and returns its version word.
+		 *
+		 * @return the version word of this Node.
+		 */
+		long readVersion() {
+			long v;
+			while (((v = version) & 1) != 0)
+				Thread.onSpinWait();
+			return v;
+		}
+
+		/**
+		 * Determines whether or not this Node still has the specified version word, that is, whether or not the
+		 * reads of this Node since the version word was read observed a consistent state.
+		 *
+		 * @param v
+		 *            the version word returned by {@link #readVersion()}.
+		 * @return true if this Node still has the specified version word; false otherwise.
+		 */
+		boolean validate(long v) {
+			VarHandle.acquireFence(); // the reads of the node must complete before the version word is read again
+			return version == v;
+		}
+
+		/**
+		 * Marks the beginning of a change to this Node (by a writer that holds the lock of this Node).
+		 */
+		void beginChange() {
+			version++;
+			VarHandle.storeStoreFence(); // readers must see the odd version word before any change
+		}
+
+		/**
+		 * Marks the end of a change to this Node.
+		 */
+		void endChange() {
+			version++;
+		}
+
+	}
+
+	/**
+	 * Constructs a ConcurrentBPlusTree.
+	 *
+	 * @param fanout
+	 *            the maximum number of children that each node of this ConcurrentBPlusTree can have.
+	 */
+	public ConcurrentBPlusTree(int fanout) {
+		this.fanout = fanout;
+		this.root = new Node(0);
+	}
+
+	/**
+	 * Returns the value associated with the specified key without taking any lock.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the value associated with the specified key; null if the key is not in this ConcurrentBPlusTree.
+	 */
+	public Object get(Object key) {
+		Node c = root;
+		for (;;) {
+			long v = c.readVersion();
+			Node n = null;
+			Object value = null;
+			try {
+				if (c.highKey != null && compare(key, c.highKey) >= 0) { // if c was split, move right
+					n = c.right();
+				} else if (c.isLeafNode()) {
+					int i = lowerBound(c, key);
+					if (i < c.numberOfKeys && compare(c.keys[i], key) == 0)
+						value = c.pointers[i];
+				} else {
+					n = (Node) c.pointers[childIndex(c, key)];
+				}
+			} catch (RuntimeException e) { // may be caused by reading c while it was being changed
+				if (c.validate(v))
+					throw e;
+				continue;
+			}
+			if (!c.validate(v)) // c was changed while it was read
+				continue;
+			if (n == null)
+				return value;
+			c = n;
+		}
+	}
+
+	/**
+	 * Inserts the specified key and the value into this ConcurrentBPlusTree.
+	 *
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 */
+	public void insert(Object key, Object value) {
+		Node c = root;
+		int top = c.level; // the highest level recorded in the stack
+		Node[] stack = stacks.get(); // the rightmost node visited at each non-leaf level
+		if (stack.length <= top)
+			stacks.set(stack = new Node[2 * (top + 1)]);
+		while (!c.isLeafNode()) {
+			Node n = next(c, key, 0);
+			if (n.level < c.level)
+				stack[c.level] = c;
+			c = n;
+		}
+		c.lock.lock();
+		c = moveRight(c, key);
+		Object k = key;
+		Object p = value;
+		for (;;) {
+			int pos = lowerBound(c, k);
+			if (c.numberOfKeys < fanout - 1) { // if c has room for the new entry
+				insert(c, k, p, pos);
+				c.lock.unlock();
+				return;
+			}
+			Node nn = split(c, k, p, pos); // c.highKey is now the separator
+			k = c.highKey;
+			p = nn;
+			if (c == root && installRoot(c, k, nn)) {
+				c.lock.unlock();
+				return;
+			}
+			Node parent = c.level < top ? stack[c.level + 1] : findNode(c.level + 1, k);
+			parent.lock.lock(); // lock the parent before releasing c
+			c.lock.unlock();
+			c = moveRight(parent, k);
+		}
+	}
+
+	/**
+	 * Deletes the specified key and the value from this ConcurrentBPlusTree. Leaf nodes that become sparse are not
+	 * merged.
+	 *
+	 * @param key
+	 *            the key to delete.
+	 * @param value
+	 *            the value to delete.
+	 */
+	public void delete(Object key, Object value) {
+		Node c = findNode(0, key);
+		c.lock.lock();
+		try {
+			c = moveRight(c, key);
+			int pos = lowerBound(c, key);
+			if (pos < c.numberOfKeys && compare(c.keys[pos], key) == 0) {
+				int n = c.numberOfKeys - 1;
+				c.beginChange();
+				System.arraycopy(c.keys, pos + 1, c.keys, pos, n - pos);
+				System.arraycopy(c.pointers, pos + 1, c.pointers, pos, n - pos);
+				c.keys[n] = null;
+				c.pointers[n] = null;
+				c.numberOfKeys = n;
+				c.endChange();
+			}
+		} finally {
+			c.lock.unlock();
+		}
+	}
+
+	/**
+	 * Follows right-links from the specified locked node until reaching the node responsible for the specified key.
+	 * The lock of each node is released only after the lock of its right sibling is acquired.
+	 *
+	 * @param c
+	 *            a node locked by the calling thread.
+	 * @param key
+	 *            the key.
+	 * @return the locked node responsible for the specified key.
+	 */
+	Node moveRight(Node c, Object key) {
+		for (;;) {
+			if (c.highKey == null || compare(key, c.highKey) < 0)
+				return c;
+			Node r = c.right();
+			r.lock.lock();
+			c.lock.unlock();
+			c = r;
+		}
+	}
+
+	/**
+	 * Finds, without taking any lock, the node at the specified level that is responsible for the specified key.
+	 *
+	 * @param level
+	 *            the level of the node to find.
+	 * @param key
+	 *            the key.
+	 * @return the node at the specified level that is responsible for the specified key.
+	 */
+	Node findNode(int level, Object key) {
+		Node c = root;
+		while (c.level < level) { // wait until the thread that split the root installs a new root
+			Thread.yield();
+			c = root;
+		}
+		for (;;) {
+			Node n = next(c, key, level);
+			if (n == c)
+				return c;
+			c = n;
+		}
+	}
+
+	/**
+	 * Reads the specified node without taking any lock and returns the node to visit next in order to find the node
+	 * at the specified level that is responsible for the specified key: the right sibling if the node was split, the
+	 * child to follow if the node is above the level, or the node itself otherwise.
+	 *
+	 * @param c
+	 *            a node at or above the specified level.
+	 * @param key
+	 *            the key.
+	 * @param level
+	 *            the level of the node to find.
+	 * @return the node to visit next; c if c is the node to find.
+	 */
+	Node next(Node c, Object key, int level) {
+		for (;;) {
+			long v = c.readVersion();
+			Node n;
+			try {
+				if (c.highKey != null && compare(key, c.highKey) >= 0)
+					n = c.right();
+				else if (c.level == level)
+					n = c;
+				else
+					n = (Node) c.pointers[childIndex(c, key)];
+			} catch (RuntimeException e) { // may be caused by reading c while it was being changed
+				if (c.validate(v))
+					throw e;
+				continue;
+			}
+			if (c.validate(v))
+				return n;
+		}
+	}
+
+	/**
+	 * Makes a new root that points to the specified nodes if the specified node is still the root.
+	 *
+	 * @param n
+	 *            the node that was split.
+	 * @param key
+	 *            the key that separates the nodes.
+	 * @param nn
+	 *            the new right sibling of n.
+	 * @return true if a new root has been installed; false if n is no longer the root.
+	 */
+	boolean installRoot(Node n, Object key, Node nn) {
+		rootLock.lock();
+		try {
+			if (root != n)
+				return false;
+			Node r = new Node(n.level + 1);
+			r.keys[0] = key;
+			r.pointers[0] = n;
+			r.pointers[1] = nn;
+			r.numberOfKeys = 1;
+			root = r;
+			return true;
+		} finally {
+			rootLock.unlock();
+		}
+	}
+
+	/**
+	 * Inserts the specified entry into the specified node in place.
+	 *
+	 * @param c
+	 *            the node (locked by the calling thread and with room for the entry).
+	 * @param key
+	 *            the key to insert.
+	 * @param pointer
+	 *            the value (for a leaf node) or the child that follows the key (for a non-leaf node).
+	 * @param pos
+	 *            the insertion position of the key.
+	 */
+	void insert(Node c, Object key, Object pointer, int pos) {
+		int shift = c.isLeafNode() ? 0 : 1; // the pointer that follows a key in a non-leaf node
+		int n = c.numberOfKeys;
+		c.beginChange();
+		System.arraycopy(c.keys, pos, c.keys, pos + 1, n - pos);
+		c.keys[pos] = key;
+		System.arraycopy(c.pointers, pos + shift, c.pointers, pos + shift + 1, n - pos);
+		c.pointers[pos + shift] = pointer;
+		c.numberOfKeys = n + 1;
+		c.endChange();
+	}
+
+	/**
+	 * Splits the specified full node while inserting the specified entry. The new right sibling is made reachable
+	 * through the right-link of the node in the same change that makes the key that separates the nodes the high key
+	 * of the node.
+	 *
+	 * @param c
+	 *            the node to split (locked by the calling thread).
+	 * @param key
+	 *            the key to insert.
+	 * @param pointer
+	 *            the value (for a leaf node) or the child that follows the key (for a non-leaf node).
+	 * @param pos
+	 *            the insertion position of the key.
+	 * @return the new right sibling.
+	 */
+	Node split(Node c, Object key, Object pointer, int pos) {
+		boolean leaf = c.isLeafNode();
+		int shift = leaf ? 0 : 1;
+		Object[] keys = new Object[fanout]; // all the keys including the new one
+		Object[] pointers = new Object[fanout + shift]; // all the values or children including the new one
+		System.arraycopy(c.keys, 0, keys, 0, pos);
+		keys[pos] = key;
+		System.arraycopy(c.keys, pos, keys, pos + 1, c.numberOfKeys - pos);
+		System.arraycopy(c.pointers, 0, pointers, 0, pos + shift);
+		pointers[pos + shift] = pointer;
+		System.arraycopy(c.pointers, pos + shift, pointers, pos + shift + 1, c.numberOfKeys - pos);
+		int m = (fanout + 1) / 2; // the number of values or children that stay in c
+		int leftKeys = leaf ? m : m - 1; // a non-leaf node pushes its middle key up as the separator
+		Object separator = leaf ? keys[m] : keys[m - 1];
+		int rightKeys = fanout - m;
+		Node nn = new Node(c.level);
+		System.arraycopy(keys, m, nn.keys, 0, rightKeys);
+		System.arraycopy(pointers, m, nn.pointers, 0, rightKeys + shift);
+		nn.pointers[nn.pointers.length - 1] = c.right();
+		nn.numberOfKeys = rightKeys;
+		nn.highKey = c.highKey;
+		c.beginChange();
+		System.arraycopy(keys, 0, c.keys, 0, leftKeys);
+		java.util.Arrays.fill(c.keys, leftKeys, c.keys.length, null);
+		System.arraycopy(pointers, 0, c.pointers, 0, m);
+		java.util.Arrays.fill(c.pointers, m, c.pointers.length - 1, null);
+		c.pointers[c.pointers.length - 1] = nn;
+		c.numberOfKeys = leftKeys;
+		c.highKey = separator;
+		c.endChange();
+		return nn;
+	}
+
+	/**
+	 * Returns the first index i such that c.keys[i] >= the given key.
+	 *
+	 * @param c
+	 *            a node.
+	 * @param key
+	 *            the given key.
+	 * @return the first index i such that c.keys[i] >= the given key; c.numberOfKeys if there is no such i.
+	 */
+	int lowerBound(Node c, Object key) {
+		int from = 0;
+		int to = c.numberOfKeys;
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (compare(c.keys[mid], key) < 0)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from;
+	}
+
+	/**
+	 * Returns the position of the child to follow in order to find the specified key.
+	 *
+	 * @param c
+	 *            a non-leaf node.
+	 * @param key
+	 *            the search key.
+	 * @return the position of the child to follow in order to find the specified key.
+	 */
+	int childIndex(Node c, Object key) {
+		int i = lowerBound(c, key);
+		return i < c.numberOfKeys && compare(c.keys[i], key) == 0 ? i + 1 : i;
+	}
+
+	/**
+	 * Compares the specified keys. byte[] keys (see util.OrderedBytes) are compared in unsigned lexicographic order
+	 * and all other keys by their natural order.
+	 *
+	 * @param k1
+	 *            the first key.
+	 * @param k2
+	 *            the second key.
+	 * @return a negative integer, zero, or a positive integer if the first key is smaller than, equal to, or greater
+	 *         than the second key, respectively.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected int compare(Object k1, Object k2) {
+		if (k1 instanceof byte[])
+			return java.util.Arrays.compareUnsigned((byte[]) k1, (byte[]) k2);
+		return ((Comparable) k1).compareTo(k2);
+	}
+
+}
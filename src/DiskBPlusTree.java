@@ -0,0 +1,1357 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The DiskBPlusTree class implements B+-trees that keep their nodes in a file rather than in the main memory. Each
+ * node occupies one fixed-size page of the file and nodes refer to each other by page id. The keys and the values are
+ * primitive long values so that every page holds as many entries as its size allows, and the fanout is derived from
+ * the page size accordingly.
+ *
+ * Page 0 of the file holds the metadata of the tree (the page size, the root page id, the number of pages and the
+ * first free page). Every other page starts with a header that holds the number of keys, the leaf flag and the page id
+ * of the next leaf node, followed by the keys and then the values (or the page ids of the children). Pages are
+ * accessed through a BufferPool of bounded size, so the memory use of a DiskBPlusTree does not grow with the file. The
+ * pages of the upper levels of the tree are kept sticky in the BufferPool so that descents rarely read them.
+ *
+ * Optionally, a DiskBPlusTree keeps a util.BloomFilter over the keys of each leaf node in the main memory (see
+ * enableLeafFilters). A lookup of an absent key then usually stops at the parent of the leaf node without reading the
+ * leaf page. A leaf filter is built when the leaf page is read by a lookup, rebuilt when the leaf node is split, and
+ * dropped when keys leave or merge into the leaf node, so deletions never leave stale keys in a filter for long. The
+ * filters are kept in a fixed number of slots, so like the pages they occupy bounded memory however large the file.
+ */
+public class DiskBPlusTree implements java.io.Closeable {
+
+	/**
+	 * The default page size in bytes.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+
+	/**
+	 * The number of bytes that each key occupies in a page.
+	 */
+	public static final int KEY_WIDTH = Long.BYTES;
+
+	/**
+	 * The number of bytes that each value or page id occupies in a page.
+	 */
+	public static final int POINTER_WIDTH = Long.BYTES;
+
+	/**
+	 * The number of bytes of the header of each page.
+	 */
+	public static final int HEADER_SIZE = 16;
+
+	/**
+	 * The offset of the number of keys in the header of a page.
+	 */
+	static final int NUMBER_OF_KEYS = 0;
+
+	/**
+	 * The offset of the leaf flag in the header of a page.
+	 */
+	static final int LEAF = 4;
+
+	/**
+	 * The offset of the page id of the next leaf node (or the next free page) in the header of a page.
+	 */
+	static final int NEXT = 8;
+
+	/**
+	 * The default number of pages that the BufferPool of a DiskBPlusTree holds.
+	 */
+	public static final int DEFAULT_POOL_CAPACITY = 1024;
+
+	/**
+	 * The default number of levels (counted from the root) whose pages are kept sticky in the BufferPool.
+	 */
+	public static final int DEFAULT_STICKY_LEVELS = 2;
+
+	/**
+	 * The default maximum number of leaf filters (about 5 MiB of filters with 4 KiB pages and a false positive rate
+	 * of 1%).
+	 */
+	public static final int DEFAULT_MAX_LEAF_FILTERS = 1 << 14;
+
+	/**
+	 * The number that identifies the files of DiskBPlusTrees.
+	 */
+	static final long MAGIC = 0x42506c7573547265L;
+
+	/**
+	 * The number of bytes of the metadata in page 0.
+	 */
+	static final int METADATA_SIZE = 40;
+
+	/**
+	 * The page id that refers to no page (page 0 holds the metadata and is never a node).
+	 */
+	static final long NONE = 0;
+
+	/**
+	 * The file channel that holds the pages of this DiskBPlusTree.
+	 */
+	protected FileChannel channel;
+
+	/**
+	 * The size of each page in bytes.
+	 */
+	protected int pageSize;
+
+	/**
+	 * The BufferPool that caches the pages of this DiskBPlusTree.
+	 */
+	protected util.BufferPool pool;
+
+	/**
+	 * The number of levels (counted from the root) whose pages are kept sticky in the BufferPool.
+	 */
+	protected int stickyLevels;
+
+	/**
+	 * The maximum number of pointers that each node of this DiskBPlusTree can have.
+	 */
+	protected int fanout;
+
+	/**
+	 * The offset of the first value (or child page id) in each page.
+	 */
+	protected int pointersOffset;
+
+	/**
+	 * The page id of the root node.
+	 */
+	protected long root;
+
+	/**
+	 * The number of levels of the tree (1 if the root is a leaf node).
+	 */
+	protected int height;
+
+	/**
+	 * The number of pages in the file (including page 0).
+	 */
+	protected long numberOfPages;
+
+	/**
+	 * The page id of the first free page (NONE if there is no free page). Each free page holds the page id of the
+	 * next free page where a leaf node holds the page id of the next leaf node.
+	 */
+	protected long freePage;
+
+	/**
+	 * A flag indicating whether or not the metadata has changed since it was last written.
+	 */
+	protected boolean metadataChanged;
+
+	/**
+	 * The buffer for the metadata.
+	 */
+	protected ByteBuffer metadata = ByteBuffer.allocateDirect(METADATA_SIZE);
+
+	/**
+	 * The pages visited by the latest descent from the root (pathPages[0] holds the root).
+	 */
+	protected Page[] pathPages = new Page[8];
+
+	/**
+	 * pathIndices[i] is the position of the page in pathPages[i + 1] among the children of pathPages[i].
+	 */
+	protected int[] pathIndices = new int[8];
+
+	/**
+	 * The number of pages on the current path.
+	 */
+	protected int pathLength;
+
+	/**
+	 * The page that holds a new node or a sibling while a node is split, merged or redistributed.
+	 */
+	protected Page spare;
+
+	/**
+	 * The slots of the BloomFilters over the keys of the leaf nodes (null if leaf filters are disabled). The filter of
+	 * the leaf node in page id can only be in slot id % leafFilters.length, so building it replaces the filter of
+	 * another leaf node in that slot, which is built again when a lookup reads that leaf page. Slots are filled
+	 * lazily and their filters are reused.
+	 */
+	protected util.BloomFilter[] leafFilters;
+
+	/**
+	 * filterPages[i] is the page id of the leaf node whose filter is in leafFilters[i] (NONE if slot i holds no valid
+	 * filter).
+	 */
+	protected long[] filterPages;
+
+	/**
+	 * The number of bits of each leaf filter.
+	 */
+	protected long leafFilterBits;
+
+	/**
+	 * The number of bits that each key sets in a leaf filter.
+	 */
+	protected int leafFilterHashes;
+
+	/**
+	 * The number of lookups that a leaf filter answered without reading the leaf page.
+	 */
+	protected long filterSkips;
+
+	/**
+	 * The number of lookups that read a leaf page whose filter might contain the key.
+	 */
+	protected long filterPasses;
+
+	/**
+	 * The number of lookups that read a leaf page whose filter might contain the key but did not find the key.
+	 */
+	protected long falsePositives;
+
+	/**
+	 * The Page class gives access to a node that is held in a frame of the BufferPool. A Page keeps its frame pinned
+	 * until it is released.
+	 */
+	protected class Page {
+
+		/**
+		 * The page id of this Page.
+		 */
+		long id;
+
+		/**
+		 * The frame that holds this Page (null if this Page is released).
+		 */
+		util.BufferPool.Frame frame;
+
+		/**
+		 * The contents of this Page.
+		 */
+		ByteBuffer buffer;
+
+		/**
+		 * Makes this Page an empty node with the specified page id.
+		 *
+		 * @param id
+		 *            the page id.
+		 * @param leaf
+		 *            true if this Page must be a leaf node; false otherwise.
+		 */
+		void init(long id, boolean leaf) {
+			this.id = id;
+			buffer.putInt(NUMBER_OF_KEYS, 0);
+			buffer.put(LEAF, (byte) (leaf ? 1 : 0));
+			buffer.putLong(NEXT, NONE);
+		}
+
+		/**
+		 * Returns the number of keys in this Page.
+		 *
+		 * @return the number of keys in this Page.
+		 */
+		int numberOfKeys() {
+			return buffer.getInt(NUMBER_OF_KEYS);
+		}
+
+		/**
+		 * Sets the number of keys in this Page.
+		 *
+		 * @param numberOfKeys
+		 *            the number of keys.
+		 */
+		void setNumberOfKeys(int numberOfKeys) {
+			buffer.putInt(NUMBER_OF_KEYS, numberOfKeys);
+		}
+
+		/**
+		 * Determines whether or not this Page is a leaf node.
+		 *
+		 * @return true if this Page is a leaf node; false otherwise.
+		 */
+		boolean isLeafNode() {
+			return buffer.get(LEAF) != 0;
+		}
+
+		/**
+		 * Returns the page id of the next leaf node.
+		 *
+		 * @return the page id of the next leaf node; NONE if this Page is the last leaf node.
+		 */
+		long next() {
+			return buffer.getLong(NEXT);
+		}
+
+		/**
+		 * Sets the page id of the next leaf node.
+		 *
+		 * @param next
+		 *            the page id of the next leaf node.
+		 */
+		void setNext(long next) {
+			buffer.putLong(NEXT, next);
+		}
+
+		/**
+		 * Returns the key at the specified position.
+		 *
+		 * @param i
+		 *            the position.
+		 * @return the key at the specified position.
+		 */
+		long key(int i) {
+			return buffer.getLong(HEADER_SIZE + i * KEY_WIDTH);
+		}
+
+		/**
+		 * Sets the key at the specified position.
+		 *
+		 * @param i
+		 *            the position.
+		 * @param key
+		 *            the key.
+		 */
+		void setKey(int i, long key) {
+			buffer.putLong(HEADER_SIZE + i * KEY_WIDTH, key);
+		}
+
+		/**
+		 * Returns the value (or the child page id) at the specified position.
+		 *
+		 * @param i
+		 *            the position.
+		 * @return the value (or the child page id) at the specified position.
+		 */
+		long pointer(int i) {
+			return buffer.getLong(pointersOffset + i * POINTER_WIDTH);
+		}
+
+		/**
+		 * Sets the value (or the child page id) at the specified position.
+		 *
+		 * @param i
+		 *            the position.
+		 * @param pointer
+		 *            the value (or the child page id).
+		 */
+		void setPointer(int i, long pointer) {
+			buffer.putLong(pointersOffset + i * POINTER_WIDTH, pointer);
+		}
+
+		/**
+		 * Determines whether or not this Page has room for a new entry.
+		 *
+		 * @return true if this Page has room for a new entry; false otherwise.
+		 */
+		boolean hasRoom() {
+			return numberOfKeys() < fanout - 1;
+		}
+
+		/**
+		 * Determines whether or not this Page has fewer entries than a non-root node must have.
+		 *
+		 * @return true if this Page has too few entries; false otherwise.
+		 */
+		boolean isUnderfull() {
+			if (isLeafNode())
+				return numberOfKeys() < fanout / 2;
+			return numberOfKeys() + 1 < (fanout + 1) / 2;
+		}
+
+		/**
+		 * Returns the first index i such that key(i) >= the given key (found by binary search because pages hold
+		 * many keys).
+		 *
+		 * @param key
+		 *            the given key.
+		 * @return the first index i such that key(i) >= the given key; numberOfKeys() if there is no such i.
+		 */
+		int lowerBound(long key) {
+			int from = 0;
+			int to = numberOfKeys();
+			while (from < to) {
+				int mid = (from + to) >>> 1;
+				if (key(mid) < key)
+					from = mid + 1;
+				else
+					to = mid;
+			}
+			return from;
+		}
+
+		/**
+		 * Returns the position of the child that must be responsible for the specified key (assuming that this Page
+		 * is a non-leaf node).
+		 *
+		 * @param key
+		 *            the search key.
+		 * @return the position of the child that must be responsible for the specified key.
+		 */
+		int childIndex(long key) {
+			int i = lowerBound(key);
+			return i < numberOfKeys() && key(i) == key ? i + 1 : i;
+		}
+
+		/**
+		 * Inserts the specified key and value at the specified location (assuming that this Page is a leaf node).
+		 *
+		 * @param key
+		 *            the key to insert.
+		 * @param value
+		 *            the value to insert.
+		 * @param pos
+		 *            the insertion position.
+		 */
+		void insert(long key, long value, int pos) {
+			int n = numberOfKeys();
+			copyKeys(this, pos, this, pos + 1, n - pos);
+			copyPointers(this, pos, this, pos + 1, n - pos);
+			setKey(pos, key);
+			setPointer(pos, value);
+			setNumberOfKeys(n + 1);
+		}
+
+		/**
+		 * Inserts the specified key at the specified location and the specified child right after it (assuming that
+		 * this Page is a non-leaf node).
+		 *
+		 * @param key
+		 *            the key to insert.
+		 * @param child
+		 *            the page id of the child to insert.
+		 * @param pos
+		 *            the insertion position of the key.
+		 */
+		void insertChild(long key, long child, int pos) {
+			int n = numberOfKeys();
+			copyKeys(this, pos, this, pos + 1, n - pos);
+			copyPointers(this, pos + 1, this, pos + 2, n - pos);
+			setKey(pos, key);
+			setPointer(pos + 1, child);
+			setNumberOfKeys(n + 1);
+		}
+
+		/**
+		 * Removes the key and value at the specified location (assuming that this Page is a leaf node).
+		 *
+		 * @param pos
+		 *            the position of the entry to remove.
+		 */
+		void remove(int pos) {
+			int n = numberOfKeys() - 1;
+			copyKeys(this, pos + 1, this, pos, n - pos);
+			copyPointers(this, pos + 1, this, pos, n - pos);
+			setNumberOfKeys(n);
+		}
+
+		/**
+		 * Removes the key at the specified location and the child right after it (assuming that this Page is a
+		 * non-leaf node).
+		 *
+		 * @param pos
+		 *            the position of the key to remove.
+		 */
+		void removeChild(int pos) {
+			int n = numberOfKeys() - 1;
+			copyKeys(this, pos + 1, this, pos, n - pos);
+			copyPointers(this, pos + 2, this, pos + 1, n - pos);
+			setNumberOfKeys(n);
+		}
+
+	}
+
+	/**
+	 * Opens the DiskBPlusTree stored in the specified file (or creates one if the file is empty or does not exist)
+	 * with the default page size and a BufferPool of the default capacity that uses the Clock policy.
+	 *
+	 * @param file
+	 *            the file.
+	 * @throws IOException
+	 *             if an I/O error occurs or the file does not hold a DiskBPlusTree with the default page size.
+	 */
+	public DiskBPlusTree(java.nio.file.Path file) throws IOException {
+		this(file, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Opens the DiskBPlusTree stored in the specified file (or creates one if the file is empty or does not exist)
+	 * with a BufferPool of the default capacity that uses the Clock policy.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param pageSize
+	 *            the size of each page in bytes.
+	 * @throws IllegalArgumentException
+	 *             if the page size is too small to hold a node with three pointers.
+	 * @throws IOException
+	 *             if an I/O error occurs or the file does not hold a DiskBPlusTree with the specified page size.
+	 */
+	public DiskBPlusTree(java.nio.file.Path file, int pageSize) throws IOException {
+		this(file, pageSize, DEFAULT_POOL_CAPACITY, new util.BufferPool.Clock(), DEFAULT_STICKY_LEVELS);
+	}
+
+	/**
+	 * Opens the DiskBPlusTree stored in the specified file (or creates one if the file is empty or does not exist).
+	 * The BufferPool must have more frames than twice the height of the tree because half of the frames at most are
+	 * kept sticky and an operation pins one page per level plus one. Updates check this before they change any page
+	 * (see checkCapacity), so a tree that outgrows its BufferPool rejects updates but stays intact.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param pageSize
+	 *            the size of each page in bytes.
+	 * @param poolCapacity
+	 *            the number of pages that the BufferPool holds.
+	 * @param policy
+	 *            the replacement policy of the BufferPool.
+	 * @param stickyLevels
+	 *            the number of levels (counted from the root) whose pages are kept sticky in the BufferPool.
+	 * @throws IllegalArgumentException
+	 *             if the page size is too small to hold a node with three pointers.
+	 * @throws IOException
+	 *             if an I/O error occurs or the file does not hold a DiskBPlusTree with the specified page size.
+	 */
+	public DiskBPlusTree(java.nio.file.Path file, int pageSize, int poolCapacity, util.BufferPool.Policy policy,
+			int stickyLevels) throws IOException {
+		this.pageSize = pageSize;
+		this.stickyLevels = stickyLevels;
+		this.fanout = fanout(pageSize);
+		if (fanout < 3 || pageSize < METADATA_SIZE)
+			throw new IllegalArgumentException("page size " + pageSize + " is too small");
+		this.pointersOffset = HEADER_SIZE + (fanout - 1) * KEY_WIDTH;
+		this.spare = new Page();
+		this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE);
+		this.pool = new util.BufferPool(channel, pageSize, poolCapacity, policy);
+		try {
+			if (channel.size() == 0) { // if a new file
+				numberOfPages = 1;
+				newPage(spare, true, 0);
+				root = spare.id;
+				height = 1;
+				release(spare);
+				flush();
+			} else {
+				readMetadata();
+				height = readHeight();
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the fanout of the nodes that fit in pages of the specified size.
+	 *
+	 * @param pageSize
+	 *            the size of each page in bytes.
+	 * @return the maximum number of pointers that a node in a page of the specified size can have.
+	 */
+	public static int fanout(int pageSize) {
+		// a node with fanout f needs (f - 1) keys and f pointers after the header
+		return (pageSize - HEADER_SIZE + KEY_WIDTH) / (KEY_WIDTH + POINTER_WIDTH);
+	}
+
+	/**
+	 * Returns the maximum number of pointers that each node of this DiskBPlusTree can have.
+	 *
+	 * @return the maximum number of pointers that each node of this DiskBPlusTree can have.
+	 */
+	public int getFanout() {
+		return fanout;
+	}
+
+	/**
+	 * Returns the BufferPool that caches the pages of this DiskBPlusTree.
+	 *
+	 * @return the BufferPool that caches the pages of this DiskBPlusTree.
+	 */
+	public util.BufferPool getBufferPool() {
+		return pool;
+	}
+
+	/**
+	 * Makes this DiskBPlusTree keep a BloomFilter over the keys of each leaf node (up to DEFAULT_MAX_LEAF_FILTERS
+	 * filters) so that lookups of absent keys can skip reading leaf pages.
+	 *
+	 * @param falsePositiveRate
+	 *            the false positive rate of a filter over a full leaf node (0 < falsePositiveRate < 1).
+	 * @throws IllegalArgumentException
+	 *             if the false positive rate is not in (0, 1).
+	 */
+	public void enableLeafFilters(double falsePositiveRate) {
+		enableLeafFilters(falsePositiveRate, DEFAULT_MAX_LEAF_FILTERS);
+	}
+
+	/**
+	 * Makes this DiskBPlusTree keep a BloomFilter over the keys of each leaf node (up to the specified number of
+	 * filters) so that lookups of absent keys can skip reading leaf pages. Each filter takes about 1.44 * log2(1 /
+	 * falsePositiveRate) bits per key that a leaf page can hold. Filters are built as lookups read leaf pages, so they
+	 * also exist for trees opened from a file.
+	 *
+	 * @param falsePositiveRate
+	 *            the false positive rate of a filter over a full leaf node (0 < falsePositiveRate < 1).
+	 * @param maxFilters
+	 *            the maximum number of filters kept at the same time.
+	 * @throws IllegalArgumentException
+	 *             if the false positive rate is not in (0, 1) or the maximum number of filters is not positive.
+	 */
+	public void enableLeafFilters(double falsePositiveRate, int maxFilters) {
+		if (maxFilters < 1)
+			throw new IllegalArgumentException("the maximum number of filters must be positive: " + maxFilters);
+		leafFilterBits = util.BloomFilter.numberOfBits(fanout - 1, falsePositiveRate);
+		leafFilterHashes = util.BloomFilter.numberOfHashes(fanout - 1, leafFilterBits);
+		leafFilters = new util.BloomFilter[maxFilters];
+		filterPages = new long[maxFilters];
+	}
+
+	/**
+	 * Returns the number of lookups that a leaf filter answered without reading the leaf page.
+	 *
+	 * @return the number of lookups that a leaf filter answered without reading the leaf page.
+	 */
+	public long getFilterSkipCount() {
+		return filterSkips;
+	}
+
+	/**
+	 * Returns the number of lookups that read a leaf page whose filter might contain the key.
+	 *
+	 * @return the number of lookups that read a leaf page whose filter might contain the key.
+	 */
+	public long getFilterPassCount() {
+		return filterPasses;
+	}
+
+	/**
+	 * Returns the number of lookups that read a leaf page whose filter might contain the key but did not find the
+	 * key.
+	 *
+	 * @return the number of lookups that were false positives of a leaf filter.
+	 */
+	public long getFalsePositiveCount() {
+		return falsePositives;
+	}
+
+	/**
+	 * Returns the number of bytes that the leaf filters occupy.
+	 *
+	 * @return the number of bytes that the leaf filters occupy (0 if leaf filters are disabled).
+	 */
+	public long getLeafFilterSizeInBytes() {
+		long size = 0;
+		if (leafFilters != null)
+			for (util.BloomFilter filter : leafFilters)
+				if (filter != null)
+					size += filter.getSizeInBytes();
+		return size;
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the value associated with the specified key; null if the key is not in this DiskBPlusTree.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public Long get(long key) throws IOException {
+		try {
+			Page l = find(key, true);
+			if (l == null) // if a leaf filter rules the key out
+				return null;
+			util.BloomFilter filter = filter(l.id);
+			if (leafFilters != null && filter == null)
+				buildFilter(l);
+			int i = l.lowerBound(key);
+			if (i < l.numberOfKeys() && l.key(i) == key)
+				return l.pointer(i);
+			if (filter != null)
+				falsePositives++;
+			return null;
+		} finally {
+			releaseAll();
+		}
+	}
+
+	/**
+	 * Finds the leaf node in this DiskBPlusTree that must be responsible for the specified key. The pages visited on
+	 * the way are recorded in pathPages and pathIndices.
+	 *
+	 * @param key
+	 *            the search key.
+	 * @return the Page that holds the leaf node.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected Page find(long key) throws IOException {
+		return find(key, false);
+	}
+
+	/**
+	 * Finds the leaf node in this DiskBPlusTree that must be responsible for the specified key. The pages visited on
+	 * the way are recorded in pathPages and pathIndices.
+	 *
+	 * @param key
+	 *            the search key.
+	 * @param filtered
+	 *            true if the descent must stop before reading a leaf page whose filter rules out the key.
+	 * @return the Page that holds the leaf node; null if a leaf filter rules out the key.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected Page find(long key, boolean filtered) throws IOException {
+		long id = root;
+		for (pathLength = 0;; pathLength++) {
+			if (filtered && pathLength == height - 1) { // if id refers to a leaf node
+				util.BloomFilter filter = filter(id);
+				if (filter != null) {
+					if (!filter.mightContain(key)) {
+						filterSkips++;
+						return null;
+					}
+					filterPasses++;
+				}
+			}
+			if (pathLength == pathPages.length) {
+				pathPages = java.util.Arrays.copyOf(pathPages, pathLength * 2);
+				pathIndices = java.util.Arrays.copyOf(pathIndices, pathLength * 2);
+			}
+			Page page = pathPages[pathLength];
+			if (page == null)
+				page = pathPages[pathLength] = new Page();
+			load(page, id, pathLength < stickyLevels);
+			if (page.isLeafNode()) {
+				pathIndices[pathLength++] = -1;
+				return page;
+			}
+			int i = page.childIndex(key);
+			pathIndices[pathLength] = i;
+			id = page.pointer(i);
+		}
+	}
+
+	/**
+	 * Inserts the specified key and the value into this DiskBPlusTree.
+	 *
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 * @throws IllegalStateException
+	 *             if the BufferPool has too few frames for the height of this DiskBPlusTree.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void insert(long key, long value) throws IOException {
+		checkCapacity();
+		try {
+			insertEntry(key, value);
+		} finally {
+			releaseAll();
+		}
+	}
+
+	/**
+	 * Inserts the specified key and the value into the leaf node that must be responsible for the key and splits
+	 * the nodes that overflow.
+	 *
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	void insertEntry(long key, long value) throws IOException {
+		Page l = find(key);
+		int pos = l.lowerBound(key);
+		if (l.hasRoom()) {
+			l.insert(key, value, pos);
+			write(l);
+			util.BloomFilter filter = filter(l.id);
+			if (filter != null)
+				filter.add(key);
+			return;
+		}
+		int m = (fanout + 1) / 2; // the number of entries that stay in l
+		Page nl = newPage(spare, true, pathLength - 1);
+		int n = l.numberOfKeys();
+		if (pos < m) { // the new entry goes to l
+			int moved = n - (m - 1);
+			copyKeys(l, m - 1, nl, 0, moved);
+			copyPointers(l, m - 1, nl, 0, moved);
+			l.setNumberOfKeys(m - 1);
+			nl.setNumberOfKeys(moved);
+			l.insert(key, value, pos);
+		} else { // the new entry goes to nl
+			copyKeys(l, m, nl, 0, n - m);
+			copyPointers(l, m, nl, 0, n - m);
+			l.setNumberOfKeys(m);
+			nl.setNumberOfKeys(n - m);
+			nl.insert(key, value, pos - m);
+		}
+		nl.setNext(l.next());
+		l.setNext(nl.id);
+		write(l);
+		write(nl);
+		if (filter(l.id) != null) {
+			buildFilter(l);
+			buildFilter(nl);
+		}
+		insertInParent(pathLength - 1, nl.key(0), nl.id);
+		writeMetadataIfChanged();
+	}
+
+	/**
+	 * Inserts the specified key and the page id of a new node right after the node at the specified level of the
+	 * current path.
+	 *
+	 * @param level
+	 *            the level of the node that was split.
+	 * @param key
+	 *            the key that splits the nodes.
+	 * @param nn
+	 *            the page id of the new node.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	void insertInParent(int level, long key, long nn) throws IOException {
+		if (level == 0) { // if the root was split
+			Page r = newPage(spare, false, 0);
+			r.setKey(0, key);
+			r.setPointer(0, pathPages[0].id);
+			r.setPointer(1, nn);
+			r.setNumberOfKeys(1);
+			write(r);
+			root = r.id;
+			height++;
+			metadataChanged = true;
+			return;
+		}
+		Page p = pathPages[level - 1];
+		int pos = pathIndices[level - 1]; // the position of key in p
+		if (p.hasRoom()) {
+			p.insertChild(key, nn, pos);
+			write(p);
+			return;
+		}
+		int m = (fanout + 1) / 2; // the number of children that stay in p
+		int n0 = p.numberOfKeys();
+		Page np = newPage(spare, false, level - 1); // replaces the new node at the level below
+		long separator;
+		if (pos < m - 1) { // key and nn go to p
+			separator = p.key(m - 2);
+			copyKeys(p, m - 1, np, 0, n0 - m + 1);
+			copyPointers(p, m - 1, np, 0, n0 - m + 2);
+			p.setNumberOfKeys(m - 2);
+			p.insertChild(key, nn, pos);
+		} else if (pos == m - 1) { // key becomes the separator
+			separator = key;
+			copyKeys(p, m - 1, np, 0, n0 - m + 1);
+			np.setPointer(0, nn);
+			copyPointers(p, m, np, 1, n0 - m + 1);
+			p.setNumberOfKeys(m - 1);
+		} else { // key and nn go to np
+			separator = p.key(m - 1);
+			copyKeys(p, m, np, 0, n0 - m);
+			copyPointers(p, m, np, 0, n0 - m + 1);
+			p.setNumberOfKeys(m - 1);
+			np.setNumberOfKeys(n0 - m);
+			np.insertChild(key, nn, pos - m);
+		}
+		np.setNumberOfKeys(fanout - m);
+		write(p);
+		write(np);
+		insertInParent(level - 1, separator, np.id);
+	}
+
+	/**
+	 * Deletes the entry with the specified key from this DiskBPlusTree.
+	 *
+	 * @param key
+	 *            the key to delete.
+	 * @throws IllegalStateException
+	 *             if the BufferPool has too few frames for the height of this DiskBPlusTree.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void delete(long key) throws IOException {
+		checkCapacity();
+		try {
+			Page l = find(key);
+			int i = l.lowerBound(key);
+			if (i < l.numberOfKeys() && l.key(i) == key) {
+				deleteEntry(pathLength - 1, i);
+				writeMetadataIfChanged();
+			}
+		} finally {
+			releaseAll();
+		}
+	}
+
+	/**
+	 * Deletes the entry at the specified position from the node at the specified level of the current path and
+	 * merges or redistributes nodes that become underfull.
+	 *
+	 * @param level
+	 *            the level of the node on the current path.
+	 * @param pos
+	 *            the position of the key to delete (for a non-leaf node, the child right after the key is deleted as
+	 *            well).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	void deleteEntry(int level, int pos) throws IOException {
+		Page n = pathPages[level];
+		if (n.isLeafNode()) {
+			n.remove(pos);
+			dropFilter(n.id);
+		} else {
+			n.removeChild(pos);
+		}
+		if (level == 0) { // if n is the root
+			if (!n.isLeafNode() && n.numberOfKeys() == 0) { // if the root has only one child
+				root = n.pointer(0);
+				height--;
+				free(n);
+				metadataChanged = true;
+			} else {
+				write(n);
+			}
+			return;
+		}
+		if (!n.isUnderfull()) {
+			write(n);
+			return;
+		}
+		Page p = pathPages[level - 1];
+		int i = pathIndices[level - 1]; // the position of n in p
+		int k = i > 0 ? i - 1 : i; // the position of the key between n and its sibling
+		Page sibling = spare;
+		load(sibling, p.pointer(i > 0 ? k : k + 1), level < stickyLevels);
+		Page left = i > 0 ? sibling : n;
+		Page right = i > 0 ? n : sibling;
+		int total = left.numberOfKeys() + right.numberOfKeys() + (n.isLeafNode() ? 0 : 1);
+		if (total <= fanout - 1) { // if n and its sibling fit in a single node
+			merge(left, p.key(k), right);
+			write(left);
+			free(right);
+			deleteEntry(level - 1, k);
+		} else {
+			if (left == n)
+				borrowFromRight(p, k, left, right);
+			else
+				borrowFromLeft(p, k, left, right);
+			write(left);
+			write(right);
+			write(p);
+		}
+	}
+
+	/**
+	 * Makes sure that an update can pin the pages it needs. While an update splits or merges nodes, it keeps one page
+	 * per level pinned and pins one more, and up to half of the frames hold sticky pages that cannot be evicted, so
+	 * the BufferPool must have more frames than twice the height of the tree. Failing to pin a page halfway through
+	 * an update would leave the tree inconsistent, so the update is rejected before it changes any page.
+	 *
+	 * @throws IllegalStateException
+	 *             if the BufferPool has too few frames for the height of this DiskBPlusTree.
+	 */
+	void checkCapacity() {
+		if (pool.getCapacity() <= 2 * height)
+			throw new IllegalStateException("a buffer pool of " + pool.getCapacity() + " frames is too small for a "
+					+ "tree of height " + height + " (at least " + (2 * height + 1) + " frames are needed)");
+	}
+
+	/**
+	 * Moves every entry of the specified right node into the specified left node.
+	 *
+	 * @param left
+	 *            the left node.
+	 * @param key
+	 *            the key that separates the nodes in their parent.
+	 * @param right
+	 *            the right node.
+	 */
+	void merge(Page left, long key, Page right) {
+		int n = left.numberOfKeys();
+		int r = right.numberOfKeys();
+		if (left.isLeafNode()) {
+			copyKeys(right, 0, left, n, r);
+			copyPointers(right, 0, left, n, r);
+			left.setNumberOfKeys(n + r);
+			left.setNext(right.next());
+			dropFilter(left.id);
+		} else {
+			left.setKey(n, key);
+			copyKeys(right, 0, left, n + 1, r);
+			copyPointers(right, 0, left, n + 1, r + 1);
+			left.setNumberOfKeys(n + r + 1);
+		}
+	}
+
+	/**
+	 * Moves the first entry of the specified right node to the specified left node.
+	 *
+	 * @param p
+	 *            the parent of the nodes.
+	 * @param k
+	 *            the position of the key that separates the nodes in the parent.
+	 * @param left
+	 *            the left node.
+	 * @param right
+	 *            the right node.
+	 */
+	void borrowFromRight(Page p, int k, Page left, Page right) {
+		int n = left.numberOfKeys();
+		if (left.isLeafNode()) {
+			dropFilter(left.id);
+			left.insert(right.key(0), right.pointer(0), n);
+			right.remove(0);
+			p.setKey(k, right.key(0));
+		} else {
+			left.setKey(n, p.key(k));
+			left.setPointer(n + 1, right.pointer(0));
+			left.setNumberOfKeys(n + 1);
+			p.setKey(k, right.key(0));
+			int r = right.numberOfKeys() - 1;
+			copyPointers(right, 1, right, 0, r + 1);
+			copyKeys(right, 1, right, 0, r);
+			right.setNumberOfKeys(r);
+		}
+	}
+
+	/**
+	 * Moves the last entry of the specified left node to the specified right node.
+	 *
+	 * @param p
+	 *            the parent of the nodes.
+	 * @param k
+	 *            the position of the key that separates the nodes in the parent.
+	 * @param left
+	 *            the left node.
+	 * @param right
+	 *            the right node.
+	 */
+	void borrowFromLeft(Page p, int k, Page left, Page right) {
+		int last = left.numberOfKeys() - 1;
+		if (right.isLeafNode()) {
+			dropFilter(right.id);
+			right.insert(left.key(last), left.pointer(last), 0);
+			left.remove(last);
+			p.setKey(k, right.key(0));
+		} else {
+			int r = right.numberOfKeys();
+			copyKeys(right, 0, right, 1, r);
+			copyPointers(right, 0, right, 1, r + 1);
+			right.setKey(0, p.key(k));
+			right.setPointer(0, left.pointer(last + 1));
+			right.setNumberOfKeys(r + 1);
+			p.setKey(k, left.key(last));
+			left.setNumberOfKeys(last);
+		}
+	}
+
+	/**
+	 * Copies keys from one page to another (or within a page).
+	 *
+	 * @param src
+	 *            the source page.
+	 * @param from
+	 *            the position of the first key to copy in the source page.
+	 * @param dst
+	 *            the destination page.
+	 * @param to
+	 *            the position of the first copy in the destination page.
+	 * @param count
+	 *            the number of keys to copy.
+	 */
+	static void copyKeys(Page src, int from, Page dst, int to, int count) {
+		copy(src.buffer, HEADER_SIZE + from * KEY_WIDTH, dst.buffer, HEADER_SIZE + to * KEY_WIDTH, count);
+	}
+
+	/**
+	 * Copies values (or child page ids) from one page to another (or within a page).
+	 *
+	 * @param src
+	 *            the source page.
+	 * @param from
+	 *            the position of the first pointer to copy in the source page.
+	 * @param dst
+	 *            the destination page.
+	 * @param to
+	 *            the position of the first copy in the destination page.
+	 * @param count
+	 *            the number of pointers to copy.
+	 */
+	void copyPointers(Page src, int from, Page dst, int to, int count) {
+		copy(src.buffer, pointersOffset + from * POINTER_WIDTH, dst.buffer, pointersOffset + to * POINTER_WIDTH,
+				count);
+	}
+
+	/**
+	 * Copies long values between buffers (or within a buffer, in which case the ranges may overlap).
+	 *
+	 * @param src
+	 *            the source buffer.
+	 * @param from
+	 *            the byte offset of the first long value in the source buffer.
+	 * @param dst
+	 *            the destination buffer.
+	 * @param to
+	 *            the byte offset of the first copy in the destination buffer.
+	 * @param count
+	 *            the number of long values to copy.
+	 */
+	static void copy(ByteBuffer src, int from, ByteBuffer dst, int to, int count) {
+		if (src == dst && from < to) { // copy backwards so that overlapping values are read before they are written
+			for (int i = count - 1; i >= 0; i--)
+				dst.putLong(to + i * Long.BYTES, src.getLong(from + i * Long.BYTES));
+		} else {
+			for (int i = 0; i < count; i++)
+				dst.putLong(to + i * Long.BYTES, src.getLong(from + i * Long.BYTES));
+		}
+	}
+
+	/**
+	 * Makes the specified Page a new empty node, reusing a free page if there is one.
+	 *
+	 * @param page
+	 *            the Page.
+	 * @param leaf
+	 *            true if the new node must be a leaf node; false otherwise.
+	 * @param level
+	 *            the level of the new node (counted from the root).
+	 * @return the specified Page.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	Page newPage(Page page, boolean leaf, int level) throws IOException {
+		release(page);
+		if (freePage == NONE) {
+			page.id = numberOfPages++;
+			page.frame = pool.pinNew(page.id, level < stickyLevels);
+			page.buffer = page.frame.getBuffer();
+		} else {
+			load(page, freePage, level < stickyLevels);
+			freePage = page.next();
+		}
+		page.init(page.id, leaf);
+		write(page);
+		metadataChanged = true;
+		return page;
+	}
+
+	/**
+	 * Adds the specified Page to the free pages.
+	 *
+	 * @param page
+	 *            the Page.
+	 */
+	void free(Page page) {
+		dropFilter(page.id);
+		page.setNext(freePage);
+		write(page);
+		pool.setSticky(page.frame, false);
+		freePage = page.id;
+		metadataChanged = true;
+	}
+
+	/**
+	 * Returns the filter of the specified leaf node.
+	 *
+	 * @param id
+	 *            the page id of the leaf node.
+	 * @return the filter of the specified leaf node; null if leaf filters are disabled or the leaf node has no
+	 *         filter.
+	 */
+	util.BloomFilter filter(long id) {
+		if (leafFilters == null)
+			return null;
+		int slot = (int) (id % leafFilters.length);
+		return filterPages[slot] == id ? leafFilters[slot] : null;
+	}
+
+	/**
+	 * Builds the filter over the keys of the specified leaf node (replacing the filter in its slot).
+	 *
+	 * @param page
+	 *            the Page that holds the leaf node.
+	 */
+	void buildFilter(Page page) {
+		int slot = (int) (page.id % leafFilters.length);
+		util.BloomFilter filter = leafFilters[slot];
+		if (filter == null)
+			filter = leafFilters[slot] = new util.BloomFilter(leafFilterBits, leafFilterHashes);
+		else
+			filter.clear();
+		for (int i = 0, n = page.numberOfKeys(); i < n; i++)
+			filter.add(page.key(i));
+		filterPages[slot] = page.id;
+	}
+
+	/**
+	 * Drops the filter of the specified page (if any) so that it is built again from the page when a lookup reads
+	 * the page.
+	 *
+	 * @param id
+	 *            the page id.
+	 */
+	void dropFilter(long id) {
+		if (leafFilters != null) {
+			int slot = (int) (id % leafFilters.length);
+			if (filterPages[slot] == id)
+				filterPages[slot] = NONE;
+		}
+	}
+
+	/**
+	 * Pins the page with the specified page id and makes the specified Page refer to it (after releasing the page
+	 * that the Page referred to).
+	 *
+	 * @param page
+	 *            the Page.
+	 * @param id
+	 *            the page id.
+	 * @param sticky
+	 *            true if the page must stay in the BufferPool even while it is unpinned; false otherwise.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void load(Page page, long id, boolean sticky) throws IOException {
+		release(page);
+		page.frame = pool.pin(id, sticky);
+		page.id = id;
+		page.buffer = page.frame.getBuffer();
+	}
+
+	/**
+	 * Marks the specified Page as changed so that the BufferPool writes it back.
+	 *
+	 * @param page
+	 *            the Page.
+	 */
+	protected void write(Page page) {
+		pool.markDirty(page.frame);
+	}
+
+	/**
+	 * Unpins the page that the specified Page refers to.
+	 *
+	 * @param page
+	 *            the Page.
+	 */
+	protected void release(Page page) {
+		if (page.frame != null) {
+			pool.unpin(page.frame, false);
+			page.frame = null;
+			page.buffer = null;
+		}
+	}
+
+	/**
+	 * Unpins the pages on the current path and the spare Page.
+	 */
+	void releaseAll() {
+		for (Page page : pathPages)
+			if (page != null)
+				release(page);
+		release(spare);
+	}
+
+	/**
+	 * Reads the metadata from page 0.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs or the file does not hold a DiskBPlusTree with the page size of this
+	 *             DiskBPlusTree.
+	 */
+	void readMetadata() throws IOException {
+		metadata.clear();
+		while (metadata.hasRemaining())
+			if (channel.read(metadata, metadata.position()) < 0)
+				throw new IOException("the file does not hold a DiskBPlusTree");
+		if (metadata.getLong(0) != MAGIC)
+			throw new IOException("the file does not hold a DiskBPlusTree");
+		if (metadata.getInt(8) != pageSize)
+			throw new IOException("the file has page size " + metadata.getInt(8) + ", not " + pageSize);
+		root = metadata.getLong(16);
+		numberOfPages = metadata.getLong(24);
+		freePage = metadata.getLong(32);
+	}
+
+	/**
+	 * Returns the height of the tree stored in the file by following the first pointers from the root.
+	 *
+	 * @return the number of levels of the tree.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	int readHeight() throws IOException {
+		int levels = 1;
+		for (load(spare, root, stickyLevels > 0); !spare.isLeafNode(); levels++)
+			load(spare, spare.pointer(0), levels < stickyLevels);
+		release(spare);
+		return levels;
+	}
+
+	/**
+	 * Writes the metadata to page 0.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	void writeMetadata() throws IOException {
+		metadata.clear();
+		metadata.putLong(0, MAGIC);
+		metadata.putInt(8, pageSize);
+		metadata.putLong(16, root);
+		metadata.putLong(24, numberOfPages);
+		metadata.putLong(32, freePage);
+		while (metadata.hasRemaining())
+			channel.write(metadata, metadata.position());
+		metadataChanged = false;
+	}
+
+	/**
+	 * Writes the metadata to page 0 if it has changed since it was last written.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	void writeMetadataIfChanged() throws IOException {
+		if (metadataChanged)
+			writeMetadata();
+	}
+
+	/**
+	 * Forces every change to this DiskBPlusTree onto the storage device.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void flush() throws IOException {
+		pool.flush();
+		writeMetadataIfChanged();
+		channel.force(false);
+	}
+
+	/**
+	 * Flushes and closes this DiskBPlusTree.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,347 @@
+/**
+ * The FilteredBPlusTree class implements B+-trees that answer most lookups of absent keys without descending the tree.
+ * Every inserted key is added to a util.BloomFilter, and contains and get consult the BloomFilter before they call
+ * find. Deleted keys stay in the BloomFilter (which only raises its false positive rate), so the BloomFilter is
+ * rebuilt from the leaf nodes at the next lookup once as many keys have been deleted as half of the keys added since
+ * the last rebuild, or once more keys have been added than the BloomFilter was sized for.
+ */
+public class FilteredBPlusTree extends BPlusTree {
+
+	/**
+	 * The default false positive rate of the BloomFilter.
+	 */
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+	/**
+	 * The default number of keys that the BloomFilter is sized for before the first rebuild.
+	 */
+	public static final long DEFAULT_EXPECTED_KEYS = 1024;
+
+	/**
+	 * The object that lookup returns for an absent key (null may be a value).
+	 */
+	static final Object ABSENT = new Object();
+
+	/**
+	 * The false positive rate of the BloomFilter when it holds as many keys as it is sized for.
+	 */
+	protected double falsePositiveRate;
+
+	/**
+	 * The BloomFilter that holds the keys of this FilteredBPlusTree.
+	 */
+	protected util.BloomFilter filter;
+
+	/**
+	 * The number of keys that the BloomFilter is sized for.
+	 */
+	protected long capacity;
+
+	/**
+	 * The number of keys added to the BloomFilter since it was last rebuilt.
+	 */
+	protected long additions;
+
+	/**
+	 * The number of keys deleted since the BloomFilter was last rebuilt.
+	 */
+	protected long deletions;
+
+	/**
+	 * The number of lookups that the BloomFilter answered without descending the tree.
+	 */
+	protected long skips;
+
+	/**
+	 * The number of lookups that descended the tree because the BloomFilter might contain the key.
+	 */
+	protected long passes;
+
+	/**
+	 * The number of lookups that descended the tree but did not find the key.
+	 */
+	protected long falsePositives;
+
+	/**
+	 * The number of times that the BloomFilter has been rebuilt.
+	 */
+	protected int rebuilds;
+
+	/**
+	 * Constructs a FilteredBPlusTree whose BloomFilter has the default false positive rate.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this FilteredBPlusTree can have.
+	 */
+	public FilteredBPlusTree(int fanout) {
+		this(fanout, DEFAULT_EXPECTED_KEYS, DEFAULT_FALSE_POSITIVE_RATE);
+	}
+
+	/**
+	 * Constructs a FilteredBPlusTree.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this FilteredBPlusTree can have.
+	 * @param expectedKeys
+	 *            the number of keys that the BloomFilter is sized for before it is first rebuilt.
+	 * @param falsePositiveRate
+	 *            the false positive rate of the BloomFilter when it holds as many keys as it is sized for (the memory
+	 *            cost is about 1.44 * log2(1 / falsePositiveRate) bits per key).
+	 * @throws IllegalArgumentException
+	 *             if the false positive rate is not in (0, 1).
+	 */
+	public FilteredBPlusTree(int fanout, long expectedKeys, double falsePositiveRate) {
+		super(fanout);
+		this.falsePositiveRate = falsePositiveRate;
+		this.capacity = Math.max(expectedKeys, 1);
+		this.filter = new util.BloomFilter(capacity, falsePositiveRate);
+	}
+
+	/**
+	 * Returns a new empty FilteredBPlusTree with the same settings as this FilteredBPlusTree.
+	 *
+	 * @return a new empty FilteredBPlusTree with the same settings as this FilteredBPlusTree.
+	 */
+	@Override
+	protected BPlusTree newEmptyTree() {
+		FilteredBPlusTree tree = new FilteredBPlusTree(fanout, capacity, falsePositiveRate);
+		tree.searchStrategy = searchStrategy;
+		tree.splitPolicy = splitPolicy;
+		return tree;
+	}
+
+	/**
+	 * Returns a snapshot of this FilteredBPlusTree (see BPlusTree.snapshot()). The snapshot starts with a copy of the
+	 * BloomFilter and of the counters of this FilteredBPlusTree.
+	 *
+	 * @return a snapshot of this FilteredBPlusTree.
+	 */
+	@Override
+	public FilteredBPlusTree snapshot() {
+		FilteredBPlusTree snapshot = (FilteredBPlusTree) super.snapshot();
+		snapshot.filter = new util.BloomFilter(filter);
+		snapshot.additions = additions;
+		snapshot.deletions = deletions;
+		snapshot.skips = skips;
+		snapshot.passes = passes;
+		snapshot.falsePositives = falsePositives;
+		snapshot.rebuilds = rebuilds;
+		return snapshot;
+	}
+
+	/**
+	 * Determines whether or not this FilteredBPlusTree contains the specified key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return true if this FilteredBPlusTree contains the specified key; false otherwise.
+	 */
+	public boolean contains(Object key) {
+		return lookup(key) != ABSENT;
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the value associated with the specified key; null if this FilteredBPlusTree does not contain the key.
+	 */
+	@Override
+	public Object get(Object key) {
+		Object value = lookup(key);
+		return value == ABSENT ? null : value;
+	}
+
+	/**
+	 * Finds the specified key, consulting the BloomFilter first.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the value associated with the specified key; ABSENT if this FilteredBPlusTree does not contain the key.
+	 */
+	protected Object lookup(Object key) {
+		if (root == null)
+			return ABSENT;
+		if (additions > capacity || deletions > additions / 2)
+			rebuild();
+		if (!filter.mightContain(hash(key))) {
+			skips++;
+			return ABSENT;
+		}
+		passes++;
+		Node l = find(key);
+		int i = l.findIndexGE(key);
+		if (i < 0 || compare(l.keys[i], key) != 0) {
+			falsePositives++;
+			return ABSENT;
+		}
+		return l.pointers[i];
+	}
+
+	/**
+	 * Rebuilds the BloomFilter from the keys in the leaf nodes, sizing it for twice as many keys so that insertions
+	 * can continue for a while before the next rebuild.
+	 */
+	public void rebuild() {
+		long keys = 0;
+		for (Cursor c = scan(null, true, null, true); c.next();)
+			keys++;
+		capacity = Math.max(2 * keys, DEFAULT_EXPECTED_KEYS);
+		filter = new util.BloomFilter(capacity, falsePositiveRate);
+		for (Cursor c = scan(null, true, null, true); c.next();)
+			filter.add(hash(c.getKey()));
+		additions = keys;
+		deletions = 0;
+		rebuilds++;
+	}
+
+	@Override
+	public void insert(Object key, Object value) {
+		super.insert(key, value);
+		add(key);
+	}
+
+	@Override
+	public Object put(Object key, Object value) {
+		Object previous = super.put(key, value);
+		if (previous == null) // if the key has been inserted (or had a null value)
+			add(key);
+		return previous;
+	}
+
+	@Override
+	public Object putIfAbsent(Object key, Object value) {
+		Object previous = super.putIfAbsent(key, value);
+		if (previous == null)
+			add(key);
+		return previous;
+	}
+
+	@Override
+	public Object compute(Object key, java.util.function.BiFunction<Object, Object, Object> remapping) {
+		Object[] previous = new Object[1];
+		Object value = super.compute(key, new java.util.function.BiFunction<Object, Object, Object>() {
+
+			@Override
+			public Object apply(Object k, Object v) {
+				previous[0] = v;
+				return remapping.apply(k, v);
+			}
+
+		});
+		if (previous[0] == null && value != null) // if the key has been inserted
+			add(key);
+		else if (previous[0] != null && value == null) // if the key has been deleted
+			deletions++;
+		return value;
+	}
+
+	@Override
+	public void insertAll(java.util.Collection<? extends util.Pair<?, ?>> entries) {
+		super.insertAll(entries);
+		for (util.Pair<?, ?> entry : entries)
+			add(entry.getFirst());
+	}
+
+	@Override
+	public void bulkLoad(java.util.Iterator<? extends util.Pair<?, ?>> entries, double fillFactor) {
+		super.bulkLoad(entries, fillFactor);
+		rebuild();
+	}
+
+	@Override
+	public void delete(Object key, Object value) {
+		super.delete(key, value);
+		deletions++;
+	}
+
+	@Override
+	public void deleteAll(java.util.Collection<?> keys) {
+		super.deleteAll(keys);
+		deletions += keys.size();
+	}
+
+	@Override
+	public void deleteRange(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive) {
+		super.deleteRange(fromKey, fromInclusive, toKey, toInclusive);
+		deletions = Math.max(deletions, additions); // the number of deleted keys is unknown, so rebuild
+	}
+
+	/**
+	 * Returns the number of lookups that the BloomFilter answered without descending the tree.
+	 *
+	 * @return the number of lookups that the BloomFilter answered without descending the tree.
+	 */
+	public long getSkipCount() {
+		return skips;
+	}
+
+	/**
+	 * Returns the number of lookups that descended the tree because the BloomFilter might contain the key.
+	 *
+	 * @return the number of lookups that descended the tree because the BloomFilter might contain the key.
+	 */
+	public long getPassCount() {
+		return passes;
+	}
+
+	/**
+	 * Returns the number of lookups that descended the tree but did not find the key.
+	 *
+	 * @return the number of lookups that descended the tree but did not find the key.
+	 */
+	public long getFalsePositiveCount() {
+		return falsePositives;
+	}
+
+	/**
+	 * Returns the number of times that the BloomFilter has been rebuilt.
+	 *
+	 * @return the number of times that the BloomFilter has been rebuilt.
+	 */
+	public int getRebuildCount() {
+		return rebuilds;
+	}
+
+	/**
+	 * Returns the number of bytes that the BloomFilter occupies.
+	 *
+	 * @return the number of bytes that the BloomFilter occupies.
+	 */
+	public long getFilterSizeInBytes() {
+		return filter.getSizeInBytes();
+	}
+
+	/**
+	 * Adds the specified key to the BloomFilter.
+	 *
+	 * @param key
+	 *            the key.
+	 */
+	void add(Object key) {
+		filter.add(hash(key));
+		additions++;
+	}
+
+	/**
+	 * Returns the hash code of the specified key for the BloomFilter. Integral keys are used as they are and byte[]
+	 * keys are hashed by content, so that keys that compare as equal have the same hash code.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the hash code of the specified key.
+	 */
+	protected long hash(Object key) {
+		if (isIntegral(key))
+			return ((Number) key).longValue();
+		if (key instanceof byte[]) {
+			long h = 1125899906842597L;
+			for (byte b : (byte[]) key)
+				h = 31 * h + b;
+			return h;
+		}
+		return key.hashCode();
+	}
+
+}
@@ -0,0 +1,867 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import util.WriteAheadLog;
+
+/**
+ * The LoggedBPlusTree class implements B+-trees whose updates are durable. Each update is logged in a
+ * util.WriteAheadLog, and a LoggedBPlusTree is recovered by replaying the log. Updates are serialized on the
+ * LoggedBPlusTree: an update is applied and then logged while the LoggedBPlusTree is locked, so nothing is logged for
+ * an update that fails (for example, because its key cannot be compared with the keys in the tree), and its keys and
+ * values are checked beforehand so that an applied update can always be logged. A thread waits for its records to
+ * become durable only after it has released the LoggedBPlusTree, so that the records of many concurrent updates are
+ * forced together (group commit), and an update returns only once its record is committed. When updates run
+ * concurrently, other operations (such as scan) must synchronize on the LoggedBPlusTree as well.
+ */
+public class LoggedBPlusTree extends BPlusTree {
+
+	/**
+	 * The types of the logged updates.
+	 */
+	static final byte INSERT = 1, DELETE = 2, CLEAR = 3;
+
+	/**
+	 * The type of a logged range deletion whose bounds are both exclusive. A range deletion is logged with its lower
+	 * bound as the key and its upper bound as the value, and its type is DELETE_RANGE plus 1 if the lower bound is
+	 * inclusive and plus 2 if the upper bound is inclusive.
+	 */
+	static final byte DELETE_RANGE = 4;
+
+	/**
+	 * The types of logged puts (which replay put and putIfAbsent, respectively). A compute is logged as a PUT of the
+	 * computed value, or as a DELETE if the computed value is null.
+	 */
+	static final byte PUT = 8, PUT_IF_ABSENT = 9;
+
+	/**
+	 * The type of a logged bulk load. The entries are saved in a file in the checkpoint format (see bulkFile(long)),
+	 * and the record holds the number that identifies the file as the key and the bits of the fill factor as the
+	 * value. (Older logs record a bulk load as a CLEAR followed by an INSERT per entry.)
+	 */
+	static final byte BULK_LOAD = 10;
+
+	/**
+	 * The number that identifies checkpoint files.
+	 */
+	static final int CHECKPOINT_MAGIC = 0x43484b31;
+
+	/**
+	 * The size of the buffers used for writing and reading checkpoints.
+	 */
+	static final int CHECKPOINT_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The fraction of each node filled when a LoggedBPlusTree is restored from a checkpoint (leaving some room so
+	 * that the first insertions do not split every leaf node).
+	 */
+	static final double RESTORE_FILL_FACTOR = 0.9;
+
+	/**
+	 * A CheckpointReader reads the entries of a checkpoint file in ascending key order (for example, for bulkLoad).
+	 * The checksum and the number of entries in the file are verified once the last entry has been read.
+	 */
+	public static class CheckpointReader implements java.util.Iterator<util.Pair<Object, Object>>, java.io.Closeable {
+
+		/**
+		 * The channel of the checkpoint file.
+		 */
+		java.nio.channels.FileChannel channel;
+
+		/**
+		 * The buffer holding the bytes read but not consumed yet.
+		 */
+		java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(CHECKPOINT_BUFFER_SIZE);
+
+		/**
+		 * The checksum of the bytes consumed so far.
+		 */
+		java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+
+		/**
+		 * The LSN of the checkpoint.
+		 */
+		long lsn;
+
+		/**
+		 * The number of entries read so far.
+		 */
+		long count;
+
+		/**
+		 * The length of the next entry (-1 if all the entries have been read; 0 if the length has not been read yet).
+		 */
+		int next;
+
+		/**
+		 * Opens the specified checkpoint file.
+		 *
+		 * @param file
+		 *            the checkpoint file.
+		 * @throws IOException
+		 *             if an I/O error occurs or the file is not a checkpoint.
+		 */
+		public CheckpointReader(java.nio.file.Path file) throws IOException {
+			channel = java.nio.channels.FileChannel.open(file, java.nio.file.StandardOpenOption.READ);
+			buffer.flip();
+			try {
+				if (!fill(12) || buffer.getInt(buffer.position()) != CHECKPOINT_MAGIC)
+					throw new IOException(file + " is not a checkpoint");
+				crc.update(buffer.array(), buffer.position(), 12);
+				buffer.getInt();
+				lsn = buffer.getLong();
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Returns the LSN of the checkpoint.
+		 *
+		 * @return the LSN of the checkpoint.
+		 */
+		public long getLsn() {
+			return lsn;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next != 0)
+				return next > 0;
+			try {
+				if (!fill(4))
+					throw new IOException("the checkpoint is truncated");
+				next = buffer.getInt(buffer.position());
+				if (next >= 0) {
+					if (!fill(4 + next))
+						throw new IOException("the checkpoint is truncated");
+					return true;
+				}
+				if (!fill(16))
+					throw new IOException("the checkpoint is truncated");
+				crc.update(buffer.array(), buffer.position(), 12);
+				buffer.getInt();
+				if (buffer.getLong() != count || buffer.getInt() != (int) crc.getValue())
+					throw new IOException("the checkpoint is corrupt");
+				return false;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public util.Pair<Object, Object> next() {
+			if (!hasNext())
+				throw new java.util.NoSuchElementException();
+			crc.update(buffer.array(), buffer.position(), 4 + next);
+			buffer.getInt();
+			Object key = WriteAheadLog.decode(buffer);
+			Object value = WriteAheadLog.decode(buffer);
+			next = 0;
+			count++;
+			return new util.Pair<Object, Object>(key, value);
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		/**
+		 * Determines whether or not the checksum at the end of the specified checkpoint file matches its contents.
+		 *
+		 * @param file
+		 *            the checkpoint file.
+		 * @return true if the checksum matches the contents; false otherwise.
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		public static boolean verify(java.nio.file.Path file) throws IOException {
+			try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file,
+					java.nio.file.StandardOpenOption.READ)) {
+				long end = channel.size() - 4;
+				if (end < 12)
+					return false;
+				java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(CHECKPOINT_BUFFER_SIZE);
+				java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+				for (long position = 0; position < end;) {
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), end - position));
+					int n = channel.read(buffer, position);
+					if (n < 0)
+						return false;
+					crc.update(buffer.array(), 0, n);
+					position += n;
+				}
+				buffer.clear();
+				buffer.limit(4);
+				while (buffer.hasRemaining())
+					if (channel.read(buffer, end + buffer.position()) < 0)
+						return false;
+				return buffer.getInt(0) == (int) crc.getValue();
+			}
+		}
+
+		/**
+		 * Reads from the file until the buffer holds at least the specified number of bytes.
+		 *
+		 * @param bytes
+		 *            the number of bytes.
+		 * @return false if the file ends before that many bytes are available; true otherwise.
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		boolean fill(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return true;
+			if (buffer.capacity() < bytes) {
+				java.nio.ByteBuffer b = java.nio.ByteBuffer.allocate(bytes);
+				b.put(buffer);
+				buffer = b;
+			} else
+				buffer.compact();
+			while (buffer.position() < bytes)
+				if (channel.read(buffer) < 0)
+					break;
+			buffer.flip();
+			return buffer.remaining() >= bytes;
+		}
+
+	}
+
+	/**
+	 * A CheckpointWriter writes entries in ascending key order to a file in the checkpoint format (see
+	 * writeCheckpoint(BPlusTree, long, java.nio.file.Path)) as they are given.
+	 */
+	public static class CheckpointWriter implements java.io.Closeable {
+
+		/**
+		 * The channel of the checkpoint file.
+		 */
+		java.nio.channels.FileChannel channel;
+
+		/**
+		 * The buffer holding the bytes not written yet.
+		 */
+		java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(CHECKPOINT_BUFFER_SIZE);
+
+		/**
+		 * The checksum of the bytes written so far.
+		 */
+		java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+
+		/**
+		 * The number of entries written so far.
+		 */
+		long count;
+
+		/**
+		 * Creates (or replaces) the specified checkpoint file.
+		 *
+		 * @param file
+		 *            the checkpoint file.
+		 * @param lsn
+		 *            the LSN of the checkpoint.
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		public CheckpointWriter(java.nio.file.Path file, long lsn) throws IOException {
+			channel = java.nio.channels.FileChannel.open(file, java.nio.file.StandardOpenOption.WRITE,
+					java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.TRUNCATE_EXISTING);
+			buffer.putInt(CHECKPOINT_MAGIC).putLong(lsn);
+		}
+
+		/**
+		 * Writes an entry.
+		 *
+		 * @param key
+		 *            the key (which must not be smaller than the key of the previous entry).
+		 * @param value
+		 *            the value.
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 * @throws IllegalArgumentException
+		 *             if the key or the value cannot be encoded.
+		 */
+		public void write(Object key, Object value) throws IOException {
+			int size = 4 + WriteAheadLog.encodedSize(key) + WriteAheadLog.encodedSize(value);
+			if (buffer.remaining() < size)
+				buffer = drain(channel, buffer, crc, size);
+			int start = buffer.position();
+			buffer.position(start + 4);
+			WriteAheadLog.encode(key, buffer);
+			WriteAheadLog.encode(value, buffer);
+			buffer.putInt(start, buffer.position() - start - 4);
+			count++;
+		}
+
+		/**
+		 * Writes the number of entries and the checksum and forces the file.
+		 *
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		public void finish() throws IOException {
+			if (buffer.remaining() < 16)
+				buffer = drain(channel, buffer, crc, 16);
+			buffer.putInt(-1).putLong(count);
+			crc.update(buffer.array(), 0, buffer.position());
+			buffer.putInt((int) crc.getValue());
+			drain(channel, buffer, crc, 0);
+			channel.force(true);
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+	/**
+	 * The log of this LoggedBPlusTree.
+	 */
+	protected WriteAheadLog log;
+
+	/**
+	 * Constructs a LoggedBPlusTree by replaying the specified log.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this LoggedBPlusTree can have.
+	 * @param log
+	 *            the log of this LoggedBPlusTree.
+	 * @throws IOException
+	 *             if an I/O error occurs while the log is replayed.
+	 */
+	public LoggedBPlusTree(int fanout, WriteAheadLog log) throws IOException {
+		this(fanout, log, null);
+	}
+
+	/**
+	 * Constructs a LoggedBPlusTree from the specified checkpoint (if the file exists) and then replays the records of
+	 * the specified log that follow the LSN of the checkpoint. If the log ends before the LSN of the checkpoint (its
+	 * tail was lost in a crash, or the log file was replaced), every record in it is already reflected in the
+	 * checkpoint, so the log is reset to start at the LSN of the checkpoint.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this LoggedBPlusTree can have.
+	 * @param log
+	 *            the log of this LoggedBPlusTree.
+	 * @param checkpoint
+	 *            the checkpoint file written by checkpoint(java.nio.file.Path) (or null).
+	 * @throws IOException
+	 *             if an I/O error occurs, the checkpoint is corrupt or the log starts after the checkpoint.
+	 */
+	public LoggedBPlusTree(int fanout, WriteAheadLog log, java.nio.file.Path checkpoint) throws IOException {
+		super(fanout);
+		this.log = log;
+		long lsn = log.getBaseLsn();
+		if (checkpoint != null && java.nio.file.Files.exists(checkpoint)) {
+			try (CheckpointReader entries = new CheckpointReader(checkpoint)) {
+				super.bulkLoad(entries, RESTORE_FILL_FACTOR);
+				lsn = entries.getLsn();
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} catch (RuntimeException e) { // the entries may have been decoded from corrupt bytes
+				if (!CheckpointReader.verify(checkpoint))
+					throw new IOException("the checkpoint is corrupt", e);
+				throw e;
+			}
+			if (lsn < log.getBaseLsn())
+				throw new IOException("the log (from LSN " + log.getBaseLsn() + " to LSN " + log.getDurableLsn()
+						+ ") cannot be replayed from the checkpoint at LSN " + lsn);
+			if (lsn > log.getDurableLsn())
+				log.reset(lsn);
+		}
+		replay(lsn);
+	}
+
+	/**
+	 * Returns the log of this LoggedBPlusTree.
+	 *
+	 * @return the log of this LoggedBPlusTree.
+	 */
+	public WriteAheadLog getLog() {
+		return log;
+	}
+
+	/**
+	 * Inserts the specified key and the value into this LoggedBPlusTree and logs the insertion.
+	 *
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 * @throws IllegalArgumentException
+	 *             if the key or the value cannot be logged.
+	 * @throws UncheckedIOException
+	 *             if an I/O error occurs while the insertion is logged.
+	 */
+	@Override
+	public void insert(Object key, Object value) {
+		long lsn;
+		synchronized (this) {
+			checkLoggable(key, value);
+			super.insert(key, value);
+			lsn = log.append(INSERT, key, value);
+		}
+		commit(lsn);
+	}
+
+	/**
+	 * Deletes the specified key and the value from this LoggedBPlusTree and logs the deletion.
+	 *
+	 * @param key
+	 *            the key to delete.
+	 * @param value
+	 *            the value to delete.
+	 * @throws IllegalArgumentException
+	 *             if the key cannot be logged.
+	 * @throws UncheckedIOException
+	 *             if an I/O error occurs while the deletion is logged.
+	 */
+	@Override
+	public void delete(Object key, Object value) {
+		long lsn;
+		synchronized (this) {
+			checkLoggable(key, null);
+			super.delete(key, value);
+			lsn = log.append(DELETE, key, null);
+		}
+		commit(lsn);
+	}
+
+	/**
+	 * Associates the specified value with the specified key and logs the put.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @return the value previously associated with the key; null if this LoggedBPlusTree did not contain the key.
+	 * @throws IllegalArgumentException
+	 *             if the key or the value cannot be logged.
+	 * @throws UncheckedIOException
+	 *             if an I/O error occurs while the put is logged.
+	 */
+	@Override
+	public Object put(Object key, Object value) {
+		long lsn;
+		Object previous;
+		synchronized (this) {
+			checkLoggable(key, value);
+			previous = super.put(key, value);
+			lsn = log.append(PUT, key, value);
+		}
+		commit(lsn);
+		return previous;
+	}
+
+	/**
+	 * Inserts the specified key and value unless this LoggedBPlusTree already contains the key, and logs the put.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @return the value associated with the key; null if this LoggedBPlusTree did not contain the key.
+	 * @throws IllegalArgumentException
+	 *             if the key or the value cannot be logged.
+	 * @throws UncheckedIOException
+	 *             if an I/O error occurs while the put is logged.
+	 */
+	@Override
+	public Object putIfAbsent(Object key, Object value) {
+		long lsn;
+		Object previous;
+		synchronized (this) {
+			checkLoggable(key, value);
+			previous = super.putIfAbsent(key, value);
+			lsn = log.append(PUT_IF_ABSENT, key, value);
+		}
+		commit(lsn);
+		return previous;
+	}
+
+	/**
+	 * Associates the specified key with the value that the specified function computes from the key and its current
+	 * value. The outcome is logged (as a PUT of the new value or as a DELETE) once it has been applied; the computed
+	 * value is checked before it is applied, so the tree is still descended only once.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param remapping
+	 *            the function that computes the new value from the key and the current value.
+	 * @return the new value associated with the key; null if the key is no longer in this LoggedBPlusTree.
+	 * @throws IllegalArgumentException
+	 *             if the key or the computed value cannot be logged.
+	 * @throws UncheckedIOException
+	 *             if an I/O error occurs while the outcome is logged.
+	 */
+	@Override
+	public Object compute(Object key, java.util.function.BiFunction<Object, Object, Object> remapping) {
+		long lsn;
+		Object value;
+		synchronized (this) {
+			checkLoggable(key, null);
+			boolean[] computed = new boolean[1];
+			value = super.compute(key, new java.util.function.BiFunction<Object, Object, Object>() {
+
+				@Override
+				public Object apply(Object k, Object v) {
+					Object w = remapping.apply(k, v);
+					checkLoggable(k, w);
+					computed[0] = true;
+					return w;
+				}
+
+			});
+			if (!computed[0]) // if the function failed, nothing has changed
+				return value;
+			lsn = value == null ? log.append(DELETE, key, null) : log.append(PUT, key, value);
+		}
+		commit(lsn);
+		return value;
+	}
+
+	/**
+	 * Inserts the specified entries into this LoggedBPlusTree and logs them. All of the entries are committed
+	 * together.
+	 *
+	 * @param entries
+	 *            the key/value pairs to insert.
+	 * @throws IllegalArgumentException
+	 *             if a key or a value cannot be logged.
+	 * @throws UncheckedIOException
+	 *             if an I/O error occurs while the insertions are logged.
+	 */
+	@Override
+	public void insertAll(java.util.Collection<? extends util.Pair<?, ?>> entries) {
+		long lsn;
+		synchronized (this) {
+			for (util.Pair<?, ?> e : entries)
+				checkLoggable(e.getFirst(), e.getSecond());
+			super.insertAll(entries);
+			lsn = log.getAppendedLsn();
+			for (util.Pair<?, ?> e : entries)
+				lsn = log.append(INSERT, e.getFirst(), e.getSecond());
+		}
+		commit(lsn);
+	}
+
+	/**
+	 * Deletes the entries with the specified keys from this LoggedBPlusTree and logs the deletions. All of the
+	 * deletions are committed together.
+	 *
+	 * @param keys
+	 *            the keys to delete.
+	 * @throws IllegalArgumentException
+	 *             if a key cannot be logged.
+	 * @throws UncheckedIOException
+	 *             if an I/O error occurs while the deletions are logged.
+	 */
+	@Override
+	public void deleteAll(java.util.Collection<?> keys) {
+		long lsn;
+		synchronized (this) {
+			for (Object key : keys)
+				checkLoggable(key, null);
+			super.deleteAll(keys);
+			lsn = log.getAppendedLsn();
+			for (Object key : keys)
+				lsn = log.append(DELETE, key, null);
+		}
+		commit(lsn);
+	}
+
+	/**
+	 * Deletes the entries whose keys fall in the specified range from this LoggedBPlusTree and logs the deletion (as a
+	 * single record).
+	 *
+	 * @param fromKey
+	 *            the lower bound of the range (null if the range has no lower bound).
+	 * @param fromInclusive
+	 *            a flag indicating whether or not the range includes fromKey.
+	 * @param toKey
+	 *            the upper bound of the range (null if the range has no upper bound).
+	 * @param toInclusive
+	 *            a flag indicating whether or not the range includes toKey.
+	 * @throws IllegalArgumentException
+	 *             if a bound cannot be logged.
+	 * @throws UncheckedIOException
+	 *             if an I/O error occurs while the deletion is logged.
+	 */
+	@Override
+	public void deleteRange(Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive) {
+		long lsn;
+		synchronized (this) {
+			checkLoggable(fromKey, toKey);
+			super.deleteRange(fromKey, fromInclusive, toKey, toInclusive);
+			lsn = log.append((byte) (DELETE_RANGE + (fromInclusive ? 1 : 0) + (toInclusive ? 2 : 0)), fromKey, toKey);
+		}
+		commit(lsn);
+	}
+
+	/**
+	 * Replaces the contents of this LoggedBPlusTree with the specified entries and logs them as a single record. The
+	 * entries are streamed into the tree and, at the same time, into a file in the checkpoint format (see
+	 * bulkFile(long)) that the record refers to, so they are neither held in memory nor logged one by one. The
+	 * LoggedBPlusTree stays locked until all of the entries have been loaded.
+	 *
+	 * @param entries
+	 *            the key/value pairs to load in ascending key order.
+	 * @param fillFactor
+	 *            the fraction of each node to fill (0 < fillFactor <= 1).
+	 * @throws IllegalArgumentException
+	 *             if the fill factor is not in (0, 1], the entries are not sorted by key or an entry cannot be logged.
+	 * @throws UncheckedIOException
+	 *             if an I/O error occurs while the entries are saved or logged.
+	 */
+	@Override
+	public void bulkLoad(final java.util.Iterator<? extends util.Pair<?, ?>> entries, double fillFactor) {
+		if (!(fillFactor > 0 && fillFactor <= 1))
+			throw new IllegalArgumentException("fill factor " + fillFactor + " is not in (0, 1]");
+		long lsn;
+		synchronized (this) {
+			long id = log.getAppendedLsn();
+			java.nio.file.Path file = bulkFile(id);
+			java.nio.file.Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			Node previous = root;
+			try {
+				try {
+					try (final CheckpointWriter writer = new CheckpointWriter(temp, id)) {
+						super.bulkLoad(new java.util.Iterator<util.Pair<?, ?>>() {
+
+							@Override
+							public boolean hasNext() {
+								return entries.hasNext();
+							}
+
+							@Override
+							public util.Pair<?, ?> next() {
+								util.Pair<?, ?> e = entries.next();
+								try {
+									writer.write(e.getFirst(), e.getSecond());
+								} catch (IOException x) {
+									throw new UncheckedIOException(x);
+								}
+								return e;
+							}
+
+						}, fillFactor);
+						writer.finish();
+					}
+					java.nio.file.Files.move(temp, file, java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+							java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					java.nio.file.Files.deleteIfExists(temp); // if the file has not been moved
+				}
+			} catch (IOException e) {
+				root = previous; // nothing is logged, so the contents must not change
+				throw new UncheckedIOException(e);
+			}
+			lsn = log.append(BULK_LOAD, id, Double.doubleToLongBits(fillFactor));
+		}
+		commit(lsn);
+	}
+
+	/**
+	 * Returns a new empty BPlusTree with the same settings as this LoggedBPlusTree. The snapshots of a
+	 * LoggedBPlusTree are plain BPlusTrees because updates of a snapshot must not be written to the log of this
+	 * LoggedBPlusTree.
+	 *
+	 * @return a new empty BPlusTree with the same settings as this LoggedBPlusTree.
+	 */
+	@Override
+	protected BPlusTree newEmptyTree() {
+		return super.newEmptyTree();
+	}
+
+	/**
+	 * Writes a checkpoint of this LoggedBPlusTree to the specified file and then discards the records up to the LSN
+	 * of the checkpoint from the log. The checkpoint is written from a snapshot, so updates can continue while the
+	 * entries are written (the updates copy the nodes that they change, see snapshot()). The records up to the LSN
+	 * of the checkpoint are forced before the checkpoint is written, and the entries are first written to a
+	 * temporary file that then atomically replaces the specified file, so a crash at any point leaves a checkpoint
+	 * and a log that recover this LoggedBPlusTree together. The files of the bulk loads whose records have been
+	 * discarded are deleted last.
+	 *
+	 * @param file
+	 *            the checkpoint file.
+	 * @return the LSN of the checkpoint.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public long checkpoint(java.nio.file.Path file) throws IOException {
+		BPlusTree snapshot;
+		long lsn;
+		synchronized (this) {
+			snapshot = snapshot();
+			lsn = log.getAppendedLsn();
+		}
+		log.sync(lsn); // the log must reach the checkpoint before the checkpoint replaces the previous one
+		java.nio.file.Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		writeCheckpoint(snapshot, lsn, temp);
+		java.nio.file.Files.move(temp, file, java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+				java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+		log.truncate(lsn);
+		deleteBulkFiles(lsn);
+		return lsn;
+	}
+
+	/**
+	 * Returns the file that holds the entries of the bulk load identified by the specified number (the LSN that
+	 * preceded its record): the file of the log followed by ".bulk-" and the number.
+	 *
+	 * @param id
+	 *            the number that identifies the bulk load.
+	 * @return the file that holds the entries of the bulk load.
+	 */
+	java.nio.file.Path bulkFile(long id) {
+		return log.getFile().resolveSibling(log.getFile().getFileName() + ".bulk-" + id);
+	}
+
+	/**
+	 * Deletes the files of the bulk loads whose records precede the specified LSN (and are no longer in the log).
+	 *
+	 * @param lsn
+	 *            the LSN.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	void deleteBulkFiles(long lsn) throws IOException {
+		java.nio.file.Path dir = log.getFile().toAbsolutePath().getParent();
+		String prefix = log.getFile().getFileName() + ".bulk-";
+		try (java.nio.file.DirectoryStream<java.nio.file.Path> files = java.nio.file.Files.newDirectoryStream(dir)) {
+			for (java.nio.file.Path f : files) {
+				String name = f.getFileName().toString();
+				if (name.startsWith(prefix) && name.substring(prefix.length()).matches("[0-9]+")
+						&& Long.parseLong(name.substring(prefix.length())) < lsn)
+					java.nio.file.Files.deleteIfExists(f);
+			}
+		}
+	}
+
+	/**
+	 * Writes the entries of the specified tree to the specified file in ascending key order, each as its length
+	 * followed by the key and the value in the encoding of util.WriteAheadLog. The entries are preceded by the LSN of
+	 * the checkpoint and followed by the number of entries and a CRC-32 checksum of the file.
+	 *
+	 * @param tree
+	 *            the tree (which must not be changed until this method returns; a snapshot, for example).
+	 * @param lsn
+	 *            the LSN of the checkpoint.
+	 * @param file
+	 *            the file to write to.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static void writeCheckpoint(BPlusTree tree, long lsn, java.nio.file.Path file) throws IOException {
+		try (CheckpointWriter writer = new CheckpointWriter(file, lsn)) {
+			BPlusTree.Cursor c = tree.scan(null, true, null, true);
+			while (c.next())
+				writer.write(c.getKey(), c.getValue());
+			writer.finish();
+		}
+	}
+
+	/**
+	 * Writes the contents of the specified buffer to the specified channel.
+	 *
+	 * @param channel
+	 *            the channel.
+	 * @param buffer
+	 *            the buffer.
+	 * @param crc
+	 *            the checksum to update with the written bytes.
+	 * @param room
+	 *            the number of bytes that the returned buffer must have room for.
+	 * @return the emptied buffer (or a larger one if it is too small).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	static java.nio.ByteBuffer drain(java.nio.channels.FileChannel channel, java.nio.ByteBuffer buffer,
+			java.util.zip.CRC32 crc, int room) throws IOException {
+		buffer.flip();
+		crc.update(buffer.array(), 0, buffer.limit());
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+		return buffer.capacity() < room ? java.nio.ByteBuffer.allocate(room) : buffer;
+	}
+
+	/**
+	 * Applies the records of the log that follow the specified LSN to this LoggedBPlusTree without logging them again.
+	 *
+	 * @param fromLsn
+	 *            the LSN after which the records are replayed.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected synchronized void replay(long fromLsn) throws IOException {
+		try {
+			log.replay(fromLsn, new WriteAheadLog.Handler() {
+
+				@Override
+				public void handle(long lsn, byte type, Object key, Object value) {
+					if (type == INSERT)
+						LoggedBPlusTree.super.insert(key, value);
+					else if (type == DELETE)
+						LoggedBPlusTree.super.delete(key, value);
+					else if (type == CLEAR)
+						root = null;
+					else if (type >= DELETE_RANGE && type < DELETE_RANGE + 4)
+						LoggedBPlusTree.super.deleteRange(key, (type & 1) != 0, value, (type & 2) != 0);
+					else if (type == PUT)
+						LoggedBPlusTree.super.put(key, value);
+					else if (type == PUT_IF_ABSENT)
+						LoggedBPlusTree.super.putIfAbsent(key, value);
+					else if (type == BULK_LOAD) {
+						try (CheckpointReader entries = new CheckpointReader(bulkFile((Long) key))) {
+							LoggedBPlusTree.super.bulkLoad(entries, Double.longBitsToDouble((Long) value));
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					} else
+						throw new IllegalStateException("unknown record type " + type + " at LSN " + lsn);
+				}
+
+			});
+		} catch (UncheckedIOException e) { // the file of a bulk load could not be read
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Makes sure that the specified key and value can be logged (so that an update is never applied without being
+	 * logged).
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @throws IllegalArgumentException
+	 *             if the key or the value cannot be logged.
+	 */
+	static void checkLoggable(Object key, Object value) {
+		WriteAheadLog.encodedSize(key);
+		WriteAheadLog.encodedSize(value);
+	}
+
+	/**
+	 * Commits the record with the specified LSN according to the SyncPolicy of the log.
+	 *
+	 * @param lsn
+	 *            the LSN of the record.
+	 * @throws UncheckedIOException
+	 *             if an I/O error occurs.
+	 */
+	void commit(long lsn) {
+		try {
+			log.commit(lsn);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
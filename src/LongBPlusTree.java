@@ -0,0 +1,641 @@
+/**
+ * The LongBPlusTree class implements B+-trees whose keys are primitive long values. Each node keeps its keys in a
+ * long[] array and its values (or children) in a parallel array so that neither insertions nor key comparisons box
+ * keys. Apart from the key type, a LongBPlusTree behaves like a BPlusTree.
+ *
+ * Optionally, the leaf nodes of a LongBPlusTree can keep their keys packed (see util.PackedLongs): as the smallest key
+ * plus the bit-packed differences from it. Dense keys (such as sequence numbers or timestamps) then take a few bits
+ * each instead of 64, so far more keys fit in each cache line. A packed leaf is searched over its packed form and is
+ * encoded again (with the smallest width that fits) whenever it is split or merged, or when a new key does not fit.
+ */
+public class LongBPlusTree {
+
+	/**
+	 * The maximum number of pointers that each node of this LongBPlusTree can have.
+	 */
+	protected int fanout;
+
+	/**
+	 * The root node of this LongBPlusTree.
+	 */
+	protected Node root;
+
+	/**
+	 * The strategy that the nodes of this LongBPlusTree use for locating keys.
+	 */
+	protected BPlusTree.SearchStrategy searchStrategy;
+
+	/**
+	 * A flag indicating whether or not the leaf nodes of this LongBPlusTree keep their keys packed.
+	 */
+	protected boolean packedLeaves;
+
+	/**
+	 * The array into which the keys of packed leaf nodes are decoded when they are split or merged.
+	 */
+	protected long[] decoded;
+
+	/**
+	 * The nodes visited by the latest descent from the root (pathNodes[0] is the root).
+	 */
+	protected Node[] pathNodes = new Node[8];
+
+	/**
+	 * pathIndices[i] is the position of pathNodes[i + 1] among the children of pathNodes[i].
+	 */
+	protected int[] pathIndices = new int[8];
+
+	/**
+	 * The number of nodes in pathNodes.
+	 */
+	protected int pathLength;
+
+	/**
+	 * The Node class implements nodes that constitute a LongBPlusTree. A leaf Node stores values in parallel with its
+	 * keys and references the next leaf Node; a non-leaf Node has one more child than keys.
+	 */
+	protected class Node {
+
+		/**
+		 * The number of keys that this Node currently maintains.
+		 */
+		int numberOfKeys;
+
+		/**
+		 * The keys that this Node maintains (null if this Node is a packed leaf node).
+		 */
+		long[] keys;
+
+		/**
+		 * The packed keys that this Node maintains (null unless this Node is a packed leaf node).
+		 */
+		util.PackedLongs packedKeys;
+
+		/**
+		 * The values that this Node maintains (null if this Node is a non-leaf node).
+		 */
+		Object[] values;
+
+		/**
+		 * The children of this Node (null if this Node is a leaf node).
+		 */
+		Node[] children;
+
+		/**
+		 * The next leaf node (only used by leaf nodes).
+		 */
+		Node next;
+
+		/**
+		 * Constructs a Node.
+		 *
+		 * @param leaf
+		 *            true if a leaf node needs to be constructed; false otherwise.
+		 */
+		protected Node(boolean leaf) {
+			if (leaf && packedLeaves)
+				packedKeys = new util.PackedLongs(fanout - 1);
+			else
+				keys = new long[fanout - 1];
+			if (leaf)
+				values = new Object[fanout - 1];
+			else
+				children = new Node[fanout];
+		}
+
+		/**
+		 * Returns the key at the specified position.
+		 *
+		 * @param i
+		 *            the position of the key.
+		 * @return the key at the specified position.
+		 */
+		protected long key(int i) {
+			return packedKeys == null ? keys[i] : packedKeys.get(i);
+		}
+
+		/**
+		 * Returns an array whose first numberOfKeys elements are the keys of this Node.
+		 *
+		 * @return keys if this Node is not a packed leaf node; otherwise, the decoded array into which the keys of
+		 *         this Node are decoded.
+		 */
+		long[] decodeKeys() {
+			if (packedKeys == null)
+				return keys;
+			packedKeys.decode(decoded, 0);
+			return decoded;
+		}
+
+		/**
+		 * Replaces the keys of this Node with the specified keys (assuming that this Node is a leaf node).
+		 *
+		 * @param src
+		 *            an array that contains the keys.
+		 * @param from
+		 *            the position of the first key in the array.
+		 * @param count
+		 *            the number of keys.
+		 */
+		void setKeys(long[] src, int from, int count) {
+			if (packedKeys != null)
+				packedKeys.encode(src, from, count);
+			else if (src != keys || from != 0)
+				System.arraycopy(src, from, keys, 0, count);
+			numberOfKeys = count;
+		}
+
+		/**
+		 * Determines whether or not this Node is a leaf node.
+		 *
+		 * @return true if this Node is a leaf node; false otherwise.
+		 */
+		protected boolean isLeafNode() {
+			return children == null;
+		}
+
+		/**
+		 * Determines whether or not this Node has room for a new entry.
+		 *
+		 * @return true if this Node has room for a new entry; false otherwise.
+		 */
+		protected boolean hasRoom() {
+			return numberOfKeys < fanout - 1;
+		}
+
+		/**
+		 * Determines whether or not this Node has fewer entries than a non-root node must have.
+		 *
+		 * @return true if this Node has too few entries; false otherwise.
+		 */
+		protected boolean isUnderfull() {
+			if (isLeafNode())
+				return numberOfKeys < fanout / 2;
+			return numberOfKeys + 1 < (fanout + 1) / 2;
+		}
+
+		/**
+		 * Returns the first index i such that keys[i] >= the given key.
+		 *
+		 * @param key
+		 *            the given key.
+		 * @return the first index i such that keys[i] >= the given key; numberOfKeys if there is no such i.
+		 */
+		protected int lowerBound(long key) {
+			if (packedKeys != null)
+				return packedKeys.lowerBound(key);
+			int from = 0;
+			int to = numberOfKeys;
+			if (searchStrategy == BPlusTree.SearchStrategy.INTERPOLATION) {
+				while (to - from > BPlusTree.INTERPOLATION_SCAN_LENGTH) {
+					long first = keys[from];
+					long last = keys[to - 1];
+					if (key <= first)
+						return from;
+					if (key > last)
+						return to;
+					int probe = from + (int) (((double) key - first) / ((double) last - first) * (to - 1 - from));
+					if (keys[probe] < key)
+						from = probe + 1;
+					else
+						to = probe;
+				}
+			} else if (searchStrategy == BPlusTree.SearchStrategy.BINARY) {
+				while (from < to) {
+					int mid = (from + to) >>> 1;
+					if (keys[mid] < key)
+						from = mid + 1;
+					else
+						to = mid;
+				}
+				return from;
+			}
+			while (from < to && keys[from] < key)
+				from++;
+			return from;
+		}
+
+		/**
+		 * Returns the position of the child that must be responsible for the specified key (assuming that this Node
+		 * is a non-leaf node).
+		 *
+		 * @param key
+		 *            the search key.
+		 * @return the position of the child that must be responsible for the specified key.
+		 */
+		protected int childIndex(long key) {
+			int i = lowerBound(key);
+			return i < numberOfKeys && keys[i] == key ? i + 1 : i;
+		}
+
+		/**
+		 * Inserts the specified key and value at the specified location (assuming that this Node is a leaf node).
+		 *
+		 * @param key
+		 *            the key to insert.
+		 * @param value
+		 *            the value to insert.
+		 * @param pos
+		 *            the insertion position.
+		 */
+		protected void insert(long key, Object value, int pos) {
+			if (packedKeys != null) {
+				packedKeys.insert(pos, key);
+			} else {
+				System.arraycopy(keys, pos, keys, pos + 1, numberOfKeys - pos);
+				keys[pos] = key;
+			}
+			System.arraycopy(values, pos, values, pos + 1, numberOfKeys - pos);
+			values[pos] = value;
+			numberOfKeys++;
+		}
+
+		/**
+		 * Inserts the specified key at the specified location and the specified child right after it (assuming that
+		 * this Node is a non-leaf node).
+		 *
+		 * @param key
+		 *            the key to insert.
+		 * @param child
+		 *            the child to insert.
+		 * @param pos
+		 *            the insertion position of the key.
+		 */
+		protected void insertChild(long key, Node child, int pos) {
+			System.arraycopy(keys, pos, keys, pos + 1, numberOfKeys - pos);
+			System.arraycopy(children, pos + 1, children, pos + 2, numberOfKeys - pos);
+			keys[pos] = key;
+			children[pos + 1] = child;
+			numberOfKeys++;
+		}
+
+		/**
+		 * Removes the key and value at the specified location (assuming that this Node is a leaf node).
+		 *
+		 * @param pos
+		 *            the position of the entry to remove.
+		 */
+		protected void remove(int pos) {
+			numberOfKeys--;
+			if (packedKeys != null)
+				packedKeys.remove(pos);
+			else
+				System.arraycopy(keys, pos + 1, keys, pos, numberOfKeys - pos);
+			System.arraycopy(values, pos + 1, values, pos, numberOfKeys - pos);
+			values[numberOfKeys] = null;
+		}
+
+		/**
+		 * Removes the key at the specified location and the child right after it (assuming that this Node is a
+		 * non-leaf node).
+		 *
+		 * @param pos
+		 *            the position of the key to remove.
+		 */
+		protected void removeChild(int pos) {
+			numberOfKeys--;
+			System.arraycopy(keys, pos + 1, keys, pos, numberOfKeys - pos);
+			System.arraycopy(children, pos + 2, children, pos + 1, numberOfKeys - pos);
+			children[numberOfKeys + 1] = null;
+		}
+
+	}
+
+	/**
+	 * Constructs a LongBPlusTree.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this LongBPlusTree can have.
+	 */
+	public LongBPlusTree(int fanout) {
+		this(fanout, BPlusTree.SearchStrategy.forFanout(fanout));
+	}
+
+	/**
+	 * Constructs a LongBPlusTree.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this LongBPlusTree can have.
+	 * @param searchStrategy
+	 *            the strategy that the nodes of this LongBPlusTree use for locating keys.
+	 */
+	public LongBPlusTree(int fanout, BPlusTree.SearchStrategy searchStrategy) {
+		this(fanout, searchStrategy, false);
+	}
+
+	/**
+	 * Constructs a LongBPlusTree.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this LongBPlusTree can have.
+	 * @param searchStrategy
+	 *            the strategy that the non-leaf nodes (and, unless packedLeaves is true, the leaf nodes) of this
+	 *            LongBPlusTree use for locating keys.
+	 * @param packedLeaves
+	 *            true if the leaf nodes of this LongBPlusTree need to keep their keys packed; false otherwise.
+	 */
+	public LongBPlusTree(int fanout, BPlusTree.SearchStrategy searchStrategy, boolean packedLeaves) {
+		this.fanout = fanout;
+		this.searchStrategy = searchStrategy;
+		this.packedLeaves = packedLeaves;
+		if (packedLeaves)
+			decoded = new long[fanout - 1];
+	}
+
+	/**
+	 * Finds the node in this LongBPlusTree that must be responsible for the specified key. The nodes visited on the
+	 * way are recorded in pathNodes and pathIndices.
+	 *
+	 * @param key
+	 *            the search key.
+	 * @return the node in this LongBPlusTree that must be responsible for the specified key.
+	 */
+	public Node find(long key) {
+		Node c = root;
+		pathLength = 0;
+		while (!c.isLeafNode()) {
+			int i = c.childIndex(key);
+			push(c, i);
+			c = c.children[i];
+		}
+		push(c, -1);
+		return c;
+	}
+
+	/**
+	 * Returns the value associated with the specified key. Unlike find, get does not record the nodes that it visits.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the value associated with the specified key; null if this LongBPlusTree does not contain the key.
+	 */
+	public Object get(long key) {
+		Node c = root;
+		if (c == null)
+			return null;
+		while (!c.isLeafNode())
+			c = c.children[c.childIndex(key)];
+		int i = c.lowerBound(key);
+		return i < c.numberOfKeys && c.key(i) == key ? c.values[i] : null;
+	}
+
+	/**
+	 * Appends the specified node to the current path.
+	 *
+	 * @param node
+	 *            the node to append.
+	 * @param index
+	 *            the position of the next node on the path among the children of the specified node.
+	 */
+	private void push(Node node, int index) {
+		if (pathLength == pathNodes.length) {
+			pathNodes = java.util.Arrays.copyOf(pathNodes, pathLength * 2);
+			pathIndices = java.util.Arrays.copyOf(pathIndices, pathLength * 2);
+		}
+		pathNodes[pathLength] = node;
+		pathIndices[pathLength++] = index;
+	}
+
+	/**
+	 * Inserts the specified key and the value into this LongBPlusTree.
+	 *
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 */
+	public void insert(long key, Object value) {
+		if (root == null)
+			root = new Node(true);
+		Node l = find(key);
+		int pos = l.lowerBound(key);
+		if (l.hasRoom()) {
+			l.insert(key, value, pos);
+			return;
+		}
+		int m = (fanout + 1) / 2; // the number of entries that stay in l
+		Node nl = new Node(true);
+		int n = l.numberOfKeys;
+		long[] keys = l.decodeKeys();
+		if (pos < m) { // the new entry goes to l
+			int moved = n - (m - 1);
+			nl.setKeys(keys, m - 1, moved);
+			System.arraycopy(l.values, m - 1, nl.values, 0, moved);
+			java.util.Arrays.fill(l.values, m - 1, n, null);
+			l.setKeys(keys, 0, m - 1);
+			l.insert(key, value, pos);
+		} else { // the new entry goes to nl
+			nl.setKeys(keys, m, n - m);
+			System.arraycopy(l.values, m, nl.values, 0, n - m);
+			java.util.Arrays.fill(l.values, m, n, null);
+			l.setKeys(keys, 0, m);
+			nl.insert(key, value, pos - m);
+		}
+		nl.next = l.next;
+		l.next = nl;
+		insertInParent(pathLength - 1, nl.key(0), nl);
+	}
+
+	/**
+	 * Inserts the specified key and a pointer to the specified node right after the node at the specified level of
+	 * the current path.
+	 *
+	 * @param level
+	 *            the level of the node that was split.
+	 * @param key
+	 *            the key that splits the nodes.
+	 * @param nn
+	 *            the new node.
+	 */
+	void insertInParent(int level, long key, Node nn) {
+		Node n = pathNodes[level];
+		if (level == 0) { // if the root was split
+			root = new Node(false);
+			root.keys[0] = key;
+			root.children[0] = n;
+			root.children[1] = nn;
+			root.numberOfKeys = 1;
+			return;
+		}
+		Node p = pathNodes[level - 1];
+		int pos = pathIndices[level - 1]; // the position of key in p
+		if (p.hasRoom()) {
+			p.insertChild(key, nn, pos);
+			return;
+		}
+		int m = (fanout + 1) / 2; // the number of children that stay in p
+		int n0 = p.numberOfKeys;
+		Node np = new Node(false);
+		long separator;
+		if (pos < m - 1) { // key and nn go to p
+			separator = p.keys[m - 2];
+			System.arraycopy(p.keys, m - 1, np.keys, 0, n0 - m + 1);
+			System.arraycopy(p.children, m - 1, np.children, 0, n0 - m + 2);
+			java.util.Arrays.fill(p.children, m - 1, n0 + 1, null);
+			p.numberOfKeys = m - 2;
+			p.insertChild(key, nn, pos);
+		} else if (pos == m - 1) { // key becomes the separator
+			separator = key;
+			System.arraycopy(p.keys, m - 1, np.keys, 0, n0 - m + 1);
+			np.children[0] = nn;
+			System.arraycopy(p.children, m, np.children, 1, n0 - m + 1);
+			java.util.Arrays.fill(p.children, m, n0 + 1, null);
+			p.numberOfKeys = m - 1;
+		} else { // key and nn go to np
+			separator = p.keys[m - 1];
+			System.arraycopy(p.keys, m, np.keys, 0, n0 - m);
+			System.arraycopy(p.children, m, np.children, 0, n0 - m + 1);
+			java.util.Arrays.fill(p.children, m, n0 + 1, null);
+			p.numberOfKeys = m - 1;
+			np.numberOfKeys = n0 - m;
+			np.insertChild(key, nn, pos - m);
+		}
+		np.numberOfKeys = fanout - m;
+		insertInParent(level - 1, separator, np);
+	}
+
+	/**
+	 * Deletes the specified key and the value from this LongBPlusTree.
+	 *
+	 * @param key
+	 *            the key to delete.
+	 * @param value
+	 *            the value to delete.
+	 */
+	public void delete(long key, Object value) {
+		if (root == null)
+			return;
+		Node l = find(key);
+		int i = l.lowerBound(key);
+		if (i < l.numberOfKeys && l.key(i) == key)
+			deleteEntry(pathLength - 1, i);
+	}
+
+	/**
+	 * Deletes the entry at the specified position from the node at the specified level of the current path and
+	 * merges or redistributes nodes that become underfull.
+	 *
+	 * @param level
+	 *            the level of the node on the current path.
+	 * @param pos
+	 *            the position of the key to delete (for a non-leaf node, the child right after the key is deleted as
+	 *            well).
+	 */
+	void deleteEntry(int level, int pos) {
+		Node n = pathNodes[level];
+		if (n.isLeafNode())
+			n.remove(pos);
+		else
+			n.removeChild(pos);
+		if (level == 0) { // if n is the root
+			if (!n.isLeafNode() && n.numberOfKeys == 0) // if the root has only one child
+				root = n.children[0];
+			return;
+		}
+		if (!n.isUnderfull())
+			return;
+		Node p = pathNodes[level - 1];
+		int i = pathIndices[level - 1]; // the position of n in p
+		int k = i > 0 ? i - 1 : i; // the position of the key between n and its sibling
+		Node left = p.children[k];
+		Node right = p.children[k + 1];
+		int total = left.numberOfKeys + right.numberOfKeys + (n.isLeafNode() ? 0 : 1);
+		if (total <= fanout - 1) { // if n and its sibling fit in a single node
+			merge(left, p.keys[k], right);
+			deleteEntry(level - 1, k);
+		} else if (left == n) {
+			borrowFromRight(p, k, left, right);
+		} else {
+			borrowFromLeft(p, k, left, right);
+		}
+	}
+
+	/**
+	 * Moves every entry of the specified right node into the specified left node.
+	 *
+	 * @param left
+	 *            the left node.
+	 * @param key
+	 *            the key that separates the nodes in their parent.
+	 * @param right
+	 *            the right node.
+	 */
+	private void merge(Node left, long key, Node right) {
+		int n = left.numberOfKeys;
+		if (left.isLeafNode()) {
+			long[] keys = left.decodeKeys();
+			if (right.packedKeys != null)
+				right.packedKeys.decode(keys, n);
+			else
+				System.arraycopy(right.keys, 0, keys, n, right.numberOfKeys);
+			left.setKeys(keys, 0, n + right.numberOfKeys);
+			System.arraycopy(right.values, 0, left.values, n, right.numberOfKeys);
+			left.next = right.next;
+		} else {
+			left.keys[n] = key;
+			System.arraycopy(right.keys, 0, left.keys, n + 1, right.numberOfKeys);
+			System.arraycopy(right.children, 0, left.children, n + 1, right.numberOfKeys + 1);
+			left.numberOfKeys += right.numberOfKeys + 1;
+		}
+	}
+
+	/**
+	 * Moves the first entry of the specified right node to the specified left node.
+	 *
+	 * @param p
+	 *            the parent of the nodes.
+	 * @param k
+	 *            the position of the key that separates the nodes in the parent.
+	 * @param left
+	 *            the left node.
+	 * @param right
+	 *            the right node.
+	 */
+	private void borrowFromRight(Node p, int k, Node left, Node right) {
+		if (left.isLeafNode()) {
+			left.insert(right.key(0), right.values[0], left.numberOfKeys);
+			right.remove(0);
+			p.keys[k] = right.key(0);
+		} else {
+			left.keys[left.numberOfKeys] = p.keys[k];
+			left.children[left.numberOfKeys + 1] = right.children[0];
+			left.numberOfKeys++;
+			p.keys[k] = right.keys[0];
+			System.arraycopy(right.children, 1, right.children, 0, right.numberOfKeys);
+			right.numberOfKeys--;
+			System.arraycopy(right.keys, 1, right.keys, 0, right.numberOfKeys);
+			right.children[right.numberOfKeys + 1] = null;
+		}
+	}
+
+	/**
+	 * Moves the last entry of the specified left node to the specified right node.
+	 *
+	 * @param p
+	 *            the parent of the nodes.
+	 * @param k
+	 *            the position of the key that separates the nodes in the parent.
+	 * @param left
+	 *            the left node.
+	 * @param right
+	 *            the right node.
+	 */
+	private void borrowFromLeft(Node p, int k, Node left, Node right) {
+		int last = left.numberOfKeys - 1;
+		if (right.isLeafNode()) {
+			right.insert(left.key(last), left.values[last], 0);
+			left.remove(last);
+			p.keys[k] = right.key(0);
+		} else {
+			System.arraycopy(right.keys, 0, right.keys, 1, right.numberOfKeys);
+			System.arraycopy(right.children, 0, right.children, 1, right.numberOfKeys + 1);
+			right.keys[0] = p.keys[k];
+			right.children[0] = left.children[last + 1];
+			right.numberOfKeys++;
+			p.keys[k] = left.keys[last];
+			left.children[last + 1] = null;
+			left.numberOfKeys--;
+		}
+	}
+
+}
@@ -0,0 +1,548 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedBPlusTree class implements read-only B+-trees that are served directly from a memory-mapped file. The file
+ * has the page format of DiskBPlusTree (so a closed DiskBPlusTree can be opened as a MappedBPlusTree as well) and is
+ * usually written once by freeze, which packs the entries into full leaf nodes and builds the upper levels bottom-up.
+ * Opening a MappedBPlusTree only maps the file; lookups and scans read the keys and values from the mapped bytes
+ * without deserializing any node, so the time to the first lookup does not depend on the size of the file, and all the
+ * processes that map the same file share the pages cached by the operating system.
+ *
+ * Since a MappedBPlusTree never changes, any number of threads can use it at the same time.
+ */
+public class MappedBPlusTree implements java.io.Closeable {
+
+	/**
+	 * The file channel that holds the pages of this MappedBPlusTree.
+	 */
+	protected FileChannel channel;
+
+	/**
+	 * The mapped regions of the file (each region holds pagesPerSegment pages except possibly the last one).
+	 */
+	protected MappedByteBuffer[] segments;
+
+	/**
+	 * The number of pages in each mapped region (a single MappedByteBuffer cannot exceed 2 GiB).
+	 */
+	protected long pagesPerSegment;
+
+	/**
+	 * The size of each page in bytes.
+	 */
+	protected int pageSize;
+
+	/**
+	 * The maximum number of pointers that each node of this MappedBPlusTree can have.
+	 */
+	protected int fanout;
+
+	/**
+	 * The offset of the first value (or child page id) in each page.
+	 */
+	protected int pointersOffset;
+
+	/**
+	 * The page id of the root node.
+	 */
+	protected long root;
+
+	/**
+	 * A Cursor streams the entries of a MappedBPlusTree whose keys fall in a range, in ascending key order, by
+	 * following the page ids of the next leaf nodes.
+	 */
+	public class Cursor {
+
+		/**
+		 * The upper bound of the range.
+		 */
+		long toKey;
+
+		/**
+		 * A flag indicating whether or not the range includes toKey.
+		 */
+		boolean toInclusive;
+
+		/**
+		 * The page id of the current leaf node (DiskBPlusTree.NONE if this Cursor is exhausted).
+		 */
+		long page;
+
+		/**
+		 * The position of the next entry to examine in the current leaf node.
+		 */
+		int index;
+
+		/**
+		 * The key of the current entry.
+		 */
+		long key;
+
+		/**
+		 * The value of the current entry.
+		 */
+		long value;
+
+		/**
+		 * Constructs a Cursor.
+		 *
+		 * @param fromKey
+		 *            the lower bound of the range.
+		 * @param fromInclusive
+		 *            a flag indicating whether or not the range includes fromKey.
+		 * @param toKey
+		 *            the upper bound of the range.
+		 * @param toInclusive
+		 *            a flag indicating whether or not the range includes toKey.
+		 */
+		protected Cursor(long fromKey, boolean fromInclusive, long toKey, boolean toInclusive) {
+			this.toKey = toKey;
+			this.toInclusive = toInclusive;
+			page = find(fromKey);
+			ByteBuffer b = segment(page);
+			int o = offset(page);
+			index = lowerBound(b, o, fromKey);
+			if (!fromInclusive) { // skip the entries with fromKey (which may continue in the next leaf nodes)
+				while (page != DiskBPlusTree.NONE) {
+					int n = b.getInt(o + DiskBPlusTree.NUMBER_OF_KEYS);
+					while (index < n
+							&& b.getLong(o + DiskBPlusTree.HEADER_SIZE + index * DiskBPlusTree.KEY_WIDTH) == fromKey)
+						index++;
+					if (index < n)
+						break;
+					page = b.getLong(o + DiskBPlusTree.NEXT);
+					index = 0;
+					if (page != DiskBPlusTree.NONE) {
+						b = segment(page);
+						o = offset(page);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Advances this Cursor to the next entry in the range.
+		 *
+		 * @return true if this Cursor has moved to an entry; false if there are no more entries in the range.
+		 */
+		public boolean next() {
+			while (page != DiskBPlusTree.NONE) {
+				ByteBuffer b = segment(page);
+				int o = offset(page);
+				if (index < b.getInt(o + DiskBPlusTree.NUMBER_OF_KEYS)) {
+					long k = b.getLong(o + DiskBPlusTree.HEADER_SIZE + index * DiskBPlusTree.KEY_WIDTH);
+					if (k > toKey || k == toKey && !toInclusive)
+						break;
+					key = k;
+					value = b.getLong(o + pointersOffset + index++ * DiskBPlusTree.POINTER_WIDTH);
+					return true;
+				}
+				page = b.getLong(o + DiskBPlusTree.NEXT); // move on to the next leaf node
+				index = 0;
+			}
+			page = DiskBPlusTree.NONE;
+			return false;
+		}
+
+		/**
+		 * Returns the key of the current entry.
+		 *
+		 * @return the key of the current entry.
+		 */
+		public long getKey() {
+			return key;
+		}
+
+		/**
+		 * Returns the value of the current entry.
+		 *
+		 * @return the value of the current entry.
+		 */
+		public long getValue() {
+			return value;
+		}
+
+	}
+
+	/**
+	 * Opens the MappedBPlusTree stored in the specified file.
+	 *
+	 * @param file
+	 *            the file written by freeze (or by DiskBPlusTree).
+	 * @throws IOException
+	 *             if an I/O error occurs or the file does not hold a B+-tree.
+	 */
+	public MappedBPlusTree(java.nio.file.Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			ByteBuffer metadata = ByteBuffer.allocate(DiskBPlusTree.METADATA_SIZE);
+			while (metadata.hasRemaining())
+				if (channel.read(metadata, metadata.position()) < 0)
+					throw new IOException("the file does not hold a B+-tree");
+			if (metadata.getLong(0) != DiskBPlusTree.MAGIC)
+				throw new IOException("the file does not hold a B+-tree");
+			pageSize = metadata.getInt(8);
+			root = metadata.getLong(16);
+			fanout = DiskBPlusTree.fanout(pageSize);
+			pointersOffset = DiskBPlusTree.HEADER_SIZE + (fanout - 1) * DiskBPlusTree.KEY_WIDTH;
+			pagesPerSegment = Integer.MAX_VALUE / pageSize;
+			long size = channel.size();
+			long segmentSize = pagesPerSegment * pageSize;
+			segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+			for (int i = 0; i < segments.length; i++) {
+				long position = i * segmentSize;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(segmentSize, size - position));
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the specified entries to the specified file in the format of DiskBPlusTree. The leaf nodes are filled up
+	 * (except the last two, which share their entries evenly) and each upper level spreads its children evenly over as
+	 * few nodes as possible.
+	 *
+	 * @param entries
+	 *            the key/value pairs in ascending key order; keys and values must be Numbers (such as Long or
+	 *            Integer) and are stored as long values.
+	 * @param file
+	 *            the file to write (replaced if it exists).
+	 * @param pageSize
+	 *            the size of each page in bytes.
+	 * @throws IllegalArgumentException
+	 *             if the page size is too small, the keys are not distinct and ascending, or a key or value is not a
+	 *             Number.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static void freeze(java.util.Iterator<? extends util.Pair<?, ?>> entries, java.nio.file.Path file,
+			int pageSize) throws IOException {
+		int fanout = DiskBPlusTree.fanout(pageSize);
+		if (fanout < 3 || pageSize < DiskBPlusTree.METADATA_SIZE)
+			throw new IllegalArgumentException("page size " + pageSize + " is too small");
+		int pointersOffset = DiskBPlusTree.HEADER_SIZE + (fanout - 1) * DiskBPlusTree.KEY_WIDTH;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer page = ByteBuffer.allocateDirect(pageSize);
+			int capacity = fanout - 1; // the number of entries in a full leaf node
+			long[] keys = new long[2 * capacity]; // the entries of the last two leaf nodes
+			long[] values = new long[2 * capacity];
+			int size = 0;
+			long[] firstKeys = new long[16]; // the first key and the page id of each node of the current level
+			long[] ids = new long[16];
+			int nodes = 0;
+			long id = 1;
+			while (entries.hasNext()) {
+				util.Pair<?, ?> entry = entries.next();
+				long key = toLong(entry.getFirst(), "key");
+				if (size > 0 && key <= keys[size - 1])
+					throw new IllegalArgumentException("key " + key + " follows key " + keys[size - 1]
+							+ " (keys must be distinct and ascending)");
+				if (size == keys.length) { // write the older of the two leaf nodes
+					writeLeaf(channel, page, id, keys, values, 0, capacity, id + 1, pointersOffset);
+					if (nodes == ids.length) {
+						firstKeys = java.util.Arrays.copyOf(firstKeys, nodes * 2);
+						ids = java.util.Arrays.copyOf(ids, nodes * 2);
+					}
+					firstKeys[nodes] = keys[0];
+					ids[nodes++] = id++;
+					System.arraycopy(keys, capacity, keys, 0, capacity);
+					System.arraycopy(values, capacity, values, 0, capacity);
+					size = capacity;
+				}
+				keys[size] = key;
+				values[size++] = toLong(entry.getSecond(), "value");
+			}
+			int last = size > capacity ? 2 : 1; // the number of remaining leaf nodes
+			for (int i = 0, from = 0; i < last; i++) {
+				int n = size / last + (i < size % last ? 1 : 0);
+				writeLeaf(channel, page, id, keys, values, from, n, i + 1 < last ? id + 1 : DiskBPlusTree.NONE,
+						pointersOffset);
+				if (nodes == ids.length) {
+					firstKeys = java.util.Arrays.copyOf(firstKeys, nodes * 2);
+					ids = java.util.Arrays.copyOf(ids, nodes * 2);
+				}
+				firstKeys[nodes] = keys[from];
+				ids[nodes++] = id++;
+				from += n;
+			}
+			while (nodes > 1) { // build the next level
+				int parents = (nodes + fanout - 1) / fanout;
+				for (int i = 0, from = 0; i < parents; i++) {
+					int n = nodes / parents + (i < nodes % parents ? 1 : 0); // the number of children
+					page.clear();
+					page.putInt(DiskBPlusTree.NUMBER_OF_KEYS, n - 1);
+					page.put(DiskBPlusTree.LEAF, (byte) 0);
+					page.putLong(DiskBPlusTree.NEXT, DiskBPlusTree.NONE);
+					for (int j = 0; j < n; j++) {
+						if (j > 0)
+							page.putLong(DiskBPlusTree.HEADER_SIZE + (j - 1) * DiskBPlusTree.KEY_WIDTH,
+									firstKeys[from + j]);
+						page.putLong(pointersOffset + j * DiskBPlusTree.POINTER_WIDTH, ids[from + j]);
+					}
+					write(channel, page, id);
+					firstKeys[i] = firstKeys[from];
+					ids[i] = id++;
+					from += n;
+				}
+				nodes = parents;
+			}
+			page.clear(); // write the metadata last
+			page.putLong(0, DiskBPlusTree.MAGIC);
+			page.putInt(8, pageSize);
+			page.putLong(16, ids[0]);
+			page.putLong(24, id);
+			page.putLong(32, DiskBPlusTree.NONE);
+			write(channel, page, 0);
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Writes the entries of the specified BPlusTree (whose keys and values must be Numbers) to the specified file in
+	 * the format of DiskBPlusTree.
+	 *
+	 * @param tree
+	 *            the BPlusTree.
+	 * @param file
+	 *            the file to write (replaced if it exists).
+	 * @param pageSize
+	 *            the size of each page in bytes.
+	 * @throws IllegalArgumentException
+	 *             if the page size is too small, the tree has duplicate keys, or a key or value is not a Number.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static void freeze(BPlusTree tree, java.nio.file.Path file, int pageSize) throws IOException {
+		final BPlusTree.Cursor cursor = tree.scan(null, true, null, true);
+		freeze(new java.util.Iterator<util.Pair<Object, Object>>() {
+
+			/**
+			 * A flag indicating whether or not the cursor is on an entry that has not been returned yet.
+			 */
+			boolean ready = cursor.next();
+
+			@Override
+			public boolean hasNext() {
+				return ready;
+			}
+
+			@Override
+			public util.Pair<Object, Object> next() {
+				if (!ready)
+					throw new java.util.NoSuchElementException();
+				util.Pair<Object, Object> entry = new util.Pair<Object, Object>(cursor.getKey(), cursor.getValue());
+				ready = cursor.next();
+				return entry;
+			}
+
+		}, file, pageSize);
+	}
+
+	/**
+	 * Converts the specified Number to a long value.
+	 *
+	 * @param o
+	 *            the Number.
+	 * @param what
+	 *            "key" or "value" (for the error message).
+	 * @return the long value.
+	 * @throws IllegalArgumentException
+	 *             if the object is not a Number.
+	 */
+	static long toLong(Object o, String what) {
+		if (!(o instanceof Number))
+			throw new IllegalArgumentException(what + " " + o + " is not a Number");
+		return ((Number) o).longValue();
+	}
+
+	/**
+	 * Writes a leaf node.
+	 *
+	 * @param channel
+	 *            the file.
+	 * @param page
+	 *            the buffer to use.
+	 * @param id
+	 *            the page id of the leaf node.
+	 * @param keys
+	 *            the keys.
+	 * @param values
+	 *            the values.
+	 * @param from
+	 *            the position of the first entry of the leaf node.
+	 * @param n
+	 *            the number of entries of the leaf node.
+	 * @param next
+	 *            the page id of the next leaf node.
+	 * @param pointersOffset
+	 *            the offset of the first value in the page.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	static void writeLeaf(FileChannel channel, ByteBuffer page, long id, long[] keys, long[] values, int from, int n,
+			long next, int pointersOffset) throws IOException {
+		page.clear();
+		page.putInt(DiskBPlusTree.NUMBER_OF_KEYS, n);
+		page.put(DiskBPlusTree.LEAF, (byte) 1);
+		page.putLong(DiskBPlusTree.NEXT, next);
+		for (int i = 0; i < n; i++) {
+			page.putLong(DiskBPlusTree.HEADER_SIZE + i * DiskBPlusTree.KEY_WIDTH, keys[from + i]);
+			page.putLong(pointersOffset + i * DiskBPlusTree.POINTER_WIDTH, values[from + i]);
+		}
+		write(channel, page, id);
+	}
+
+	/**
+	 * Writes the specified buffer as the page with the specified page id.
+	 *
+	 * @param channel
+	 *            the file.
+	 * @param page
+	 *            the buffer.
+	 * @param id
+	 *            the page id.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	static void write(FileChannel channel, ByteBuffer page, long id) throws IOException {
+		page.clear();
+		long position = id * page.capacity();
+		while (page.hasRemaining())
+			channel.write(page, position + page.position());
+	}
+
+	/**
+	 * Returns the maximum number of pointers that each node of this MappedBPlusTree can have.
+	 *
+	 * @return the maximum number of pointers that each node of this MappedBPlusTree can have.
+	 */
+	public int getFanout() {
+		return fanout;
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the value associated with the specified key; null if the key is not in this MappedBPlusTree.
+	 */
+	public Long get(long key) {
+		long page = find(key);
+		ByteBuffer b = segment(page);
+		int o = offset(page);
+		int i = lowerBound(b, o, key);
+		if (i < b.getInt(o + DiskBPlusTree.NUMBER_OF_KEYS)
+				&& b.getLong(o + DiskBPlusTree.HEADER_SIZE + i * DiskBPlusTree.KEY_WIDTH) == key)
+			return b.getLong(o + pointersOffset + i * DiskBPlusTree.POINTER_WIDTH);
+		return null;
+	}
+
+	/**
+	 * Returns a Cursor over the entries of this MappedBPlusTree whose keys fall in the specified range, in ascending
+	 * key order.
+	 *
+	 * @param fromKey
+	 *            the lower bound of the range (Long.MIN_VALUE if the range has no lower bound).
+	 * @param fromInclusive
+	 *            a flag indicating whether or not the range includes fromKey.
+	 * @param toKey
+	 *            the upper bound of the range (Long.MAX_VALUE if the range has no upper bound).
+	 * @param toInclusive
+	 *            a flag indicating whether or not the range includes toKey.
+	 * @return a Cursor over the entries in the specified range.
+	 */
+	public Cursor scan(long fromKey, boolean fromInclusive, long toKey, boolean toInclusive) {
+		return new Cursor(fromKey, fromInclusive, toKey, toInclusive);
+	}
+
+	/**
+	 * Finds the leaf node that must be responsible for the specified key.
+	 *
+	 * @param key
+	 *            the search key.
+	 * @return the page id of the leaf node.
+	 */
+	protected long find(long key) {
+		long page = root;
+		for (;;) {
+			ByteBuffer b = segment(page);
+			int o = offset(page);
+			if (b.get(o + DiskBPlusTree.LEAF) != 0)
+				return page;
+			int i = lowerBound(b, o, key);
+			if (i < b.getInt(o + DiskBPlusTree.NUMBER_OF_KEYS)
+					&& b.getLong(o + DiskBPlusTree.HEADER_SIZE + i * DiskBPlusTree.KEY_WIDTH) == key)
+				i++;
+			page = b.getLong(o + pointersOffset + i * DiskBPlusTree.POINTER_WIDTH);
+		}
+	}
+
+	/**
+	 * Returns the first index i such that the i-th key of the specified node is not smaller than the specified key.
+	 *
+	 * @param b
+	 *            the mapped region that holds the node.
+	 * @param o
+	 *            the offset of the node in the region.
+	 * @param key
+	 *            the key.
+	 * @return the first index i such that the i-th key is not smaller than the key; the number of keys if there is no
+	 *         such i.
+	 */
+	static int lowerBound(ByteBuffer b, int o, long key) {
+		int from = 0;
+		int to = b.getInt(o + DiskBPlusTree.NUMBER_OF_KEYS);
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (b.getLong(o + DiskBPlusTree.HEADER_SIZE + mid * DiskBPlusTree.KEY_WIDTH) < key)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from;
+	}
+
+	/**
+	 * Returns the mapped region that holds the specified page.
+	 *
+	 * @param page
+	 *            the page id.
+	 * @return the mapped region that holds the page.
+	 */
+	ByteBuffer segment(long page) {
+		return segments[(int) (page / pagesPerSegment)];
+	}
+
+	/**
+	 * Returns the offset of the specified page in its mapped region.
+	 *
+	 * @param page
+	 *            the page id.
+	 * @return the offset of the page in its mapped region.
+	 */
+	int offset(long page) {
+		return (int) (page % pagesPerSegment) * pageSize;
+	}
+
+	/**
+	 * Closes the file of this MappedBPlusTree. The mapped regions are released when they are garbage collected, so
+	 * this MappedBPlusTree must not be used afterwards.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,339 @@
+/**
+ * The MultiValueBPlusTree class implements B+-trees that associate each key with a set of long values (such as the
+ * ids of the rows that share the value of a non-unique attribute). Each key appears in a single leaf entry whose value
+ * is a util.PostingList, and further values for the key are added to that PostingList in place, so a key with
+ * millions of values still takes one leaf entry and all of its values are found with a single descent. Long
+ * PostingLists are kept compressed (see util.PostingList).
+ *
+ * The values of a MultiValueBPlusTree must be integral (Byte, Short, Integer or Long). A Cursor over a
+ * MultiValueBPlusTree returns the PostingList of each key as its value, and a snapshot shares PostingLists with this
+ * MultiValueBPlusTree until the leaf node that holds them is first changed, at which point they are copied. Values
+ * are added one at a time with insert and removed with delete. put, putIfAbsent and compute work on the whole set of
+ * values of a key instead: they take (or compute) either a single value or a PostingList, and return PostingLists.
+ */
+public class MultiValueBPlusTree extends BPlusTree {
+
+	/**
+	 * Constructs a MultiValueBPlusTree.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this MultiValueBPlusTree can have.
+	 */
+	public MultiValueBPlusTree(int fanout) {
+		super(fanout);
+	}
+
+	/**
+	 * Constructs a MultiValueBPlusTree.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this MultiValueBPlusTree can have.
+	 * @param searchStrategy
+	 *            the strategy that the nodes of this MultiValueBPlusTree use for locating keys.
+	 */
+	public MultiValueBPlusTree(int fanout, SearchStrategy searchStrategy) {
+		super(fanout, searchStrategy);
+	}
+
+	/**
+	 * Returns a new empty MultiValueBPlusTree with the same settings as this MultiValueBPlusTree.
+	 *
+	 * @return a new empty MultiValueBPlusTree with the same settings as this MultiValueBPlusTree.
+	 */
+	@Override
+	protected BPlusTree newEmptyTree() {
+		MultiValueBPlusTree tree = new MultiValueBPlusTree(fanout, searchStrategy);
+		tree.splitPolicy = splitPolicy;
+		return tree;
+	}
+
+	/**
+	 * Returns a snapshot of this MultiValueBPlusTree (see BPlusTree.snapshot()). Each of the two trees copies the
+	 * PostingLists of a leaf node when it first changes the leaf node, so adding values through either tree does not
+	 * change the other.
+	 *
+	 * @return a snapshot of this MultiValueBPlusTree.
+	 */
+	@Override
+	public MultiValueBPlusTree snapshot() {
+		return (MultiValueBPlusTree) super.snapshot();
+	}
+
+	/**
+	 * Returns the values associated with the specified key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the PostingList that holds the values associated with the specified key; null if this
+	 *         MultiValueBPlusTree does not contain the key.
+	 */
+	public util.PostingList getValues(Object key) {
+		return (util.PostingList) get(key);
+	}
+
+	/**
+	 * Returns the number of values associated with the specified key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the number of values associated with the specified key.
+	 */
+	public int count(Object key) {
+		util.PostingList values = getValues(key);
+		return values == null ? 0 : values.size();
+	}
+
+	/**
+	 * Associates the specified value with the specified key. If the key is already present, the value is added to
+	 * its PostingList (unless the PostingList already contains it); otherwise, a new entry is inserted.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value (a Byte, Short, Integer or Long).
+	 * @throws IllegalArgumentException
+	 *             if the value is not integral.
+	 */
+	@Override
+	public void insert(Object key, Object value) {
+		long v = longValue(value);
+		unshare();
+		if (root == null)
+			root = new Node(fanout);
+		Path path = path();
+		Node l = find(key, path);
+		int pos = l.lowerBound(key);
+		l = writable(path, path.length - 1);
+		if (pos < l.numberOfKeys && compare(l.keys[pos], key) == 0) { // if the key is present
+			((util.PostingList) l.pointers[pos]).add(v);
+			return;
+		}
+		util.PostingList values = new util.PostingList();
+		values.add(v);
+		insertAt(path, key, values, pos);
+	}
+
+	/**
+	 * Replaces the values associated with the specified key. If this MultiValueBPlusTree does not contain the key, a
+	 * new entry is inserted.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the new value (a Byte, Short, Integer or Long) or a non-empty PostingList of the new values (which is
+	 *            copied).
+	 * @return the PostingList that held the values previously associated with the key; null if this
+	 *         MultiValueBPlusTree did not contain the key.
+	 * @throws IllegalArgumentException
+	 *             if the value is neither integral nor a non-empty PostingList.
+	 */
+	@Override
+	public Object put(Object key, Object value) {
+		util.PostingList values = postingList(value);
+		if (values == null)
+			throw new IllegalArgumentException("a key must have at least one value");
+		return super.put(key, values);
+	}
+
+	/**
+	 * Associates the specified value or values with the specified key unless this MultiValueBPlusTree already
+	 * contains the key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value (a Byte, Short, Integer or Long) or a non-empty PostingList of the values (which is copied).
+	 * @return the PostingList that holds the values associated with the key; null if this MultiValueBPlusTree did
+	 *         not contain the key (and the new entry has been inserted).
+	 * @throws IllegalArgumentException
+	 *             if the value is neither integral nor a non-empty PostingList.
+	 */
+	@Override
+	public Object putIfAbsent(Object key, Object value) {
+		util.PostingList values = postingList(value);
+		if (values == null)
+			throw new IllegalArgumentException("a key must have at least one value");
+		return super.putIfAbsent(key, values);
+	}
+
+	/**
+	 * Associates the specified key with the values that the specified function computes from the key and the
+	 * PostingList of its current values (null if this MultiValueBPlusTree does not contain the key), descending the
+	 * tree only once. The function may change the PostingList it receives and return it. It may also return another
+	 * PostingList (which is copied) or a single integral value. If it returns null or an empty PostingList, the key
+	 * is deleted. The function must not modify this MultiValueBPlusTree.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param remapping
+	 *            the function that computes the new values from the key and the current values.
+	 * @return the PostingList that holds the new values associated with the key; null if the key is no longer in this
+	 *         MultiValueBPlusTree.
+	 * @throws IllegalArgumentException
+	 *             if the function returns a value that is neither null, integral nor a PostingList.
+	 */
+	@Override
+	public Object compute(Object key, java.util.function.BiFunction<Object, Object, Object> remapping) {
+		unshare();
+		if (root == null) // if the root is null
+			root = new Node(fanout);
+		Path path = path();
+		Node l = find(key, path);
+		int pos = l.lowerBound(key);
+		boolean present = pos < l.numberOfKeys && compare(l.keys[pos], key) == 0;
+		if (present) // the function may change the PostingList, which a snapshot must not see
+			l = writable(path, path.length - 1);
+		Object current = present ? l.pointers[pos] : null;
+		Object value = remapping.apply(key, current);
+		util.PostingList values = value == current ? (util.PostingList) current : postingList(value);
+		if (values != null && values.size() == 0)
+			values = null;
+		if (present) {
+			if (values == null)
+				delete_entry(path, path.length - 1, pos);
+			else
+				l.pointers[pos] = values;
+		} else if (values != null)
+			insertAt(path, key, values, pos);
+		return values;
+	}
+
+	/**
+	 * Inserts the specified entries one by one (entries with the same key are merged into a single PostingList).
+	 *
+	 * @param entries
+	 *            the key/value pairs to insert.
+	 * @throws IllegalArgumentException
+	 *             if a value is not integral.
+	 */
+	@Override
+	public void insertAll(java.util.Collection<? extends util.Pair<?, ?>> entries) {
+		for (util.Pair<?, ?> entry : entries)
+			insert(entry.getFirst(), entry.getSecond());
+	}
+
+	/**
+	 * Replaces the contents of this MultiValueBPlusTree with the specified entries by building the tree bottom-up.
+	 * Consecutive entries with the same key are gathered into a single PostingList first.
+	 *
+	 * @param entries
+	 *            the key/value pairs to load in ascending key order.
+	 * @param fillFactor
+	 *            the fraction of each node to fill (0 < fillFactor <= 1).
+	 * @throws IllegalArgumentException
+	 *             if the fill factor is not in (0, 1], the entries are not sorted by key or a value is not integral.
+	 */
+	@Override
+	public void bulkLoad(java.util.Iterator<? extends util.Pair<?, ?>> entries, double fillFactor) {
+		super.bulkLoad(new java.util.Iterator<util.Pair<?, ?>>() {
+
+			util.Pair<?, ?> next = entries.hasNext() ? entries.next() : null;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public util.Pair<?, ?> next() {
+				Object key = next.getFirst();
+				util.PostingList values = new util.PostingList();
+				do {
+					values.add(longValue(next.getSecond()));
+					next = entries.hasNext() ? entries.next() : null;
+				} while (next != null && compare(next.getFirst(), key) == 0);
+				return new util.Pair<Object, Object>(key, values);
+			}
+
+		}, fillFactor);
+	}
+
+	/**
+	 * Deletes the specified value of the specified key from this MultiValueBPlusTree, and the key itself once it has
+	 * no values left. If the value is null, the key is deleted together with all of its values.
+	 *
+	 * @param key
+	 *            the key to delete.
+	 * @param value
+	 *            the value to delete (null to delete all of the values of the key).
+	 * @throws IllegalArgumentException
+	 *             if the value is neither null nor integral.
+	 */
+	@Override
+	public void delete(Object key, Object value) {
+		if (value == null) {
+			super.delete(key, null);
+			return;
+		}
+		long v = longValue(value);
+		unshare();
+		if (root == null)
+			return;
+		Path path = path();
+		Node l = find(key, path);
+		int i = l.findIndexGE(key);
+		if (i < 0 || compare(l.keys[i], key) != 0 || !((util.PostingList) l.pointers[i]).contains(v))
+			return;
+		l = writable(path, path.length - 1);
+		util.PostingList values = (util.PostingList) l.pointers[i];
+		if (values.size() > 1)
+			values.remove(v);
+		else
+			delete_entry(path, path.length - 1, i);
+	}
+
+	/**
+	 * Returns a copy of the specified node. The copy of a leaf node has its own copies of the PostingLists so that
+	 * adding values to them does not change a snapshot.
+	 *
+	 * @param n
+	 *            the node to copy.
+	 * @return a copy of the specified node.
+	 */
+	@Override
+	Node copy(Node n) {
+		Node c = super.copy(n);
+		if (c.isLeafNode())
+			for (int i = 0; i < c.numberOfKeys; i++)
+				c.pointers[i] = new util.PostingList((util.PostingList) c.pointers[i]);
+		return c;
+	}
+
+	/**
+	 * Returns a PostingList that holds the specified value or values.
+	 *
+	 * @param value
+	 *            null, a value (a Byte, Short, Integer or Long) or a PostingList.
+	 * @return null if the value is null or an empty PostingList; a copy of the value if it is a PostingList; a new
+	 *         PostingList that holds the value otherwise.
+	 * @throws IllegalArgumentException
+	 *             if the value is neither null, integral nor a PostingList.
+	 */
+	static util.PostingList postingList(Object value) {
+		if (value == null)
+			return null;
+		if (value instanceof util.PostingList) {
+			util.PostingList list = (util.PostingList) value;
+			return list.size() == 0 ? null : new util.PostingList(list);
+		}
+		util.PostingList values = new util.PostingList();
+		values.add(longValue(value));
+		return values;
+	}
+
+	/**
+	 * Returns the long value of the specified value.
+	 *
+	 * @param value
+	 *            the value.
+	 * @return the long value of the specified value.
+	 * @throws IllegalArgumentException
+	 *             if the value is not integral.
+	 */
+	static long longValue(Object value) {
+		if (!isIntegral(value))
+			throw new IllegalArgumentException("value " + value + " is not a Byte, Short, Integer or Long");
+		return ((Number) value).longValue();
+	}
+
+}
@@ -0,0 +1,994 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The OffHeapBPlusTree class implements B+-trees that keep their nodes outside the Java heap. Nodes are allocated in
+ * slabs of native memory (direct ByteBuffers) and refer to each other by address (the position of a node in the
+ * sequence of slabs) instead of by object reference, and the keys and the values are primitive long values stored in
+ * place, so the heap holds only one ByteBuffer per slab no matter how many keys the tree has and the garbage collector
+ * never traces the nodes. Each node has the layout of a page of a DiskBPlusTree: a header that holds the number of
+ * keys, the leaf flag and the address of the next leaf node, followed by the keys and then the values (or the
+ * addresses of the children). The nodes freed by merges are kept in a free list (linked through their next fields)
+ * and reused before new memory is taken from a slab. Closing an OffHeapBPlusTree drops its slabs, so their native
+ * memory is returned once the garbage collector reclaims the ByteBuffers.
+ */
+public class OffHeapBPlusTree implements java.io.Closeable {
+
+	/**
+	 * The number of bytes that each key occupies in a node.
+	 */
+	public static final int KEY_WIDTH = Long.BYTES;
+
+	/**
+	 * The number of bytes that each value or address occupies in a node.
+	 */
+	public static final int POINTER_WIDTH = Long.BYTES;
+
+	/**
+	 * The number of bytes of the header of each node.
+	 */
+	public static final int HEADER_SIZE = 16;
+
+	/**
+	 * The default size of each slab in bytes.
+	 */
+	public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+	/**
+	 * The offset of the number of keys in the header of a node.
+	 */
+	static final int NUMBER_OF_KEYS = 0;
+
+	/**
+	 * The offset of the leaf flag in the header of a node.
+	 */
+	static final int LEAF = 4;
+
+	/**
+	 * The offset of the address of the next leaf node (or the next free node) in the header of a node.
+	 */
+	static final int NEXT = 8;
+
+	/**
+	 * The address that refers to no node (the first node of the first slab is never used).
+	 */
+	static final long NONE = 0;
+
+	/**
+	 * The maximum number of pointers that each node of this OffHeapBPlusTree can have.
+	 */
+	protected int fanout;
+
+	/**
+	 * The number of bytes that each node occupies.
+	 */
+	protected int nodeSize;
+
+	/**
+	 * The offset of the first value (or child address) in each node.
+	 */
+	protected int pointersOffset;
+
+	/**
+	 * The base-2 logarithm of the size of each slab (the address of a node holds the slab index in its upper bits and
+	 * the offset of the node in the slab in its lower bits).
+	 */
+	protected int slabShift;
+
+	/**
+	 * The number of nodes that each slab holds.
+	 */
+	protected int nodesPerSlab;
+
+	/**
+	 * The slabs of this OffHeapBPlusTree (null once this OffHeapBPlusTree is closed).
+	 */
+	protected ByteBuffer[] slabs = new ByteBuffer[8];
+
+	/**
+	 * The number of slabs.
+	 */
+	protected int numberOfSlabs;
+
+	/**
+	 * The number of nodes taken from the last slab.
+	 */
+	protected int usedInLastSlab;
+
+	/**
+	 * The address of the first free node (NONE if there is no free node).
+	 */
+	protected long freeNode = NONE;
+
+	/**
+	 * The number of nodes in use.
+	 */
+	protected long numberOfNodes;
+
+	/**
+	 * The address of the root node.
+	 */
+	protected long root;
+
+	/**
+	 * The nodes visited by the latest descent from the root (pathNodes[0] refers to the root).
+	 */
+	protected Node[] pathNodes = new Node[8];
+
+	/**
+	 * pathIndices[i] is the position of the node in pathNodes[i + 1] among the children of pathNodes[i].
+	 */
+	protected int[] pathIndices = new int[8];
+
+	/**
+	 * The number of nodes on the current path.
+	 */
+	protected int pathLength;
+
+	/**
+	 * The Node that refers to a new node or a sibling while a node is split, merged or redistributed.
+	 */
+	protected Node spare = new Node();
+
+	/**
+	 * The Node class gives access to a node stored in a slab. A Node is a reusable view, so descents allocate no
+	 * objects once the path is long enough.
+	 */
+	protected class Node {
+
+		/**
+		 * The address of the node.
+		 */
+		long address;
+
+		/**
+		 * The slab that holds the node.
+		 */
+		ByteBuffer buffer;
+
+		/**
+		 * The offset of the node in the slab.
+		 */
+		int base;
+
+		/**
+		 * Makes this Node refer to the node at the specified address.
+		 *
+		 * @param address
+		 *            the address of the node.
+		 * @return this Node.
+		 */
+		Node load(long address) {
+			this.address = address;
+			this.buffer = slabs[(int) (address >>> slabShift)];
+			this.base = (int) address & ((1 << slabShift) - 1);
+			return this;
+		}
+
+		/**
+		 * Makes the node that this Node refers to an empty node.
+		 *
+		 * @param leaf
+		 *            true if the node must be a leaf node; false otherwise.
+		 */
+		void init(boolean leaf) {
+			buffer.putInt(base + NUMBER_OF_KEYS, 0);
+			buffer.put(base + LEAF, (byte) (leaf ? 1 : 0));
+			buffer.putLong(base + NEXT, NONE);
+		}
+
+		/**
+		 * Returns the number of keys in this Node.
+		 *
+		 * @return the number of keys in this Node.
+		 */
+		int numberOfKeys() {
+			return buffer.getInt(base + NUMBER_OF_KEYS);
+		}
+
+		/**
+		 * Sets the number of keys in this Node.
+		 *
+		 * @param numberOfKeys
+		 *            the number of keys.
+		 */
+		void setNumberOfKeys(int numberOfKeys) {
+			buffer.putInt(base + NUMBER_OF_KEYS, numberOfKeys);
+		}
+
+		/**
+		 * Determines whether or not this Node is a leaf node.
+		 *
+		 * @return true if this Node is a leaf node; false otherwise.
+		 */
+		boolean isLeafNode() {
+			return buffer.get(base + LEAF) != 0;
+		}
+
+		/**
+		 * Returns the address of the next leaf node.
+		 *
+		 * @return the address of the next leaf node; NONE if this Node is the last leaf node.
+		 */
+		long next() {
+			return buffer.getLong(base + NEXT);
+		}
+
+		/**
+		 * Sets the address of the next leaf node.
+		 *
+		 * @param next
+		 *            the address of the next leaf node.
+		 */
+		void setNext(long next) {
+			buffer.putLong(base + NEXT, next);
+		}
+
+		/**
+		 * Returns the key at the specified position.
+		 *
+		 * @param i
+		 *            the position.
+		 * @return the key at the specified position.
+		 */
+		long key(int i) {
+			return buffer.getLong(base + HEADER_SIZE + i * KEY_WIDTH);
+		}
+
+		/**
+		 * Sets the key at the specified position.
+		 *
+		 * @param i
+		 *            the position.
+		 * @param key
+		 *            the key.
+		 */
+		void setKey(int i, long key) {
+			buffer.putLong(base + HEADER_SIZE + i * KEY_WIDTH, key);
+		}
+
+		/**
+		 * Returns the value (or the child address) at the specified position.
+		 *
+		 * @param i
+		 *            the position.
+		 * @return the value (or the child address) at the specified position.
+		 */
+		long pointer(int i) {
+			return buffer.getLong(base + pointersOffset + i * POINTER_WIDTH);
+		}
+
+		/**
+		 * Sets the value (or the child address) at the specified position.
+		 *
+		 * @param i
+		 *            the position.
+		 * @param pointer
+		 *            the value (or the child address).
+		 */
+		void setPointer(int i, long pointer) {
+			buffer.putLong(base + pointersOffset + i * POINTER_WIDTH, pointer);
+		}
+
+		/**
+		 * Determines whether or not this Node has room for a new entry.
+		 *
+		 * @return true if this Node has room for a new entry; false otherwise.
+		 */
+		boolean hasRoom() {
+			return numberOfKeys() < fanout - 1;
+		}
+
+		/**
+		 * Determines whether or not this Node has fewer entries than a non-root node must have.
+		 *
+		 * @return true if this Node has too few entries; false otherwise.
+		 */
+		boolean isUnderfull() {
+			if (isLeafNode())
+				return numberOfKeys() < fanout / 2;
+			return numberOfKeys() + 1 < (fanout + 1) / 2;
+		}
+
+		/**
+		 * Returns the first index i such that key(i) >= the given key (found by binary search).
+		 *
+		 * @param key
+		 *            the given key.
+		 * @return the first index i such that key(i) >= the given key; numberOfKeys() if there is no such i.
+		 */
+		int lowerBound(long key) {
+			int from = 0;
+			int to = numberOfKeys();
+			while (from < to) {
+				int mid = (from + to) >>> 1;
+				if (key(mid) < key)
+					from = mid + 1;
+				else
+					to = mid;
+			}
+			return from;
+		}
+
+		/**
+		 * Returns the position of the child that must be responsible for the specified key (assuming that this Node
+		 * is a non-leaf node).
+		 *
+		 * @param key
+		 *            the search key.
+		 * @return the position of the child that must be responsible for the specified key.
+		 */
+		int childIndex(long key) {
+			int i = lowerBound(key);
+			return i < numberOfKeys() && key(i) == key ? i + 1 : i;
+		}
+
+		/**
+		 * Inserts the specified key and value at the specified location (assuming that this Node is a leaf node).
+		 *
+		 * @param key
+		 *            the key to insert.
+		 * @param value
+		 *            the value to insert.
+		 * @param pos
+		 *            the insertion position.
+		 */
+		void insert(long key, long value, int pos) {
+			int n = numberOfKeys();
+			copyKeys(this, pos, this, pos + 1, n - pos);
+			copyPointers(this, pos, this, pos + 1, n - pos);
+			setKey(pos, key);
+			setPointer(pos, value);
+			setNumberOfKeys(n + 1);
+		}
+
+		/**
+		 * Inserts the specified key at the specified location and the specified child right after it (assuming that
+		 * this Node is a non-leaf node).
+		 *
+		 * @param key
+		 *            the key to insert.
+		 * @param child
+		 *            the address of the child to insert.
+		 * @param pos
+		 *            the insertion position of the key.
+		 */
+		void insertChild(long key, long child, int pos) {
+			int n = numberOfKeys();
+			copyKeys(this, pos, this, pos + 1, n - pos);
+			copyPointers(this, pos + 1, this, pos + 2, n - pos);
+			setKey(pos, key);
+			setPointer(pos + 1, child);
+			setNumberOfKeys(n + 1);
+		}
+
+		/**
+		 * Removes the key and value at the specified location (assuming that this Node is a leaf node).
+		 *
+		 * @param pos
+		 *            the position of the entry to remove.
+		 */
+		void remove(int pos) {
+			int n = numberOfKeys() - 1;
+			copyKeys(this, pos + 1, this, pos, n - pos);
+			copyPointers(this, pos + 1, this, pos, n - pos);
+			setNumberOfKeys(n);
+		}
+
+		/**
+		 * Removes the key at the specified location and the child right after it (assuming that this Node is a
+		 * non-leaf node).
+		 *
+		 * @param pos
+		 *            the position of the key to remove.
+		 */
+		void removeChild(int pos) {
+			int n = numberOfKeys() - 1;
+			copyKeys(this, pos + 1, this, pos, n - pos);
+			copyPointers(this, pos + 2, this, pos + 1, n - pos);
+			setNumberOfKeys(n);
+		}
+
+	}
+
+	/**
+	 * A Cursor streams the entries of an OffHeapBPlusTree whose keys fall in a range, in ascending key order, by
+	 * following the addresses of the next leaf nodes. The OffHeapBPlusTree must not be changed while a Cursor is in
+	 * use.
+	 */
+	public class Cursor {
+
+		/**
+		 * The upper bound of the range.
+		 */
+		long toKey;
+
+		/**
+		 * A flag indicating whether or not the range includes toKey.
+		 */
+		boolean toInclusive;
+
+		/**
+		 * The Node that refers to the current leaf node (whose address is NONE if this Cursor is exhausted).
+		 */
+		Node leaf = new Node();
+
+		/**
+		 * The position of the next entry to examine in the current leaf node.
+		 */
+		int index;
+
+		/**
+		 * The key of the current entry.
+		 */
+		long key;
+
+		/**
+		 * The value of the current entry.
+		 */
+		long value;
+
+		/**
+		 * Constructs a Cursor.
+		 *
+		 * @param fromKey
+		 *            the lower bound of the range.
+		 * @param fromInclusive
+		 *            a flag indicating whether or not the range includes fromKey.
+		 * @param toKey
+		 *            the upper bound of the range.
+		 * @param toInclusive
+		 *            a flag indicating whether or not the range includes toKey.
+		 */
+		protected Cursor(long fromKey, boolean fromInclusive, long toKey, boolean toInclusive) {
+			this.toKey = toKey;
+			this.toInclusive = toInclusive;
+			leaf.load(find(fromKey).address);
+			index = leaf.lowerBound(fromKey);
+			if (!fromInclusive) { // skip the entries with fromKey (which may continue in the next leaf nodes)
+				while (leaf.address != NONE) {
+					int n = leaf.numberOfKeys();
+					while (index < n && leaf.key(index) == fromKey)
+						index++;
+					if (index < n)
+						break;
+					moveToNextLeaf();
+				}
+			}
+		}
+
+		/**
+		 * Advances this Cursor to the next entry in the range.
+		 *
+		 * @return true if this Cursor has moved to an entry; false if there are no more entries in the range.
+		 * @throws IllegalStateException
+		 *             if the OffHeapBPlusTree has been closed.
+		 */
+		public boolean next() {
+			checkOpen();
+			while (leaf.address != NONE) {
+				if (index < leaf.numberOfKeys()) {
+					long k = leaf.key(index);
+					if (k > toKey || k == toKey && !toInclusive)
+						break;
+					key = k;
+					value = leaf.pointer(index++);
+					return true;
+				}
+				moveToNextLeaf();
+			}
+			leaf.address = NONE;
+			leaf.buffer = null;
+			return false;
+		}
+
+		/**
+		 * Returns the key of the current entry.
+		 *
+		 * @return the key of the current entry.
+		 */
+		public long getKey() {
+			return key;
+		}
+
+		/**
+		 * Returns the value of the current entry.
+		 *
+		 * @return the value of the current entry.
+		 */
+		public long getValue() {
+			return value;
+		}
+
+		/**
+		 * Makes this Cursor refer to the first entry of the next leaf node.
+		 */
+		void moveToNextLeaf() {
+			long next = leaf.next();
+			if (next == NONE) {
+				leaf.address = NONE;
+				leaf.buffer = null;
+			} else {
+				leaf.load(next);
+			}
+			index = 0;
+		}
+
+	}
+
+	/**
+	 * Constructs an OffHeapBPlusTree whose slabs have the default size.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this OffHeapBPlusTree can have.
+	 * @throws IllegalArgumentException
+	 *             if the fanout is smaller than 3 or a slab cannot hold two nodes.
+	 */
+	public OffHeapBPlusTree(int fanout) {
+		this(fanout, DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * Constructs an OffHeapBPlusTree.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this OffHeapBPlusTree can have.
+	 * @param slabSize
+	 *            the size of each slab in bytes (a power of 2).
+	 * @throws IllegalArgumentException
+	 *             if the fanout is smaller than 3, the slab size is not a power of 2 or a slab cannot hold two nodes.
+	 */
+	public OffHeapBPlusTree(int fanout, int slabSize) {
+		this.fanout = fanout;
+		this.pointersOffset = HEADER_SIZE + (fanout - 1) * KEY_WIDTH;
+		this.nodeSize = pointersOffset + fanout * POINTER_WIDTH;
+		if (fanout < 3 || Integer.bitCount(slabSize) != 1 || slabSize < 2 * nodeSize)
+			throw new IllegalArgumentException("fanout " + fanout + " and slab size " + slabSize + " do not fit");
+		this.slabShift = Integer.numberOfTrailingZeros(slabSize);
+		this.nodesPerSlab = slabSize / nodeSize;
+		usedInLastSlab = nodesPerSlab;
+		allocate(spare, true); // takes the node at address NONE so that it is never used
+		allocate(spare, true);
+		root = spare.address;
+		numberOfNodes = 1;
+	}
+
+	/**
+	 * Returns the maximum number of pointers that each node of this OffHeapBPlusTree can have.
+	 *
+	 * @return the maximum number of pointers that each node of this OffHeapBPlusTree can have.
+	 */
+	public int getFanout() {
+		return fanout;
+	}
+
+	/**
+	 * Returns the number of nodes in use.
+	 *
+	 * @return the number of nodes in use.
+	 */
+	public long getNumberOfNodes() {
+		return numberOfNodes;
+	}
+
+	/**
+	 * Returns the number of bytes of native memory that the slabs of this OffHeapBPlusTree occupy.
+	 *
+	 * @return the number of bytes of native memory that the slabs of this OffHeapBPlusTree occupy.
+	 */
+	public long getAllocatedBytes() {
+		return (long) numberOfSlabs << slabShift;
+	}
+
+	/**
+	 * Returns a Cursor over the entries of this OffHeapBPlusTree whose keys fall in the specified range.
+	 *
+	 * @param fromKey
+	 *            the lower bound of the range.
+	 * @param fromInclusive
+	 *            a flag indicating whether or not the range includes fromKey.
+	 * @param toKey
+	 *            the upper bound of the range.
+	 * @param toInclusive
+	 *            a flag indicating whether or not the range includes toKey.
+	 * @return a Cursor positioned before the first entry in the range.
+	 * @throws IllegalStateException
+	 *             if this OffHeapBPlusTree has been closed.
+	 */
+	public Cursor scan(long fromKey, boolean fromInclusive, long toKey, boolean toInclusive) {
+		return new Cursor(fromKey, fromInclusive, toKey, toInclusive);
+	}
+
+	/**
+	 * Drops the slabs of this OffHeapBPlusTree (and every reference to them that this OffHeapBPlusTree holds) so that
+	 * the garbage collector can return their native memory. Closing a closed OffHeapBPlusTree has no effect.
+	 */
+	@Override
+	public void close() {
+		slabs = null;
+		numberOfSlabs = 0;
+		usedInLastSlab = nodesPerSlab;
+		freeNode = NONE;
+		numberOfNodes = 0;
+		root = NONE;
+		for (Node node : pathNodes)
+			if (node != null)
+				node.buffer = null;
+		spare.buffer = null;
+	}
+
+	/**
+	 * Makes sure that this OffHeapBPlusTree has not been closed.
+	 *
+	 * @throws IllegalStateException
+	 *             if this OffHeapBPlusTree has been closed.
+	 */
+	void checkOpen() {
+		if (slabs == null)
+			throw new IllegalStateException("the tree has been closed");
+	}
+
+	/**
+	 * Returns the value associated with the specified key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the value associated with the specified key; null if the key is not in this OffHeapBPlusTree.
+	 * @throws IllegalStateException
+	 *             if this OffHeapBPlusTree has been closed.
+	 */
+	public Long get(long key) {
+		Node l = find(key);
+		int i = l.lowerBound(key);
+		return i < l.numberOfKeys() && l.key(i) == key ? l.pointer(i) : null;
+	}
+
+	/**
+	 * Finds the leaf node in this OffHeapBPlusTree that must be responsible for the specified key. The nodes visited
+	 * on the way are recorded in pathNodes and pathIndices.
+	 *
+	 * @param key
+	 *            the search key.
+	 * @return the Node that refers to the leaf node.
+	 * @throws IllegalStateException
+	 *             if this OffHeapBPlusTree has been closed.
+	 */
+	protected Node find(long key) {
+		checkOpen();
+		long address = root;
+		for (pathLength = 0;; pathLength++) {
+			if (pathLength == pathNodes.length) {
+				pathNodes = java.util.Arrays.copyOf(pathNodes, pathLength * 2);
+				pathIndices = java.util.Arrays.copyOf(pathIndices, pathLength * 2);
+			}
+			Node node = pathNodes[pathLength];
+			if (node == null)
+				node = pathNodes[pathLength] = new Node();
+			node.load(address);
+			if (node.isLeafNode()) {
+				pathIndices[pathLength++] = -1;
+				return node;
+			}
+			int i = node.childIndex(key);
+			pathIndices[pathLength] = i;
+			address = node.pointer(i);
+		}
+	}
+
+	/**
+	 * Inserts the specified key and the value into this OffHeapBPlusTree.
+	 *
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 * @throws IllegalStateException
+	 *             if this OffHeapBPlusTree has been closed.
+	 */
+	public void insert(long key, long value) {
+		Node l = find(key);
+		int pos = l.lowerBound(key);
+		if (l.hasRoom()) {
+			l.insert(key, value, pos);
+			return;
+		}
+		int m = (fanout + 1) / 2; // the number of entries that stay in l
+		Node nl = allocate(spare, true);
+		int n = l.numberOfKeys();
+		if (pos < m) { // the new entry goes to l
+			int moved = n - (m - 1);
+			copyKeys(l, m - 1, nl, 0, moved);
+			copyPointers(l, m - 1, nl, 0, moved);
+			l.setNumberOfKeys(m - 1);
+			nl.setNumberOfKeys(moved);
+			l.insert(key, value, pos);
+		} else { // the new entry goes to nl
+			copyKeys(l, m, nl, 0, n - m);
+			copyPointers(l, m, nl, 0, n - m);
+			l.setNumberOfKeys(m);
+			nl.setNumberOfKeys(n - m);
+			nl.insert(key, value, pos - m);
+		}
+		nl.setNext(l.next());
+		l.setNext(nl.address);
+		insertInParent(pathLength - 1, nl.key(0), nl.address);
+	}
+
+	/**
+	 * Inserts the specified key and the address of a new node right after the node at the specified level of the
+	 * current path.
+	 *
+	 * @param level
+	 *            the level of the node that was split.
+	 * @param key
+	 *            the key that splits the nodes.
+	 * @param nn
+	 *            the address of the new node.
+	 */
+	void insertInParent(int level, long key, long nn) {
+		if (level == 0) { // if the root was split
+			Node r = allocate(spare, false);
+			r.setKey(0, key);
+			r.setPointer(0, pathNodes[0].address);
+			r.setPointer(1, nn);
+			r.setNumberOfKeys(1);
+			root = r.address;
+			return;
+		}
+		Node p = pathNodes[level - 1];
+		int pos = pathIndices[level - 1]; // the position of key in p
+		if (p.hasRoom()) {
+			p.insertChild(key, nn, pos);
+			return;
+		}
+		int m = (fanout + 1) / 2; // the number of children that stay in p
+		int n0 = p.numberOfKeys();
+		Node np = allocate(spare, false); // replaces the new node at the level below
+		long separator;
+		if (pos < m - 1) { // key and nn go to p
+			separator = p.key(m - 2);
+			copyKeys(p, m - 1, np, 0, n0 - m + 1);
+			copyPointers(p, m - 1, np, 0, n0 - m + 2);
+			p.setNumberOfKeys(m - 2);
+			p.insertChild(key, nn, pos);
+		} else if (pos == m - 1) { // key becomes the separator
+			separator = key;
+			copyKeys(p, m - 1, np, 0, n0 - m + 1);
+			np.setPointer(0, nn);
+			copyPointers(p, m, np, 1, n0 - m + 1);
+			p.setNumberOfKeys(m - 1);
+		} else { // key and nn go to np
+			separator = p.key(m - 1);
+			copyKeys(p, m, np, 0, n0 - m);
+			copyPointers(p, m, np, 0, n0 - m + 1);
+			p.setNumberOfKeys(m - 1);
+			np.setNumberOfKeys(n0 - m);
+			np.insertChild(key, nn, pos - m);
+		}
+		np.setNumberOfKeys(fanout - m);
+		insertInParent(level - 1, separator, np.address);
+	}
+
+	/**
+	 * Deletes the entry with the specified key from this OffHeapBPlusTree.
+	 *
+	 * @param key
+	 *            the key to delete.
+	 * @throws IllegalStateException
+	 *             if this OffHeapBPlusTree has been closed.
+	 */
+	public void delete(long key) {
+		Node l = find(key);
+		int i = l.lowerBound(key);
+		if (i < l.numberOfKeys() && l.key(i) == key)
+			deleteEntry(pathLength - 1, i);
+	}
+
+	/**
+	 * Deletes the entry at the specified position from the node at the specified level of the current path and
+	 * merges or redistributes nodes that become underfull. A node emptied by a merge goes to the free list.
+	 *
+	 * @param level
+	 *            the level of the node on the current path.
+	 * @param pos
+	 *            the position of the key to delete (for a non-leaf node, the child right after the key is deleted as
+	 *            well).
+	 */
+	void deleteEntry(int level, int pos) {
+		Node n = pathNodes[level];
+		if (n.isLeafNode())
+			n.remove(pos);
+		else
+			n.removeChild(pos);
+		if (level == 0) { // if n is the root
+			if (!n.isLeafNode() && n.numberOfKeys() == 0) { // if the root has only one child
+				root = n.pointer(0);
+				free(n);
+			}
+			return;
+		}
+		if (!n.isUnderfull())
+			return;
+		Node p = pathNodes[level - 1];
+		int i = pathIndices[level - 1]; // the position of n in p
+		int k = i > 0 ? i - 1 : i; // the position of the key between n and its sibling
+		Node sibling = spare.load(p.pointer(i > 0 ? k : k + 1));
+		Node left = i > 0 ? sibling : n;
+		Node right = i > 0 ? n : sibling;
+		int total = left.numberOfKeys() + right.numberOfKeys() + (n.isLeafNode() ? 0 : 1);
+		if (total <= fanout - 1) { // if n and its sibling fit in a single node
+			merge(left, p.key(k), right);
+			free(right);
+			deleteEntry(level - 1, k);
+		} else if (left == n) {
+			borrowFromRight(p, k, left, right);
+		} else {
+			borrowFromLeft(p, k, left, right);
+		}
+	}
+
+	/**
+	 * Moves every entry of the specified right node into the specified left node.
+	 *
+	 * @param left
+	 *            the left node.
+	 * @param key
+	 *            the key that separates the nodes in their parent.
+	 * @param right
+	 *            the right node.
+	 */
+	void merge(Node left, long key, Node right) {
+		int n = left.numberOfKeys();
+		int r = right.numberOfKeys();
+		if (left.isLeafNode()) {
+			copyKeys(right, 0, left, n, r);
+			copyPointers(right, 0, left, n, r);
+			left.setNumberOfKeys(n + r);
+			left.setNext(right.next());
+		} else {
+			left.setKey(n, key);
+			copyKeys(right, 0, left, n + 1, r);
+			copyPointers(right, 0, left, n + 1, r + 1);
+			left.setNumberOfKeys(n + r + 1);
+		}
+	}
+
+	/**
+	 * Moves the first entry of the specified right node to the specified left node.
+	 *
+	 * @param p
+	 *            the parent of the nodes.
+	 * @param k
+	 *            the position of the key that separates the nodes in the parent.
+	 * @param left
+	 *            the left node.
+	 * @param right
+	 *            the right node.
+	 */
+	void borrowFromRight(Node p, int k, Node left, Node right) {
+		int n = left.numberOfKeys();
+		if (left.isLeafNode()) {
+			left.insert(right.key(0), right.pointer(0), n);
+			right.remove(0);
+			p.setKey(k, right.key(0));
+		} else {
+			left.setKey(n, p.key(k));
+			left.setPointer(n + 1, right.pointer(0));
+			left.setNumberOfKeys(n + 1);
+			p.setKey(k, right.key(0));
+			int r = right.numberOfKeys() - 1;
+			copyPointers(right, 1, right, 0, r + 1);
+			copyKeys(right, 1, right, 0, r);
+			right.setNumberOfKeys(r);
+		}
+	}
+
+	/**
+	 * Moves the last entry of the specified left node to the specified right node.
+	 *
+	 * @param p
+	 *            the parent of the nodes.
+	 * @param k
+	 *            the position of the key that separates the nodes in the parent.
+	 * @param left
+	 *            the left node.
+	 * @param right
+	 *            the right node.
+	 */
+	void borrowFromLeft(Node p, int k, Node left, Node right) {
+		int last = left.numberOfKeys() - 1;
+		if (right.isLeafNode()) {
+			right.insert(left.key(last), left.pointer(last), 0);
+			left.remove(last);
+			p.setKey(k, right.key(0));
+		} else {
+			int r = right.numberOfKeys();
+			copyKeys(right, 0, right, 1, r);
+			copyPointers(right, 0, right, 1, r + 1);
+			right.setKey(0, p.key(k));
+			right.setPointer(0, left.pointer(last + 1));
+			right.setNumberOfKeys(r + 1);
+			p.setKey(k, left.key(last));
+			left.setNumberOfKeys(last);
+		}
+	}
+
+	/**
+	 * Copies keys from one node to another (or within a node).
+	 *
+	 * @param src
+	 *            the source node.
+	 * @param from
+	 *            the position of the first key to copy in the source node.
+	 * @param dst
+	 *            the destination node.
+	 * @param to
+	 *            the position of the first copy in the destination node.
+	 * @param count
+	 *            the number of keys to copy.
+	 */
+	static void copyKeys(Node src, int from, Node dst, int to, int count) {
+		DiskBPlusTree.copy(src.buffer, src.base + HEADER_SIZE + from * KEY_WIDTH, dst.buffer, dst.base + HEADER_SIZE
+				+ to * KEY_WIDTH, count);
+	}
+
+	/**
+	 * Copies values (or child addresses) from one node to another (or within a node).
+	 *
+	 * @param src
+	 *            the source node.
+	 * @param from
+	 *            the position of the first pointer to copy in the source node.
+	 * @param dst
+	 *            the destination node.
+	 * @param to
+	 *            the position of the first copy in the destination node.
+	 * @param count
+	 *            the number of pointers to copy.
+	 */
+	void copyPointers(Node src, int from, Node dst, int to, int count) {
+		DiskBPlusTree.copy(src.buffer, src.base + pointersOffset + from * POINTER_WIDTH, dst.buffer, dst.base
+				+ pointersOffset + to * POINTER_WIDTH, count);
+	}
+
+	/**
+	 * Makes the specified Node refer to a new empty node, reusing a free node if there is one and allocating a new
+	 * slab if the last one is full.
+	 *
+	 * @param node
+	 *            the Node.
+	 * @param leaf
+	 *            true if the new node must be a leaf node; false otherwise.
+	 * @return the specified Node.
+	 */
+	Node allocate(Node node, boolean leaf) {
+		if (freeNode != NONE) {
+			node.load(freeNode);
+			freeNode = node.next();
+		} else {
+			if (usedInLastSlab == nodesPerSlab) {
+				if (numberOfSlabs == slabs.length)
+					slabs = java.util.Arrays.copyOf(slabs, numberOfSlabs * 2);
+				slabs[numberOfSlabs++] = ByteBuffer.allocateDirect(1 << slabShift).order(
+						java.nio.ByteOrder.nativeOrder());
+				usedInLastSlab = 0;
+			}
+			node.load(((long) (numberOfSlabs - 1) << slabShift) + (long) usedInLastSlab++ * nodeSize);
+		}
+		node.init(leaf);
+		numberOfNodes++;
+		return node;
+	}
+
+	/**
+	 * Adds the node that the specified Node refers to to the free list.
+	 *
+	 * @param node
+	 *            the Node.
+	 */
+	void free(Node node) {
+		node.setNext(freeNode);
+		freeNode = node.address;
+		numberOfNodes--;
+	}
+
+}
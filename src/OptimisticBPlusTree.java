@@ -0,0 +1,622 @@
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The OptimisticBPlusTree class implements B+-trees that use optimistic lock coupling (Leis et al., The ART of
+ * Practical Synchronization, 2016) so that many threads can call get, insert, delete, put, putIfAbsent and compute
+ * at the same time. Readers never write to shared memory: they remember the version word of each Node they visit and
+ * validate it after reading the Node, restarting from the root when a Node has changed in the meantime. Writers
+ * descend in the same way and then lock only the nodes they are about to change by advancing the version words that
+ * they read. Writers never wait for a lock; they release what they hold and restart instead, so no deadlock can occur.
+ *
+ * An OptimisticBPlusTree keeps its nodes in a BPlusTree but does not extend BPlusTree, so the operations that cannot
+ * run concurrently with writers that change nodes in place (such as scan, bulkLoad, insertAll and snapshot) are not
+ * available.
+ */
+public class OptimisticBPlusTree {
+
+	/**
+	 * The updater for the version words of the nodes.
+	 */
+	static final AtomicLongFieldUpdater<BPlusTree.Node> VERSION = AtomicLongFieldUpdater.newUpdater(
+			BPlusTree.Node.class, "version");
+
+	/**
+	 * The exception thrown when an optimistic read observes a change.
+	 */
+	static final RuntimeException RESTART = new RuntimeException("restart", null, false, false) {
+
+		/**
+		 * Automatically generated serial version ID.
+		 */
+		private static final long serialVersionUID = -4305377001470745046L;
+
+	};
+
+	/**
+	 * An OptimisticPath is a Path that also records the version word that each visited node had when it was read,
+	 * as well as the nodes that a writer has locked.
+	 */
+	protected static class OptimisticPath extends BPlusTree.Path {
+
+		/**
+		 * versions[i] is the version word that nodes[i] had when it was read.
+		 */
+		long[] versions = new long[8];
+
+		/**
+		 * The nodes locked by the current operation.
+		 */
+		BPlusTree.Node[] locked = new BPlusTree.Node[16];
+
+		/**
+		 * lockedVersions[i] is the version word that locked[i] had before it was locked.
+		 */
+		long[] lockedVersions = new long[16];
+
+		/**
+		 * The number of nodes in locked.
+		 */
+		int numberOfLocked;
+
+		/**
+		 * Appends the specified node to this OptimisticPath.
+		 *
+		 * @param node
+		 *            the node to append.
+		 * @param index
+		 *            the position of the next node among the pointers of the specified node.
+		 * @param version
+		 *            the version word that the node had when it was read.
+		 */
+		void push(BPlusTree.Node node, int index, long version) {
+			if (length == versions.length)
+				versions = java.util.Arrays.copyOf(versions, length * 2);
+			versions[length] = version;
+			push(node, index);
+		}
+
+	}
+
+	/**
+	 * A Tree is the BPlusTree that holds the nodes of an OptimisticBPlusTree. It records descents in the
+	 * OptimisticPath of the calling thread and publishes new roots only once they are complete.
+	 */
+	protected static class Tree extends BPlusTree {
+
+		/**
+		 * The Path of each thread.
+		 */
+		protected final ThreadLocal<OptimisticPath> paths = new ThreadLocal<OptimisticPath>() {
+
+			@Override
+			protected OptimisticPath initialValue() {
+				return new OptimisticPath();
+			}
+
+		};
+
+		/**
+		 * Constructs a Tree.
+		 *
+		 * @param fanout
+		 *            the maximum number of pointers that each node of this Tree can have.
+		 */
+		Tree(int fanout) {
+			super(fanout);
+			root = new Node(fanout);
+		}
+
+		/**
+		 * Returns the Path of the calling thread.
+		 *
+		 * @return the Path of the calling thread.
+		 */
+		@Override
+		protected OptimisticPath path() {
+			return paths.get();
+		}
+
+		/**
+		 * Inserts the specified key and the specified node into the parent of the node at the specified level of the
+		 * specified Path. A new root is completely built before it is published because readers reach the root
+		 * without locking it.
+		 *
+		 * @param path
+		 *            the Path from the root to the node that has been split.
+		 * @param level
+		 *            the level of the node that has been split.
+		 * @param key
+		 *            the separator between the split node and the new node.
+		 * @param nn
+		 *            the new node.
+		 */
+		@Override
+		void insertInParent(Path path, int level, Object key, Node nn) {
+			if (level > 0) {
+				super.insertInParent(path, level, key, nn);
+				return;
+			}
+			Node r = new Node(fanout);
+			r.insert(key, path.nodes[0], 0);
+			r.pointers[1] = nn;
+			VarHandle.releaseFence(); // the new root must be complete before other threads can see it
+			root = r;
+		}
+
+	}
+
+	/**
+	 * The BPlusTree that holds the nodes of this OptimisticBPlusTree.
+	 */
+	protected final Tree tree;
+
+	/**
+	 * The number of times that operations have restarted because of concurrent changes.
+	 */
+	protected final LongAdder restarts = new LongAdder();
+
+	/**
+	 * Constructs an OptimisticBPlusTree.
+	 *
+	 * @param fanout
+	 *            the maximum number of pointers that each node of this OptimisticBPlusTree can have.
+	 */
+	public OptimisticBPlusTree(int fanout) {
+		tree = new Tree(fanout);
+	}
+
+	/**
+	 * Returns the number of times that operations have restarted because of concurrent changes.
+	 *
+	 * @return the number of times that operations have restarted because of concurrent changes.
+	 */
+	public long getRestartCount() {
+		return restarts.sum();
+	}
+
+	/**
+	 * Returns the value associated with the specified key without writing to shared memory.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the value associated with the specified key; null if the key is not in this OptimisticBPlusTree.
+	 */
+	public Object get(Object key) {
+		OptimisticPath path = tree.path();
+		for (;;) {
+			try {
+				BPlusTree.Node l = descend(key, path);
+				int i = l.findIndexGE(key);
+				Object value = i >= 0 && tree.compare(l.keys[i], key) == 0 ? l.pointers[i] : null;
+				validate(l, path.versions[path.length - 1]);
+				return value;
+			} catch (RuntimeException e) {
+				restart(path, e);
+			}
+		}
+	}
+
+	/**
+	 * Inserts the specified key and the value into this OptimisticBPlusTree.
+	 *
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 */
+	public void insert(Object key, Object value) {
+		OptimisticPath path = tree.path();
+		for (;;) {
+			BPlusTree.Node l;
+			int pos;
+			try {
+				l = descend(key, path);
+				pos = l.lowerBound(key);
+				lockForInsert(path);
+			} catch (RuntimeException e) {
+				restart(path, e);
+				continue;
+			}
+			try {
+				insertLocked(path, l, key, value, pos);
+			} finally {
+				unlock(path);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Deletes the specified key and the value from this OptimisticBPlusTree.
+	 *
+	 * @param key
+	 *            the key to delete.
+	 * @param value
+	 *            the value to delete.
+	 */
+	public void delete(Object key, Object value) {
+		OptimisticPath path = tree.path();
+		for (;;) {
+			int pos;
+			try {
+				BPlusTree.Node l = descend(key, path);
+				pos = l.findIndexGE(key);
+				if (pos < 0 || tree.compare(l.keys[pos], key) != 0) {
+					validate(l, path.versions[path.length - 1]);
+					return;
+				}
+				lockForDelete(path);
+			} catch (RuntimeException e) {
+				restart(path, e);
+				continue;
+			}
+			try {
+				tree.delete_entry(path, path.length - 1, pos);
+			} finally {
+				unlock(path);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Associates the specified value with the specified key. If this OptimisticBPlusTree contains the key, the value
+	 * of its (first) entry is replaced while only the leaf node is locked; otherwise, a new entry is inserted as by
+	 * insert.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @return the value previously associated with the key; null if this OptimisticBPlusTree did not contain the key.
+	 */
+	public Object put(Object key, Object value) {
+		OptimisticPath path = tree.path();
+		for (;;) {
+			BPlusTree.Node l;
+			int pos;
+			boolean present;
+			try {
+				l = descend(key, path);
+				pos = l.lowerBound(key);
+				present = pos < l.numberOfKeys && tree.compare(l.keys[pos], key) == 0;
+				if (present)
+					lock(path, l, path.versions[path.length - 1]);
+				else
+					lockForInsert(path);
+			} catch (RuntimeException e) {
+				restart(path, e);
+				continue;
+			}
+			try {
+				if (!present) {
+					insertLocked(path, l, key, value, pos);
+					return null;
+				}
+				Object previous = l.pointers[pos];
+				l.pointers[pos] = value;
+				return previous;
+			} finally {
+				unlock(path);
+			}
+		}
+	}
+
+	/**
+	 * Inserts the specified key and value unless this OptimisticBPlusTree already contains the key. Finding the key
+	 * writes nothing to shared memory, as in get.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @return the value associated with the key; null if this OptimisticBPlusTree did not contain the key (and the
+	 *         new entry has been inserted).
+	 */
+	public Object putIfAbsent(Object key, Object value) {
+		OptimisticPath path = tree.path();
+		for (;;) {
+			BPlusTree.Node l;
+			int pos;
+			try {
+				l = descend(key, path);
+				pos = l.lowerBound(key);
+				if (pos < l.numberOfKeys && tree.compare(l.keys[pos], key) == 0) { // if the key is present
+					Object current = l.pointers[pos];
+					validate(l, path.versions[path.length - 1]);
+					return current;
+				}
+				lockForInsert(path);
+			} catch (RuntimeException e) {
+				restart(path, e);
+				continue;
+			}
+			try {
+				insertLocked(path, l, key, value, pos);
+			} finally {
+				unlock(path);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Associates the specified key with the value that the specified function computes from the key and its current
+	 * value (null if this OptimisticBPlusTree does not contain the key). If the function returns null, the (first)
+	 * entry of the key is deleted. The function is applied exactly once, while every node that the resulting
+	 * insertion or deletion may change is locked, so it must be short and must not use this OptimisticBPlusTree.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param remapping
+	 *            the function that computes the new value from the key and the current value.
+	 * @return the new value associated with the key; null if the key is no longer in this OptimisticBPlusTree.
+	 */
+	public Object compute(Object key, java.util.function.BiFunction<Object, Object, Object> remapping) {
+		OptimisticPath path = tree.path();
+		for (;;) {
+			BPlusTree.Node l;
+			int pos;
+			boolean present;
+			try {
+				l = descend(key, path);
+				pos = l.lowerBound(key);
+				present = pos < l.numberOfKeys && tree.compare(l.keys[pos], key) == 0;
+				if (present) // the function may delete the entry
+					lockForDelete(path);
+				else // the function may insert an entry
+					lockForInsert(path);
+			} catch (RuntimeException e) {
+				restart(path, e);
+				continue;
+			}
+			Object value = null;
+			boolean applied = false;
+			try {
+				value = remapping.apply(key, present ? l.pointers[pos] : null);
+				applied = true;
+			} finally {
+				if (!applied) // nothing has changed
+					release(path);
+			}
+			try {
+				if (present) {
+					if (value == null)
+						tree.delete_entry(path, path.length - 1, pos);
+					else
+						l.pointers[pos] = value;
+				} else if (value != null)
+					insertLocked(path, l, key, value, pos);
+			} finally {
+				unlock(path);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Descends from the root to the leaf node responsible for the specified key, recording the visited nodes and
+	 * their version words in the specified OptimisticPath. Each node is validated after the version word of its
+	 * child has been read. A node is recorded before it is read, so the last node of the OptimisticPath is the one
+	 * being read if an exception is thrown.
+	 *
+	 * @param key
+	 *            the search key.
+	 * @param path
+	 *            the OptimisticPath to record the visited nodes in.
+	 * @return the leaf node responsible for the specified key.
+	 * @throws RuntimeException
+	 *             if a concurrent change is observed.
+	 */
+	BPlusTree.Node descend(Object key, OptimisticPath path) {
+		path.length = 0;
+		BPlusTree.Node n = tree.root;
+		path.push(n, -1, readLock(n));
+		if (tree.root != n) // if the root has been replaced
+			throw RESTART;
+		while (!n.isLeafNode()) {
+			int i = n.childIndex(key);
+			path.indices[path.length - 1] = i;
+			BPlusTree.Node c = (BPlusTree.Node) n.pointers[i];
+			long cv = readLock(c);
+			validate(n, path.versions[path.length - 1]);
+			path.push(c, -1, cv);
+			n = c;
+		}
+		return n;
+	}
+
+	/**
+	 * Locks the leaf node at the end of the specified OptimisticPath and every ancestor that splitting it would
+	 * reach.
+	 *
+	 * @param path
+	 *            the OptimisticPath from the root to the leaf node.
+	 * @throws RuntimeException
+	 *             if a node has changed or is locked by another thread.
+	 */
+	static void lockForInsert(OptimisticPath path) {
+		int level = path.length - 1;
+		lock(path, path.nodes[level], path.versions[level]);
+		while (level > 0 && !path.nodes[level].hasRoom()) { // lock every node that a split reaches
+			level--;
+			lock(path, path.nodes[level], path.versions[level]);
+		}
+	}
+
+	/**
+	 * Locks the leaf node at the end of the specified OptimisticPath and every node that deleting an entry from it
+	 * would change by merging and redistribution.
+	 *
+	 * @param path
+	 *            the OptimisticPath from the root to the leaf node.
+	 * @throws RuntimeException
+	 *             if a node has changed or is locked by another thread.
+	 */
+	void lockForDelete(OptimisticPath path) {
+		int fanout = tree.fanout;
+		int level = path.length - 1;
+		lock(path, path.nodes[level], path.versions[level]);
+		while (level > 0) { // lock every node that merging and redistribution reach
+			BPlusTree.Node n = path.nodes[level];
+			boolean leaf = n.isLeafNode();
+			if (leaf ? n.numberOfKeys - 1 >= fanout / 2 : n.numberOfKeys >= (fanout + 1) / 2)
+				break; // n does not become underfull
+			BPlusTree.Node p = path.nodes[level - 1];
+			lock(path, p, path.versions[level - 1]);
+			int i = path.indices[level - 1];
+			BPlusTree.Node sibling = (BPlusTree.Node) p.pointers[i > 0 ? i - 1 : i + 1]; // read p only once locked
+			lock(path, sibling, VERSION.get(sibling)); // fails (rather than waits) if the sibling is locked
+			if (n.numberOfKeys - 1 + sibling.numberOfKeys + (leaf ? 0 : 1) > fanout - 1)
+				break; // redistribution changes only a key of p
+			level--; // merging removes an entry from p
+		}
+	}
+
+	/**
+	 * Inserts the specified key and value at the specified position of the specified leaf node, splitting it if it
+	 * is full (assuming that lockForInsert has locked the nodes that the split reaches).
+	 *
+	 * @param path
+	 *            the OptimisticPath from the root to the leaf node.
+	 * @param l
+	 *            the leaf node.
+	 * @param key
+	 *            the key to insert.
+	 * @param value
+	 *            the value to insert.
+	 * @param pos
+	 *            the insertion position of the key in the leaf node.
+	 */
+	void insertLocked(OptimisticPath path, BPlusTree.Node l, Object key, Object value, int pos) {
+		if (l.hasRoom()) {
+			l.insert(key, value, pos);
+		} else {
+			BPlusTree.Node nl = tree.splitLeaf(l, key, value, pos, tree.splitPoint(path, path.length - 1, pos));
+			tree.insertInParent(path, path.length - 1, tree.separator(l.keys[l.numberOfKeys - 1], nl.keys[0]), nl);
+		}
+	}
+
+	/**
+	 * Waits until the specified node is not locked and returns its version word.
+	 *
+	 * @param n
+	 *            the node.
+	 * @return the version word of the node.
+	 */
+	static long readLock(BPlusTree.Node n) {
+		long v;
+		while (((v = VERSION.get(n)) & 1) != 0)
+			Thread.onSpinWait();
+		return v;
+	}
+
+	/**
+	 * Makes sure that the specified node still has the specified version word.
+	 *
+	 * @param n
+	 *            the node.
+	 * @param version
+	 *            the version word that the node had when it was read.
+	 * @throws RuntimeException
+	 *             if the node has changed.
+	 */
+	static void validate(BPlusTree.Node n, long version) {
+		VarHandle.acquireFence(); // the reads of the node must complete before the version word is read again
+		if (VERSION.get(n) != version)
+			throw RESTART;
+	}
+
+	/**
+	 * Locks the specified node unless it has changed since it was read.
+	 *
+	 * @param path
+	 *            the OptimisticPath that records the locked nodes.
+	 * @param n
+	 *            the node.
+	 * @param version
+	 *            the version word that the node had when it was read.
+	 * @throws RuntimeException
+	 *             if the node has changed or is locked by another thread.
+	 */
+	static void lock(OptimisticPath path, BPlusTree.Node n, long version) {
+		if ((version & 1) != 0 || !VERSION.compareAndSet(n, version, version + 1))
+			throw RESTART;
+		if (path.numberOfLocked == path.locked.length) {
+			path.locked = java.util.Arrays.copyOf(path.locked, path.numberOfLocked * 2);
+			path.lockedVersions = java.util.Arrays.copyOf(path.lockedVersions, path.numberOfLocked * 2);
+		}
+		path.locked[path.numberOfLocked] = n;
+		path.lockedVersions[path.numberOfLocked++] = version;
+	}
+
+	/**
+	 * Unlocks the nodes locked by the current operation and advances their version words.
+	 *
+	 * @param path
+	 *            the OptimisticPath that records the locked nodes.
+	 */
+	static void unlock(OptimisticPath path) {
+		while (path.numberOfLocked > 0) {
+			int i = --path.numberOfLocked;
+			VERSION.set(path.locked[i], path.lockedVersions[i] + 2);
+			path.locked[i] = null;
+		}
+	}
+
+	/**
+	 * Unlocks the nodes locked by the current operation without changing their version words (because they have
+	 * not been changed).
+	 *
+	 * @param path
+	 *            the OptimisticPath that records the locked nodes.
+	 */
+	static void release(OptimisticPath path) {
+		while (path.numberOfLocked > 0) {
+			int i = --path.numberOfLocked;
+			VERSION.set(path.locked[i], path.lockedVersions[i]);
+			path.locked[i] = null;
+		}
+	}
+
+	/**
+	 * Unlocks the nodes locked by the current operation without changing their version words (because they have
+	 * not been changed) and counts a restart.
+	 *
+	 * @param path
+	 *            the OptimisticPath that records the locked nodes.
+	 */
+	void abort(OptimisticPath path) {
+		release(path);
+		restarts.increment();
+	}
+
+	/**
+	 * Handles the specified exception thrown before the current operation changed anything. An exception other
+	 * than a restart may be caused by reading a node while it was being changed (for example, a key that has just
+	 * been removed). In that case the node being read has a new version word and the operation restarts. If the
+	 * node is unchanged, the exception is caused by the arguments of the operation (for example, a key that cannot
+	 * be compared with the keys in this OptimisticBPlusTree) and is rethrown.
+	 *
+	 * @param path
+	 *            the OptimisticPath of the current operation.
+	 * @param e
+	 *            the exception.
+	 * @throws RuntimeException
+	 *             if the exception is not caused by a concurrent change.
+	 */
+	void restart(OptimisticPath path, RuntimeException e) {
+		if (e != RESTART && path.length > 0) {
+			BPlusTree.Node n = path.nodes[path.length - 1];
+			VarHandle.acquireFence(); // the reads of the node must complete before the version word is read again
+			if (VERSION.get(n) == path.versions[path.length - 1]) {
+				release(path);
+				throw e;
+			}
+		}
+		abort(path);
+	}
+
+}
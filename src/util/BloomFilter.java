@@ -0,0 +1,198 @@
+package util;
+
+/**
+ * The BloomFilter class implements Bloom filters over 64-bit hash codes. A BloomFilter answers whether a hash code
+ * might have been added: a negative answer is always correct, while a positive answer is wrong with a probability
+ * that depends on the number of bits per added hash code. The k bit positions of a hash code are derived from two
+ * halves of a mixed hash code by double hashing (Kirsch and Mitzenmacher), so callers only compute one hash code per
+ * key. Bits cannot be removed, so a BloomFilter over keys that are later deleted only loses precision and must be
+ * rebuilt to regain it.
+ */
+public class BloomFilter {
+
+	/**
+	 * The bits of this BloomFilter.
+	 */
+	protected long[] bits;
+
+	/**
+	 * The number of bits of this BloomFilter.
+	 */
+	protected long numberOfBits;
+
+	/**
+	 * The number of bits that each hash code sets.
+	 */
+	protected int numberOfHashes;
+
+	/**
+	 * Constructs a BloomFilter that has the specified false positive rate after the specified number of hash codes
+	 * are added.
+	 *
+	 * @param expectedInsertions
+	 *            the expected number of hash codes to add.
+	 * @param falsePositiveRate
+	 *            the desired false positive rate (0 < falsePositiveRate < 1).
+	 * @throws IllegalArgumentException
+	 *             if the false positive rate is not in (0, 1).
+	 */
+	public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+		this(numberOfBits(expectedInsertions, falsePositiveRate),
+				numberOfHashes(expectedInsertions, numberOfBits(expectedInsertions, falsePositiveRate)));
+	}
+
+	/**
+	 * Constructs a BloomFilter.
+	 *
+	 * @param numberOfBits
+	 *            the number of bits.
+	 * @param numberOfHashes
+	 *            the number of bits that each hash code sets.
+	 */
+	public BloomFilter(long numberOfBits, int numberOfHashes) {
+		this.numberOfBits = Math.max(numberOfBits, Long.SIZE);
+		this.numberOfHashes = Math.max(numberOfHashes, 1);
+		this.bits = new long[(int) ((this.numberOfBits + Long.SIZE - 1) / Long.SIZE)];
+	}
+
+	/**
+	 * Copy-constructs a BloomFilter.
+	 *
+	 * @param filter
+	 *            another BloomFilter to copy from.
+	 */
+	public BloomFilter(BloomFilter filter) {
+		this.numberOfBits = filter.numberOfBits;
+		this.numberOfHashes = filter.numberOfHashes;
+		this.bits = filter.bits.clone();
+	}
+
+	/**
+	 * Returns the number of bits that a BloomFilter needs to have the specified false positive rate after the
+	 * specified number of hash codes are added.
+	 *
+	 * @param expectedInsertions
+	 *            the expected number of hash codes to add.
+	 * @param falsePositiveRate
+	 *            the desired false positive rate (0 < falsePositiveRate < 1).
+	 * @return the number of bits (n * ln(1 / p) / ln(2)^2).
+	 * @throws IllegalArgumentException
+	 *             if the false positive rate is not in (0, 1).
+	 */
+	public static long numberOfBits(long expectedInsertions, double falsePositiveRate) {
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1))
+			throw new IllegalArgumentException("false positive rate " + falsePositiveRate + " is not in (0, 1)");
+		double ln2 = Math.log(2);
+		return (long) Math.ceil(-Math.max(expectedInsertions, 1) * Math.log(falsePositiveRate) / (ln2 * ln2));
+	}
+
+	/**
+	 * Returns the number of bits that each hash code must set to minimize the false positive rate.
+	 *
+	 * @param expectedInsertions
+	 *            the expected number of hash codes to add.
+	 * @param numberOfBits
+	 *            the number of bits.
+	 * @return the number of bits that each hash code must set (m / n * ln(2)).
+	 */
+	public static int numberOfHashes(long expectedInsertions, long numberOfBits) {
+		return (int) Math.max(1, Math.round((double) numberOfBits / Math.max(expectedInsertions, 1) * Math.log(2)));
+	}
+
+	/**
+	 * Adds the specified hash code to this BloomFilter.
+	 *
+	 * @param hash
+	 *            the hash code.
+	 */
+	public void add(long hash) {
+		long h = mix(hash);
+		long delta = h >>> 32 | 1; // odd, so the positions do not repeat early
+		for (int i = 0; i < numberOfHashes; i++, h += delta) {
+			long bit = (h >>> 1) % numberOfBits;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Determines whether or not the specified hash code might have been added to this BloomFilter.
+	 *
+	 * @param hash
+	 *            the hash code.
+	 * @return false if the hash code has definitely not been added; true otherwise.
+	 */
+	public boolean mightContain(long hash) {
+		long h = mix(hash);
+		long delta = h >>> 32 | 1;
+		for (int i = 0; i < numberOfHashes; i++, h += delta) {
+			long bit = (h >>> 1) % numberOfBits;
+			if ((bits[(int) (bit >>> 6)] & 1L << bit) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes every hash code from this BloomFilter.
+	 */
+	public void clear() {
+		java.util.Arrays.fill(bits, 0);
+	}
+
+	/**
+	 * Returns the number of bits of this BloomFilter.
+	 *
+	 * @return the number of bits of this BloomFilter.
+	 */
+	public long getNumberOfBits() {
+		return numberOfBits;
+	}
+
+	/**
+	 * Returns the number of bits that each hash code sets.
+	 *
+	 * @return the number of bits that each hash code sets.
+	 */
+	public int getNumberOfHashes() {
+		return numberOfHashes;
+	}
+
+	/**
+	 * Returns the number of bytes that the bits of this BloomFilter occupy.
+	 *
+	 * @return the number of bytes that the bits of this BloomFilter occupy.
+	 */
+	public long getSizeInBytes() {
+		return (long) bits.length * Long.BYTES;
+	}
+
+	/**
+	 * Returns the false positive rate that this BloomFilter has after the specified number of distinct hash codes are
+	 * added.
+	 *
+	 * @param insertions
+	 *            the number of distinct hash codes added.
+	 * @return the false positive rate ((1 - e^(-k * n / m))^k).
+	 */
+	public double falsePositiveRate(long insertions) {
+		return Math.pow(1 - Math.exp(-(double) numberOfHashes * insertions / numberOfBits), numberOfHashes);
+	}
+
+	/**
+	 * Spreads the bits of the specified hash code (the finalizer of MurmurHash3) so that nearby keys such as
+	 * consecutive integers set unrelated bits.
+	 *
+	 * @param h
+	 *            the hash code.
+	 * @return the mixed hash code.
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
@@ -0,0 +1,1078 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The BufferPool class implements a bounded cache of fixed-size pages of a file. The pool allocates all of its frames
+ * (direct buffers of the size of a page) up front, so its memory use does not depend on the size of the file. A page
+ * must be pinned while it is used and unpinned afterwards; only unpinned pages are evicted, according to a pluggable
+ * replacement Policy, and dirty pages are written back when they are evicted or flushed. Pages can also be made
+ * sticky so that they stay in the pool while they are unpinned (for example, the upper levels of a tree).
+ *
+ * A BufferPool is not thread-safe.
+ */
+public class BufferPool {
+
+	/**
+	 * A Frame holds one page of the file.
+	 */
+	public static class Frame {
+
+		/**
+		 * The position of this Frame in the pool.
+		 */
+		final int index;
+
+		/**
+		 * The contents of the page held by this Frame.
+		 */
+		final ByteBuffer buffer;
+
+		/**
+		 * The id of the page held by this Frame (-1 if this Frame is empty).
+		 */
+		long pageId = -1;
+
+		/**
+		 * The number of times that the page has been pinned but not unpinned yet.
+		 */
+		int pinCount;
+
+		/**
+		 * A flag indicating whether or not the page has changed since it was read or written.
+		 */
+		boolean dirty;
+
+		/**
+		 * A flag indicating whether or not the page must stay in the pool even while it is unpinned.
+		 */
+		boolean sticky;
+
+		/**
+		 * Constructs a Frame.
+		 *
+		 * @param index
+		 *            the position of the Frame in the pool.
+		 * @param pageSize
+		 *            the size of each page in bytes.
+		 */
+		Frame(int index, int pageSize) {
+			this.index = index;
+			this.buffer = ByteBuffer.allocateDirect(pageSize);
+		}
+
+		/**
+		 * Returns the id of the page held by this Frame.
+		 *
+		 * @return the id of the page held by this Frame.
+		 */
+		public long getPageId() {
+			return pageId;
+		}
+
+		/**
+		 * Returns the contents of the page held by this Frame.
+		 *
+		 * @return the contents of the page held by this Frame.
+		 */
+		public ByteBuffer getBuffer() {
+			return buffer;
+		}
+
+	}
+
+	/**
+	 * A Policy decides which page leaves the pool when a frame is needed for another page.
+	 */
+	public interface Policy {
+
+		/**
+		 * Prepares this Policy for a pool with the specified number of frames.
+		 *
+		 * @param capacity
+		 *            the number of frames.
+		 */
+		void init(int capacity);
+
+		/**
+		 * Notifies this Policy that a page has been brought into the specified frame.
+		 *
+		 * @param frame
+		 *            the position of the frame.
+		 * @param pageId
+		 *            the id of the page.
+		 */
+		void loaded(int frame, long pageId);
+
+		/**
+		 * Notifies this Policy that the page in the specified frame has been requested again.
+		 *
+		 * @param frame
+		 *            the position of the frame.
+		 * @param pageId
+		 *            the id of the page.
+		 */
+		void accessed(int frame, long pageId);
+
+		/**
+		 * Notifies this Policy that the page in the specified frame has left the pool.
+		 *
+		 * @param frame
+		 *            the position of the frame.
+		 * @param pageId
+		 *            the id of the page.
+		 */
+		void evicted(int frame, long pageId);
+
+		/**
+		 * Chooses the frame whose page must leave the pool.
+		 *
+		 * @param pool
+		 *            the pool.
+		 * @return the position of a frame for which pool.isEvictable returns true; -1 if there is no such frame.
+		 */
+		int victim(BufferPool pool);
+
+	}
+
+	/**
+	 * The Clock policy approximates LRU with one reference bit per frame and a hand that sweeps the frames, clearing
+	 * the bits it passes until it finds a frame whose bit is already clear.
+	 */
+	public static class Clock implements Policy {
+
+		/**
+		 * referenced[i] indicates whether or not the page in frame i has been requested since the hand last passed.
+		 */
+		boolean[] referenced;
+
+		/**
+		 * The position of the frame that the hand points to.
+		 */
+		int hand;
+
+		@Override
+		public void init(int capacity) {
+			referenced = new boolean[capacity];
+		}
+
+		@Override
+		public void loaded(int frame, long pageId) {
+			referenced[frame] = true;
+		}
+
+		@Override
+		public void accessed(int frame, long pageId) {
+			referenced[frame] = true;
+		}
+
+		@Override
+		public void evicted(int frame, long pageId) {
+			referenced[frame] = false;
+		}
+
+		@Override
+		public int victim(BufferPool pool) {
+			int capacity = referenced.length;
+			for (int steps = 0; steps < 2 * capacity; steps++) { // two rounds clear every bit on the way
+				int f = hand;
+				hand = hand + 1 == capacity ? 0 : hand + 1;
+				if (!pool.isEvictable(f))
+					continue;
+				if (!referenced[f])
+					return f;
+				referenced[f] = false;
+			}
+			return -1;
+		}
+
+	}
+
+	/**
+	 * The LRUK policy (O'Neil et al., The LRU-K Page Replacement Algorithm for Database Disk Buffering, 1993) evicts
+	 * the page whose K-th most recent request is the oldest. Pages requested fewer than K times are evicted first, in
+	 * LRU order, so that pages touched once by a scan do not push out pages that are requested repeatedly. The frames
+	 * are kept in a heap ordered by that criterion.
+	 */
+	public static class LRUK implements Policy {
+
+		/**
+		 * The number of requests that each frame remembers.
+		 */
+		final int k;
+
+		/**
+		 * history[f * k + j] is the time of one of the k latest requests for the page in frame f.
+		 */
+		long[] history;
+
+		/**
+		 * slot[f] is the position in the history of frame f that the next request overwrites (the oldest one).
+		 */
+		int[] slot;
+
+		/**
+		 * requests[f] is the number of requests remembered for frame f (at most k).
+		 */
+		int[] requests;
+
+		/**
+		 * The logical time of the latest request.
+		 */
+		long time;
+
+		/**
+		 * The frames in heap order (the frame that should be evicted first is heap[0]).
+		 */
+		int[] heap;
+
+		/**
+		 * position[f] is the position of frame f in the heap (-1 if frame f is not in the heap).
+		 */
+		int[] position;
+
+		/**
+		 * The number of frames in the heap.
+		 */
+		int size;
+
+		/**
+		 * The frames taken off the heap while a victim is searched for.
+		 */
+		int[] skipped;
+
+		/**
+		 * Constructs an LRUK policy that remembers the two latest requests for each page (LRU-2).
+		 */
+		public LRUK() {
+			this(2);
+		}
+
+		/**
+		 * Constructs an LRUK policy.
+		 *
+		 * @param k
+		 *            the number of latest requests that are remembered for each page.
+		 */
+		public LRUK(int k) {
+			if (k < 1)
+				throw new IllegalArgumentException("k must be positive: " + k);
+			this.k = k;
+		}
+
+		@Override
+		public void init(int capacity) {
+			history = new long[capacity * k];
+			slot = new int[capacity];
+			requests = new int[capacity];
+			heap = new int[capacity];
+			position = new int[capacity];
+			java.util.Arrays.fill(position, -1);
+			skipped = new int[capacity];
+		}
+
+		@Override
+		public void loaded(int frame, long pageId) {
+			requests[frame] = 0;
+			slot[frame] = 0;
+			record(frame);
+			heap[size] = frame;
+			position[frame] = size++;
+			siftUp(size - 1);
+		}
+
+		@Override
+		public void accessed(int frame, long pageId) {
+			record(frame);
+			siftDown(position[frame]); // the priority of a frame only grows
+		}
+
+		@Override
+		public void evicted(int frame, long pageId) {
+			int i = position[frame];
+			position[frame] = -1;
+			int last = heap[--size];
+			if (i < size) {
+				heap[i] = last;
+				position[last] = i;
+				siftDown(i);
+				siftUp(position[last]);
+			}
+		}
+
+		@Override
+		public int victim(BufferPool pool) {
+			int victim = -1;
+			int numberOfSkipped = 0;
+			while (size > 0) { // take frames off the heap until an evictable one is found
+				int f = heap[0];
+				evicted(f, -1);
+				skipped[numberOfSkipped++] = f;
+				if (pool.isEvictable(f)) {
+					victim = f;
+					break;
+				}
+			}
+			for (int i = 0; i < numberOfSkipped; i++) { // put the frames back
+				int f = skipped[i];
+				heap[size] = f;
+				position[f] = size++;
+				siftUp(size - 1);
+			}
+			return victim;
+		}
+
+		/**
+		 * Records a request for the page in the specified frame.
+		 *
+		 * @param frame
+		 *            the position of the frame.
+		 */
+		void record(int frame) {
+			history[frame * k + slot[frame]] = ++time;
+			slot[frame] = slot[frame] + 1 == k ? 0 : slot[frame] + 1;
+			if (requests[frame] < k)
+				requests[frame]++;
+		}
+
+		/**
+		 * Returns the priority of the specified frame (frames with smaller priorities are evicted first).
+		 *
+		 * @param frame
+		 *            the position of the frame.
+		 * @return the time of the K-th latest request if the page has been requested at least K times; otherwise, the
+		 *         time of the latest request minus a large constant.
+		 */
+		long priority(int frame) {
+			if (requests[frame] == k)
+				return history[frame * k + slot[frame]];
+			return Long.MIN_VALUE + history[frame * k + (slot[frame] + k - 1) % k];
+		}
+
+		/**
+		 * Moves the frame at the specified position of the heap towards the root as far as needed.
+		 *
+		 * @param i
+		 *            the position in the heap.
+		 */
+		void siftUp(int i) {
+			int f = heap[i];
+			long p = priority(f);
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (priority(heap[parent]) <= p)
+					break;
+				heap[i] = heap[parent];
+				position[heap[i]] = i;
+				i = parent;
+			}
+			heap[i] = f;
+			position[f] = i;
+		}
+
+		/**
+		 * Moves the frame at the specified position of the heap towards the leaves as far as needed.
+		 *
+		 * @param i
+		 *            the position in the heap.
+		 */
+		void siftDown(int i) {
+			int f = heap[i];
+			long p = priority(f);
+			for (;;) {
+				int c = 2 * i + 1;
+				if (c >= size)
+					break;
+				if (c + 1 < size && priority(heap[c + 1]) < priority(heap[c]))
+					c++;
+				if (p <= priority(heap[c]))
+					break;
+				heap[i] = heap[c];
+				position[heap[i]] = i;
+				i = c;
+			}
+			heap[i] = f;
+			position[f] = i;
+		}
+
+	}
+
+	/**
+	 * The TwoQueue policy (Johnson and Shasha, 2Q: A Low Overhead High Performance Buffer Management Replacement
+	 * Algorithm, 1994) admits a page requested for the first time into a FIFO queue (A1in). A page that is requested
+	 * again after it has left A1in, while its id is still remembered in a queue of recently evicted ids (A1out), is
+	 * promoted to an LRU queue (Am). Pages are evicted from A1in while A1in holds more than a quarter of the frames and
+	 * from Am otherwise.
+	 */
+	public static class TwoQueue implements Policy {
+
+		/**
+		 * The queue that a frame is not in.
+		 */
+		static final byte NONE = 0;
+
+		/**
+		 * The queue of pages requested once (A1in).
+		 */
+		static final byte IN = 1;
+
+		/**
+		 * The queue of pages requested repeatedly (Am).
+		 */
+		static final byte MAIN = 2;
+
+		/**
+		 * queue[f] is the queue that frame f belongs to.
+		 */
+		byte[] queue;
+
+		/**
+		 * previous[f] is the frame before frame f in its queue (-1 if frame f is the oldest).
+		 */
+		int[] previous;
+
+		/**
+		 * next[f] is the frame after frame f in its queue (-1 if frame f is the newest).
+		 */
+		int[] next;
+
+		/**
+		 * The oldest and the newest frames of A1in and Am (-1 if a queue is empty).
+		 */
+		int inHead = -1, inTail = -1, mainHead = -1, mainTail = -1;
+
+		/**
+		 * The number of frames in A1in.
+		 */
+		int inSize;
+
+		/**
+		 * The number of frames above which pages are evicted from A1in.
+		 */
+		int maxInSize;
+
+		/**
+		 * The ids of the pages recently evicted from A1in (A1out), in a ring of fixed size.
+		 */
+		long[] ghosts;
+
+		/**
+		 * The position of the oldest id in ghosts.
+		 */
+		int ghostStart;
+
+		/**
+		 * The number of ids in ghosts.
+		 */
+		int ghostSize;
+
+		/**
+		 * The position of each remembered id in ghosts.
+		 */
+		PageTable ghostTable;
+
+		@Override
+		public void init(int capacity) {
+			queue = new byte[capacity];
+			previous = new int[capacity];
+			next = new int[capacity];
+			maxInSize = Math.max(1, capacity / 4);
+			ghosts = new long[Math.max(1, capacity / 2)];
+			ghostTable = new PageTable(ghosts.length);
+		}
+
+		@Override
+		public void loaded(int frame, long pageId) {
+			if (ghostTable.remove(pageId) >= 0) // if the page was evicted from A1in recently
+				append(frame, MAIN);
+			else
+				append(frame, IN);
+		}
+
+		@Override
+		public void accessed(int frame, long pageId) {
+			if (queue[frame] == MAIN) { // move the frame to the LRU end of Am
+				unlink(frame);
+				append(frame, MAIN);
+			}
+		}
+
+		@Override
+		public void evicted(int frame, long pageId) {
+			if (queue[frame] == IN)
+				remember(pageId);
+			unlink(frame);
+		}
+
+		@Override
+		public int victim(BufferPool pool) {
+			int f = inSize > maxInSize ? oldestEvictable(inHead, pool) : -1;
+			if (f < 0)
+				f = oldestEvictable(mainHead, pool);
+			if (f < 0)
+				f = oldestEvictable(inHead, pool);
+			return f;
+		}
+
+		/**
+		 * Returns the oldest evictable frame in a queue.
+		 *
+		 * @param head
+		 *            the oldest frame of the queue.
+		 * @param pool
+		 *            the pool.
+		 * @return the oldest evictable frame in the queue; -1 if there is no such frame.
+		 */
+		int oldestEvictable(int head, BufferPool pool) {
+			for (int f = head; f >= 0; f = next[f])
+				if (pool.isEvictable(f))
+					return f;
+			return -1;
+		}
+
+		/**
+		 * Appends the specified frame to the specified queue.
+		 *
+		 * @param frame
+		 *            the position of the frame.
+		 * @param q
+		 *            the queue.
+		 */
+		void append(int frame, byte q) {
+			queue[frame] = q;
+			int tail = q == IN ? inTail : mainTail;
+			previous[frame] = tail;
+			next[frame] = -1;
+			if (tail >= 0)
+				next[tail] = frame;
+			if (q == IN) {
+				if (inHead < 0)
+					inHead = frame;
+				inTail = frame;
+				inSize++;
+			} else {
+				if (mainHead < 0)
+					mainHead = frame;
+				mainTail = frame;
+			}
+		}
+
+		/**
+		 * Removes the specified frame from its queue.
+		 *
+		 * @param frame
+		 *            the position of the frame.
+		 */
+		void unlink(int frame) {
+			int p = previous[frame];
+			int n = next[frame];
+			if (p >= 0)
+				next[p] = n;
+			else if (queue[frame] == IN)
+				inHead = n;
+			else
+				mainHead = n;
+			if (n >= 0)
+				previous[n] = p;
+			else if (queue[frame] == IN)
+				inTail = p;
+			else
+				mainTail = p;
+			if (queue[frame] == IN)
+				inSize--;
+			queue[frame] = NONE;
+		}
+
+		/**
+		 * Adds the specified page id to A1out, forgetting the oldest id if A1out is full.
+		 *
+		 * @param pageId
+		 *            the page id.
+		 */
+		void remember(long pageId) {
+			if (ghostSize == ghosts.length) {
+				long oldest = ghosts[ghostStart];
+				if (ghostTable.get(oldest) == ghostStart) // unless the id was removed or remembered again later
+					ghostTable.remove(oldest);
+				ghostStart = ghostStart + 1 == ghosts.length ? 0 : ghostStart + 1;
+				ghostSize--;
+			}
+			int i = (ghostStart + ghostSize++) % ghosts.length;
+			ghosts[i] = pageId;
+			ghostTable.put(pageId, i);
+		}
+
+	}
+
+	/**
+	 * A PageTable maps page ids to non-negative int values with open addressing, so that it allocates no memory
+	 * after it has been constructed.
+	 */
+	static class PageTable {
+
+		/**
+		 * The key of an empty slot.
+		 */
+		static final long EMPTY = -1;
+
+		/**
+		 * The page ids in the slots.
+		 */
+		final long[] keys;
+
+		/**
+		 * The values in the slots.
+		 */
+		final int[] values;
+
+		/**
+		 * keys.length - 1.
+		 */
+		final int mask;
+
+		/**
+		 * Constructs a PageTable.
+		 *
+		 * @param capacity
+		 *            the maximum number of entries.
+		 */
+		PageTable(int capacity) {
+			int n = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2; // at most half of the slots are used
+			keys = new long[n];
+			values = new int[n];
+			mask = n - 1;
+			java.util.Arrays.fill(keys, EMPTY);
+		}
+
+		/**
+		 * Returns the slot where the specified page id is expected.
+		 *
+		 * @param pageId
+		 *            the page id.
+		 * @return the slot where the specified page id is expected.
+		 */
+		int hash(long pageId) {
+			long h = pageId * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32)) & mask;
+		}
+
+		/**
+		 * Returns the value associated with the specified page id.
+		 *
+		 * @param pageId
+		 *            the page id.
+		 * @return the value associated with the specified page id; -1 if there is no such value.
+		 */
+		int get(long pageId) {
+			for (int i = hash(pageId);; i = (i + 1) & mask) {
+				if (keys[i] == pageId)
+					return values[i];
+				if (keys[i] == EMPTY)
+					return -1;
+			}
+		}
+
+		/**
+		 * Associates the specified value with the specified page id.
+		 *
+		 * @param pageId
+		 *            the page id.
+		 * @param value
+		 *            the value.
+		 */
+		void put(long pageId, int value) {
+			int i = hash(pageId);
+			while (keys[i] != EMPTY && keys[i] != pageId)
+				i = (i + 1) & mask;
+			keys[i] = pageId;
+			values[i] = value;
+		}
+
+		/**
+		 * Removes the specified page id.
+		 *
+		 * @param pageId
+		 *            the page id.
+		 * @return the value that was associated with the page id; -1 if there was no such value.
+		 */
+		int remove(long pageId) {
+			int i = hash(pageId);
+			while (keys[i] != pageId) {
+				if (keys[i] == EMPTY)
+					return -1;
+				i = (i + 1) & mask;
+			}
+			int value = values[i];
+			for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) { // shift back the following entries
+				int h = hash(keys[j]);
+				if (((j - h) & mask) >= ((j - i) & mask)) { // if slot i lies between the home slot and slot j
+					keys[i] = keys[j];
+					values[i] = values[j];
+					i = j;
+				}
+			}
+			keys[i] = EMPTY;
+			return value;
+		}
+
+	}
+
+	/**
+	 * The file that holds the pages.
+	 */
+	protected FileChannel channel;
+
+	/**
+	 * The size of each page in bytes.
+	 */
+	protected int pageSize;
+
+	/**
+	 * The frames of this BufferPool.
+	 */
+	protected Frame[] frames;
+
+	/**
+	 * The position of the frame that holds each page in this BufferPool.
+	 */
+	protected PageTable pageTable;
+
+	/**
+	 * The replacement policy.
+	 */
+	protected Policy policy;
+
+	/**
+	 * The positions of the frames that hold no page.
+	 */
+	protected int[] freeFrames;
+
+	/**
+	 * The number of positions in freeFrames.
+	 */
+	protected int numberOfFreeFrames;
+
+	/**
+	 * The number of sticky frames.
+	 */
+	protected int numberOfStickyFrames;
+
+	/**
+	 * The maximum number of sticky frames (so that some frames always remain for the other pages).
+	 */
+	protected int maxStickyFrames;
+
+	/**
+	 * The number of requests served from this BufferPool.
+	 */
+	protected long hits;
+
+	/**
+	 * The number of requests that required reading a page.
+	 */
+	protected long misses;
+
+	/**
+	 * The number of pages that left this BufferPool.
+	 */
+	protected long evictions;
+
+	/**
+	 * The number of pages written back to the file.
+	 */
+	protected long writes;
+
+	/**
+	 * Constructs a BufferPool.
+	 *
+	 * @param channel
+	 *            the file that holds the pages.
+	 * @param pageSize
+	 *            the size of each page in bytes.
+	 * @param capacity
+	 *            the number of frames (the maximum number of pages kept in memory).
+	 * @param policy
+	 *            the replacement policy.
+	 */
+	public BufferPool(FileChannel channel, int pageSize, int capacity, Policy policy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		this.channel = channel;
+		this.pageSize = pageSize;
+		this.frames = new Frame[capacity];
+		for (int i = 0; i < capacity; i++)
+			frames[i] = new Frame(i, pageSize);
+		this.pageTable = new PageTable(capacity);
+		this.policy = policy;
+		policy.init(capacity);
+		this.freeFrames = new int[capacity];
+		for (int i = 0; i < capacity; i++)
+			freeFrames[i] = capacity - 1 - i;
+		this.numberOfFreeFrames = capacity;
+		this.maxStickyFrames = capacity / 2;
+	}
+
+	/**
+	 * Pins the specified page, reading it from the file unless it is in this BufferPool.
+	 *
+	 * @param pageId
+	 *            the page id.
+	 * @param sticky
+	 *            true if the page must stay in this BufferPool even while it is unpinned; false otherwise.
+	 * @return the Frame that holds the page.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws IllegalStateException
+	 *             if every frame is pinned or sticky.
+	 */
+	public Frame pin(long pageId, boolean sticky) throws IOException {
+		Frame f = lookup(pageId);
+		if (f == null) {
+			f = claim(pageId);
+			try {
+				ByteBuffer buffer = f.buffer;
+				buffer.clear();
+				long position = pageId * pageSize;
+				while (buffer.hasRemaining())
+					if (channel.read(buffer, position + buffer.position()) < 0)
+						throw new java.io.EOFException("page " + pageId + " lies beyond the end of the file");
+			} catch (IOException e) {
+				release(f);
+				throw e;
+			}
+		}
+		f.pinCount++;
+		setSticky(f, sticky);
+		return f;
+	}
+
+	/**
+	 * Pins the specified page without reading it from the file (because the page is about to be overwritten
+	 * entirely). The page is marked dirty.
+	 *
+	 * @param pageId
+	 *            the page id.
+	 * @param sticky
+	 *            true if the page must stay in this BufferPool even while it is unpinned; false otherwise.
+	 * @return the Frame that holds the page.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws IllegalStateException
+	 *             if every frame is pinned or sticky.
+	 */
+	public Frame pinNew(long pageId, boolean sticky) throws IOException {
+		Frame f = lookup(pageId);
+		if (f == null)
+			f = claim(pageId);
+		f.pinCount++;
+		f.dirty = true;
+		setSticky(f, sticky);
+		return f;
+	}
+
+	/**
+	 * Unpins the page in the specified Frame.
+	 *
+	 * @param f
+	 *            the Frame.
+	 * @param dirty
+	 *            true if the page has been changed; false otherwise.
+	 * @throws IllegalStateException
+	 *             if the page is not pinned.
+	 */
+	public void unpin(Frame f, boolean dirty) {
+		if (f.pinCount == 0)
+			throw new IllegalStateException("page " + f.pageId + " is not pinned");
+		f.pinCount--;
+		f.dirty |= dirty;
+	}
+
+	/**
+	 * Marks the page in the specified Frame as changed.
+	 *
+	 * @param f
+	 *            the Frame.
+	 */
+	public void markDirty(Frame f) {
+		f.dirty = true;
+	}
+
+	/**
+	 * Writes every dirty page in this BufferPool back to the file.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void flush() throws IOException {
+		for (Frame f : frames)
+			if (f.dirty)
+				write(f);
+	}
+
+	/**
+	 * Determines whether or not the page in the specified frame can leave this BufferPool.
+	 *
+	 * @param frame
+	 *            the position of the frame.
+	 * @return true if the frame holds a page that is neither pinned nor sticky; false otherwise.
+	 */
+	public boolean isEvictable(int frame) {
+		Frame f = frames[frame];
+		return f.pageId >= 0 && f.pinCount == 0 && !f.sticky;
+	}
+
+	/**
+	 * Returns the number of frames of this BufferPool.
+	 *
+	 * @return the number of frames of this BufferPool.
+	 */
+	public int getCapacity() {
+		return frames.length;
+	}
+
+	/**
+	 * Returns the number of requests served without reading the file.
+	 *
+	 * @return the number of requests served without reading the file.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests that required reading the file.
+	 *
+	 * @return the number of requests that required reading the file.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of pages that have left this BufferPool.
+	 *
+	 * @return the number of pages that have left this BufferPool.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of pages written back to the file.
+	 *
+	 * @return the number of pages written back to the file.
+	 */
+	public long getWrites() {
+		return writes;
+	}
+
+	/**
+	 * Resets the hit, miss, eviction and write counters.
+	 */
+	public void resetCounters() {
+		hits = misses = evictions = writes = 0;
+	}
+
+	/**
+	 * Returns the Frame that holds the specified page and counts a hit or a miss.
+	 *
+	 * @param pageId
+	 *            the page id.
+	 * @return the Frame that holds the specified page; null if the page is not in this BufferPool.
+	 */
+	Frame lookup(long pageId) {
+		int i = pageTable.get(pageId);
+		if (i < 0) {
+			misses++;
+			return null;
+		}
+		hits++;
+		policy.accessed(i, pageId);
+		return frames[i];
+	}
+
+	/**
+	 * Assigns a frame to the specified page, evicting another page if necessary.
+	 *
+	 * @param pageId
+	 *            the page id.
+	 * @return the Frame assigned to the page.
+	 * @throws IOException
+	 *             if an I/O error occurs while a dirty page is written back.
+	 * @throws IllegalStateException
+	 *             if every frame is pinned or sticky.
+	 */
+	Frame claim(long pageId) throws IOException {
+		Frame f;
+		if (numberOfFreeFrames > 0) {
+			f = frames[freeFrames[--numberOfFreeFrames]];
+		} else {
+			int v = policy.victim(this);
+			if (v < 0)
+				throw new IllegalStateException("every frame of the buffer pool is pinned or sticky");
+			f = frames[v];
+			if (f.dirty)
+				write(f);
+			pageTable.remove(f.pageId);
+			policy.evicted(v, f.pageId);
+			evictions++;
+		}
+		f.pageId = pageId;
+		pageTable.put(pageId, f.index);
+		policy.loaded(f.index, pageId);
+		return f;
+	}
+
+	/**
+	 * Removes the page in the specified Frame from this BufferPool without writing it back.
+	 *
+	 * @param f
+	 *            the Frame.
+	 */
+	void release(Frame f) {
+		pageTable.remove(f.pageId);
+		policy.evicted(f.index, f.pageId);
+		setSticky(f, false);
+		f.pageId = -1;
+		f.pinCount = 0;
+		f.dirty = false;
+		freeFrames[numberOfFreeFrames++] = f.index;
+	}
+
+	/**
+	 * Makes the page in the specified Frame sticky or not. A page is not made sticky if half of the frames already
+	 * hold sticky pages.
+	 *
+	 * @param f
+	 *            the Frame.
+	 * @param sticky
+	 *            true if the page must stay in this BufferPool even while it is unpinned; false otherwise.
+	 */
+	public void setSticky(Frame f, boolean sticky) {
+		if (sticky == f.sticky || sticky && numberOfStickyFrames == maxStickyFrames)
+			return;
+		f.sticky = sticky;
+		numberOfStickyFrames += sticky ? 1 : -1;
+	}
+
+	/**
+	 * Writes the page in the specified Frame back to the file.
+	 *
+	 * @param f
+	 *            the Frame.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	void write(Frame f) throws IOException {
+		ByteBuffer buffer = f.buffer;
+		buffer.clear();
+		long position = f.pageId * pageSize;
+		while (buffer.hasRemaining())
+			channel.write(buffer, position + buffer.position());
+		f.dirty = false;
+		writes++;
+	}
+
+}
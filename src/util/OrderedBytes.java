@@ -0,0 +1,314 @@
+package util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The OrderedBytes class builds byte[] keys whose unsigned lexicographic order (java.util.Arrays.compareUnsigned)
+ * matches the natural order of the encoded values, so that a BPlusTree can compare keys of every type with a single
+ * byte comparison. An int or a long is encoded in big-endian order with its sign bit flipped. Within a tuple (a key
+ * made of several components), a String or a byte[] is made self-delimiting by escaping each 0x00 byte as 0x00 0xFF
+ * and appending the terminator 0x00 0x01, which sorts below both a nonzero byte and an escaped 0x00, so a shorter
+ * component sorts before any longer component that it is a prefix of, whatever the next component starts with.
+ * Strings are encoded in UTF-8, whose byte order is the order of code points (which differs from the order of
+ * String.compareTo only for characters outside the Basic Multilingual Plane).
+ */
+public class OrderedBytes {
+
+	/**
+	 * The bytes of this OrderedBytes.
+	 */
+	protected byte[] bytes;
+
+	/**
+	 * The number of bytes in use.
+	 */
+	protected int length;
+
+	/**
+	 * Constructs an empty OrderedBytes.
+	 */
+	public OrderedBytes() {
+		this(16);
+	}
+
+	/**
+	 * Constructs an empty OrderedBytes.
+	 *
+	 * @param capacity
+	 *            the initial capacity in bytes.
+	 */
+	public OrderedBytes(int capacity) {
+		bytes = new byte[capacity];
+	}
+
+	/**
+	 * Returns the order-preserving encoding of the specified int.
+	 *
+	 * @param value
+	 *            the int.
+	 * @return the order-preserving encoding of the specified int.
+	 */
+	public static byte[] encode(int value) {
+		return new OrderedBytes(Integer.BYTES).putInt(value).toByteArray();
+	}
+
+	/**
+	 * Returns the order-preserving encoding of the specified long.
+	 *
+	 * @param value
+	 *            the long.
+	 * @return the order-preserving encoding of the specified long.
+	 */
+	public static byte[] encode(long value) {
+		return new OrderedBytes(Long.BYTES).putLong(value).toByteArray();
+	}
+
+	/**
+	 * Returns the order-preserving encoding of the specified String as a key on its own (its UTF-8 bytes, which need
+	 * neither escaping nor a terminator when nothing follows them).
+	 *
+	 * @param value
+	 *            the String.
+	 * @return the order-preserving encoding of the specified String.
+	 */
+	public static byte[] encode(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the int encoded by encode(int).
+	 *
+	 * @param key
+	 *            the encoded int.
+	 * @return the int encoded by encode(int).
+	 */
+	public static int decodeInt(byte[] key) {
+		return new Reader(key).getInt();
+	}
+
+	/**
+	 * Returns the long encoded by encode(long).
+	 *
+	 * @param key
+	 *            the encoded long.
+	 * @return the long encoded by encode(long).
+	 */
+	public static long decodeLong(byte[] key) {
+		return new Reader(key).getLong();
+	}
+
+	/**
+	 * Returns the String encoded by encode(String).
+	 *
+	 * @param key
+	 *            the encoded String.
+	 * @return the String encoded by encode(String).
+	 */
+	public static String decodeString(byte[] key) {
+		return new String(key, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Appends the specified int as a component of a tuple.
+	 *
+	 * @param value
+	 *            the int.
+	 * @return this OrderedBytes.
+	 */
+	public OrderedBytes putInt(int value) {
+		ensureCapacity(Integer.BYTES);
+		value ^= Integer.MIN_VALUE;
+		for (int shift = 24; shift >= 0; shift -= 8)
+			bytes[length++] = (byte) (value >>> shift);
+		return this;
+	}
+
+	/**
+	 * Appends the specified long as a component of a tuple.
+	 *
+	 * @param value
+	 *            the long.
+	 * @return this OrderedBytes.
+	 */
+	public OrderedBytes putLong(long value) {
+		ensureCapacity(Long.BYTES);
+		value ^= Long.MIN_VALUE;
+		for (int shift = 56; shift >= 0; shift -= 8)
+			bytes[length++] = (byte) (value >>> shift);
+		return this;
+	}
+
+	/**
+	 * Appends the specified String as a self-delimiting component of a tuple.
+	 *
+	 * @param value
+	 *            the String.
+	 * @return this OrderedBytes.
+	 */
+	public OrderedBytes putString(String value) {
+		return putBytes(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Appends the specified bytes as a self-delimiting component of a tuple.
+	 *
+	 * @param value
+	 *            the bytes.
+	 * @return this OrderedBytes.
+	 */
+	public OrderedBytes putBytes(byte[] value) {
+		ensureCapacity(value.length * 2 + 2);
+		for (byte b : value) {
+			bytes[length++] = b;
+			if (b == 0)
+				bytes[length++] = (byte) 0xFF;
+		}
+		bytes[length++] = 0;
+		bytes[length++] = 1;
+		return this;
+	}
+
+	/**
+	 * Returns the bytes appended so far.
+	 *
+	 * @return a new array that holds the bytes appended so far.
+	 */
+	public byte[] toByteArray() {
+		return java.util.Arrays.copyOf(bytes, length);
+	}
+
+	/**
+	 * Clears this OrderedBytes so that it can build another key.
+	 *
+	 * @return this OrderedBytes.
+	 */
+	public OrderedBytes clear() {
+		length = 0;
+		return this;
+	}
+
+	/**
+	 * Makes sure that the specified number of bytes can be appended.
+	 *
+	 * @param n
+	 *            the number of bytes.
+	 */
+	void ensureCapacity(int n) {
+		if (length + n > bytes.length)
+			bytes = java.util.Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+	}
+
+	/**
+	 * A Reader decodes the components of a tuple built by an OrderedBytes, in the order in which they were appended.
+	 */
+	public static class Reader {
+
+		/**
+		 * The encoded tuple.
+		 */
+		byte[] bytes;
+
+		/**
+		 * The position of the next component.
+		 */
+		int position;
+
+		/**
+		 * Constructs a Reader.
+		 *
+		 * @param bytes
+		 *            the encoded tuple.
+		 */
+		public Reader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Determines whether or not there are more components.
+		 *
+		 * @return true if there are more components; false otherwise.
+		 */
+		public boolean hasRemaining() {
+			return position < bytes.length;
+		}
+
+		/**
+		 * Decodes an int.
+		 *
+		 * @return the int.
+		 * @throws IllegalStateException
+		 *             if fewer than 4 bytes remain.
+		 */
+		public int getInt() {
+			return (int) (get(Integer.BYTES) ^ Integer.MIN_VALUE);
+		}
+
+		/**
+		 * Decodes a long.
+		 *
+		 * @return the long.
+		 * @throws IllegalStateException
+		 *             if fewer than 8 bytes remain.
+		 */
+		public long getLong() {
+			return get(Long.BYTES) ^ Long.MIN_VALUE;
+		}
+
+		/**
+		 * Decodes a String.
+		 *
+		 * @return the String.
+		 * @throws IllegalStateException
+		 *             if the component is not terminated.
+		 */
+		public String getString() {
+			return new String(getBytes(), StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Decodes a byte[].
+		 *
+		 * @return the byte[].
+		 * @throws IllegalStateException
+		 *             if the component is not terminated.
+		 */
+		public byte[] getBytes() {
+			java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+			while (position < bytes.length) {
+				byte b = bytes[position++];
+				if (b != 0) {
+					out.write(b);
+				} else if (position < bytes.length && bytes[position] == (byte) 0xFF) { // an escaped 0x00
+					out.write(0);
+					position++;
+				} else if (position < bytes.length && bytes[position] == 1) { // the terminator
+					position++;
+					return out.toByteArray();
+				} else {
+					break;
+				}
+			}
+			throw new IllegalStateException("unterminated component at position " + position);
+		}
+
+		/**
+		 * Reads the specified number of bytes as a big-endian unsigned number.
+		 *
+		 * @param n
+		 *            the number of bytes (at most 8).
+		 * @return the number.
+		 * @throws IllegalStateException
+		 *             if fewer than n bytes remain.
+		 */
+		long get(int n) {
+			if (bytes.length - position < n)
+				throw new IllegalStateException(n + " bytes are needed at position " + position);
+			long v = 0;
+			for (int i = 0; i < n; i++)
+				v = v << 8 | bytes[position++] & 0xFF;
+			return v;
+		}
+
+	}
+
+}
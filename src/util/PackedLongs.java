@@ -0,0 +1,229 @@
+package util;
+
+/**
+ * The PackedLongs class implements bounded sequences of ascending long values that are stored as a base value (the
+ * first value) plus the offsets of the values from the base, bit-packed into an array of words with just enough bits
+ * per offset for the largest one. Dense ascending values (such as time-series ids) thus take a few bits each instead
+ * of 64. The sequence is searched without decoding it: a search key is turned into an offset once and then compared
+ * with the packed offsets. A value that does not fit the current encoding (one below the base or one whose offset
+ * needs more bits) causes the sequence to be encoded again.
+ */
+public class PackedLongs {
+
+	/**
+	 * The maximum number of values.
+	 */
+	protected int capacity;
+
+	/**
+	 * The number of values.
+	 */
+	protected int size;
+
+	/**
+	 * The base value.
+	 */
+	protected long base;
+
+	/**
+	 * The number of bits of each offset (0 to 64).
+	 */
+	protected int width;
+
+	/**
+	 * The mask for the lowest width bits.
+	 */
+	protected long mask;
+
+	/**
+	 * The words that hold the offsets (offset i occupies bits [i * width, (i + 1) * width)). There is always a spare
+	 * word at the end so that every offset can be read from two consecutive words without checking whether it
+	 * actually spans them.
+	 */
+	protected long[] words = new long[2];
+
+	/**
+	 * Constructs an empty PackedLongs.
+	 *
+	 * @param capacity
+	 *            the maximum number of values.
+	 */
+	public PackedLongs(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the number of values.
+	 *
+	 * @return the number of values.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of bits that each offset occupies.
+	 *
+	 * @return the number of bits that each offset occupies.
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * Returns the value at the specified position.
+	 *
+	 * @param i
+	 *            the position.
+	 * @return the value at the specified position.
+	 */
+	public long get(int i) {
+		return base + offset(i);
+	}
+
+	/**
+	 * Returns the first position i such that get(i) >= the given key.
+	 *
+	 * @param key
+	 *            the given key.
+	 * @return the first position i such that get(i) >= the given key; size() if there is no such i.
+	 */
+	public int lowerBound(long key) {
+		if (size == 0 || key <= base)
+			return 0;
+		long d = key - base; // positive as an unsigned number
+		if (width < 64 && d >>> width != 0) // if d exceeds every offset
+			return size;
+		int from = 0;
+		int to = size;
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (Long.compareUnsigned(offset(mid), d) < 0)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from;
+	}
+
+	/**
+	 * Inserts the specified value at the specified position. The value must not be smaller than the value before the
+	 * position nor greater than the value at the position.
+	 *
+	 * @param pos
+	 *            the position.
+	 * @param value
+	 *            the value.
+	 */
+	public void insert(int pos, long value) {
+		long d = value - base;
+		if (size == 0 || value < base || width < 64 && d >>> width != 0) { // if the encoding must change
+			long[] values = new long[size + 1];
+			decode(values, 0);
+			System.arraycopy(values, pos, values, pos + 1, size - pos);
+			values[pos] = value;
+			encode(values, 0, size + 1);
+			return;
+		}
+		if (width == 64) {
+			System.arraycopy(words, pos, words, pos + 1, size - pos);
+		} else if (width > 0) { // shift the bits of the offsets at pos and after by width bits
+			long from = (long) pos * width;
+			int first = (int) (from >>> 6);
+			for (int j = (int) (((long) (size + 1) * width - 1) >>> 6); j > first; j--)
+				words[j] = words[j] << width | words[j - 1] >>> (64 - width);
+			long below = (1L << from) - 1; // the bits of the offsets before pos
+			words[first] = words[first] & below | words[first] << width & ~below;
+		}
+		setOffset(pos, d);
+		size++;
+	}
+
+	/**
+	 * Removes the value at the specified position.
+	 *
+	 * @param pos
+	 *            the position.
+	 */
+	public void remove(int pos) {
+		size--;
+		if (width == 64) {
+			System.arraycopy(words, pos + 1, words, pos, size - pos);
+		} else if (width > 0) { // shift the bits of the offsets after pos by width bits
+			long to = (long) pos * width;
+			int first = (int) (to >>> 6);
+			long below = words[first] & (1L << to) - 1; // the bits of the offsets before pos
+			for (int j = first, last = (int) (((long) size * width - 1) >>> 6); j <= last; j++)
+				words[j] = words[j] >>> width | words[j + 1] << (64 - width);
+			words[first] = words[first] & -(1L << to) | below;
+		}
+	}
+
+	/**
+	 * Replaces the values of this PackedLongs with the specified ascending values, using the smallest width that
+	 * fits them.
+	 *
+	 * @param values
+	 *            an array that contains the values.
+	 * @param from
+	 *            the position of the first value in the array.
+	 * @param count
+	 *            the number of values.
+	 */
+	public void encode(long[] values, int from, int count) {
+		size = count;
+		base = count == 0 ? 0 : values[from];
+		long range = count == 0 ? 0 : values[from + count - 1] - base;
+		width = 64 - Long.numberOfLeadingZeros(range);
+		mask = width == 64 ? -1L : (1L << width) - 1;
+		int needed = (int) (((long) capacity * width + 63) >>> 6) + 1;
+		if (words.length < needed)
+			words = new long[needed];
+		for (int i = 0; i < count; i++)
+			setOffset(i, values[from + i] - base);
+	}
+
+	/**
+	 * Copies the values of this PackedLongs to the specified array.
+	 *
+	 * @param values
+	 *            the array.
+	 * @param to
+	 *            the position of the first copy in the array.
+	 */
+	public void decode(long[] values, int to) {
+		for (int i = 0; i < size; i++)
+			values[to + i] = base + offset(i);
+	}
+
+	/**
+	 * Returns the offset at the specified position.
+	 *
+	 * @param i
+	 *            the position.
+	 * @return the offset at the specified position.
+	 */
+	long offset(int i) {
+		long bit = (long) i * width;
+		int w = (int) (bit >>> 6);
+		int shift = (int) bit & 63;
+		return (words[w] >>> shift | words[w + 1] << (63 - shift) << 1) & mask;
+	}
+
+	/**
+	 * Sets the offset at the specified position.
+	 *
+	 * @param i
+	 *            the position.
+	 * @param d
+	 *            the offset (which fits in width bits).
+	 */
+	void setOffset(int i, long d) {
+		long bit = (long) i * width;
+		int w = (int) (bit >>> 6);
+		int shift = (int) bit & 63;
+		words[w] = words[w] & ~(mask << shift) | d << shift;
+		words[w + 1] = words[w + 1] & ~(mask >>> (63 - shift) >>> 1) | d >>> (63 - shift) >>> 1;
+	}
+
+}
@@ -0,0 +1,320 @@
+package util;
+
+/**
+ * The PostingList class implements sorted sets of long values (such as the ids of the rows that share a key in a
+ * non-unique index). A short PostingList keeps its values in a sorted array that grows in place. Once it holds more
+ * than COMPRESSION_THRESHOLD values, it is compressed into blocks of up to BLOCK_SIZE values, each of which is a
+ * PackedLongs (a base value plus bit-packed offsets), so that a long list of dense ids takes a few bits per value. The
+ * first value of every block is kept in a separate array, so a value is located by a binary search over the blocks
+ * followed by a search within a single block, and an insertion or a deletion changes only that block.
+ */
+public class PostingList {
+
+	/**
+	 * The number of values beyond which a PostingList is compressed.
+	 */
+	public static final int COMPRESSION_THRESHOLD = 128;
+
+	/**
+	 * The maximum number of values in each block of a compressed PostingList.
+	 */
+	public static final int BLOCK_SIZE = 128;
+
+	/**
+	 * The number of values.
+	 */
+	protected int size;
+
+	/**
+	 * The values in ascending order (null if this PostingList is compressed).
+	 */
+	protected long[] values;
+
+	/**
+	 * The blocks of values in ascending order (null unless this PostingList is compressed).
+	 */
+	protected PackedLongs[] blocks;
+
+	/**
+	 * The first value of each block.
+	 */
+	protected long[] firsts;
+
+	/**
+	 * The number of blocks.
+	 */
+	protected int numberOfBlocks;
+
+	/**
+	 * Constructs an empty PostingList.
+	 */
+	public PostingList() {
+		values = new long[2];
+	}
+
+	/**
+	 * Constructs a PostingList that has the same values as the specified PostingList.
+	 *
+	 * @param list
+	 *            the PostingList to copy.
+	 */
+	public PostingList(PostingList list) {
+		size = list.size;
+		if (list.values != null) {
+			values = list.values.clone();
+		} else {
+			long[] all = list.toArray();
+			compress(all, size);
+		}
+	}
+
+	/**
+	 * Returns the number of values.
+	 *
+	 * @return the number of values.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Determines whether or not the values are compressed.
+	 *
+	 * @return true if the values are compressed; false otherwise.
+	 */
+	public boolean isCompressed() {
+		return blocks != null;
+	}
+
+	/**
+	 * Determines whether or not this PostingList contains the specified value.
+	 *
+	 * @param value
+	 *            the value.
+	 * @return true if this PostingList contains the specified value; false otherwise.
+	 */
+	public boolean contains(long value) {
+		if (blocks == null)
+			return java.util.Arrays.binarySearch(values, 0, size, value) >= 0;
+		PackedLongs block = blocks[block(value)];
+		int pos = block.lowerBound(value);
+		return pos < block.size() && block.get(pos) == value;
+	}
+
+	/**
+	 * Adds the specified value to this PostingList.
+	 *
+	 * @param value
+	 *            the value.
+	 * @return true if the value has been added; false if this PostingList already contains the value.
+	 */
+	public boolean add(long value) {
+		if (blocks == null) {
+			int pos = java.util.Arrays.binarySearch(values, 0, size, value);
+			if (pos >= 0)
+				return false;
+			pos = -pos - 1;
+			if (size == values.length)
+				values = java.util.Arrays.copyOf(values, size * 2);
+			System.arraycopy(values, pos, values, pos + 1, size - pos);
+			values[pos] = value;
+			if (++size > COMPRESSION_THRESHOLD)
+				compress(values, size);
+			return true;
+		}
+		int b = block(value);
+		PackedLongs block = blocks[b];
+		int pos = block.lowerBound(value);
+		if (pos < block.size() && block.get(pos) == value)
+			return false;
+		if (block.size() < BLOCK_SIZE) {
+			block.insert(pos, value);
+		} else if (b == numberOfBlocks - 1 && pos == BLOCK_SIZE) { // an append to a full last block
+			PackedLongs next = new PackedLongs(BLOCK_SIZE);
+			next.insert(0, value);
+			insertBlock(b + 1, next);
+		} else { // split the block in half
+			long[] v = new long[BLOCK_SIZE + 1];
+			block.decode(v, 0);
+			System.arraycopy(v, pos, v, pos + 1, BLOCK_SIZE - pos);
+			v[pos] = value;
+			int half = v.length / 2;
+			block.encode(v, 0, half);
+			PackedLongs next = new PackedLongs(BLOCK_SIZE);
+			next.encode(v, half, v.length - half);
+			insertBlock(b + 1, next);
+		}
+		firsts[b] = block.get(0);
+		size++;
+		return true;
+	}
+
+	/**
+	 * Removes the specified value from this PostingList.
+	 *
+	 * @param value
+	 *            the value.
+	 * @return true if the value has been removed; false if this PostingList does not contain the value.
+	 */
+	public boolean remove(long value) {
+		if (blocks == null) {
+			int pos = java.util.Arrays.binarySearch(values, 0, size, value);
+			if (pos < 0)
+				return false;
+			size--;
+			System.arraycopy(values, pos + 1, values, pos, size - pos);
+			return true;
+		}
+		int b = block(value);
+		PackedLongs block = blocks[b];
+		int pos = block.lowerBound(value);
+		if (pos == block.size() || block.get(pos) != value)
+			return false;
+		block.remove(pos);
+		size--;
+		if (size <= COMPRESSION_THRESHOLD / 2) { // decompress once the list is short again
+			values = toArray();
+			blocks = null;
+			firsts = null;
+			numberOfBlocks = 0;
+		} else if (block.size() == 0) {
+			removeBlock(b);
+		} else {
+			firsts[b] = block.get(0);
+			if (block.size() < BLOCK_SIZE / 4 && b + 1 < numberOfBlocks
+					&& block.size() + blocks[b + 1].size() <= BLOCK_SIZE) { // merge a sparse block into its neighbor
+				long[] v = new long[block.size() + blocks[b + 1].size()];
+				block.decode(v, 0);
+				blocks[b + 1].decode(v, block.size());
+				block.encode(v, 0, v.length);
+				removeBlock(b + 1);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the values of this PostingList in ascending order.
+	 *
+	 * @return a new array that holds the values of this PostingList in ascending order.
+	 */
+	public long[] toArray() {
+		if (blocks == null)
+			return java.util.Arrays.copyOf(values, size);
+		long[] v = new long[size];
+		for (int b = 0, i = 0; b < numberOfBlocks; i += blocks[b++].size())
+			blocks[b].decode(v, i);
+		return v;
+	}
+
+	/**
+	 * Passes the values of this PostingList to the specified consumer in ascending order, without copying them.
+	 *
+	 * @param consumer
+	 *            the consumer.
+	 */
+	public void forEach(java.util.function.LongConsumer consumer) {
+		if (blocks == null) {
+			for (int i = 0; i < size; i++)
+				consumer.accept(values[i]);
+			return;
+		}
+		for (int b = 0; b < numberOfBlocks; b++)
+			for (int i = 0, n = blocks[b].size(); i < n; i++)
+				consumer.accept(blocks[b].get(i));
+	}
+
+	/**
+	 * Returns the approximate number of bytes that the values of this PostingList occupy.
+	 *
+	 * @return the approximate number of bytes that the values of this PostingList occupy.
+	 */
+	public long getSizeInBytes() {
+		if (blocks == null)
+			return (long) values.length * Long.BYTES;
+		long bytes = (long) blocks.length * (Long.BYTES + 8) + (long) firsts.length * Long.BYTES;
+		for (int b = 0; b < numberOfBlocks; b++)
+			bytes += (long) blocks[b].words.length * Long.BYTES + 32;
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		return java.util.Arrays.toString(toArray());
+	}
+
+	/**
+	 * Returns the position of the block that must hold the specified value (the last block whose first value is not
+	 * greater than the value, or the first block).
+	 *
+	 * @param value
+	 *            the value.
+	 * @return the position of the block that must hold the specified value.
+	 */
+	int block(long value) {
+		int from = 1;
+		int to = numberOfBlocks;
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (firsts[mid] <= value)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from - 1;
+	}
+
+	/**
+	 * Compresses the specified values into full blocks.
+	 *
+	 * @param v
+	 *            the values in ascending order.
+	 * @param count
+	 *            the number of values.
+	 */
+	void compress(long[] v, int count) {
+		numberOfBlocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		blocks = new PackedLongs[Math.max(numberOfBlocks, 2)];
+		firsts = new long[blocks.length];
+		for (int b = 0; b < numberOfBlocks; b++) {
+			blocks[b] = new PackedLongs(BLOCK_SIZE);
+			blocks[b].encode(v, b * BLOCK_SIZE, Math.min(BLOCK_SIZE, count - b * BLOCK_SIZE));
+			firsts[b] = v[b * BLOCK_SIZE];
+		}
+		values = null;
+	}
+
+	/**
+	 * Inserts the specified block at the specified position.
+	 *
+	 * @param b
+	 *            the position.
+	 * @param block
+	 *            the block (which is not empty).
+	 */
+	void insertBlock(int b, PackedLongs block) {
+		if (numberOfBlocks == blocks.length) {
+			blocks = java.util.Arrays.copyOf(blocks, numberOfBlocks * 2);
+			firsts = java.util.Arrays.copyOf(firsts, numberOfBlocks * 2);
+		}
+		System.arraycopy(blocks, b, blocks, b + 1, numberOfBlocks - b);
+		System.arraycopy(firsts, b, firsts, b + 1, numberOfBlocks - b);
+		blocks[b] = block;
+		firsts[b] = block.get(0);
+		numberOfBlocks++;
+	}
+
+	/**
+	 * Removes the block at the specified position.
+	 *
+	 * @param b
+	 *            the position.
+	 */
+	void removeBlock(int b) {
+		numberOfBlocks--;
+		System.arraycopy(blocks, b + 1, blocks, b, numberOfBlocks - b);
+		System.arraycopy(firsts, b + 1, firsts, b, numberOfBlocks - b);
+		blocks[numberOfBlocks] = null;
+	}
+
+}
@@ -0,0 +1,787 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The WriteAheadLog class implements an append-only log of updates (such as insertions and deletions) in a file. Each
+ * update is appended as a compact binary record once it has been applied (and before it is reported as done), and
+ * the log can be replayed after a crash to redo the updates. Each record consists of the length of its payload, a
+ * CRC-32 checksum of the payload and the payload itself (the type of the update followed by a key and a value in a
+ * tagged binary encoding), so a record torn by a crash is detected and discarded when the log is opened. Records are
+ * identified by log sequence numbers (LSNs): the LSN of a record is the position right after the record in the
+ * sequence of all the bytes ever logged.
+ *
+ * Records are buffered in memory and forced to the storage device according to a SyncPolicy. Forcing uses group
+ * commit: while one thread writes and forces the buffered records, the threads that want their records to become
+ * durable as well wait, and the next force covers all of their records at once. A WriteAheadLog is thread-safe. A
+ * thread that is interrupted while it writes or forces records does not close the file for the other threads: the
+ * file is reopened and the I/O is repeated. Once a force fails, the records may have been lost by the storage device
+ * (even if a later force succeeds), so every later commit and sync throws an IOException.
+ */
+public class WriteAheadLog implements java.io.Closeable {
+
+	/**
+	 * The SyncPolicy enumeration lists the ways in which a WriteAheadLog decides when to force its records.
+	 */
+	public enum SyncPolicy {
+
+		/**
+		 * Each committed record is durable when commit returns (concurrent commits share a force).
+		 */
+		PER_OPERATION,
+
+		/**
+		 * Records are forced once a batch of them has been committed; a crash loses at most one batch.
+		 */
+		PER_BATCH,
+
+		/**
+		 * Records are forced periodically by a background thread; a crash loses at most one interval of records.
+		 */
+		TIMED
+
+	}
+
+	/**
+	 * The Handler interface is implemented by the objects that receive the records of a WriteAheadLog during replay.
+	 */
+	public interface Handler {
+
+		/**
+		 * Handles a record.
+		 *
+		 * @param lsn
+		 *            the LSN of the record.
+		 * @param type
+		 *            the type of the update.
+		 * @param key
+		 *            the key of the update.
+		 * @param value
+		 *            the value of the update.
+		 */
+		void handle(long lsn, byte type, Object key, Object value);
+
+	}
+
+	/**
+	 * An Operation is an I/O operation on the file of a WriteAheadLog that can be repeated from the start.
+	 */
+	interface Operation {
+
+		/**
+		 * Runs this Operation.
+		 *
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		void run() throws IOException;
+
+	}
+
+	/**
+	 * The number that identifies the files of WriteAheadLogs.
+	 */
+	static final int MAGIC = 0x57414c31;
+
+	/**
+	 * The size of the file header (the magic number followed by the LSN of the first byte after the header).
+	 */
+	static final int HEADER_SIZE = 12;
+
+	/**
+	 * The size of the length and the checksum that precede the payload of each record.
+	 */
+	static final int RECORD_HEADER_SIZE = 8;
+
+	/**
+	 * The tags of the encoded objects.
+	 */
+	static final byte NULL = 0, INTEGER = 1, LONG = 2, STRING = 3, BYTES = 4;
+
+	/**
+	 * The file of this WriteAheadLog.
+	 */
+	protected java.nio.file.Path file;
+
+	/**
+	 * The file channel of this WriteAheadLog.
+	 */
+	protected FileChannel channel;
+
+	/**
+	 * The SyncPolicy of this WriteAheadLog.
+	 */
+	protected SyncPolicy policy;
+
+	/**
+	 * The number of records after which PER_BATCH forces the records.
+	 */
+	protected int batchSize;
+
+	/**
+	 * The LSN of the first byte after the file header.
+	 */
+	protected long baseLsn;
+
+	/**
+	 * The LSN of the latest record.
+	 */
+	protected long appendedLsn;
+
+	/**
+	 * The LSN up to which the records are durable.
+	 */
+	protected long durableLsn;
+
+	/**
+	 * The number of records appended since the records were last forced.
+	 */
+	protected int pendingRecords;
+
+	/**
+	 * The records that have been appended but not written yet.
+	 */
+	protected ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+	/**
+	 * The buffer that is swapped with buffer when the records are written.
+	 */
+	protected ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+
+	/**
+	 * A flag indicating whether or not a thread is writing and forcing records.
+	 */
+	protected boolean forcing;
+
+	/**
+	 * The number of forces so far.
+	 */
+	protected long forces;
+
+	/**
+	 * The thread that forces the records periodically (null unless the SyncPolicy is TIMED).
+	 */
+	protected Thread syncer;
+
+	/**
+	 * A flag indicating whether or not this WriteAheadLog has been closed.
+	 */
+	protected volatile boolean closed;
+
+	/**
+	 * The error that made a force fail (null if no force has failed).
+	 */
+	protected IOException failure;
+
+	/**
+	 * The checksum calculator.
+	 */
+	protected final java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+
+	/**
+	 * Opens the WriteAheadLog stored in the specified file (or creates one if the file is empty or does not exist)
+	 * with the PER_OPERATION policy.
+	 *
+	 * @param file
+	 *            the file.
+	 * @throws IOException
+	 *             if an I/O error occurs or the file does not hold a WriteAheadLog.
+	 */
+	public WriteAheadLog(java.nio.file.Path file) throws IOException {
+		this(file, SyncPolicy.PER_OPERATION, 1, 0);
+	}
+
+	/**
+	 * Opens the WriteAheadLog stored in the specified file (or creates one if the file is empty or does not exist).
+	 * A record torn by a crash at the end of the file is discarded.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param policy
+	 *            the SyncPolicy.
+	 * @param batchSize
+	 *            the number of records after which PER_BATCH forces the records.
+	 * @param intervalMillis
+	 *            the number of milliseconds between the forces of TIMED.
+	 * @throws IOException
+	 *             if an I/O error occurs or the file does not hold a WriteAheadLog.
+	 */
+	public WriteAheadLog(java.nio.file.Path file, SyncPolicy policy, int batchSize, final long intervalMillis)
+			throws IOException {
+		if (batchSize < 1 || policy == SyncPolicy.TIMED && intervalMillis < 1)
+			throw new IllegalArgumentException("the batch size and the interval must be positive");
+		this.policy = policy;
+		this.batchSize = batchSize;
+		this.file = file;
+		channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		try {
+			if (channel.size() == 0)
+				reset(0);
+			else
+				recover();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		if (policy == SyncPolicy.TIMED) {
+			syncer = new Thread("WriteAheadLog syncer") {
+
+				@Override
+				public void run() {
+					while (!closed) {
+						// parking (rather than sleeping) lets close wake this thread without an interrupt, which
+						// would close the channel if it arrived during a write
+						java.util.concurrent.locks.LockSupport.parkNanos(intervalMillis * 1000000L);
+						if (closed)
+							return;
+						try {
+							sync();
+						} catch (IOException e) {
+							synchronized (WriteAheadLog.this) { // reported by the next commit, sync or close
+								if (failure == null)
+									failure = e;
+							}
+						}
+					}
+				}
+
+			};
+			syncer.setDaemon(true);
+			syncer.start();
+		}
+	}
+
+	/**
+	 * Returns the file of this WriteAheadLog.
+	 *
+	 * @return the file of this WriteAheadLog.
+	 */
+	public java.nio.file.Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the LSN of the first record that is still in this WriteAheadLog.
+	 *
+	 * @return the LSN of the first byte after the file header.
+	 */
+	public synchronized long getBaseLsn() {
+		return baseLsn;
+	}
+
+	/**
+	 * Returns the LSN of the latest record.
+	 *
+	 * @return the LSN of the latest record.
+	 */
+	public synchronized long getAppendedLsn() {
+		return appendedLsn;
+	}
+
+	/**
+	 * Returns the LSN up to which the records are durable.
+	 *
+	 * @return the LSN up to which the records are durable.
+	 */
+	public synchronized long getDurableLsn() {
+		return durableLsn;
+	}
+
+	/**
+	 * Returns the number of times that the records have been forced.
+	 *
+	 * @return the number of times that the records have been forced.
+	 */
+	public synchronized long getForceCount() {
+		return forces;
+	}
+
+	/**
+	 * Appends a record to this WriteAheadLog. The record is not necessarily durable until commit returns.
+	 *
+	 * @param type
+	 *            the type of the update.
+	 * @param key
+	 *            the key of the update (null, an Integer, a Long, a String or a byte[]).
+	 * @param value
+	 *            the value of the update (null, an Integer, a Long, a String or a byte[]).
+	 * @return the LSN of the record.
+	 * @throws IllegalArgumentException
+	 *             if the key or the value cannot be encoded.
+	 */
+	public synchronized long append(byte type, Object key, Object value) {
+		int start = buffer.position();
+		ensureCapacity(RECORD_HEADER_SIZE + 1 + encodedSize(key) + encodedSize(value));
+		buffer.position(start + RECORD_HEADER_SIZE);
+		buffer.put(type);
+		encode(key, buffer);
+		encode(value, buffer);
+		int length = buffer.position() - start - RECORD_HEADER_SIZE;
+		crc.reset();
+		crc.update(buffer.array(), start + RECORD_HEADER_SIZE, length);
+		buffer.putInt(start, length);
+		buffer.putInt(start + 4, (int) crc.getValue());
+		appendedLsn += RECORD_HEADER_SIZE + length;
+		pendingRecords++;
+		return appendedLsn;
+	}
+
+	/**
+	 * Commits the record with the specified LSN (and all the records before it) according to the SyncPolicy: with
+	 * PER_OPERATION, waits until the record is durable; with PER_BATCH, forces the records once a batch of them is
+	 * pending; with TIMED, returns immediately.
+	 *
+	 * @param lsn
+	 *            the LSN of the record.
+	 * @throws IOException
+	 *             if an I/O error occurs or an earlier force has failed.
+	 */
+	public void commit(long lsn) throws IOException {
+		if (policy == SyncPolicy.PER_OPERATION) {
+			sync(lsn);
+		} else {
+			boolean full;
+			synchronized (this) {
+				checkFailure();
+				full = policy == SyncPolicy.PER_BATCH && pendingRecords >= batchSize;
+			}
+			if (full)
+				sync(lsn);
+		}
+	}
+
+	/**
+	 * Makes every appended record durable.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs or an earlier force has failed.
+	 */
+	public void sync() throws IOException {
+		sync(getAppendedLsn());
+	}
+
+	/**
+	 * Makes the records up to the specified LSN durable. If another thread is forcing records, this method waits for
+	 * it and then forces, in one go, every record appended in the meantime (group commit).
+	 *
+	 * @param lsn
+	 *            the LSN.
+	 * @throws IOException
+	 *             if an I/O error occurs or an earlier force has failed.
+	 */
+	public void sync(long lsn) throws IOException {
+		final ByteBuffer records;
+		final long position;
+		long target;
+		synchronized (this) {
+			checkFailure();
+			if (durableLsn >= lsn)
+				return;
+			waitForForce();
+			checkFailure();
+			if (durableLsn >= lsn)
+				return;
+			forcing = true; // this thread forces every record appended so far
+			records = buffer;
+			buffer = spare;
+			spare = null;
+			position = HEADER_SIZE + durableLsn - baseLsn;
+			target = appendedLsn;
+			pendingRecords = 0;
+		}
+		boolean forced = false;
+		try {
+			records.flip();
+			runUninterruptibly(new Operation() {
+
+				@Override
+				public void run() throws IOException {
+					records.rewind(); // an interrupted attempt is repeated from the start
+					for (long p = position; records.hasRemaining();)
+						p += channel.write(records, p);
+					channel.force(false);
+				}
+
+			});
+			forced = true;
+		} catch (IOException e) {
+			synchronized (this) { // the records may be lost even if they are written again, so fail from now on
+				if (failure == null)
+					failure = e;
+			}
+			throw e;
+		} finally {
+			synchronized (this) {
+				if (forced) {
+					records.clear();
+					durableLsn = target;
+					forces++;
+					spare = records;
+				} else { // keep the records in front of those appended in the meantime so that they are written again
+					ByteBuffer kept = records;
+					buffer.flip();
+					kept.position(kept.limit());
+					kept.limit(kept.capacity());
+					if (kept.remaining() < buffer.remaining()) {
+						ByteBuffer b = ByteBuffer.allocate(kept.position() + buffer.remaining());
+						kept.flip();
+						kept = b.put(kept);
+					}
+					kept.put(buffer);
+					buffer.clear();
+					spare = buffer;
+					buffer = kept;
+				}
+				forcing = false;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Replays the durable records whose LSNs are greater than the specified LSN.
+	 *
+	 * @param fromLsn
+	 *            the LSN after which records are replayed (at least getBaseLsn()).
+	 * @param handler
+	 *            the Handler that receives the records.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws IllegalArgumentException
+	 *             if the LSN precedes the records in this WriteAheadLog.
+	 */
+	public void replay(long fromLsn, Handler handler) throws IOException {
+		long base, end;
+		synchronized (this) {
+			base = baseLsn;
+			end = durableLsn;
+		}
+		if (fromLsn < base)
+			throw new IllegalArgumentException("LSN " + fromLsn + " precedes the log (which starts at " + base + ")");
+		scan(HEADER_SIZE, HEADER_SIZE + end - base, base, fromLsn, handler);
+	}
+
+	/**
+	 * Discards every record and makes the specified LSN the LSN of the next byte to log (for example, after the state
+	 * up to that LSN has been saved elsewhere).
+	 *
+	 * @param lsn
+	 *            the LSN at which this WriteAheadLog starts again.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void reset(final long lsn) throws IOException {
+		waitForForce();
+		runUninterruptibly(new Operation() {
+
+			@Override
+			public void run() throws IOException {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putLong(lsn).flip();
+				channel.truncate(0);
+				while (header.hasRemaining())
+					channel.write(header, header.position());
+				channel.force(true);
+			}
+
+		});
+		buffer.clear();
+		baseLsn = appendedLsn = durableLsn = lsn;
+		pendingRecords = 0;
+	}
+
+	/**
+	 * Discards the records up to the specified LSN (for example, after the state up to that LSN has been saved
+	 * elsewhere). The remaining records are copied to a new file that then atomically replaces the file of this
+	 * WriteAheadLog, so a crash leaves either the old or the new file. Appending waits until the copy is complete.
+	 *
+	 * @param lsn
+	 *            the LSN of a record in this WriteAheadLog (or getBaseLsn()).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws IllegalArgumentException
+	 *             if the LSN is not in this WriteAheadLog.
+	 */
+	public void truncate(final long lsn) throws IOException {
+		sync(lsn);
+		synchronized (this) {
+			waitForForce();
+			if (lsn < baseLsn || lsn > durableLsn)
+				throw new IllegalArgumentException("LSN " + lsn + " is not in [" + baseLsn + ", " + durableLsn + "]");
+			if (lsn == baseLsn)
+				return;
+			final java.nio.file.Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			runUninterruptibly(new Operation() {
+
+				@Override
+				public void run() throws IOException {
+					try (FileChannel c = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING)) {
+						ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+						header.putInt(MAGIC).putLong(lsn).flip();
+						while (header.hasRemaining())
+							c.write(header);
+						long position = HEADER_SIZE + lsn - baseLsn, end = HEADER_SIZE + durableLsn - baseLsn;
+						while (position < end)
+							position += channel.transferTo(position, end - position, c);
+						c.force(true);
+					}
+				}
+
+			});
+			java.nio.file.Files.move(temp, file, java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+					java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+			channel.close();
+			channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			baseLsn = lsn;
+		}
+	}
+
+	/**
+	 * Forces every appended record and closes this WriteAheadLog.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		if (syncer != null) {
+			java.util.concurrent.locks.LockSupport.unpark(syncer);
+			try {
+				syncer.join(); // the syncer must not be writing when the channel is closed
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			sync();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Runs the specified Operation and repeats it if the calling thread is interrupted during the I/O. An interrupt
+	 * during I/O on a FileChannel closes the channel (for every thread that uses it), so the channel is reopened and
+	 * the Operation is repeated with the interrupt status cleared; the interrupt status is restored afterwards.
+	 *
+	 * @param operation
+	 *            the Operation.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	void runUninterruptibly(Operation operation) throws IOException {
+		boolean interrupted = false;
+		try {
+			for (;;) {
+				try {
+					operation.run();
+					return;
+				} catch (java.nio.channels.ClosedByInterruptException e) {
+					interrupted = true;
+					Thread.interrupted();
+					synchronized (this) {
+						if (!channel.isOpen())
+							channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+					}
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Throws an IOException if a force has failed. The calling thread must hold the monitor of this WriteAheadLog.
+	 *
+	 * @throws IOException
+	 *             if a force has failed.
+	 */
+	void checkFailure() throws IOException {
+		if (failure != null)
+			throw new IOException("an earlier force of the log failed", failure);
+	}
+
+	/**
+	 * Waits until no thread is writing and forcing records. The calling thread must hold the monitor of this
+	 * WriteAheadLog.
+	 *
+	 * @throws java.io.InterruptedIOException
+	 *             if the calling thread is interrupted while waiting.
+	 */
+	void waitForForce() throws java.io.InterruptedIOException {
+		while (forcing) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new java.io.InterruptedIOException("interrupted while waiting for a force");
+			}
+		}
+	}
+
+	/**
+	 * Reads the file header and finds the end of the valid records, discarding a torn record at the end.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs or the file does not hold a WriteAheadLog.
+	 */
+	void recover() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining())
+			if (channel.read(header, header.position()) < 0)
+				throw new IOException("the file does not hold a write-ahead log");
+		if (header.getInt(0) != MAGIC)
+			throw new IOException("the file does not hold a write-ahead log");
+		baseLsn = header.getLong(4);
+		long end = scan(HEADER_SIZE, channel.size(), baseLsn, Long.MAX_VALUE, null);
+		if (end < channel.size())
+			channel.truncate(end);
+		appendedLsn = durableLsn = baseLsn + end - HEADER_SIZE;
+	}
+
+	/**
+	 * Reads the valid records in the specified range of the file.
+	 *
+	 * @param from
+	 *            the file position of the first record.
+	 * @param to
+	 *            the file position after which no record is read.
+	 * @param base
+	 *            the LSN of the first byte after the file header.
+	 * @param fromLsn
+	 *            the LSN after which records are passed to the handler.
+	 * @param handler
+	 *            the Handler that receives the records (null if the records are only validated).
+	 * @return the file position right after the last valid record.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	long scan(long from, long to, long base, long fromLsn, Handler handler) throws IOException {
+		java.io.DataInputStream in = new java.io.DataInputStream(new java.io.BufferedInputStream(
+				java.nio.channels.Channels.newInputStream(channel.position(from)), 64 * 1024));
+		java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+		byte[] payload = new byte[256];
+		long position = from;
+		while (position + RECORD_HEADER_SIZE <= to) {
+			int length = in.readInt();
+			int checksum = in.readInt();
+			if (length <= 0 || position + RECORD_HEADER_SIZE + length > to)
+				break; // a torn record
+			if (length > payload.length)
+				payload = new byte[Math.max(length, payload.length * 2)];
+			in.readFully(payload, 0, length);
+			crc.reset();
+			crc.update(payload, 0, length);
+			if ((int) crc.getValue() != checksum)
+				break; // a torn record
+			position += RECORD_HEADER_SIZE + length;
+			long lsn = base + position - HEADER_SIZE;
+			if (handler != null && lsn > fromLsn) {
+				ByteBuffer record = ByteBuffer.wrap(payload, 0, length);
+				byte type = record.get();
+				Object key = decode(record);
+				Object value = decode(record);
+				handler.handle(lsn, type, key, value);
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Makes sure that the buffer has room for the specified number of bytes.
+	 *
+	 * @param bytes
+	 *            the number of bytes.
+	 */
+	void ensureCapacity(int bytes) {
+		if (buffer.remaining() < bytes) {
+			ByteBuffer b = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+			buffer.flip();
+			b.put(buffer);
+			buffer = b;
+		}
+	}
+
+	/**
+	 * Returns an upper bound on the number of bytes that the specified object occupies when it is encoded.
+	 *
+	 * @param o
+	 *            the object (null, an Integer, a Long, a String or a byte[]).
+	 * @return an upper bound on the number of bytes that the object occupies when it is encoded.
+	 * @throws IllegalArgumentException
+	 *             if the object cannot be encoded.
+	 */
+	public static int encodedSize(Object o) {
+		if (o == null)
+			return 1;
+		if (o instanceof Integer)
+			return 1 + Integer.BYTES;
+		if (o instanceof Long)
+			return 1 + Long.BYTES;
+		if (o instanceof String)
+			return 1 + Integer.BYTES + 3 * ((String) o).length(); // at most 3 bytes per char in UTF-8
+		if (o instanceof byte[])
+			return 1 + Integer.BYTES + ((byte[]) o).length;
+		throw new IllegalArgumentException("cannot log " + o.getClass().getName() + " objects");
+	}
+
+	/**
+	 * Writes the specified object to the specified buffer in the tagged binary encoding.
+	 *
+	 * @param o
+	 *            the object (null, an Integer, a Long, a String or a byte[]).
+	 * @param buffer
+	 *            the buffer to write to (with at least encodedSize(o) bytes remaining).
+	 */
+	public static void encode(Object o, ByteBuffer buffer) {
+		if (o == null) {
+			buffer.put(NULL);
+		} else if (o instanceof Integer) {
+			buffer.put(INTEGER).putInt((Integer) o);
+		} else if (o instanceof Long) {
+			buffer.put(LONG).putLong((Long) o);
+		} else if (o instanceof String) {
+			byte[] bytes = ((String) o).getBytes(StandardCharsets.UTF_8);
+			buffer.put(STRING).putInt(bytes.length).put(bytes);
+		} else {
+			byte[] bytes = (byte[]) o;
+			buffer.put(BYTES).putInt(bytes.length).put(bytes);
+		}
+	}
+
+	/**
+	 * Reads an object in the tagged binary encoding.
+	 *
+	 * @param record
+	 *            the buffer to read from.
+	 * @return the object.
+	 * @throws IllegalStateException
+	 *             if the tag is unknown.
+	 */
+	public static Object decode(ByteBuffer record) {
+		byte tag = record.get();
+		switch (tag) {
+		case NULL:
+			return null;
+		case INTEGER:
+			return record.getInt();
+		case LONG:
+			return record.getLong();
+		case STRING:
+		case BYTES:
+			byte[] bytes = new byte[record.getInt()];
+			record.get(bytes);
+			return tag == STRING ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+		default:
+			throw new IllegalStateException("unknown tag " + tag);
+		}
+	}
+
+}
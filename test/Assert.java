@@ -0,0 +1,73 @@
+/**
+ * The Assert class provides the checks used by the tests in this directory. Each test is a class with a main method
+ * that throws an AssertionError at the first failed check.
+ */
+public class Assert {
+
+	/**
+	 * Makes sure that the specified condition holds.
+	 *
+	 * @param condition
+	 *            the condition.
+	 * @param message
+	 *            the message of the AssertionError thrown if the condition does not hold.
+	 * @throws AssertionError
+	 *             if the condition does not hold.
+	 */
+	public static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	/**
+	 * Makes sure that the specified objects are equal.
+	 *
+	 * @param expected
+	 *            the expected object.
+	 * @param actual
+	 *            the actual object.
+	 * @param message
+	 *            the message of the AssertionError thrown if the objects are not equal.
+	 * @throws AssertionError
+	 *             if the objects are not equal.
+	 */
+	public static void equal(Object expected, Object actual, String message) {
+		if (!java.util.Objects.equals(expected, actual))
+			throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+	}
+
+	/**
+	 * Makes sure that the specified operation throws an exception of the specified class.
+	 *
+	 * @param type
+	 *            the class of the expected exception.
+	 * @param operation
+	 *            the operation.
+	 * @throws AssertionError
+	 *             if the operation throws no exception or an exception of another class.
+	 */
+	public static void expect(Class<? extends Throwable> type, Runnable operation) {
+		try {
+			operation.run();
+		} catch (Throwable e) {
+			check(type.isInstance(e), "expected " + type.getName() + " but was " + e);
+			return;
+		}
+		check(false, "expected " + type.getName());
+	}
+
+	/**
+	 * Returns the entries of the specified tree in ascending key order.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @return a map from the keys of the tree to their values in ascending key order.
+	 */
+	public static java.util.TreeMap<Object, Object> entries(BPlusTree tree) {
+		java.util.TreeMap<Object, Object> entries = new java.util.TreeMap<Object, Object>();
+		for (BPlusTree.Cursor c = tree.scan(null, true, null, true); c.next();)
+			entries.put(c.getKey(), c.getValue());
+		return entries;
+	}
+
+}
@@ -0,0 +1,858 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the search strategies, the splits and the split policies, the insertions into the cached leaf node, the batch
+ * updates, the range scans, the snapshots, the copies, the compaction and the range deletions of BPlusTree.
+ */
+public class BPlusTreeTest {
+
+	public static void main(String[] args) throws InterruptedException {
+		for (int fanout : new int[] { 3, 4, 5, 8 }) {
+			duplicatesAcrossSplits(fanout);
+			randomDuplicates(fanout);
+		}
+		searchStrategies();
+		splitAllocation();
+		snapshotReclamation();
+		copyOfSharedTree();
+		snapshotClass();
+		for (int fanout : new int[] { 4, 8 }) {
+			compaction(fanout);
+			compactionWithUpdates(fanout);
+		}
+		for (int fanout : new int[] { 3, 4, 5, 8 }) {
+			deleteRangeBounds(fanout);
+			randomDeleteRanges(fanout);
+		}
+		splitPolicyFill();
+		cachedLeafInvalidation();
+		cachedLeafSnapshot();
+		for (int fanout : new int[] { 3, 4, 8 })
+			batchUpdates(fanout);
+		System.out.println("BPlusTreeTest passed");
+	}
+
+	/**
+	 * Inserts enough duplicates of a key to span several leaf nodes and makes sure that every range scan returns all
+	 * of them.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void duplicatesAcrossSplits(int fanout) {
+		BPlusTree tree = new BPlusTree(fanout);
+		List<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i <= 10; i++) {
+			tree.insert(i, "k" + i);
+			keys.add(i);
+		}
+		for (int i = 0; i < 11; i++) {
+			tree.insert(5, "d" + i);
+			keys.add(5);
+		}
+		Collections.sort(keys);
+		checkScans(tree, keys, 0, 10, "fanout " + fanout);
+		Assert.equal(12, count(tree.scan(5, true, 5, true)), "duplicates of 5 with fanout " + fanout);
+	}
+
+	/**
+	 * Inserts random keys with many duplicates in random order and compares every range scan with a sorted list.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void randomDuplicates(int fanout) {
+		Random random = new Random(fanout);
+		BPlusTree tree = new BPlusTree(fanout);
+		List<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i < 500; i++) {
+			int key = random.nextInt(20);
+			tree.insert(key, i);
+			keys.add(key);
+		}
+		Collections.sort(keys);
+		checkScans(tree, keys, -1, 20, "random keys with fanout " + fanout);
+	}
+
+	/**
+	 * Makes sure that the strategies are chosen according to the fanout and the keys, and that every strategy finds
+	 * every key (and no other key) for uniformly distributed and skewed keys.
+	 */
+	static void searchStrategies() {
+		Assert.equal(BPlusTree.SearchStrategy.LINEAR, BPlusTree.SearchStrategy.forFanout(64), "strategy for fanout 64");
+		Assert.equal(BPlusTree.SearchStrategy.BINARY, BPlusTree.SearchStrategy.forFanout(128), "strategy for fanout 128");
+		Assert.equal(BPlusTree.SearchStrategy.LINEAR, BPlusTree.SearchStrategy.forKeys(16, true),
+				"strategy for uniform integers and fanout 16");
+		Assert.equal(BPlusTree.SearchStrategy.INTERPOLATION, BPlusTree.SearchStrategy.forKeys(32, true),
+				"strategy for uniform integers and fanout 32");
+		for (BPlusTree.SearchStrategy strategy : BPlusTree.SearchStrategy.values())
+			for (int fanout : new int[] { 3, 32, 256 })
+				for (boolean skewed : new boolean[] { false, true }) {
+					List<Integer> keys = new ArrayList<Integer>();
+					for (int i = 0; i < 3000; i++)
+						keys.add(skewed ? 2 * i * i : 2 * i); // even keys, so key + 1 is never in the tree
+					Collections.shuffle(keys, new Random(fanout));
+					BPlusTree tree = new BPlusTree(fanout, strategy);
+					for (int key : keys)
+						tree.insert(key, key);
+					String message = strategy + " with fanout " + fanout + (skewed ? " and skewed keys" : "");
+					for (int key : keys) {
+						Assert.equal(key, tree.get(key), message);
+						Assert.equal(null, tree.get(key + 1), message);
+					}
+				}
+	}
+
+	/**
+	 * Makes sure that splitting nodes allocates nothing but the new nodes (in particular, no temporary node).
+	 */
+	static void splitAllocation() {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+				.getThreadMXBean();
+		Random random = new Random(0);
+		Integer[] keys = new Integer[200000];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = random.nextInt();
+		BPlusTree tree = new BPlusTree(64);
+		BPlusTree.Node[] nodes = new BPlusTree.Node[1000];
+		long before = bean.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = tree.new Node(64);
+		long nodeSize = (bean.getCurrentThreadAllocatedBytes() - before) / nodes.length;
+		before = bean.getCurrentThreadAllocatedBytes();
+		for (Integer key : keys)
+			tree.insert(key, key);
+		long allocated = bean.getCurrentThreadAllocatedBytes() - before;
+		int created = count(tree.root);
+		Assert.check(allocated < created * nodeSize * 5 / 4, allocated + " bytes allocated for " + created
+				+ " nodes of " + nodeSize + " bytes");
+	}
+
+	/**
+	 * Returns the number of nodes in the subtree rooted at the specified node.
+	 *
+	 * @param n
+	 *            the root of the subtree.
+	 * @return the number of nodes in the subtree rooted at the specified node.
+	 */
+	static int count(BPlusTree.Node n) {
+		int count = 1;
+		if (!n.isLeafNode())
+			for (int i = 0; i <= n.numberOfKeys; i++)
+				count += count((BPlusTree.Node) n.pointers[i]);
+		return count;
+	}
+
+	/**
+	 * Makes sure that, once a snapshot has been dropped, the leaf nodes that only the snapshot used are reclaimed by
+	 * the garbage collector and the tree (also a MultiValueBPlusTree, which overrides insert) no longer treats its nodes
+	 * as shared.
+	 */
+	static void snapshotReclamation() throws InterruptedException {
+		BPlusTree tree = new BPlusTree(4);
+		for (int i = 0; i < 1000; i++)
+			tree.insert(i, "v" + i);
+		BPlusTree snapshot = tree.snapshot();
+		java.lang.ref.WeakReference<Object> oldLeaf = new java.lang.ref.WeakReference<Object>(tree.find(500));
+		tree.put(500, "w500"); // copies the leaf node (but not the leaf node before it, which still links to the old one)
+		Assert.equal("v500", snapshot.get(500), "value in the snapshot");
+		Assert.check(tree.shared, "the tree shares nodes with the snapshot");
+		java.lang.ref.WeakReference<Object> dropped = new java.lang.ref.WeakReference<Object>(snapshot);
+		snapshot = null;
+		collect(dropped);
+		Assert.check(dropped.get() == null, "the snapshot was not reclaimed");
+		tree.insert(1000, "v1000");
+		Assert.check(!tree.shared, "the tree still shares nodes after the snapshot was reclaimed");
+		collect(oldLeaf);
+		Assert.check(oldLeaf.get() == null, "the old leaf node was not reclaimed");
+		Assert.equal(1001, count(tree.scan(null, true, null, true)), "entries");
+		Assert.equal("w500", tree.get(500), "value in the tree");
+		MultiValueBPlusTree multi = new MultiValueBPlusTree(4);
+		for (int i = 0; i < 100; i++)
+			multi.insert(i % 10, i);
+		dropped = new java.lang.ref.WeakReference<Object>(multi.snapshot());
+		collect(dropped);
+		Assert.check(dropped.get() == null, "the snapshot of a MultiValueBPlusTree was not reclaimed");
+		multi.insert(0, 100);
+		Assert.check(!multi.shared, "a MultiValueBPlusTree still shares nodes after its snapshot was reclaimed");
+	}
+
+	/**
+	 * Makes sure that a copy of a tree that shares nodes with a snapshot holds the entries of the tree (rather than
+	 * those reachable through stale links) and that its leaf nodes are linked.
+	 */
+	static void copyOfSharedTree() {
+		BPlusTree tree = new BPlusTree(4);
+		List<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i < 200; i++) {
+			tree.insert(i, i);
+			keys.add(i);
+		}
+		BPlusTree snapshot = tree.snapshot();
+		for (int i = 0; i < 200; i += 3) {
+			tree.delete(i, null);
+			keys.remove(Integer.valueOf(i));
+		}
+		BPlusTree copy = new BPlusTree(tree);
+		Assert.check(!copy.shared, "the copy shares nodes");
+		Assert.equal(keys, keys(copy.scan(null, true, null, true)), "entries of the copy");
+		Assert.equal(200, count(snapshot.scan(null, true, null, true)), "entries of the snapshot");
+	}
+
+	/**
+	 * Makes sure that a snapshot has the class and the settings of its tree, and that the snapshot of a
+	 * FilteredBPlusTree has its own copy of the BloomFilter and the counters.
+	 */
+	static void snapshotClass() {
+		BPlusTree tree = new BPlusTree(8, BPlusTree.SearchStrategy.BINARY);
+		tree.setSplitPolicy(BPlusTree.SplitPolicy.ADAPTIVE);
+		BPlusTree snapshot = tree.snapshot();
+		Assert.equal(BPlusTree.class, snapshot.getClass(), "class of a snapshot");
+		Assert.equal(BPlusTree.SearchStrategy.BINARY, snapshot.searchStrategy, "strategy of a snapshot");
+		Assert.equal(BPlusTree.SplitPolicy.ADAPTIVE, snapshot.getSplitPolicy(), "split policy of a snapshot");
+		FilteredBPlusTree filtered = new FilteredBPlusTree(8);
+		for (int i = 0; i < 100; i++)
+			filtered.insert(i, i);
+		Assert.equal(null, filtered.get(1000), "absent key");
+		FilteredBPlusTree s = filtered.snapshot();
+		Assert.equal(filtered.getSkipCount(), s.getSkipCount(), "skips of a snapshot");
+		Assert.equal(null, s.get(2000), "absent key in the snapshot");
+		Assert.equal(filtered.getSkipCount() + 1, s.getSkipCount(), "skips of a snapshot");
+		s.insert(1000, 1000);
+		Assert.equal(1000, s.get(1000), "key inserted into the snapshot");
+		Assert.check(!filtered.contains(1000), "key inserted into the snapshot is in the tree");
+		filtered.insert(2000, 2000);
+		Assert.check(!s.contains(2000), "key inserted into the tree is in the snapshot");
+	}
+
+	/**
+	 * Compacts a sparse tree a few nodes per step and makes sure that the entries are kept, that the number of nodes
+	 * and the height reported by the Compactor match those of the tree, and that the leaf nodes are packed.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void compaction(int fanout) {
+		Random random = new Random(fanout);
+		BPlusTree tree = sparseTree(fanout, random);
+		java.util.TreeMap<Object, Object> entries = Assert.entries(tree);
+		int nodes = count(tree.root);
+		BPlusTree.Compactor compactor = tree.compactor(1);
+		Assert.equal(tree.height(), compactor.getInitialHeight(), "initial height with fanout " + fanout);
+		while (compactor.step(3))
+			Assert.check(!compactor.isDone(), "done before the last step with fanout " + fanout);
+		Assert.check(compactor.isDone(), "not done with fanout " + fanout);
+		Assert.equal(entries, Assert.entries(tree), "entries after compaction with fanout " + fanout);
+		Assert.equal((long) nodes - count(tree.root), compactor.getReclaimedNodeCount(),
+				"nodes reclaimed with fanout " + fanout);
+		Assert.equal(compactor.getReclaimedNodeCount() * nodeSize(fanout), compactor.getReclaimedBytes(),
+				"bytes reclaimed with fanout " + fanout);
+		Assert.equal(tree.height() - compactor.getInitialHeight(), compactor.getHeightChange(),
+				"height change with fanout " + fanout);
+		Assert.check(compactor.getHeightChange() < 0, "height change " + compactor.getHeightChange() + " with fanout "
+				+ fanout);
+		int leaves = 0;
+		for (BPlusTree.Node n = tree.find(entries.firstKey()); n != null; n = (BPlusTree.Node) n.pointers[fanout - 1])
+			leaves++;
+		int packed = (entries.size() + fanout - 2) / (fanout - 1);
+		Assert.check(leaves <= packed + packed / (fanout - 1) + 1, leaves + " leaf nodes for " + entries.size()
+				+ " entries with fanout " + fanout);
+		Assert.check(!compactor.step(3), "a step after the last with fanout " + fanout);
+	}
+
+	/**
+	 * Compacts a sparse tree a few nodes per step while inserting and deleting random keys (and taking a snapshot)
+	 * between the steps, and makes sure that the entries of the tree and the snapshot are kept, that the Compactor
+	 * reports exactly the nodes that its steps removed, and that the reported change in height follows the tree.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void compactionWithUpdates(int fanout) {
+		Random random = new Random(fanout);
+		BPlusTree tree = sparseTree(fanout, random);
+		java.util.TreeMap<Object, Object> oracle = Assert.entries(tree);
+		int nodes = count(tree.root);
+		BPlusTree.Compactor compactor = tree.compactor(0.9);
+		BPlusTree snapshot = null;
+		java.util.TreeMap<Object, Object> snapshotEntries = null;
+		long removed = 0; // the nodes removed by the steps
+		int steps = 0;
+		for (boolean more = true; more; steps++) {
+			int before = count(tree.root);
+			more = compactor.step(4);
+			removed += before - count(tree.root);
+			Assert.equal(removed, compactor.getReclaimedNodeCount(), "nodes reclaimed after step " + steps
+					+ " with fanout " + fanout);
+			for (int i = 0; i < 2; i++) { // the updates between the steps (as many insertions as deletions)
+				int key = random.nextInt(20000);
+				tree.put(key, -key);
+				oracle.put(key, -key);
+				Object k = oracle.ceilingKey(random.nextInt(20000));
+				if (k != null) {
+					tree.delete(k, null);
+					oracle.remove(k);
+				}
+			}
+			Assert.equal(tree.height() - compactor.getInitialHeight(), compactor.getHeightChange(),
+					"height change after step " + steps + " with fanout " + fanout);
+			if (steps % 20 == 0)
+				Assert.equal(oracle, Assert.entries(tree), "entries after step " + steps + " with fanout " + fanout);
+			if (steps == 30) {
+				snapshot = tree.snapshot();
+				snapshotEntries = Assert.entries(snapshot);
+			}
+			Assert.check(steps < nodes, "compaction does not end with fanout " + fanout);
+		}
+		Assert.check(compactor.isDone(), "not done with fanout " + fanout);
+		Assert.equal(oracle, Assert.entries(tree), "entries after compaction with fanout " + fanout);
+		Assert.equal(snapshotEntries, Assert.entries(snapshot), "entries of the snapshot with fanout " + fanout);
+		Assert.check(removed > 0, "no node reclaimed with fanout " + fanout);
+		Assert.equal(removed * nodeSize(fanout), compactor.getReclaimedBytes(), "bytes reclaimed with fanout " + fanout);
+		Assert.check(compactor.getHeightChange() <= 0, "height change " + compactor.getHeightChange() + " with fanout "
+				+ fanout);
+	}
+
+	/**
+	 * Deletes ranges with open and closed bounds at keys that have enough duplicates to span several leaf nodes, and
+	 * ranges that empty whole leaf nodes, and makes sure that exactly the entries in the range are deleted.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void deleteRangeBounds(int fanout) {
+		for (int bounds = 0; bounds < 4; bounds++) {
+			boolean fromInclusive = (bounds & 1) != 0, toInclusive = (bounds & 2) != 0;
+			String range = (fromInclusive ? "[" : "(") + "10, 20" + (toInclusive ? "]" : ")") + " with fanout " + fanout;
+			List<Integer> keys = new ArrayList<Integer>();
+			BPlusTree tree = treeWithDuplicates(fanout, keys);
+			tree.deleteRange(10, fromInclusive, 20, toInclusive);
+			keys.removeIf(k -> (k > 10 || fromInclusive && k == 10) && (k < 20 || toInclusive && k == 20));
+			Assert.equal(keys, keys(tree.scan(null, true, null, true)), "entries after deleting " + range);
+			Assert.equal(fromInclusive ? 0 : 3 * fanout, count(tree.scan(10, true, 10, true)), "duplicates of 10 after "
+					+ "deleting " + range);
+			Assert.equal(toInclusive ? 0 : 3 * fanout, count(tree.scan(20, true, 20, true)), "duplicates of 20 after "
+					+ "deleting " + range);
+			checkNodes(tree, "after deleting " + range);
+		}
+		List<Integer> keys = new ArrayList<Integer>();
+		BPlusTree tree = treeWithDuplicates(fanout, keys);
+		tree.deleteRange(10, true, 10, true); // the duplicates of a key that span several leaf nodes
+		keys.removeIf(k -> k == 10);
+		Assert.equal(keys, keys(tree.scan(null, true, null, true)), "entries after deleting [10, 10]");
+		checkNodes(tree, "after deleting [10, 10] with fanout " + fanout);
+		tree.deleteRange(20, false, 20, true); // empty ranges
+		tree.deleteRange(20, true, 20, false);
+		tree.deleteRange(30, 20);
+		Assert.equal(keys, keys(tree.scan(null, true, null, true)), "entries after deleting empty ranges");
+		tree.deleteRange(null, 20); // no lower bound
+		keys.removeIf(k -> k < 20);
+		Assert.equal(keys, keys(tree.scan(null, true, null, true)), "entries after deleting (null, 20)");
+		checkNodes(tree, "after deleting (null, 20) with fanout " + fanout);
+		tree.deleteRange(25, false, null, true); // no upper bound
+		keys.removeIf(k -> k > 25);
+		Assert.equal(keys, keys(tree.scan(null, true, null, true)), "entries after deleting (25, null)");
+		checkNodes(tree, "after deleting (25, null) with fanout " + fanout);
+		tree.deleteRange(null, true, null, true);
+		Assert.equal(0, count(tree.scan(null, true, null, true)), "entries after deleting every entry");
+		for (int i = 0; i < 100; i++)
+			tree.insert(i, i);
+		Assert.equal(100, count(tree.scan(null, true, null, true)), "entries inserted into an emptied tree");
+		checkNodes(tree, "after refilling an emptied tree with fanout " + fanout);
+	}
+
+	/**
+	 * Deletes random ranges (many of which span whole leaf nodes and subtrees) from trees with duplicate keys and
+	 * compares the entries and the scans of the trees with sorted lists.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void randomDeleteRanges(int fanout) {
+		Random random = new Random(fanout);
+		for (int round = 0; round < 200; round++) {
+			List<Integer> keys = new ArrayList<Integer>();
+			BPlusTree tree = treeWithDuplicates(fanout, keys);
+			for (int i = 0; i < 3; i++) {
+				Integer from = random.nextInt(10) == 0 ? null : random.nextInt(45) - 2;
+				Integer to = random.nextInt(10) == 0 ? null : (from == null ? 0 : from) + random.nextInt(round % 2 == 0
+						? 5 : 30);
+				boolean fromInclusive = random.nextBoolean(), toInclusive = random.nextBoolean();
+				String range = (fromInclusive ? "[" : "(") + from + ", " + to + (toInclusive ? "]" : ")")
+						+ " with fanout " + fanout + " in round " + round;
+				tree.deleteRange(from, fromInclusive, to, toInclusive);
+				if (from == null || to == null || from < to || from.equals(to) && fromInclusive && toInclusive)
+					keys.removeIf(k -> (from == null || k > from || fromInclusive && k.equals(from))
+							&& (to == null || k < to || toInclusive && k.equals(to)));
+				Assert.equal(keys, keys(tree.scan(null, true, null, true)), "entries after deleting " + range);
+				checkNodes(tree, "after deleting " + range);
+			}
+			checkScans(tree, keys, 0, 40, "fanout " + fanout + " in round " + round);
+		}
+	}
+
+	/**
+	 * Returns a tree with the keys 0 to 40 inserted in random order, where every key that is a multiple of 10 has
+	 * 3 * fanout duplicates (so that its entries span several leaf nodes).
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 * @param keys
+	 *            the list to which the keys of the tree are added in ascending order.
+	 * @return a tree with the keys 0 to 40, where every multiple of 10 has 3 * fanout duplicates.
+	 */
+	static BPlusTree treeWithDuplicates(int fanout, List<Integer> keys) {
+		for (int k = 0; k <= 40; k++)
+			for (int i = 0; i < (k % 10 == 0 ? 3 * fanout : 1); i++)
+				keys.add(k);
+		List<Integer> shuffled = new ArrayList<Integer>(keys);
+		Collections.shuffle(shuffled, new Random(fanout));
+		BPlusTree tree = new BPlusTree(fanout);
+		for (int i = 0; i < shuffled.size(); i++)
+			tree.insert(shuffled.get(i), i);
+		return tree;
+	}
+
+	/**
+	 * Makes sure that every leaf node of the specified tree is at the same depth, that no node but the root is
+	 * underfull, and that the leaf nodes are linked in order.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param message
+	 *            the message of the AssertionError thrown if a node is wrong.
+	 */
+	static void checkNodes(BPlusTree tree, String message) {
+		List<BPlusTree.Node> leaves = new ArrayList<BPlusTree.Node>();
+		checkNodes(tree.root, tree.root, tree.height(), leaves, message);
+		for (int i = 0; i < leaves.size(); i++)
+			Assert.check(leaves.get(i).pointers[tree.fanout - 1] == (i + 1 < leaves.size() ? leaves.get(i + 1) : null),
+					"link of leaf node " + i + " " + message);
+	}
+
+	/**
+	 * Makes sure that every leaf node of the specified subtree is at the specified depth and that no node but the
+	 * root is underfull, and adds the leaf nodes of the subtree to the specified list.
+	 *
+	 * @param n
+	 *            the root of the subtree.
+	 * @param root
+	 *            the root of the tree.
+	 * @param depth
+	 *            the number of levels from n to the leaf nodes (1 if n is a leaf node).
+	 * @param leaves
+	 *            the list of leaf nodes.
+	 * @param message
+	 *            the message of the AssertionError thrown if a node is wrong.
+	 */
+	static void checkNodes(BPlusTree.Node n, BPlusTree.Node root, int depth, List<BPlusTree.Node> leaves,
+			String message) {
+		Assert.check(n == root || !n.isUnderfull(), "underfull node " + message);
+		Assert.equal(depth == 1, n.isLeafNode(), "leaf node at depth " + depth + " " + message);
+		if (n.isLeafNode())
+			leaves.add(n);
+		else
+			for (int i = 0; i <= n.numberOfKeys; i++)
+				checkNodes((BPlusTree.Node) n.pointers[i], root, depth - 1, leaves, message);
+	}
+
+	/**
+	 * Inserts ascending, descending and random keys under each SplitPolicy and makes sure that the uneven splits of
+	 * RIGHTMOST (for ascending keys) and ADAPTIVE (for ascending and descending keys) fill the nodes to about
+	 * UNEVEN_SPLIT_FRACTION, while even splits leave them about half full.
+	 */
+	static void splitPolicyFill() {
+		for (BPlusTree.SplitPolicy policy : BPlusTree.SplitPolicy.values())
+			for (String order : new String[] { "ascending", "descending", "random" }) {
+				Random random = new Random(0);
+				BPlusTree tree = new BPlusTree(16);
+				tree.setSplitPolicy(policy);
+				java.util.TreeMap<Object, Object> oracle = new java.util.TreeMap<Object, Object>();
+				for (int i = 0; i < 10000; i++) {
+					int key = order.equals("ascending") ? i : order.equals("descending") ? -i : random.nextInt();
+					tree.insert(key, i);
+					oracle.put(key, i);
+				}
+				String message = "with " + policy + " and " + order + " keys";
+				Assert.equal(oracle, Assert.entries(tree), "entries " + message);
+				long[] sizes = new long[4]; // the values and leaf nodes, then the pointers and non-leaf nodes
+				sizes(tree.root, sizes); // (uneven splits leave the last or the first node of a level underfull)
+				Assert.equal((long) leaves(tree).size(), sizes[1], "linked leaf nodes " + message);
+				double leafFill = (double) sizes[0] / (sizes[1] * 15), fill = (double) sizes[2] / (sizes[3] * 16);
+				boolean uneven = policy == BPlusTree.SplitPolicy.RIGHTMOST && order.equals("ascending")
+						|| policy == BPlusTree.SplitPolicy.ADAPTIVE && !order.equals("random");
+				if (uneven) {
+					Assert.check(leafFill > 0.9, "leaf fill " + leafFill + " " + message);
+					Assert.check(fill > 0.85, "non-leaf fill " + fill + " " + message);
+				} else if (!order.equals("random")) {
+					Assert.check(leafFill < 0.6, "leaf fill " + leafFill + " " + message);
+					Assert.check(fill < 0.6, "non-leaf fill " + fill + " " + message);
+				} else
+					Assert.check(leafFill > 0.6 && leafFill < 0.8, "leaf fill " + leafFill + " " + message);
+			}
+	}
+
+	/**
+	 * Adds the number of values and leaf nodes, then the number of pointers and non-leaf nodes, of the specified
+	 * subtree to the specified array.
+	 *
+	 * @param n
+	 *            the root of the subtree.
+	 * @param sizes
+	 *            the array of the four numbers.
+	 */
+	static void sizes(BPlusTree.Node n, long[] sizes) {
+		if (n.isLeafNode()) {
+			sizes[0] += n.numberOfKeys;
+			sizes[1]++;
+		} else {
+			sizes[2] += n.numberOfKeys + 1;
+			sizes[3]++;
+			for (int i = 0; i <= n.numberOfKeys; i++)
+				sizes((BPlusTree.Node) n.pointers[i], sizes);
+		}
+	}
+
+	/**
+	 * Caches a leaf node by inserting into it, then deletes entries from it or from a neighbor until the leaf node
+	 * is merged with a sibling or borrows from one (or lends to one), and makes sure that a key inserted afterwards
+	 * into the key range that the leaf node had goes where a descent would put it rather than into the cached leaf
+	 * node.
+	 */
+	static void cachedLeafInvalidation() {
+		int merges = 0, borrows = 0;
+		for (int extra = 0; extra <= 1; extra++) // the entries added to each leaf node (1 to cause borrows)
+			for (int c = 1; c < 9; c++)
+				for (int d = -1; d <= 1; d++) {
+					java.util.TreeMap<Object, Object> oracle = new java.util.TreeMap<Object, Object>();
+					int[] range = new int[2];
+					BPlusTree tree = changedLeaf(extra, c, d, oracle, range);
+					if (leaves(tree).size() < 10)
+						merges++;
+					else
+						borrows++;
+					for (int key = range[0]; key < range[1]; key++)
+						if (!oracle.containsKey(key)) { // insert each key right after the change
+							tree = changedLeaf(extra, c, d, oracle, range);
+							tree.insert(key, key);
+							oracle.put(key, key);
+							String message = "after inserting " + key + " with leaf node " + c + " cached and leaf node "
+									+ (c + d) + " changed";
+							for (Object k : oracle.keySet())
+								Assert.equal(k, tree.get(k), "value of key " + k + " " + message);
+							Assert.equal(oracle, Assert.entries(tree), "entries " + message);
+							checkNodes(tree, message);
+							oracle.remove(key);
+						}
+				}
+		Assert.check(merges > 0 && borrows > 0, merges + " merges and " + borrows + " borrows");
+	}
+
+	/**
+	 * Returns a tree of fanout 8 with 10 leaf nodes of 4 + extra entries, where leaf node c is cached (after an
+	 * insertion) and entries have then been deleted from leaf node c + d until it was merged with a sibling or
+	 * refilled from one.
+	 *
+	 * @param extra
+	 *            the number of entries added to each leaf node.
+	 * @param c
+	 *            the position of the cached leaf node.
+	 * @param d
+	 *            the position of the changed leaf node relative to the cached leaf node.
+	 * @param oracle
+	 *            the map that receives the entries of the tree.
+	 * @param range
+	 *            the array that receives the key range of the cached leaf node.
+	 * @return a tree with a cached leaf node whose key range has changed since it was cached.
+	 */
+	static BPlusTree changedLeaf(int extra, int c, int d, java.util.TreeMap<Object, Object> oracle, int[] range) {
+		oracle.clear();
+		BPlusTree tree = new BPlusTree(8); // leaf nodes hold 4 to 7 entries
+		for (int key = 0; key < 400; key += 10) { // 10 leaf nodes of 4 entries
+			tree.insert(key, key);
+			oracle.put(key, key);
+		}
+		List<BPlusTree.Node> leaves = leaves(tree);
+		Assert.equal(10, leaves.size(), "leaf nodes");
+		for (BPlusTree.Node l : leaves)
+			for (int i = 1; i <= extra; i++) {
+				int key = (Integer) l.keys[0] + i;
+				tree.insert(key, key);
+				oracle.put(key, key);
+			}
+		int cached = (Integer) leaves.get(c).keys[0] + 5;
+		tree.insert(cached, cached);
+		oracle.put(cached, cached);
+		Assert.check(tree.cachedLeaf == leaves.get(c), "leaf node " + c + " is not cached");
+		range[0] = (Integer) tree.cachedLow;
+		range[1] = (Integer) tree.cachedHigh;
+		BPlusTree.Node changed = leaves.get(c + d);
+		Object[] keys = changed.keys.clone();
+		int size = changed.numberOfKeys;
+		for (int i = 0; leaves(tree).equals(leaves) && changed.numberOfKeys == size - i; i++) {
+			tree.delete(keys[i], null); // until the leaf node is merged or refilled
+			oracle.remove(keys[i]);
+		}
+		return tree;
+	}
+
+	/**
+	 * Makes sure that insertions into the cached leaf node after a snapshot copy the leaf node instead of changing
+	 * the snapshot.
+	 */
+	static void cachedLeafSnapshot() {
+		BPlusTree tree = new BPlusTree(8);
+		for (int key = 0; key < 400; key += 10)
+			tree.insert(key, key);
+		tree.insert(155, 155);
+		BPlusTree.Node cached = tree.cachedLeaf;
+		BPlusTree snapshot = tree.snapshot();
+		java.util.TreeMap<Object, Object> entries = Assert.entries(snapshot);
+		for (int key = 151; key < 160; key++)
+			if (key != 155)
+				tree.insert(key, key);
+		Assert.equal(entries, Assert.entries(snapshot), "entries of the snapshot");
+		Assert.equal(null, snapshot.get(156), "key inserted into the tree after the snapshot");
+		Assert.equal(49, Assert.entries(tree).size(), "entries of the tree");
+		Assert.check(tree.find(151) != cached, "the tree changed the leaf node it shares with the snapshot");
+		snapshot.insert(156, -156);
+		Assert.equal(156, tree.get(156), "key inserted into the snapshot");
+		Assert.equal(-156, snapshot.get(156), "key inserted into the snapshot");
+	}
+
+	/**
+	 * Returns the leaf nodes of the specified tree in order.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @return the leaf nodes of the specified tree in order.
+	 */
+	static List<BPlusTree.Node> leaves(BPlusTree tree) {
+		List<BPlusTree.Node> leaves = new ArrayList<BPlusTree.Node>();
+		for (BPlusTree.Node n = tree.root; n != null; n = n.isLeafNode() ? null : (BPlusTree.Node) n.pointers[0])
+			if (n.isLeafNode())
+				for (BPlusTree.Node l = n; l != null; l = (BPlusTree.Node) l.pointers[tree.fanout - 1])
+					leaves.add(l);
+		return leaves;
+	}
+
+	/**
+	 * Inserts batches that split a leaf node into many nodes at once (including runs of duplicate keys that span
+	 * several of the new nodes), then inserts and deletes random batches with duplicate keys (and deletes absent
+	 * keys), and compares the tree with a sorted list after every batch.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void batchUpdates(int fanout) {
+		Random random = new Random(fanout);
+		BPlusTree tree = new BPlusTree(fanout);
+		List<Integer> keys = new ArrayList<Integer>();
+		List<util.Pair<Object, Object>> batch = new ArrayList<util.Pair<Object, Object>>();
+		for (int key = 0; key < 100 * fanout; key += 10)
+			batch.add(new util.Pair<Object, Object>(key, -key));
+		Collections.shuffle(batch, random);
+		insertAll(tree, batch, keys, "with fanout " + fanout);
+		int leaves = leaves(tree).size();
+		Assert.equal((10 * fanout + fanout - 2) / (fanout - 1), leaves, "leaf nodes after splitting the root into "
+				+ "many nodes with fanout " + fanout);
+		batch.clear();
+		for (int key = 11; key < 20; key++)
+			batch.add(new util.Pair<Object, Object>(key, -key));
+		for (int i = 0; i < 3 * fanout; i++)
+			batch.add(new util.Pair<Object, Object>(15, -15));
+		insertAll(tree, batch, keys, "with fanout " + fanout);
+		Assert.check(leaves(tree).size() >= leaves + 4 * fanout / (fanout - 1), leaves(tree).size() + " leaf nodes "
+				+ "after splitting a leaf node into many nodes with fanout " + fanout);
+		Assert.equal(3 * fanout + 1, count(tree.scan(15, true, 15, true)), "duplicates of 15 with fanout " + fanout);
+		List<Object> deleted = new ArrayList<Object>();
+		for (int i = 0; i < 2 * fanout; i++)
+			deleted.add(15);
+		deleted.add(16);
+		deleted.add(17);
+		deleted.add(-5); // absent
+		deleteAll(tree, deleted, keys, "with fanout " + fanout);
+		Assert.equal(fanout + 1, count(tree.scan(15, true, 15, true)), "duplicates of 15 with fanout " + fanout);
+		for (int round = 0; round < 300; round++) {
+			String message = "in round " + round + " with fanout " + fanout;
+			batch.clear();
+			int from = random.nextInt(1000);
+			for (int i = random.nextInt(6 * fanout); i > 0; i--) {
+				int key = from + random.nextInt(round % 3 == 0 ? 5 : 200); // a narrow range makes duplicates
+				batch.add(new util.Pair<Object, Object>(key, -key));
+			}
+			insertAll(tree, batch, keys, message);
+			deleted.clear();
+			for (int i = random.nextInt(6 * fanout); i > 0 && !keys.isEmpty(); i--)
+				deleted.add(random.nextInt(10) == 0 ? random.nextInt(1200) : keys.get(random.nextInt(keys.size())));
+			deleteAll(tree, deleted, keys, message);
+		}
+	}
+
+	/**
+	 * Inserts the specified batch into the specified tree and the specified sorted list of keys, and compares them.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param batch
+	 *            the entries (k, -k) to insert.
+	 * @param keys
+	 *            the sorted list of the keys of the tree.
+	 * @param message
+	 *            the message of the AssertionError thrown if the tree is wrong.
+	 */
+	static void insertAll(BPlusTree tree, List<util.Pair<Object, Object>> batch, List<Integer> keys, String message) {
+		tree.insertAll(batch);
+		for (util.Pair<Object, Object> entry : batch)
+			keys.add((Integer) entry.getFirst());
+		Collections.sort(keys);
+		check(tree, keys, "after inserting " + batch.size() + " entries " + message);
+	}
+
+	/**
+	 * Deletes the specified keys (one entry for each occurrence of a key) from the specified tree and the specified
+	 * sorted list of keys, and compares them.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param deleted
+	 *            the keys to delete.
+	 * @param keys
+	 *            the sorted list of the keys of the tree.
+	 * @param message
+	 *            the message of the AssertionError thrown if the tree is wrong.
+	 */
+	static void deleteAll(BPlusTree tree, List<Object> deleted, List<Integer> keys, String message) {
+		tree.deleteAll(deleted);
+		for (Object key : deleted)
+			keys.remove(key);
+		check(tree, keys, "after deleting " + deleted + " " + message);
+	}
+
+	/**
+	 * Makes sure that the specified tree holds an entry (k, -k) for each key in the specified sorted list and that
+	 * its nodes are balanced and linked (see checkNodes).
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param keys
+	 *            the sorted list of the keys of the tree.
+	 * @param message
+	 *            the message of the AssertionError thrown if the tree is wrong.
+	 */
+	static void check(BPlusTree tree, List<Integer> keys, String message) {
+		Assert.equal(keys, keys(tree.scan(null, true, null, true)), "keys " + message);
+		for (BPlusTree.Cursor c = tree.scan(null, true, null, true); c.next();)
+			Assert.equal(-(Integer) c.getKey(), c.getValue(), "value of key " + c.getKey() + " " + message);
+		checkNodes(tree, message);
+	}
+
+	/**
+	 * Returns a tree whose nodes are about half full: 20000 keys are inserted in random order and all but 2000 of
+	 * them are deleted.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 * @param random
+	 *            the Random that chooses the keys.
+	 * @return a tree whose nodes are about half full.
+	 */
+	static BPlusTree sparseTree(int fanout, Random random) {
+		BPlusTree tree = new BPlusTree(fanout);
+		List<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i < 20000; i++)
+			keys.add(i);
+		Collections.shuffle(keys, random);
+		for (int key : keys)
+			tree.insert(key, -key);
+		for (int key : keys.subList(0, 18000))
+			tree.delete(key, null);
+		return tree;
+	}
+
+	/**
+	 * Returns the number of bytes that the Compactor of a tree with the specified fanout reports for each node it
+	 * removes.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 * @return the number of bytes reported for each node removed.
+	 */
+	static long nodeSize(int fanout) {
+		return 32 + 16 + 4L * (fanout - 1) + 16 + 4L * fanout;
+	}
+
+	/**
+	 * Runs the garbage collector until the specified reference is cleared (or a few seconds have passed).
+	 *
+	 * @param reference
+	 *            the reference.
+	 */
+	static void collect(java.lang.ref.WeakReference<Object> reference) throws InterruptedException {
+		for (int i = 0; i < 100 && reference.get() != null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+	}
+
+	/**
+	 * Compares the ascending and descending scans of every range with bounds in the specified interval with the
+	 * specified sorted keys.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param keys
+	 *            the keys in the tree in ascending order.
+	 * @param min
+	 *            the smallest bound.
+	 * @param max
+	 *            the largest bound.
+	 * @param message
+	 *            the message of the AssertionError thrown if a scan is wrong.
+	 */
+	static void checkScans(BPlusTree tree, List<Integer> keys, int min, int max, String message) {
+		for (int from = min; from <= max; from++)
+			for (int to = from; to <= max; to++)
+				for (int bounds = 0; bounds < 4; bounds++) {
+					boolean fromInclusive = (bounds & 1) != 0, toInclusive = (bounds & 2) != 0;
+					List<Integer> expected = new ArrayList<Integer>();
+					for (int k : keys)
+						if ((k > from || fromInclusive && k == from) && (k < to || toInclusive && k == to))
+							expected.add(k);
+					String range = (fromInclusive ? "[" : "(") + from + ", " + to + (toInclusive ? "]" : ")");
+					Assert.equal(expected, keys(tree.scan(from, fromInclusive, to, toInclusive)), message + " " + range);
+					Collections.reverse(expected);
+					Assert.equal(expected, keys(tree.scan(from, fromInclusive, to, toInclusive, true)),
+							message + " descending " + range);
+				}
+	}
+
+	/**
+	 * Returns the keys that the specified Cursor visits.
+	 *
+	 * @param c
+	 *            the Cursor.
+	 * @return the keys that the Cursor visits.
+	 */
+	static List<Object> keys(BPlusTree.Cursor c) {
+		List<Object> keys = new ArrayList<Object>();
+		while (c.next())
+			keys.add(c.getKey());
+		return keys;
+	}
+
+	/**
+	 * Returns the number of entries that the specified Cursor visits.
+	 *
+	 * @param c
+	 *            the Cursor.
+	 * @return the number of entries that the Cursor visits.
+	 */
+	static int count(BPlusTree.Cursor c) {
+		return keys(c).size();
+	}
+
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import util.BufferPool;
+import util.Pair;
+
+/**
+ * Measures the hit ratio of the BufferPool of a DiskBPlusTree with each replacement policy and several pool
+ * capacities under lookups of keys whose popularity follows a Zipfian distribution.
+ *
+ * Usage: java -cp out BufferPoolBenchmark [keys [lookups [theta]]]
+ */
+public class BufferPoolBenchmark {
+
+	/**
+	 * The pool capacities (in pages) to measure.
+	 */
+	static final int[] CAPACITIES = { 64, 256, 1024, 4096 };
+
+	public static void main(String[] args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 300000;
+		double theta = args.length > 2 ? Double.parseDouble(args[2]) : 0.99;
+		Path file = Files.createTempDirectory("pool").resolve("tree");
+		MappedBPlusTree.freeze(new java.util.Iterator<Pair<Object, Object>>() {
+
+			long next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Pair<Object, Object> next() {
+				next++;
+				return new Pair<Object, Object>(next, -next);
+			}
+
+		}, file, DiskBPlusTree.DEFAULT_PAGE_SIZE);
+		long[] keys = new long[size]; // the key of each popularity rank, shuffled so that hot keys are spread out
+		for (int i = 0; i < size; i++)
+			keys[i] = i + 1;
+		Random random = new Random(0);
+		for (int i = size - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			long t = keys[i];
+			keys[i] = keys[j];
+			keys[j] = t;
+		}
+		long[] trace = new long[lookups];
+		Zipf zipf = new Zipf(size, theta, random);
+		for (int i = 0; i < lookups; i++)
+			trace[i] = keys[zipf.next()];
+		System.out.println(size + " keys, " + lookups + " Zipfian lookups (theta " + theta + "), "
+				+ DiskBPlusTree.DEFAULT_PAGE_SIZE + "-byte pages, hit ratio in % after a warm-up of " + lookups / 3
+				+ " lookups");
+		System.out.println("  pool   Clock  LRU-2     2Q");
+		for (int capacity : CAPACITIES) {
+			StringBuilder line = new StringBuilder(String.format("  %4d", capacity));
+			for (BufferPool.Policy policy : new BufferPool.Policy[] { new BufferPool.Clock(), new BufferPool.LRUK(2),
+					new BufferPool.TwoQueue() }) {
+				try (DiskBPlusTree tree = new DiskBPlusTree(file, DiskBPlusTree.DEFAULT_PAGE_SIZE, capacity, policy,
+						DiskBPlusTree.DEFAULT_STICKY_LEVELS)) {
+					BufferPool pool = tree.getBufferPool();
+					for (int i = 0; i < lookups / 3; i++)
+						tree.get(trace[i]);
+					pool.resetCounters();
+					for (long key : trace)
+						if (tree.get(key) != -key)
+							throw new AssertionError("wrong value for " + key);
+					line.append(String.format(" %6.1f", 100.0 * pool.getHits() / (pool.getHits() + pool.getMisses())));
+				}
+			}
+			System.out.println(line);
+		}
+		Files.delete(file);
+	}
+
+	/**
+	 * A Zipf instance generates ranks in [0, n) whose probabilities follow a Zipfian distribution (Gray et al.,
+	 * Quickly Generating Billion-Record Synthetic Databases, 1994).
+	 */
+	static class Zipf {
+
+		/**
+		 * The number of ranks.
+		 */
+		final int n;
+
+		/**
+		 * The skew of the distribution.
+		 */
+		final double theta;
+
+		/**
+		 * Constants of the generator.
+		 */
+		final double zetan, alpha, eta;
+
+		/**
+		 * The random number generator.
+		 */
+		final Random random;
+
+		/**
+		 * Constructs a Zipf instance.
+		 *
+		 * @param n
+		 *            the number of ranks.
+		 * @param theta
+		 *            the skew of the distribution (0 for a uniform distribution).
+		 * @param random
+		 *            the random number generator.
+		 */
+		Zipf(int n, double theta, Random random) {
+			this.n = n;
+			this.theta = theta;
+			this.random = random;
+			this.zetan = zeta(n, theta);
+			this.alpha = 1 / (1 - theta);
+			this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+		}
+
+		/**
+		 * Returns the next rank.
+		 *
+		 * @return the next rank (0 is the most popular one).
+		 */
+		int next() {
+			double u = random.nextDouble();
+			double uz = u * zetan;
+			if (uz < 1)
+				return 0;
+			if (uz < 1 + Math.pow(0.5, theta))
+				return 1;
+			return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+		}
+
+		/**
+		 * Returns the sum of 1 / i^theta for i from 1 to n.
+		 *
+		 * @param n
+		 *            the number of terms.
+		 * @param theta
+		 *            the exponent.
+		 * @return the sum of 1 / i^theta for i from 1 to n.
+		 */
+		static double zeta(int n, double theta) {
+			double sum = 0;
+			for (int i = 1; i <= n; i++)
+				sum += 1 / Math.pow(i, theta);
+			return sum;
+		}
+
+	}
+
+}
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import util.Pair;
+
+/**
+ * Compares the time to the first answer of a MappedBPlusTree opened from a frozen file with that of a BPlusTree
+ * rebuilt by inserting the same entries, which is what a process that keeps its tree in memory does at start-up.
+ *
+ * Usage: java -cp out ColdStartBenchmark [keys...]
+ */
+public class ColdStartBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = { 1000000, 10000000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		System.out.println("     keys   file (MiB)   open + first get (ms)   rebuild + first get (ms)");
+		for (int size : sizes) {
+			Path file = Files.createTempDirectory("cold").resolve("tree");
+			MappedBPlusTree.freeze(entries(size), file, DiskBPlusTree.DEFAULT_PAGE_SIZE);
+			long start = System.nanoTime();
+			double mapped;
+			try (MappedBPlusTree tree = new MappedBPlusTree(file)) {
+				if (tree.get(size / 2) != -(size / 2))
+					throw new AssertionError("wrong value");
+				mapped = (System.nanoTime() - start) / 1e6;
+			}
+			start = System.nanoTime();
+			BPlusTree tree = new BPlusTree(DiskBPlusTree.fanout(DiskBPlusTree.DEFAULT_PAGE_SIZE));
+			for (java.util.Iterator<Pair<Object, Object>> i = entries(size); i.hasNext();) {
+				Pair<Object, Object> e = i.next();
+				tree.insert(e.getFirst(), e.getSecond());
+			}
+			if (!tree.get((long) (size / 2)).equals((long) -(size / 2)))
+				throw new AssertionError("wrong value");
+			double rebuilt = (System.nanoTime() - start) / 1e6;
+			System.out.printf("%9d %12.1f %23.2f %26.0f%n", size, Files.size(file) / 1048576.0, mapped, rebuilt);
+			tree = null;
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Returns an Iterator over the entries (k, -k) for k from 1 to the specified number.
+	 *
+	 * @param size
+	 *            the number of entries.
+	 * @return an Iterator over the entries (k, -k) for k from 1 to the specified number.
+	 */
+	static java.util.Iterator<Pair<Object, Object>> entries(int size) {
+		return new java.util.Iterator<Pair<Object, Object>>() {
+
+			long next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Pair<Object, Object> next() {
+				next++;
+				return new Pair<Object, Object>(next, -next);
+			}
+
+		};
+	}
+
+}
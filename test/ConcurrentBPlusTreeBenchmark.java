@@ -0,0 +1,116 @@
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of ConcurrentBPlusTree and of ConcurrentSkipListMap under a mix of lookups, inserts and
+ * deletes with 1, 2, 4 and 8 threads, and the memory that each operation allocates.
+ *
+ * Usage: java -cp out ConcurrentBPlusTreeBenchmark [fanout [keys [milliseconds]]]
+ */
+public class ConcurrentBPlusTreeBenchmark {
+
+	/**
+	 * An operation on one of the measured structures.
+	 */
+	interface Operation {
+
+		/**
+		 * Runs the operation.
+		 *
+		 * @param random
+		 *            the random number generator of the calling thread.
+		 * @param keys
+		 *            the keys to choose from.
+		 */
+		void run(Random random, Integer[] keys);
+
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int fanout = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 20;
+		long millis = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+		Integer[] keys = new Integer[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = i;
+		System.out.println("fanout " + fanout + ", " + size + " keys, 50% get / 25% insert / 25% delete, "
+				+ Runtime.getRuntime().availableProcessors() + " processors");
+		for (int threads : new int[] { 1, 2, 4, 8 }) {
+			ConcurrentBPlusTree tree = new ConcurrentBPlusTree(fanout);
+			for (int i = 0; i < size; i += 2)
+				tree.insert(keys[i], keys[i]);
+			measure("ConcurrentBPlusTree", threads, millis, keys, (random, k) -> {
+				Integer key = k[random.nextInt(k.length)];
+				int op = random.nextInt(4);
+				if (op < 2)
+					tree.get(key);
+				else if (op == 2)
+					tree.insert(key, key);
+				else
+					tree.delete(key, null);
+			});
+			ConcurrentSkipListMap<Integer, Integer> map = new ConcurrentSkipListMap<Integer, Integer>();
+			for (int i = 0; i < size; i += 2)
+				map.put(keys[i], keys[i]);
+			measure("ConcurrentSkipListMap", threads, millis, keys, (random, k) -> {
+				Integer key = k[random.nextInt(k.length)];
+				int op = random.nextInt(4);
+				if (op < 2)
+					map.get(key);
+				else if (op == 2)
+					map.put(key, key);
+				else
+					map.remove(key);
+			});
+		}
+	}
+
+	/**
+	 * Runs the specified operation with the specified number of threads for the specified time (after a warm-up of
+	 * the same length) and prints the throughput and the memory allocated per operation.
+	 *
+	 * @param name
+	 *            the name of the measured structure.
+	 * @param threads
+	 *            the number of threads.
+	 * @param millis
+	 *            the duration of the measurement in milliseconds.
+	 * @param keys
+	 *            the keys to choose from.
+	 * @param operation
+	 *            the operation.
+	 */
+	static void measure(String name, int threads, long millis, Integer[] keys, Operation operation)
+			throws InterruptedException {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+				.getThreadMXBean();
+		for (int round = 0; round < 2; round++) { // the first round warms up the code
+			AtomicLong operations = new AtomicLong();
+			AtomicLong allocated = new AtomicLong();
+			long end = System.currentTimeMillis() + millis;
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				int seed = t;
+				workers[t] = new Thread(() -> {
+					Random random = new Random(seed);
+					long before = bean.getCurrentThreadAllocatedBytes();
+					long count = 0;
+					while ((count & 1023) != 0 || System.currentTimeMillis() < end) {
+						operation.run(random, keys);
+						count++;
+					}
+					allocated.addAndGet(bean.getCurrentThreadAllocatedBytes() - before);
+					operations.addAndGet(count);
+				});
+				workers[t].start();
+			}
+			for (Thread t : workers)
+				t.join();
+			if (round == 1)
+				System.out.printf("%-22s %d threads: %6.2f Mops/s, %5.1f bytes/op%n", name, threads,
+						operations.get() / (millis * 1000.0), (double) allocated.get() / operations.get());
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests ConcurrentBPlusTree with concurrent readers and writers and makes sure that updates change nodes in place.
+ */
+public class ConcurrentBPlusTreeTest {
+
+	public static void main(String[] args) throws InterruptedException {
+		for (int fanout : new int[] { 3, 4, 8, 64 })
+			concurrentUpdates(fanout);
+		inPlaceUpdates();
+		System.out.println("ConcurrentBPlusTreeTest passed");
+	}
+
+	/**
+	 * Runs writers that insert and delete disjoint keys together with readers and a thread that uses an invalid key,
+	 * and compares the tree with a ConcurrentSkipListMap that the writers update after each change.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void concurrentUpdates(int fanout) throws InterruptedException {
+		ConcurrentBPlusTree tree = new ConcurrentBPlusTree(fanout);
+		ConcurrentSkipListMap<Integer, Integer> oracle = new ConcurrentSkipListMap<Integer, Integer>();
+		int writers = 4, operations = 20000, range = operations / 2 * writers;
+		for (int key = -1; key >= -100; key--) { // keys that are never deleted, so get("x") always compares keys
+			tree.insert(key, key);
+			oracle.put(key, key);
+		}
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[writers + 2];
+		for (int w = 0; w < writers; w++) {
+			int id = w;
+			threads[w] = new Thread(() -> {
+				Random random = new Random(id);
+				for (int i = 0; i < operations; i++) {
+					int key = random.nextInt(operations / 2) * writers + id; // the keys of a writer are disjoint
+					if (random.nextBoolean()) {
+						if (oracle.containsKey(key))
+							continue;
+						tree.insert(key, key);
+						oracle.put(key, key);
+						Assert.equal(key, tree.get(key), "value read after insert");
+					} else {
+						tree.delete(key, null);
+						oracle.remove(key);
+						Assert.equal(null, tree.get(key), "value read after delete");
+					}
+				}
+			});
+		}
+		threads[writers] = new Thread(() -> {
+			Random random = new Random(writers);
+			while (threads[0].isAlive()) {
+				Object key = random.nextInt(range);
+				Object value = tree.get(key);
+				Assert.check(value == null || value.equals(key), "value " + value + " read for " + key);
+			}
+		});
+		threads[writers + 1] = new Thread(() -> {
+			while (threads[0].isAlive())
+				try {
+					tree.get("x");
+					Assert.check(false, "no exception for a String key");
+				} catch (ClassCastException e) {
+				}
+		});
+		for (Thread t : threads) {
+			t.setUncaughtExceptionHandler((thread, e) -> failure.compareAndSet(null, e));
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join(60000);
+			Assert.check(!t.isAlive(), "an operation does not terminate");
+		}
+		if (failure.get() != null)
+			throw new AssertionError("fanout " + fanout, failure.get());
+		for (int key = -100; key < range; key++)
+			Assert.equal(oracle.get(key), tree.get(key), "value of " + key + " with fanout " + fanout);
+	}
+
+	/**
+	 * Makes sure that inserting and deleting entries in a node that has room for them allocates nothing (neither a
+	 * copy of the node nor the stack of nodes that insert keeps, which is reused by each thread).
+	 */
+	static void inPlaceUpdates() {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+				.getThreadMXBean();
+		ConcurrentBPlusTree tree = new ConcurrentBPlusTree(64);
+		Integer[] keys = new Integer[32];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = i;
+		for (int round = 0; round < 2; round++) { // the first round warms up the code
+			long before = bean.getCurrentThreadAllocatedBytes();
+			for (int i = 0; i < 1000; i++) {
+				for (Integer key : keys)
+					tree.insert(key, key);
+				for (Integer key : keys)
+					tree.delete(key, null);
+			}
+			long allocated = bean.getCurrentThreadAllocatedBytes() - before;
+			if (round == 1)
+				Assert.check(allocated < 64000, allocated + " bytes allocated by 64000 updates");
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests DiskBPlusTree: updates that survive reopening, the reuse of free pages, BufferPools that are too small for the
+ * tree, and leaf filters.
+ */
+public class DiskBPlusTreeTest {
+
+	public static void main(String[] args) throws IOException {
+		insertDeleteReopen();
+		freePageReuse();
+		smallPool();
+		leafFilters();
+		System.out.println("DiskBPlusTreeTest passed");
+	}
+
+	/**
+	 * Inserts and deletes random keys with small pages (so that nodes are split and merged at every level), then
+	 * reopens the file and compares every key with a TreeMap.
+	 */
+	static void insertDeleteReopen() throws IOException {
+		Path file = Files.createTempDirectory("disk").resolve("tree");
+		Random random = new Random(0);
+		TreeMap<Long, Long> oracle = new TreeMap<Long, Long>();
+		try (DiskBPlusTree tree = new DiskBPlusTree(file, 128)) {
+			for (int i = 0; i < 20000; i++) {
+				long key = random.nextInt(5000);
+				if (random.nextInt(3) > 0) {
+					if (oracle.containsKey(key))
+						continue;
+					tree.insert(key, -key);
+					oracle.put(key, -key);
+				} else {
+					tree.delete(key);
+					oracle.remove(key);
+				}
+			}
+			check(tree, oracle, "before reopening");
+		}
+		try (DiskBPlusTree tree = new DiskBPlusTree(file, 128)) {
+			check(tree, oracle, "after reopening");
+			for (Long key : oracle.keySet())
+				tree.delete(key);
+			Assert.equal(1, tree.height, "height of an emptied tree");
+		}
+		try (DiskBPlusTree tree = new DiskBPlusTree(file, 128)) {
+			Assert.equal(null, tree.get(0), "value in an emptied tree");
+		}
+		IOException e = null;
+		try {
+			new DiskBPlusTree(file, 256).close();
+		} catch (IOException x) {
+			e = x;
+		}
+		Assert.check(e != null, "opened a file with a different page size");
+	}
+
+	/**
+	 * Makes sure that the pages freed by deletions are reused, so that a tree that is emptied and filled again does
+	 * not grow its file.
+	 */
+	static void freePageReuse() throws IOException {
+		Path file = Files.createTempDirectory("disk").resolve("tree");
+		try (DiskBPlusTree tree = new DiskBPlusTree(file, 128)) {
+			for (long key = 0; key < 3000; key++)
+				tree.insert(key, key);
+			long pages = tree.numberOfPages;
+			for (long key = 0; key < 3000; key++)
+				tree.delete(key);
+			Assert.check(tree.freePage != DiskBPlusTree.NONE, "no free page after emptying the tree");
+			for (long key = 1; key <= 3000; key++)
+				tree.insert(key, key);
+			Assert.check(tree.numberOfPages <= pages, "pages grew from " + pages + " to " + tree.numberOfPages);
+		}
+		try (DiskBPlusTree tree = new DiskBPlusTree(file, 128)) { // the free list survives reopening
+			long pages = tree.numberOfPages;
+			for (long key = 1; key <= 3000; key += 2)
+				tree.delete(key);
+			for (long key = 1; key <= 3000; key += 2)
+				tree.insert(key, -key);
+			Assert.equal(pages, tree.numberOfPages, "pages after refilling a reopened tree");
+			for (long key = 1; key <= 3000; key++)
+				Assert.equal(key % 2 == 0 ? key : -key, tree.get(key), "value of key " + key);
+		}
+	}
+
+	/**
+	 * Makes sure that a tree whose height outgrows its BufferPool (64-byte pages hold two keys and 13 frames allow
+	 * updates up to a height of 6) rejects updates before changing any page, and that the tree is intact when it is
+	 * reopened with a larger BufferPool.
+	 */
+	static void smallPool() throws IOException {
+		Path file = Files.createTempDirectory("disk").resolve("tree");
+		Random random = new Random(1);
+		TreeMap<Long, Long> oracle = new TreeMap<Long, Long>();
+		try (DiskBPlusTree tree = new DiskBPlusTree(file, 64, 13, new util.BufferPool.Clock(),
+				DiskBPlusTree.DEFAULT_STICKY_LEVELS)) {
+			boolean rejected = false;
+			for (int i = 0; i < 10000 && !rejected; i++) {
+				long key = random.nextInt(1000);
+				try {
+					if (random.nextInt(4) > 0) {
+						if (oracle.containsKey(key))
+							continue;
+						tree.insert(key, -key);
+						oracle.put(key, -key);
+					} else {
+						tree.delete(key);
+						oracle.remove(key);
+					}
+				} catch (IllegalStateException e) {
+					rejected = true;
+				}
+			}
+			Assert.check(rejected, "no update was rejected");
+			Assert.equal(7, tree.height, "height when updates are rejected");
+			check(tree, oracle, "after a rejected update");
+			try {
+				tree.delete(oracle.firstKey());
+				Assert.check(false, "deleted from a tree that is too high for the pool");
+			} catch (IllegalStateException e) {
+			}
+		}
+		try (DiskBPlusTree tree = new DiskBPlusTree(file, 64, 64, new util.BufferPool.LRUK(2),
+				DiskBPlusTree.DEFAULT_STICKY_LEVELS)) {
+			check(tree, oracle, "after reopening with a larger pool");
+			for (Long key : oracle.keySet())
+				tree.delete(key);
+			for (long key = 0; key < 1000; key++)
+				Assert.equal(null, tree.get(key), "value after deleting every key");
+		}
+	}
+
+	/**
+	 * Makes sure that leaf filters never hide a key while leaf nodes are split, merged and redistributed, that they
+	 * skip most lookups of absent keys, and that no more filters than the specified maximum are kept.
+	 */
+	static void leafFilters() throws IOException {
+		Path file = Files.createTempDirectory("disk").resolve("tree");
+		Random random = new Random(2);
+		TreeMap<Long, Long> oracle = new TreeMap<Long, Long>();
+		try (DiskBPlusTree tree = new DiskBPlusTree(file, 256)) {
+			tree.enableLeafFilters(0.01, 16);
+			for (int round = 0; round < 20; round++) {
+				for (int i = 0; i < 500; i++) {
+					long key = 2 * random.nextInt(2000); // odd keys are never inserted
+					if (random.nextInt(3) > 0) {
+						if (oracle.containsKey(key))
+							continue;
+						tree.insert(key, -key);
+						oracle.put(key, -key);
+					} else {
+						tree.delete(key);
+						oracle.remove(key);
+					}
+				}
+				check(tree, oracle, "with leaf filters in round " + round);
+			}
+			long filterSize = util.BloomFilter.numberOfBits(tree.getFanout() - 1, 0.01) / 8;
+			Assert.check(tree.getLeafFilterSizeInBytes() <= 16 * (filterSize + 8),
+					tree.getLeafFilterSizeInBytes() + " bytes of leaf filters");
+			long skips = tree.getFilterSkipCount();
+			for (long key = 1; key < 100; key += 2) // the keys of the first leaf nodes, whose filters are built
+				tree.get(key);
+			Assert.check(tree.getFilterSkipCount() - skips > 40, "lookups of absent keys skipped: "
+					+ (tree.getFilterSkipCount() - skips) + " of 50");
+		}
+	}
+
+	/**
+	 * Compares the value of every key from -1 to the largest key of the specified TreeMap plus one with the TreeMap.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param oracle
+	 *            the entries that the tree must have.
+	 * @param message
+	 *            the message to report when a value differs.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	static void check(DiskBPlusTree tree, TreeMap<Long, Long> oracle, String message) throws IOException {
+		long last = oracle.isEmpty() ? 0 : oracle.lastKey() + 1;
+		for (long key = -1; key <= last; key++)
+			Assert.equal(oracle.get(key), tree.get(key), "value of key " + key + " " + message);
+	}
+
+}
@@ -0,0 +1,200 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import util.Pair;
+
+/**
+ * Tests FilteredBPlusTree: lookups of absent keys that skip the tree, updates of every kind that must never hide a key
+ * from the BloomFilter, and the lazy rebuilds of the BloomFilter.
+ */
+public class FilteredBPlusTreeTest {
+
+	public static void main(String[] args) {
+		absentKeys();
+		for (int fanout : new int[] { 3, 8 })
+			noFalseNegatives(fanout);
+		lazyRebuild();
+		System.out.println("FilteredBPlusTreeTest passed");
+	}
+
+	/**
+	 * Makes sure that most lookups of absent keys are answered by the BloomFilter, that every lookup is counted as a
+	 * skip or a pass, and that the lookups of present keys all descend the tree and find their keys.
+	 */
+	static void absentKeys() {
+		FilteredBPlusTree tree = new FilteredBPlusTree(16);
+		for (long key = 0; key < 20000; key += 2)
+			tree.insert(key, -key);
+		tree.get(0L); // rebuilds the BloomFilter, which is sized for DEFAULT_EXPECTED_KEYS
+		long skips = tree.getSkipCount(), passes = tree.getPassCount(), falsePositives = tree.getFalsePositiveCount();
+		for (long key = 1; key < 20000; key += 2)
+			Assert.check(!tree.contains(key), "absent key " + key + " found");
+		long skipped = tree.getSkipCount() - skips;
+		Assert.equal(10000L, skipped + tree.getPassCount() - passes, "lookups of absent keys");
+		Assert.equal(tree.getPassCount() - passes, tree.getFalsePositiveCount() - falsePositives,
+				"false positives among the lookups of absent keys");
+		Assert.check(skipped > 9800, skipped + " of 10000 lookups of absent keys skipped");
+		skips = tree.getSkipCount();
+		passes = tree.getPassCount();
+		falsePositives = tree.getFalsePositiveCount();
+		for (long key = 0; key < 20000; key += 2)
+			Assert.equal(-key, tree.get(key), "value of key " + key);
+		Assert.equal(skips, tree.getSkipCount(), "skipped lookups of present keys");
+		Assert.equal(passes + 10000, tree.getPassCount(), "lookups of present keys");
+		Assert.equal(falsePositives, tree.getFalsePositiveCount(), "false positives among present keys");
+	}
+
+	/**
+	 * Applies random insertions, puts, computes (which insert, replace and delete keys), batch insertions and
+	 * deletions, range deletions and deletions to a tree whose BloomFilter is small enough to be rebuilt many times,
+	 * and makes sure after every update that the tree finds exactly the keys of a TreeMap.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void noFalseNegatives(int fanout) {
+		Random random = new Random(fanout);
+		FilteredBPlusTree tree = new FilteredBPlusTree(fanout, 16, 0.1);
+		TreeMap<Long, Long> oracle = new TreeMap<Long, Long>();
+		for (int i = 0; i < 3000; i++) {
+			long key = random.nextInt(500);
+			String operation;
+			switch (random.nextInt(8)) {
+			case 0:
+				operation = "insert";
+				if (!oracle.containsKey(key)) {
+					tree.insert(key, -key);
+					oracle.put(key, -key);
+				}
+				break;
+			case 1:
+				operation = "put";
+				tree.put(key, (long) i);
+				oracle.put(key, (long) i);
+				break;
+			case 2:
+				operation = "putIfAbsent";
+				tree.putIfAbsent(key, -key);
+				oracle.putIfAbsent(key, -key);
+				break;
+			case 3:
+				operation = "compute";
+				Long value = random.nextBoolean() ? null : (long) i; // null deletes the key
+				tree.compute(key, (k, v) -> value);
+				if (value == null)
+					oracle.remove(key);
+				else
+					oracle.put(key, value);
+				break;
+			case 4:
+				operation = "insertAll";
+				List<Pair<Long, Long>> entries = new ArrayList<Pair<Long, Long>>();
+				for (long k = key; k < key + 20; k++)
+					if (!oracle.containsKey(k) && random.nextBoolean()) {
+						entries.add(new Pair<Long, Long>(k, -k));
+						oracle.put(k, -k);
+					}
+				tree.insertAll(entries);
+				break;
+			case 5:
+				operation = "deleteAll";
+				List<Long> keys = new ArrayList<Long>();
+				for (long k = key; k < key + 20; k++)
+					if (oracle.containsKey(k) && random.nextBoolean()) {
+						keys.add(k);
+						oracle.remove(k);
+					}
+				tree.deleteAll(keys);
+				break;
+			case 6:
+				operation = "deleteRange";
+				if (random.nextInt(4) == 0) {
+					long to = key + random.nextInt(30);
+					tree.deleteRange(key, to);
+					oracle.subMap(key, to).clear();
+				}
+				break;
+			default:
+				operation = "delete";
+				tree.delete(key, null);
+				oracle.remove(key);
+			}
+			for (long k = key - 1; k <= key + 30; k++) // the keys that the update may have changed
+				Assert.equal(oracle.get(k), tree.get(k), "value of key " + k + " after " + operation + " " + i
+						+ " with fanout " + fanout);
+			if (i % 100 == 0)
+				check(tree, oracle, "after update " + i + " with fanout " + fanout);
+		}
+		check(tree, oracle, "with fanout " + fanout);
+		Assert.check(tree.getRebuildCount() > 10, tree.getRebuildCount() + " rebuilds with fanout " + fanout);
+	}
+
+	/**
+	 * Makes sure that the BloomFilter is rebuilt at the first lookup after more keys have been added than it was
+	 * sized for, after many deletions or after a range deletion (and not at the updates themselves), that a rebuilt
+	 * BloomFilter grows with the tree and forgets the deleted keys, and that bulkLoad rebuilds it at once.
+	 */
+	static void lazyRebuild() {
+		FilteredBPlusTree tree = new FilteredBPlusTree(8, 100, 0.01);
+		for (long key = 0; key < 100; key++)
+			tree.insert(key, key);
+		Assert.equal(99L, tree.get(99L), "value of key 99");
+		Assert.equal(0, tree.getRebuildCount(), "rebuilds before the BloomFilter is full");
+		long size = tree.getFilterSizeInBytes();
+		for (long key = 100; key < 2000; key++)
+			tree.insert(key, key);
+		Assert.equal(0, tree.getRebuildCount(), "rebuilds before a lookup");
+		Assert.equal(1999L, tree.get(1999L), "value of key 1999");
+		Assert.equal(1, tree.getRebuildCount(), "rebuilds after a lookup");
+		Assert.check(tree.getFilterSizeInBytes() > 10 * size, "BloomFilter of " + tree.getFilterSizeInBytes()
+				+ " bytes after a rebuild (from " + size + " bytes)");
+		for (long key = 0; key < 1000; key++)
+			tree.delete(key, null);
+		Assert.equal(1, tree.getRebuildCount(), "rebuilds after deletions");
+		Assert.equal(null, tree.get(0L), "value of a deleted key");
+		Assert.equal(1, tree.getRebuildCount(), "rebuilds while fewer keys are deleted than half of those added");
+		for (long key = 1000; key < 1002; key++)
+			tree.delete(key, null);
+		Assert.equal(null, tree.get(1000L), "value of a deleted key");
+		Assert.equal(2, tree.getRebuildCount(), "rebuilds after deleting more keys than half of those added");
+		long skips = tree.getSkipCount();
+		for (long key = 0; key < 1000; key++)
+			tree.get(key);
+		Assert.check(tree.getSkipCount() - skips > 980, (tree.getSkipCount() - skips)
+				+ " of 1000 lookups of deleted keys skipped after a rebuild");
+		tree.deleteRange(1500L, 1600L);
+		Assert.equal(2, tree.getRebuildCount(), "rebuilds after a range deletion");
+		Assert.equal(null, tree.get(1500L), "value of a key deleted by a range deletion");
+		Assert.equal(1600L, tree.get(1600L), "value of the upper bound of a range deletion");
+		Assert.equal(3, tree.getRebuildCount(), "rebuilds after a range deletion and a lookup");
+		List<Pair<Object, Object>> entries = new ArrayList<Pair<Object, Object>>();
+		for (long key = 0; key < 5000; key++)
+			entries.add(new Pair<Object, Object>(key, -key));
+		tree.bulkLoad(entries.iterator(), 1);
+		Assert.equal(4, tree.getRebuildCount(), "rebuilds after bulkLoad");
+		for (long key = 0; key < 5000; key++)
+			Assert.equal(-key, tree.get(key), "value of key " + key + " after bulkLoad");
+		Assert.equal(4, tree.getRebuildCount(), "rebuilds after bulkLoad and lookups");
+	}
+
+	/**
+	 * Compares the value of every key from -1 to the largest key of the specified TreeMap plus one with the TreeMap.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param oracle
+	 *            the entries that the tree must have.
+	 * @param message
+	 *            the message to report when a value differs.
+	 */
+	static void check(FilteredBPlusTree tree, TreeMap<Long, Long> oracle, String message) {
+		long last = oracle.isEmpty() ? 0 : oracle.lastKey() + 1;
+		for (long key = -1; key <= last; key++) {
+			Assert.equal(oracle.get(key), tree.get(key), "value of key " + key + " " + message);
+			Assert.equal(oracle.containsKey(key), tree.contains(key), "key " + key + " " + message);
+		}
+	}
+
+}
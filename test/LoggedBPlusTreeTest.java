@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import util.WriteAheadLog;
+
+/**
+ * Tests the recovery of LoggedBPlusTree from its log and checkpoints, including crashes in the middle of a
+ * checkpoint.
+ */
+public class LoggedBPlusTreeTest {
+
+	public static void main(String[] args) throws IOException {
+		crashAfterCheckpointRename();
+		checkpointAheadOfLog();
+		rejectedUpdates();
+		bulkLoad();
+		System.out.println("LoggedBPlusTreeTest passed");
+	}
+
+	/**
+	 * Crashes after the checkpoint file has replaced the previous one but before the log is truncated. None of the
+	 * records was forced before the checkpoint began (PER_BATCH with a large batch), so the checkpoint itself must
+	 * force them.
+	 */
+	static void crashAfterCheckpointRename() throws IOException {
+		Path dir = Files.createTempDirectory("logged");
+		Path logFile = dir.resolve("log"), checkpoint = dir.resolve("checkpoint");
+		WriteAheadLog log = new WriteAheadLog(logFile, WriteAheadLog.SyncPolicy.PER_BATCH, 1 << 20, 0) {
+
+			@Override
+			public void truncate(long lsn) throws IOException {
+				throw new IOException("crash");
+			}
+
+		};
+		LoggedBPlusTree tree = new LoggedBPlusTree(8, log);
+		for (int i = 0; i < 100; i++)
+			tree.insert(i, i);
+		long lsn = log.getAppendedLsn();
+		try {
+			tree.checkpoint(checkpoint);
+			Assert.check(false, "the crash did not happen");
+		} catch (IOException e) {
+			Assert.equal("crash", e.getMessage(), "exception");
+		}
+		// the process dies here: the records that the log still buffers are lost and the log is never closed
+		log = new WriteAheadLog(logFile);
+		Assert.check(log.getDurableLsn() >= lsn, "the log was not forced before the checkpoint was written");
+		tree = new LoggedBPlusTree(8, log, checkpoint);
+		Assert.equal(100, Assert.entries(tree).size(), "entries recovered from the checkpoint");
+		tree.insert(100, 100);
+		log.close();
+		log = new WriteAheadLog(logFile);
+		Assert.equal(101, Assert.entries(new LoggedBPlusTree(8, log, checkpoint)).size(), "entries after reopening");
+		log.close();
+	}
+
+	/**
+	 * Opens a checkpoint together with a log that ends before the checkpoint (here, a log file that was lost).
+	 */
+	static void checkpointAheadOfLog() throws IOException {
+		Path dir = Files.createTempDirectory("logged");
+		Path logFile = dir.resolve("log"), checkpoint = dir.resolve("checkpoint");
+		WriteAheadLog log = new WriteAheadLog(logFile);
+		LoggedBPlusTree tree = new LoggedBPlusTree(8, log);
+		for (int i = 0; i < 50; i++)
+			tree.insert(i, "v" + i);
+		long lsn = tree.checkpoint(checkpoint);
+		log.close();
+		Files.delete(logFile);
+		log = new WriteAheadLog(logFile);
+		tree = new LoggedBPlusTree(8, log, checkpoint);
+		Assert.equal(lsn, log.getBaseLsn(), "the log restarts at the checkpoint");
+		Assert.equal(50, Assert.entries(tree).size(), "entries recovered from the checkpoint");
+		tree.delete(0, null);
+		tree.insert(50, "v50");
+		log.close();
+		log = new WriteAheadLog(logFile);
+		tree = new LoggedBPlusTree(8, log, checkpoint);
+		Assert.equal(50, Assert.entries(tree).size(), "entries after reopening");
+		Assert.equal("v50", tree.get(50), "value logged after the reset");
+		Assert.equal(null, tree.get(0), "deletion logged after the reset");
+		log.close();
+	}
+
+	/**
+	 * Makes sure that updates rejected by the tree (keys that cannot be compared with the keys in the tree) or by the
+	 * log (keys and values that cannot be logged) change neither the tree nor the log.
+	 */
+	static void rejectedUpdates() throws IOException {
+		Path dir = Files.createTempDirectory("logged");
+		Path logFile = dir.resolve("log");
+		WriteAheadLog log = new WriteAheadLog(logFile);
+		LoggedBPlusTree tree = new LoggedBPlusTree(8, log);
+		for (int i = 0; i < 20; i++)
+			tree.insert(i, i);
+		long lsn = log.getAppendedLsn();
+		LoggedBPlusTree t = tree;
+		Assert.expect(ClassCastException.class, () -> t.insert("oops", 2));
+		Assert.expect(ClassCastException.class, () -> t.put("oops", 2));
+		Assert.expect(ClassCastException.class, () -> t.putIfAbsent("oops", 2));
+		Assert.expect(ClassCastException.class, () -> t.compute("oops", (k, v) -> 2));
+		Assert.expect(ClassCastException.class, () -> t.delete("oops", null));
+		Assert.expect(ClassCastException.class, () -> t.deleteRange("a", true, "z", true));
+		Assert.expect(ClassCastException.class, () -> t.insertAll(java.util.Arrays.asList(
+				new util.Pair<Object, Object>(30, 30), new util.Pair<Object, Object>("oops", 2))));
+		Assert.expect(IllegalArgumentException.class, () -> t.insert(30, new Object()));
+		Assert.expect(IllegalArgumentException.class, () -> t.put(3, new Object()));
+		Assert.expect(IllegalArgumentException.class, () -> t.compute(3, (k, v) -> new Object()));
+		Assert.expect(IllegalStateException.class, () -> t.compute(3, (k, v) -> {
+			throw new IllegalStateException();
+		}));
+		Assert.equal(lsn, log.getAppendedLsn(), "LSN after the rejected updates");
+		Assert.equal(3, tree.get(3), "value after the rejected updates");
+		Assert.equal(null, tree.get(30), "value after the rejected updates");
+		tree.compute(3, (k, v) -> 33);
+		log.close();
+		log = new WriteAheadLog(logFile);
+		tree = new LoggedBPlusTree(8, log);
+		Assert.equal(20, Assert.entries(tree).size(), "entries after reopening");
+		Assert.equal(33, tree.get(3), "computed value after reopening");
+		log.close();
+	}
+
+	/**
+	 * Makes sure that a bulk load is logged as a single record that refers to a file with the entries, that the file
+	 * is replayed when the tree is reopened and that a checkpoint deletes it.
+	 */
+	static void bulkLoad() throws IOException {
+		Path dir = Files.createTempDirectory("logged");
+		Path logFile = dir.resolve("log"), checkpoint = dir.resolve("checkpoint");
+		WriteAheadLog log = new WriteAheadLog(logFile);
+		LoggedBPlusTree tree = new LoggedBPlusTree(8, log);
+		tree.insert(-1, "gone");
+		long lsn = log.getAppendedLsn();
+		LoggedBPlusTree t = tree;
+		java.util.List<util.Pair<Object, Object>> unsorted = java.util.Arrays.asList(
+				new util.Pair<Object, Object>(2, "v2"), new util.Pair<Object, Object>(1, "v1"));
+		Assert.expect(IllegalArgumentException.class, () -> t.bulkLoad(unsorted.iterator(), 1));
+		Assert.equal(0, bulkFiles(dir), "files of a rejected bulk load");
+		Assert.equal(lsn, log.getAppendedLsn(), "LSN after a rejected bulk load");
+		Assert.equal("gone", tree.get(-1), "value after a rejected bulk load");
+		java.util.Iterator<util.Pair<Object, Object>> entries = new java.util.Iterator<util.Pair<Object, Object>>() {
+
+			int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < 10000;
+			}
+
+			@Override
+			public util.Pair<Object, Object> next() {
+				next++;
+				return new util.Pair<Object, Object>(next, "v" + next);
+			}
+
+		};
+		tree.bulkLoad(entries, 0.8);
+		Assert.check(log.getAppendedLsn() - lsn < 64, "a bulk load is logged as a single record");
+		Assert.equal(1, bulkFiles(dir), "files of bulk loads");
+		tree.insert(0, "v0");
+		log.close();
+		log = new WriteAheadLog(logFile);
+		tree = new LoggedBPlusTree(8, log);
+		Assert.equal(10001, Assert.entries(tree).size(), "entries after reopening");
+		Assert.equal(null, tree.get(-1), "entry removed by the bulk load");
+		Assert.equal("v10000", tree.get(10000), "loaded value");
+		tree.checkpoint(checkpoint);
+		Assert.equal(0, bulkFiles(dir), "files of bulk loads after a checkpoint");
+		log.close();
+		log = new WriteAheadLog(logFile);
+		Assert.equal(10001, Assert.entries(new LoggedBPlusTree(8, log, checkpoint)).size(), "entries after reopening");
+		log.close();
+	}
+
+	/**
+	 * Returns the number of files in the specified directory that hold the entries of bulk loads (including
+	 * temporary files).
+	 *
+	 * @param dir
+	 *            the directory.
+	 * @return the number of files in the directory that hold the entries of bulk loads.
+	 */
+	static int bulkFiles(Path dir) throws IOException {
+		try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+			return (int) files.filter(f -> f.getFileName().toString().contains(".bulk-")).count();
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+import java.util.Random;
+
+/**
+ * Compares LongBPlusTree with BPlusTree on the same long keys: the time of an insert, a get and a delete, and the
+ * memory that each insert allocates, for random and ascending keys at several fanouts. A BPlusTree is given its keys
+ * boxed at each call, as a caller that holds primitive keys would.
+ *
+ * Usage: java -cp out LongBPlusTreeBenchmark [keys [runs]]
+ */
+public class LongBPlusTreeBenchmark {
+
+	/**
+	 * The fanouts to measure.
+	 */
+	static final int[] FANOUTS = { 16, 64, 256 };
+
+	/**
+	 * The value of every entry (shared, so that only the keys differ between the two trees).
+	 */
+	static final Object VALUE = "v";
+
+	/**
+	 * The operations on one of the measured trees.
+	 */
+	interface Tree {
+
+		/**
+		 * Inserts the specified key.
+		 *
+		 * @param key
+		 *            the key.
+		 */
+		void insert(long key);
+
+		/**
+		 * Determines whether or not the tree contains the specified key.
+		 *
+		 * @param key
+		 *            the key.
+		 * @return true if the tree contains the specified key; false otherwise.
+		 */
+		boolean contains(long key);
+
+		/**
+		 * Deletes the specified key.
+		 *
+		 * @param key
+		 *            the key.
+		 */
+		void delete(long key);
+
+	}
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		Random random = new Random(0);
+		long[] ascending = new long[size];
+		for (int i = 0; i < size; i++)
+			ascending[i] = 1000000000000L + 3L * i;
+		long[] shuffled = ascending.clone();
+		for (int i = size - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			long t = shuffled[i];
+			shuffled[i] = shuffled[j];
+			shuffled[j] = t;
+		}
+		measure("random", shuffled, runs);
+		measure("ascending", ascending, runs);
+	}
+
+	/**
+	 * Prints the best times of an insert, a get and a delete and the bytes allocated per insert of BPlusTree and
+	 * LongBPlusTree at each fanout.
+	 *
+	 * @param name
+	 *            the name of the key order.
+	 * @param keys
+	 *            the keys in the order in which they are inserted, looked up and deleted.
+	 * @param runs
+	 *            the number of runs (the best of which is reported).
+	 */
+	static void measure(String name, long[] keys, int runs) {
+		System.out.println(name + " keys (" + keys.length + "), ns per operation, best of " + runs + " runs");
+		System.out.println("  fanout  tree            insert      get   delete   bytes/insert   get speedup");
+		for (int fanout : FANOUTS) {
+			double[] boxed = null;
+			for (int primitive = 0; primitive < 2; primitive++) {
+				double[] best = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, 0 };
+				for (int run = 0; run < runs; run++) {
+					Tree tree = primitive == 0 ? boxed(fanout) : primitive(fanout);
+					double[] times = run(tree, keys);
+					for (int i = 0; i < 3; i++)
+						best[i] = Math.min(best[i], times[i]);
+					best[3] = times[3];
+				}
+				System.out.printf("  %6d  %-13s %8.0f %8.0f %8.0f %14.1f", fanout, primitive == 0 ? "BPlusTree"
+						: "LongBPlusTree", best[0], best[1], best[2], best[3]);
+				if (primitive == 0) {
+					boxed = best;
+					System.out.println();
+				} else
+					System.out.printf(" %12.2fx%n", boxed[1] / best[1]);
+			}
+		}
+	}
+
+	/**
+	 * Inserts, looks up and deletes the specified keys in the specified tree.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param keys
+	 *            the keys.
+	 * @return the nanoseconds per insert, per get and per delete, and the bytes allocated per insert.
+	 */
+	static double[] run(Tree tree, long[] keys) {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+				.getThreadMXBean();
+		long allocated = bean.getCurrentThreadAllocatedBytes();
+		long start = System.nanoTime();
+		for (long key : keys)
+			tree.insert(key);
+		double insert = (double) (System.nanoTime() - start) / keys.length;
+		double bytes = (double) (bean.getCurrentThreadAllocatedBytes() - allocated) / keys.length;
+		start = System.nanoTime();
+		int found = 0;
+		for (long key : keys)
+			if (tree.contains(key))
+				found++;
+		double get = (double) (System.nanoTime() - start) / keys.length;
+		if (found != keys.length)
+			throw new AssertionError(found + " keys found");
+		start = System.nanoTime();
+		for (long key : keys)
+			tree.delete(key);
+		double delete = (double) (System.nanoTime() - start) / keys.length;
+		if (tree.contains(keys[0]) || tree.contains(keys[keys.length - 1]))
+			throw new AssertionError("key found after deleting every key");
+		return new double[] { insert, get, delete, bytes };
+	}
+
+	/**
+	 * Returns a BPlusTree with the specified fanout, given boxed keys.
+	 *
+	 * @param fanout
+	 *            the fanout.
+	 * @return a BPlusTree with the specified fanout.
+	 */
+	static Tree boxed(int fanout) {
+		BPlusTree tree = new BPlusTree(fanout);
+		return new Tree() {
+
+			@Override
+			public void insert(long key) {
+				tree.insert(key, VALUE);
+			}
+
+			@Override
+			public boolean contains(long key) {
+				return tree.get(key) != null;
+			}
+
+			@Override
+			public void delete(long key) {
+				tree.delete(key, null);
+			}
+
+		};
+	}
+
+	/**
+	 * Returns a LongBPlusTree with the specified fanout.
+	 *
+	 * @param fanout
+	 *            the fanout.
+	 * @return a LongBPlusTree with the specified fanout.
+	 */
+	static Tree primitive(int fanout) {
+		LongBPlusTree tree = new LongBPlusTree(fanout);
+		return new Tree() {
+
+			@Override
+			public void insert(long key) {
+				tree.insert(key, VALUE);
+			}
+
+			@Override
+			public boolean contains(long key) {
+				return tree.get(key) != null;
+			}
+
+			@Override
+			public void delete(long key) {
+				tree.delete(key, null);
+			}
+
+		};
+	}
+
+}
@@ -0,0 +1,50 @@
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests the point lookups of LongBPlusTree with each SearchStrategy, with and without packed leaf nodes.
+ */
+public class LongBPlusTreeTest {
+
+	public static void main(String[] args) {
+		for (BPlusTree.SearchStrategy strategy : BPlusTree.SearchStrategy.values())
+			for (boolean packed : new boolean[] { false, true })
+				for (int fanout : new int[] { 3, 8, 64 })
+					get(fanout, strategy, packed);
+		Assert.equal(null, new LongBPlusTree(8).get(1), "value in an empty tree");
+		System.out.println("LongBPlusTreeTest passed");
+	}
+
+	/**
+	 * Inserts and deletes random keys and compares get with a TreeMap for every key in the range of the keys and
+	 * just outside it.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 * @param strategy
+	 *            the SearchStrategy of the tree.
+	 * @param packed
+	 *            true if the leaf nodes of the tree keep their keys packed.
+	 */
+	static void get(int fanout, BPlusTree.SearchStrategy strategy, boolean packed) {
+		Random random = new Random(fanout);
+		LongBPlusTree tree = new LongBPlusTree(fanout, strategy, packed);
+		TreeMap<Long, Object> oracle = new TreeMap<Long, Object>();
+		for (int i = 0; i < 5000; i++) {
+			long key = random.nextInt(4000);
+			if (random.nextInt(3) > 0) {
+				if (oracle.containsKey(key))
+					continue;
+				tree.insert(key, "v" + key);
+				oracle.put(key, "v" + key);
+			} else {
+				tree.delete(key, null);
+				oracle.remove(key);
+			}
+		}
+		String message = strategy + (packed ? " with packed leaves" : "") + " and fanout " + fanout;
+		for (long key = -1; key <= 4000; key++)
+			Assert.equal(oracle.get(key), tree.get(key), message + ", key " + key);
+	}
+
+}
@@ -0,0 +1,276 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import util.Pair;
+import util.PostingList;
+
+/**
+ * Tests MultiValueBPlusTree: insertions that add values to the PostingList of a key, deletions of single values and
+ * of whole keys, bulkLoad, the compression of long PostingLists, and put, putIfAbsent and compute, which replace or
+ * compute the whole set of values of a key.
+ */
+public class MultiValueBPlusTreeTest {
+
+	public static void main(String[] args) {
+		insertValues();
+		deleteValues();
+		bulkLoadGrouping();
+		postingListCompression();
+		putAndPutIfAbsent();
+		compute();
+		snapshotUpdates();
+		System.out.println("MultiValueBPlusTreeTest passed");
+	}
+
+	/**
+	 * Makes sure that insert adds the values of a key to a single PostingList (once each, in ascending order, whatever
+	 * their integral type), so that each key takes a single leaf entry, and that a value that is not integral is
+	 * rejected without changing the tree.
+	 */
+	static void insertValues() {
+		MultiValueBPlusTree tree = new MultiValueBPlusTree(4);
+		for (int i = 0; i < 1000; i++)
+			tree.insert(i % 10, 999 - i);
+		Assert.equal(10, Assert.entries(tree).size(), "keys");
+		Assert.equal(10, BPlusTreeTest.count(tree.scan(null, true, null, true)), "leaf entries");
+		for (int key = 0; key < 10; key++) {
+			Assert.equal(100, tree.count(key), "values of key " + key);
+			long[] values = tree.getValues(key).toArray();
+			for (int i = 0; i < values.length; i++)
+				Assert.equal((long) (9 - key + 10 * i), values[i], "value " + i + " of key " + key);
+		}
+		tree.insert(3, 6L); // already present
+		tree.insert(3, (byte) -1);
+		tree.insert(3, (short) 1000);
+		tree.insert(42, Long.MAX_VALUE);
+		Assert.equal(102, tree.count(3), "values after inserting values of other types");
+		Assert.check(tree.getValues(3).contains(-1) && tree.getValues(3).contains(1000), "values of other types");
+		Assert.equal("[" + Long.MAX_VALUE + "]", values(tree, 42), "values of a new key");
+		Assert.expect(IllegalArgumentException.class, () -> tree.insert(3, "x"));
+		Assert.expect(IllegalArgumentException.class, () -> tree.insert(43, 1.5));
+		Assert.expect(IllegalArgumentException.class, () -> tree.insert(44, null));
+		Assert.equal(102, tree.count(3), "values after rejected insertions");
+		Assert.equal(11, Assert.entries(tree).size(), "keys after rejected insertions");
+	}
+
+	/**
+	 * Makes sure that delete(key, value) removes a single value (and the key with its last value) whether the
+	 * PostingList is compressed or not, that deleting an absent value changes nothing, and that delete(key, null)
+	 * removes a key with all of its values.
+	 */
+	static void deleteValues() {
+		MultiValueBPlusTree tree = new MultiValueBPlusTree(4);
+		for (int key = 0; key < 20; key++)
+			for (int value = 0; value < (key == 5 ? 1000 : 3); value++)
+				tree.insert(key, value);
+		Assert.check(tree.getValues(5).isCompressed(), "1000 values are not compressed");
+		tree.delete(3, 1);
+		Assert.equal("[0, 2]", values(tree, 3), "values after deleting a value");
+		tree.delete(3, 7);
+		tree.delete(100, 7);
+		Assert.equal("[0, 2]", values(tree, 3), "values after deleting an absent value");
+		tree.delete(3, 0);
+		tree.delete(3, 2);
+		Assert.equal(null, tree.getValues(3), "values after deleting every value");
+		Assert.equal(19, Assert.entries(tree).size(), "keys after deleting every value of a key");
+		for (int value = 0; value < 1000; value += 2)
+			tree.delete(5, value);
+		Assert.equal(500, tree.count(5), "values after deleting compressed values");
+		Assert.check(tree.getValues(5).contains(999) && !tree.getValues(5).contains(998), "compressed values");
+		tree.delete(6, null);
+		tree.delete(5, null); // a compressed PostingList
+		Assert.equal(null, tree.getValues(5), "values after deleting a key");
+		Assert.equal(null, tree.getValues(6), "values after deleting a key");
+		Assert.equal(17, Assert.entries(tree).size(), "keys after deleting keys");
+		Assert.expect(IllegalArgumentException.class, () -> tree.delete(4, "x"));
+		Assert.equal(3, tree.count(4), "values after a rejected deletion");
+	}
+
+	/**
+	 * Makes sure that bulkLoad gathers the values of consecutive entries with the same key into a single
+	 * PostingList (compressed if it is long), and that it rejects unsorted keys and values that are not integral.
+	 */
+	static void bulkLoadGrouping() {
+		List<Pair<Object, Object>> entries = new ArrayList<Pair<Object, Object>>();
+		for (int key = 0; key < 100; key++)
+			for (int value = 0; value < (key == 50 ? 500 : key % 4); value++) {
+				entries.add(new Pair<Object, Object>(key, 1000 - value));
+				entries.add(new Pair<Object, Object>(key, 1000 - value)); // a duplicate value
+			}
+		MultiValueBPlusTree tree = new MultiValueBPlusTree(8);
+		tree.insert(1000, 1);
+		tree.bulkLoad(entries.iterator(), 1);
+		Assert.equal(null, tree.getValues(1000), "values of a key inserted before bulkLoad");
+		int keys = 0;
+		for (int key = 0; key < 100; key++)
+			if (key % 4 != 0 || key == 50) {
+				keys++;
+				int count = key == 50 ? 500 : key % 4;
+				Assert.equal(count, tree.count(key), "values of key " + key);
+				Assert.equal(1000L - count + 1, tree.getValues(key).toArray()[0], "smallest value of key " + key);
+			} else
+				Assert.equal(null, tree.getValues(key), "values of key " + key);
+		Assert.equal(keys, BPlusTreeTest.count(tree.scan(null, true, null, true)), "leaf entries");
+		Assert.check(tree.getValues(50).isCompressed(), "500 values are not compressed");
+		tree.insert(1, 5);
+		Assert.equal("[5, 1000]", values(tree, 1), "values after inserting into a loaded tree");
+		List<Pair<Object, Object>> unsorted = new ArrayList<Pair<Object, Object>>();
+		unsorted.add(new Pair<Object, Object>(2, 1));
+		unsorted.add(new Pair<Object, Object>(1, 1));
+		Assert.expect(IllegalArgumentException.class, () -> tree.bulkLoad(unsorted.iterator(), 1));
+		List<Pair<Object, Object>> strings = new ArrayList<Pair<Object, Object>>();
+		strings.add(new Pair<Object, Object>(1, "x"));
+		Assert.expect(IllegalArgumentException.class, () -> tree.bulkLoad(strings.iterator(), 1));
+	}
+
+	/**
+	 * Adds and removes random values to and from PostingLists so that they are compressed and decompressed many
+	 * times, and compares them with a TreeSet after every change. Also makes sure that dense values take less space
+	 * once compressed and that a copy of a compressed PostingList does not share its blocks.
+	 */
+	static void postingListCompression() {
+		Random random = new Random(0);
+		for (int range : new int[] { 300, 100000, Integer.MAX_VALUE }) { // dense to sparse values
+			PostingList list = new PostingList();
+			TreeSet<Long> oracle = new TreeSet<Long>();
+			int compressions = 0;
+			boolean compressed = false;
+			for (int i = 0; i < 20000; i++) {
+				boolean grow = (i / 1000) % 2 == 0; // alternately grow past and shrink below the threshold
+				Long value = oracle.isEmpty() || grow ? null : oracle.ceiling((long) random.nextInt(range));
+				if (value == null)
+					value = oracle.isEmpty() || grow ? random.nextInt(range) : oracle.first();
+				String message = " " + value + " at step " + i + " with values below " + range;
+				if (grow && oracle.size() < 1000 || oracle.isEmpty())
+					Assert.equal(oracle.add(value), list.add(value), "added" + message);
+				else
+					Assert.equal(oracle.remove(value), list.remove(value), "removed" + message);
+				Assert.equal(oracle.size(), list.size(), "size after" + message);
+				if (list.isCompressed() && !compressed)
+					compressions++;
+				compressed = list.isCompressed();
+				if (oracle.size() > PostingList.COMPRESSION_THRESHOLD)
+					Assert.check(compressed, "not compressed after" + message);
+				else if (oracle.size() <= PostingList.COMPRESSION_THRESHOLD / 2)
+					Assert.check(!compressed, "compressed after" + message);
+				if (i % 97 == 0 || oracle.size() == PostingList.COMPRESSION_THRESHOLD + 1) {
+					Assert.equal(oracle.toString(), list.toString(), "values after" + message);
+					long probe = random.nextInt(range);
+					Assert.equal(oracle.contains(probe), list.contains(probe), "contains " + probe + " after"
+							+ message);
+					List<Long> visited = new ArrayList<Long>();
+					list.forEach(v -> visited.add(v));
+					Assert.equal(new ArrayList<Long>(oracle), visited, "values visited after" + message);
+				}
+			}
+			Assert.check(compressions > 5, compressions + " compressions with values below " + range);
+		}
+		PostingList dense = new PostingList();
+		for (long value = 1000000; value < 1010000; value++)
+			dense.add(value);
+		Assert.check(dense.isCompressed(), "10000 values are not compressed");
+		Assert.check(dense.getSizeInBytes() < 10000 * Long.BYTES / 4, dense.getSizeInBytes()
+				+ " bytes for 10000 dense values");
+		PostingList copy = new PostingList(dense);
+		copy.remove(1000000);
+		copy.add(5);
+		Assert.check(dense.contains(1000000) && !dense.contains(5), "the copy shares blocks with the original");
+		Assert.equal(10000, dense.size(), "values of the original");
+		Assert.equal(10000, copy.size(), "values of the copy");
+	}
+
+	/**
+	 * Makes sure that put replaces the values of a key, that putIfAbsent only adds keys, and that invalid values are
+	 * rejected without changing the tree.
+	 */
+	static void putAndPutIfAbsent() {
+		MultiValueBPlusTree tree = new MultiValueBPlusTree(4);
+		for (int i = 0; i < 100; i++)
+			tree.insert(i % 10, i);
+		PostingList previous = (PostingList) tree.put(3, 7L);
+		Assert.equal(10, previous.size(), "values replaced by put");
+		Assert.equal("[7]", values(tree, 3), "values after put");
+		PostingList list = new PostingList();
+		list.add(1);
+		list.add(2);
+		Assert.equal(null, tree.put(42, list), "values of a new key");
+		list.add(3); // the tree holds a copy
+		Assert.equal("[1, 2]", values(tree, 42), "values put as a PostingList");
+		Assert.equal("[7]", tree.putIfAbsent(3, 8).toString(), "values of a present key");
+		Assert.equal("[7]", values(tree, 3), "values after putIfAbsent of a present key");
+		Assert.equal(null, tree.putIfAbsent(43, 8), "values of an absent key");
+		Assert.equal("[8]", values(tree, 43), "values after putIfAbsent of an absent key");
+		Assert.expect(IllegalArgumentException.class, () -> tree.put(3, "x"));
+		Assert.expect(IllegalArgumentException.class, () -> tree.put(3, null));
+		Assert.expect(IllegalArgumentException.class, () -> tree.putIfAbsent(44, new PostingList()));
+		Assert.equal("[7]", values(tree, 3), "values after rejected updates");
+		Assert.equal(null, tree.getValues(44), "values after rejected updates");
+	}
+
+	/**
+	 * Makes sure that compute can change the PostingList of a key in place without changing a snapshot, replace it,
+	 * and delete the key.
+	 */
+	static void compute() {
+		MultiValueBPlusTree tree = new MultiValueBPlusTree(4);
+		for (int i = 0; i < 100; i++)
+			tree.insert(i % 10, i);
+		BPlusTree snapshot = tree.snapshot();
+		tree.compute(5, (k, v) -> {
+			((PostingList) v).add(1000);
+			return v;
+		});
+		Assert.equal(11, tree.count(5), "values after compute");
+		Assert.equal(10, ((PostingList) snapshot.get(5)).size(), "values in the snapshot");
+		Assert.equal("[1]", tree.compute(100, (k, v) -> v == null ? 1 : v).toString(), "values of a new key");
+		Assert.equal(null, tree.compute(6, (k, v) -> null), "values of a deleted key");
+		Assert.equal(null, tree.compute(7, (k, v) -> new PostingList()), "values of a deleted key");
+		Assert.equal(null, tree.compute(200, (k, v) -> null), "values of an absent key");
+		Assert.equal(0, tree.count(6) + tree.count(7) + tree.count(200), "values of deleted keys");
+		Assert.expect(IllegalArgumentException.class, () -> tree.compute(8, (k, v) -> "x"));
+		Assert.equal(10, tree.count(8), "values after a rejected compute");
+		Assert.equal(9, Assert.entries(tree).size(), "keys");
+	}
+
+	/**
+	 * Makes sure that a snapshot is a MultiValueBPlusTree and that updating it (including changing a PostingList in
+	 * place through compute) does not change the tree it was taken from.
+	 */
+	static void snapshotUpdates() {
+		MultiValueBPlusTree tree = new MultiValueBPlusTree(4);
+		for (int i = 0; i < 100; i++)
+			tree.insert(i % 10, i);
+		MultiValueBPlusTree snapshot = tree.snapshot();
+		snapshot.compute(1, (k, v) -> {
+			((PostingList) v).add(1000);
+			return v;
+		});
+		snapshot.insert(2, 30L);
+		snapshot.insert(42, 42);
+		snapshot.delete(3, 3);
+		Assert.equal(11, snapshot.count(1), "values in the snapshot after compute");
+		Assert.equal(11, snapshot.count(2), "values in the snapshot after insert");
+		Assert.equal(9, snapshot.count(3), "values in the snapshot after delete");
+		Assert.equal(11, Assert.entries(snapshot).size(), "keys in the snapshot");
+		for (int key = 0; key < 10; key++)
+			Assert.equal(10, tree.count(key), "values in the tree");
+		Assert.equal(10, Assert.entries(tree).size(), "keys in the tree");
+	}
+
+	/**
+	 * Returns the values of the specified key as a String.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param key
+	 *            the key.
+	 * @return the values of the specified key as a String; null if the tree does not contain the key.
+	 */
+	static String values(MultiValueBPlusTree tree, Object key) {
+		PostingList values = tree.getValues(key);
+		return values == null ? null : values.toString();
+	}
+
+}
@@ -0,0 +1,93 @@
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests the range scans of OffHeapBPlusTree and makes sure that closing it drops its slabs.
+ */
+public class OffHeapBPlusTreeTest {
+
+	public static void main(String[] args) throws InterruptedException {
+		for (int fanout : new int[] { 3, 4, 16 })
+			scan(fanout);
+		close();
+		System.out.println("OffHeapBPlusTreeTest passed");
+	}
+
+	/**
+	 * Inserts and deletes random keys (so that leaf nodes are split, merged and reused from the free list) and
+	 * compares scans of random ranges with open and closed bounds with a TreeMap.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void scan(int fanout) {
+		Random random = new Random(fanout);
+		OffHeapBPlusTree tree = new OffHeapBPlusTree(fanout, 4096);
+		TreeMap<Long, Long> oracle = new TreeMap<Long, Long>();
+		for (int i = 0; i < 20000; i++) {
+			long key = random.nextInt(3000);
+			if (random.nextInt(3) > 0) {
+				if (oracle.containsKey(key))
+					continue;
+				tree.insert(key, -key);
+				oracle.put(key, -key);
+			} else {
+				tree.delete(key);
+				oracle.remove(key);
+			}
+		}
+		Assert.equal(oracle.toString(), entries(tree.scan(Long.MIN_VALUE, true, Long.MAX_VALUE, true)),
+				"entries with fanout " + fanout);
+		for (int i = 0; i < 2000; i++) {
+			long from = random.nextInt(3100) - 50;
+			long to = from + random.nextInt(i % 2 == 0 ? 10 : 500);
+			boolean fromInclusive = random.nextBoolean(), toInclusive = random.nextBoolean();
+			String expected = from == to && !(fromInclusive && toInclusive) ? "{}"
+					: oracle.subMap(from, fromInclusive, to, toInclusive).toString();
+			Assert.equal(expected, entries(tree.scan(from, fromInclusive, to, toInclusive)), "entries in "
+					+ (fromInclusive ? "[" : "(") + from + ", " + to + (toInclusive ? "]" : ")") + " with fanout "
+					+ fanout);
+		}
+		tree.close();
+	}
+
+	/**
+	 * Makes sure that a closed tree rejects every operation (including a Cursor opened before) and that its slabs
+	 * can be reclaimed by the garbage collector.
+	 */
+	static void close() throws InterruptedException {
+		OffHeapBPlusTree tree = new OffHeapBPlusTree(16, 4096);
+		for (long key = 0; key < 10000; key++)
+			tree.insert(key, key);
+		Assert.check(tree.getAllocatedBytes() > 0, "no slab allocated");
+		OffHeapBPlusTree.Cursor cursor = tree.scan(0, true, 100, true);
+		Assert.check(cursor.next(), "no entry before closing");
+		java.lang.ref.WeakReference<Object> slab = new java.lang.ref.WeakReference<Object>(
+				tree.slabs[tree.numberOfSlabs - 1]); // the cursor refers to the first slabs only
+		tree.close();
+		tree.close();
+		Assert.equal(0L, tree.getAllocatedBytes(), "bytes allocated after closing");
+		Assert.expect(IllegalStateException.class, () -> tree.get(1));
+		Assert.expect(IllegalStateException.class, () -> tree.insert(1, 1));
+		Assert.expect(IllegalStateException.class, () -> tree.delete(1));
+		Assert.expect(IllegalStateException.class, () -> tree.scan(0, true, 1, true));
+		Assert.expect(IllegalStateException.class, () -> cursor.next());
+		BPlusTreeTest.collect(slab);
+		Assert.check(slab.get() == null, "a slab of a closed tree is still reachable");
+	}
+
+	/**
+	 * Returns the entries that the specified Cursor streams, formatted like a TreeMap.
+	 *
+	 * @param cursor
+	 *            the Cursor.
+	 * @return the entries that the specified Cursor streams.
+	 */
+	static String entries(OffHeapBPlusTree.Cursor cursor) {
+		StringBuilder s = new StringBuilder("{");
+		while (cursor.next())
+			s.append(s.length() > 1 ? ", " : "").append(cursor.getKey()).append('=').append(cursor.getValue());
+		return s.append('}').toString();
+	}
+
+}
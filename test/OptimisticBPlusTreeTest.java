@@ -0,0 +1,227 @@
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests OptimisticBPlusTree with invalid keys, with concurrent readers and writers, and with concurrent put,
+ * putIfAbsent and compute.
+ */
+public class OptimisticBPlusTreeTest {
+
+	public static void main(String[] args) throws InterruptedException {
+		invalidKeys();
+		for (int fanout : new int[] { 3, 4, 8 })
+			concurrentUpdates(fanout);
+		putAndCompute();
+		for (int fanout : new int[] { 3, 8 })
+			concurrentCompute(fanout);
+		System.out.println("OptimisticBPlusTreeTest passed");
+	}
+
+	/**
+	 * Makes sure that an operation with a key that cannot be compared with the keys in the tree throws its exception
+	 * rather than restarting forever, and that it leaves the tree usable.
+	 */
+	static void invalidKeys() throws InterruptedException {
+		OptimisticBPlusTree tree = new OptimisticBPlusTree(8);
+		for (int i = 0; i < 1000; i++)
+			tree.insert(i, i);
+		expect(ClassCastException.class, () -> tree.get("x"), "get with a String key");
+		expect(ClassCastException.class, () -> tree.insert("x", 1), "insert with a String key");
+		expect(ClassCastException.class, () -> tree.delete("x", null), "delete with a String key");
+		expect(NullPointerException.class, () -> tree.insert(null, 1), "insert with a null key");
+		Assert.equal(0L, tree.getRestartCount(), "restarts");
+		for (int i = 1000; i < 2000; i++)
+			tree.insert(i, i); // would fail if a node were still locked
+		for (int i = 0; i < 2000; i += 2)
+			tree.delete(i, null);
+		Assert.equal(1000, Assert.entries(tree.tree).size(), "entries");
+	}
+
+	/**
+	 * Runs writers that insert and delete disjoint keys together with readers and a thread that uses an invalid key,
+	 * and compares the tree with a ConcurrentSkipListMap that the writers update after each change.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void concurrentUpdates(int fanout) throws InterruptedException {
+		OptimisticBPlusTree tree = new OptimisticBPlusTree(fanout);
+		ConcurrentSkipListMap<Integer, Integer> oracle = new ConcurrentSkipListMap<Integer, Integer>();
+		int writers = 4, operations = 20000;
+		for (int key = -1; key >= -100; key--) { // keys that are never deleted, so get("x") always compares keys
+			tree.insert(key, key);
+			oracle.put(key, key);
+		}
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[writers + 2];
+		for (int w = 0; w < writers; w++) {
+			int id = w;
+			threads[w] = new Thread(() -> {
+				Random random = new Random(id);
+				for (int i = 0; i < operations; i++) {
+					int key = random.nextInt(operations / 2) * writers + id; // the keys of a writer are disjoint
+					if (random.nextBoolean()) {
+						if (oracle.containsKey(key))
+							continue;
+						tree.insert(key, key);
+						oracle.put(key, key);
+						Assert.equal(key, tree.get(key), "value read after insert");
+					} else {
+						tree.delete(key, null);
+						oracle.remove(key);
+						Assert.equal(null, tree.get(key), "value read after delete");
+					}
+				}
+			});
+		}
+		threads[writers] = new Thread(() -> {
+			Random random = new Random(writers);
+			while (threads[0].isAlive()) {
+				Object key = random.nextInt(operations / 2 * writers);
+				Object value = tree.get(key);
+				Assert.check(value == null || value.equals(key), "value " + value + " read for " + key);
+			}
+		});
+		threads[writers + 1] = new Thread(() -> {
+			while (threads[0].isAlive())
+				try {
+					tree.get("x");
+					Assert.check(false, "no exception for a String key");
+				} catch (ClassCastException e) {
+				}
+		});
+		for (Thread t : threads) {
+			t.setUncaughtExceptionHandler((thread, e) -> failure.compareAndSet(null, e));
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join(60000);
+			Assert.check(!t.isAlive(), "an operation does not terminate");
+		}
+		if (failure.get() != null)
+			throw new AssertionError("fanout " + fanout, failure.get());
+		Assert.equal(oracle, Assert.entries(tree.tree), "entries with fanout " + fanout);
+	}
+
+	/**
+	 * Makes sure that put, putIfAbsent and compute have the semantics of their BPlusTree counterparts, that compute
+	 * applies its function once, and that a function that throws leaves no node locked.
+	 */
+	static void putAndCompute() throws InterruptedException {
+		OptimisticBPlusTree tree = new OptimisticBPlusTree(4);
+		for (int i = 0; i < 100; i += 2)
+			tree.insert(i, i);
+		Assert.equal(10, tree.put(10, -10), "value replaced by put");
+		Assert.equal(null, tree.put(11, -11), "value of a key added by put");
+		Assert.equal(-10, tree.putIfAbsent(10, 0), "value of a present key");
+		Assert.equal(null, tree.putIfAbsent(13, -13), "value of an absent key");
+		int[] calls = new int[1];
+		Assert.equal(21, tree.compute(20, (k, v) -> {
+			calls[0]++;
+			return (Integer) v + 1;
+		}), "value computed for a present key");
+		Assert.equal(1, calls[0], "calls of the function");
+		Assert.equal(null, tree.compute(22, (k, v) -> null), "value of a key deleted by compute");
+		Assert.equal(7, tree.compute(7, (k, v) -> v == null ? 7 : v), "value of a key added by compute");
+		Assert.equal(null, tree.compute(9, (k, v) -> null), "value of an absent key");
+		expect(IllegalStateException.class, () -> tree.compute(24, (k, v) -> {
+			throw new IllegalStateException();
+		}), "compute with a function that throws");
+		expect(ClassCastException.class, () -> tree.put("x", 1), "put with a String key");
+		expect(ClassCastException.class, () -> tree.compute("x", (k, v) -> v), "compute with a String key");
+		for (int i = 100; i < 200; i++) // would fail if a node were still locked
+			tree.put(i, i);
+		java.util.TreeMap<Object, Object> expected = new java.util.TreeMap<Object, Object>();
+		for (int i = 0; i < 100; i += 2)
+			expected.put(i, i);
+		for (int i = 100; i < 200; i++)
+			expected.put(i, i);
+		expected.put(10, -10);
+		expected.put(11, -11);
+		expected.put(13, -13);
+		expected.put(20, 21);
+		expected.remove(22);
+		expected.put(7, 7);
+		Assert.equal(expected, Assert.entries(tree.tree), "entries");
+		Assert.equal(0L, tree.getRestartCount(), "restarts");
+	}
+
+	/**
+	 * Runs threads that increment shared counters with compute while other threads delete and re-create them with
+	 * compute and putIfAbsent, so nodes are split and merged under contended compute calls. Every increment must be
+	 * applied exactly once.
+	 *
+	 * @param fanout
+	 *            the fanout of the tree.
+	 */
+	static void concurrentCompute(int fanout) throws InterruptedException {
+		OptimisticBPlusTree tree = new OptimisticBPlusTree(fanout);
+		int counters = 64, incrementers = 4, increments = 20000;
+		for (int key = 0; key < counters; key++)
+			tree.put(key, 0);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[incrementers + 1];
+		for (int t = 0; t < incrementers; t++) {
+			int id = t;
+			threads[t] = new Thread(() -> {
+				Random random = new Random(id);
+				for (int i = 0; i < increments; i++)
+					tree.compute(random.nextInt(counters), (k, v) -> (Integer) v + 1);
+			});
+		}
+		threads[incrementers] = new Thread(() -> { // churns other keys around the counters
+			Random random = new Random(incrementers);
+			while (threads[0].isAlive()) {
+				Object key = counters + random.nextInt(1000);
+				if (random.nextBoolean())
+					tree.putIfAbsent(key, key);
+				else
+					tree.compute(key, (k, v) -> null);
+			}
+		});
+		for (Thread t : threads) {
+			t.setUncaughtExceptionHandler((thread, e) -> failure.compareAndSet(null, e));
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join(60000);
+			Assert.check(!t.isAlive(), "an operation does not terminate");
+		}
+		if (failure.get() != null)
+			throw new AssertionError("fanout " + fanout, failure.get());
+		int total = 0;
+		for (int key = 0; key < counters; key++)
+			total += (Integer) tree.get(key);
+		Assert.equal(incrementers * increments, total, "increments applied with fanout " + fanout);
+	}
+
+	/**
+	 * Runs the specified operation in another thread and makes sure that it throws an exception of the specified
+	 * class within a few seconds.
+	 *
+	 * @param type
+	 *            the class of the expected exception.
+	 * @param operation
+	 *            the operation.
+	 * @param message
+	 *            the message of the AssertionError thrown if the operation does not throw the expected exception.
+	 */
+	static void expect(Class<? extends Throwable> type, Runnable operation, String message)
+			throws InterruptedException {
+		AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+		Thread t = new Thread(() -> {
+			try {
+				operation.run();
+			} catch (Throwable e) {
+				thrown.set(e);
+			}
+		});
+		t.setDaemon(true); // an operation that restarts forever must not keep the test running
+		t.start();
+		t.join(10000);
+		Assert.check(!t.isAlive(), message + ": the operation does not terminate");
+		Assert.check(type.isInstance(thrown.get()), message + ": " + thrown.get());
+	}
+
+}
@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import util.OrderedBytes;
+
+/**
+ * Tests that the unsigned byte order of the keys built by util.OrderedBytes matches the natural order of ints, longs,
+ * Strings and tuples, and that the keys decode to the encoded values.
+ */
+public class OrderedBytesTest {
+
+	/**
+	 * Strings that are prefixes of one another, that hold 0x00 characters and that hold characters whose UTF-8
+	 * encoding takes several bytes.
+	 */
+	static final String[] STRINGS = { "", "\0", "\0\0", "\0a", "a", "a\0", "a\0\0", "a\0b", "a\u0001", "ab", "abc", "b",
+			"\u007f", "\u0080", "\u00ff", "\u07ff", "\u0800", "\uffff" };
+
+	public static void main(String[] args) {
+		ints();
+		longs();
+		strings();
+		tuples();
+		System.out.println("OrderedBytesTest passed");
+	}
+
+	/**
+	 * Makes sure that the encodings of ints are ordered like the ints and decode to them.
+	 */
+	static void ints() {
+		Random random = new Random(0);
+		List<Integer> values = new ArrayList<Integer>(Arrays.asList(Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -256,
+				-255, -1, 0, 1, 127, 128, 255, 256, Integer.MAX_VALUE - 1, Integer.MAX_VALUE));
+		for (int i = 0; i < 1000; i++)
+			values.add(i % 2 == 0 ? random.nextInt() : random.nextInt(1000) - 500);
+		for (int a : values) {
+			Assert.equal(a, OrderedBytes.decodeInt(OrderedBytes.encode(a)), "decoded int");
+			for (int b : values.subList(0, 100))
+				Assert.equal(Integer.signum(Integer.compare(a, b)), Integer.signum(Arrays.compareUnsigned(
+						OrderedBytes.encode(a), OrderedBytes.encode(b))), "order of " + a + " and " + b);
+		}
+	}
+
+	/**
+	 * Makes sure that the encodings of longs are ordered like the longs and decode to them.
+	 */
+	static void longs() {
+		Random random = new Random(1);
+		List<Long> values = new ArrayList<Long>(Arrays.asList(Long.MIN_VALUE, Long.MIN_VALUE + 1,
+				(long) Integer.MIN_VALUE - 1, -1L, 0L, 1L, (long) Integer.MAX_VALUE + 1, Long.MAX_VALUE - 1,
+				Long.MAX_VALUE));
+		for (int i = 0; i < 1000; i++)
+			values.add(i % 2 == 0 ? random.nextLong() : random.nextInt(1000) - 500);
+		for (long a : values) {
+			Assert.equal(a, OrderedBytes.decodeLong(OrderedBytes.encode(a)), "decoded long");
+			for (long b : values.subList(0, 100))
+				Assert.equal(Integer.signum(Long.compare(a, b)), Integer.signum(Arrays.compareUnsigned(
+						OrderedBytes.encode(a), OrderedBytes.encode(b))), "order of " + a + " and " + b);
+		}
+	}
+
+	/**
+	 * Makes sure that the encodings of Strings on their own are ordered like the Strings and decode to them.
+	 */
+	static void strings() {
+		for (String a : STRINGS) {
+			Assert.equal(a, OrderedBytes.decodeString(OrderedBytes.encode(a)), "decoded String");
+			for (String b : STRINGS)
+				Assert.equal(Integer.signum(a.compareTo(b)), Integer.signum(Arrays.compareUnsigned(
+						OrderedBytes.encode(a), OrderedBytes.encode(b))), "order of " + show(a) + " and " + show(b));
+		}
+	}
+
+	/**
+	 * Makes sure that the encodings of tuples (a String, an int, a byte[] and a long, whose components include
+	 * prefixes of one another, 0x00 bytes and components that start with 0xFF after a String) are ordered like the
+	 * tuples, that they sort a BPlusTree in the order of the tuples, and that they decode to the tuples.
+	 */
+	static void tuples() {
+		int[] ints = { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+		byte[][] arrays = { {}, { 0 }, { 0, 0 }, { 0, (byte) 0xFF }, { 1 }, { (byte) 0xFF }, { (byte) 0xFF, 0 } };
+		long[] longs = { Long.MIN_VALUE, 0, Long.MAX_VALUE };
+		List<Object[]> tuples = new ArrayList<Object[]>();
+		for (String s : STRINGS)
+			for (int i : ints)
+				for (byte[] a : arrays)
+					for (long l : longs)
+						tuples.add(new Object[] { s, i, a, l });
+		Collections.shuffle(tuples, new Random(2));
+		List<byte[]> keys = new ArrayList<byte[]>();
+		OrderedBytes builder = new OrderedBytes(4); // grows while the keys are built
+		for (Object[] t : tuples) {
+			byte[] key = builder.clear().putString((String) t[0]).putInt((Integer) t[1]).putBytes((byte[]) t[2])
+					.putLong((Long) t[3]).toByteArray();
+			keys.add(key);
+			OrderedBytes.Reader reader = new OrderedBytes.Reader(key);
+			Assert.equal(t[0], reader.getString(), "String of " + show(t));
+			Assert.equal(t[1], reader.getInt(), "int of " + show(t));
+			Assert.check(Arrays.equals((byte[]) t[2], reader.getBytes()), "byte[] of " + show(t));
+			Assert.equal(t[3], reader.getLong(), "long of " + show(t));
+			Assert.check(!reader.hasRemaining(), "bytes after " + show(t));
+		}
+		for (int i = 0; i < tuples.size(); i++)
+			for (int j = 0; j < tuples.size(); j += 7)
+				Assert.equal(Integer.signum(compare(tuples.get(i), tuples.get(j))), Integer.signum(Arrays
+						.compareUnsigned(keys.get(i), keys.get(j))), "order of " + show(tuples.get(i)) + " and "
+								+ show(tuples.get(j)));
+		BPlusTree tree = new BPlusTree(8);
+		for (int i = 0; i < tuples.size(); i++)
+			tree.insert(keys.get(i), tuples.get(i));
+		Object[] previous = null;
+		int count = 0;
+		for (BPlusTree.Cursor c = tree.scan(null, true, null, true); c.next(); count++) {
+			Object[] t = (Object[]) c.getValue();
+			Assert.check(previous == null || compare(previous, t) < 0, show(previous) + " before " + show(t));
+			previous = t;
+		}
+		Assert.equal(tuples.size(), count, "tuples in the tree");
+	}
+
+	/**
+	 * Compares the specified tuples (a String, an Integer, a byte[] and a Long) in their natural order.
+	 *
+	 * @param a
+	 *            a tuple.
+	 * @param b
+	 *            another tuple.
+	 * @return a negative integer, zero or a positive integer as the first tuple is less than, equal to or greater
+	 *         than the second.
+	 */
+	static int compare(Object[] a, Object[] b) {
+		int c = ((String) a[0]).compareTo((String) b[0]);
+		if (c == 0)
+			c = ((Integer) a[1]).compareTo((Integer) b[1]);
+		if (c == 0)
+			c = Arrays.compareUnsigned((byte[]) a[2], (byte[]) b[2]);
+		if (c == 0)
+			c = ((Long) a[3]).compareTo((Long) b[3]);
+		return c;
+	}
+
+	/**
+	 * Returns a readable representation of the specified String or tuple, with the characters below 0x20 and above
+	 * 0x7E escaped.
+	 *
+	 * @param o
+	 *            a String or a tuple.
+	 * @return a readable representation of the specified String or tuple.
+	 */
+	static String show(Object o) {
+		if (o instanceof Object[]) {
+			Object[] t = (Object[]) o;
+			return "(" + show(t[0]) + ", " + t[1] + ", " + Arrays.toString((byte[]) t[2]) + ", " + t[3] + ")";
+		}
+		StringBuilder s = new StringBuilder("\"");
+		for (char c : String.valueOf(o).toCharArray())
+			s.append(c >= 0x20 && c < 0x7F ? String.valueOf(c) : String.format("\\u%04x", (int) c));
+		return s.append('"').toString();
+	}
+
+}
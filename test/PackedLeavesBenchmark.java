@@ -0,0 +1,109 @@
+import java.util.Random;
+
+/**
+ * Compares a LongBPlusTree with packed leaf nodes with one with plain leaf nodes: the time of an insert and of a
+ * lookup, and the heap that the tree retains per key, for dense keys (consecutive or with small gaps, which pack into
+ * a few bits each) and sparse random keys (which do not pack), at several fanouts. The keys are inserted and looked up
+ * in random order.
+ *
+ * Usage: java -cp out PackedLeavesBenchmark [keys [runs]]
+ */
+public class PackedLeavesBenchmark {
+
+	/**
+	 * The fanouts to measure.
+	 */
+	static final int[] FANOUTS = { 16, 64, 256 };
+
+	/**
+	 * The value of every entry (shared, so that only the keys take up space per entry).
+	 */
+	static final Object VALUE = "v";
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		Random random = new Random(0);
+		long[] consecutive = new long[size], gaps = new long[size], sparse = new long[size];
+		for (int i = 0; i < size; i++) {
+			consecutive[i] = 1000000000000L + i;
+			gaps[i] = (i == 0 ? 1000000000000L : gaps[i - 1]) + 1 + random.nextInt(16);
+			sparse[i] = random.nextLong();
+		}
+		measure("consecutive", shuffle(consecutive, random), runs);
+		measure("small gaps", shuffle(gaps, random), runs);
+		measure("sparse", shuffle(sparse, random), runs);
+	}
+
+	/**
+	 * Prints the best times of an insert and a lookup and the heap retained per key of a LongBPlusTree with plain
+	 * leaf nodes and one with packed leaf nodes at each fanout.
+	 *
+	 * @param name
+	 *            the name of the keys.
+	 * @param keys
+	 *            the keys in the order in which they are inserted.
+	 * @param runs
+	 *            the number of runs (the best of which is reported).
+	 */
+	static void measure(String name, long[] keys, int runs) {
+		long[] lookups = shuffle(keys.clone(), new Random(1));
+		System.out.println(name + " keys (" + keys.length + "), ns per operation, best of " + runs + " runs");
+		System.out.println("  fanout  leaves    insert   lookup   bytes/key");
+		for (int fanout : FANOUTS)
+			for (boolean packed : new boolean[] { false, true }) {
+				double insert = Double.MAX_VALUE, lookup = Double.MAX_VALUE, bytes = 0;
+				for (int run = 0; run < runs; run++) {
+					long used = usedMemory();
+					long start = System.nanoTime();
+					LongBPlusTree tree = new LongBPlusTree(fanout, BPlusTree.SearchStrategy.forFanout(fanout), packed);
+					for (long key : keys)
+						tree.insert(key, VALUE);
+					insert = Math.min(insert, (double) (System.nanoTime() - start) / keys.length);
+					bytes = (double) (usedMemory() - used) / keys.length;
+					start = System.nanoTime();
+					int found = 0;
+					for (long key : lookups)
+						if (tree.get(key) != null)
+							found++;
+					lookup = Math.min(lookup, (double) (System.nanoTime() - start) / keys.length);
+					if (found != keys.length)
+						throw new AssertionError(found + " keys found");
+				}
+				System.out.printf("  %6d  %-7s %8.0f %8.0f %11.1f%n", fanout, packed ? "packed" : "plain", insert,
+						lookup, bytes);
+			}
+	}
+
+	/**
+	 * Returns the bytes of the heap in use after a garbage collection.
+	 *
+	 * @return the bytes of the heap in use after a garbage collection.
+	 */
+	static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Shuffles the specified array.
+	 *
+	 * @param a
+	 *            an array.
+	 * @param random
+	 *            the Random to use.
+	 * @return the specified array.
+	 */
+	static long[] shuffle(long[] a, Random random) {
+		for (int i = a.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			long t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+		return a;
+	}
+
+}
@@ -0,0 +1,101 @@
+import java.util.Random;
+
+/**
+ * Measures the time that BPlusTree.get takes with each SearchStrategy at several fanouts, for keys spread
+ * uniformly over their range and for skewed keys (whose gaps grow geometrically). For each kind of keys, it reports
+ * the largest fanout up to which LINEAR is never slower than BINARY (see SearchStrategy.LINEAR_FANOUT_THRESHOLD) and
+ * the smallest fanout from which INTERPOLATION is always the fastest (see
+ * SearchStrategy.INTERPOLATION_FANOUT_THRESHOLD).
+ *
+ * Usage: java -cp out SearchStrategyBenchmark [keys [runs]]
+ */
+public class SearchStrategyBenchmark {
+
+	/**
+	 * The fanouts to measure.
+	 */
+	static final int[] FANOUTS = { 8, 16, 32, 64, 96, 128, 192, 256, 384, 512 };
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		Random random = new Random(0);
+		Integer[] uniform = new Integer[size];
+		for (int i = 0; i < size; i++)
+			uniform[i] = i;
+		Integer[] skewed = new Integer[size];
+		for (int i = 0; i < size; i++) // the gaps grow geometrically: most keys are crowded at the low end
+			skewed[i] = (int) Math.expm1(i * Math.log(Integer.MAX_VALUE / 2.0) / size) + i;
+		shuffle(uniform, random);
+		shuffle(skewed, random);
+		measure("uniform", uniform, runs);
+		measure("skewed", skewed, runs);
+	}
+
+	/**
+	 * Prints the best time of a get per key for each SearchStrategy and fanout.
+	 *
+	 * @param name
+	 *            the name of the key distribution.
+	 * @param keys
+	 *            the keys in the order in which they are inserted and looked up.
+	 * @param runs
+	 *            the number of runs (the best of which is reported).
+	 */
+	static void measure(String name, Integer[] keys, int runs) {
+		System.out.println(name + " keys (" + keys.length + "), ns per get, best of " + runs + " runs");
+		System.out.println("  fanout   LINEAR   BINARY  INTERPOLATION");
+		int crossover = 0;
+		boolean linear = true; // whether LINEAR has not been slower than BINARY at any fanout so far
+		int interpolation = 0; // the smallest fanout from which INTERPOLATION has been the fastest so far
+		for (int fanout : FANOUTS) {
+			double[] times = new double[BPlusTree.SearchStrategy.values().length];
+			for (BPlusTree.SearchStrategy strategy : BPlusTree.SearchStrategy.values()) {
+				BPlusTree tree = new BPlusTree(fanout, strategy);
+				for (Integer key : keys)
+					tree.insert(key, key);
+				double best = Double.MAX_VALUE;
+				for (int run = 0; run < runs; run++) {
+					long start = System.nanoTime();
+					int found = 0;
+					for (Integer key : keys)
+						if (tree.get(key) == key)
+							found++;
+					best = Math.min(best, (double) (System.nanoTime() - start) / keys.length);
+					if (found != keys.length)
+						throw new AssertionError(found + " keys found");
+				}
+				times[strategy.ordinal()] = best;
+			}
+			linear &= times[BPlusTree.SearchStrategy.LINEAR.ordinal()] <= times[BPlusTree.SearchStrategy.BINARY.ordinal()];
+			if (linear)
+				crossover = fanout;
+			if (times[2] > Math.min(times[0], times[1]))
+				interpolation = 0;
+			else if (interpolation == 0)
+				interpolation = fanout;
+			System.out.printf("  %6d %8.0f %8.0f %14.0f%n", fanout, times[0], times[1], times[2]);
+		}
+		System.out.println("  largest fanout up to which LINEAR is never slower than BINARY: " + crossover);
+		System.out.println("  smallest fanout from which INTERPOLATION is always the fastest: "
+				+ (interpolation == 0 ? "none" : interpolation));
+	}
+
+	/**
+	 * Shuffles the specified array.
+	 *
+	 * @param a
+	 *            the array.
+	 * @param random
+	 *            the random number generator.
+	 */
+	static void shuffle(Integer[] a, Random random) {
+		for (int i = a.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			Integer t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+	}
+
+}
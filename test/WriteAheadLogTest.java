@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import util.WriteAheadLog;
+
+/**
+ * Tests WriteAheadLog with interrupted committers and failing forces.
+ */
+public class WriteAheadLogTest {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		interruptedCommit();
+		failedTimedSync();
+		failedSync();
+		System.out.println("WriteAheadLogTest passed");
+	}
+
+	/**
+	 * Commits records while the committing thread is interrupted (which closes a FileChannel during I/O) and makes
+	 * sure that the records become durable, the interrupt status is kept and the log remains usable.
+	 */
+	static void interruptedCommit() throws IOException {
+		Path file = Files.createTempDirectory("wal").resolve("log");
+		WriteAheadLog log = new WriteAheadLog(file);
+		long first = 0;
+		for (int i = 0; i < 10; i++) {
+			long lsn = log.append((byte) 1, i, "v" + i);
+			if (i == 0)
+				first = lsn;
+			if (i % 2 == 0)
+				Thread.currentThread().interrupt();
+			log.commit(lsn);
+			Assert.equal(i % 2 == 0, Thread.interrupted(), "interrupt status after commit " + i);
+			Assert.equal(lsn, log.getDurableLsn(), "durable LSN after commit " + i);
+		}
+		log.append((byte) 1, 10, "v10");
+		Thread.currentThread().interrupt();
+		log.truncate(first); // discards the first record
+		Assert.check(Thread.interrupted(), "interrupt status after truncate");
+		log.close();
+		Assert.equal(10, count(file), "records after reopening");
+	}
+
+	/**
+	 * Makes a force of the TIMED syncer fail and makes sure that the failure is reported by commit, sync and close.
+	 */
+	static void failedTimedSync() throws IOException, InterruptedException {
+		Path file = Files.createTempDirectory("wal").resolve("log");
+		WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.SyncPolicy.TIMED, 1, 10) {
+
+			@Override
+			public void sync(long lsn) throws IOException {
+				if (Thread.currentThread().getName().equals("WriteAheadLog syncer"))
+					throw new IOException("disk failure");
+				super.sync(lsn);
+			}
+
+		};
+		IOException failure = null;
+		for (int i = 0; failure == null && i < 500; i++) {
+			try {
+				log.commit(log.append((byte) 1, i, null));
+			} catch (IOException e) {
+				failure = e;
+			}
+			Thread.sleep(10);
+		}
+		Assert.check(failure != null, "commit did not report the failed force");
+		Assert.equal("disk failure", failure.getCause().getMessage(), "cause");
+		try {
+			log.sync();
+			Assert.check(false, "sync did not report the failed force");
+		} catch (IOException e) {
+			Assert.equal("disk failure", e.getCause().getMessage(), "cause");
+		}
+		try {
+			log.close();
+			Assert.check(false, "close did not report the failed force");
+		} catch (IOException e) {
+			Assert.equal("disk failure", e.getCause().getMessage(), "cause");
+		}
+	}
+
+	/**
+	 * Makes a force by a committing thread fail once and makes sure that the records are not reported as durable
+	 * later, even though the next force would succeed.
+	 */
+	static void failedSync() throws IOException {
+		Path file = Files.createTempDirectory("wal").resolve("log");
+		boolean[] broken = { false };
+		WriteAheadLog log = new WriteAheadLog(file) {
+
+			@Override
+			public void sync(long lsn) throws IOException {
+				if (broken[0]) { // the next write fails, and the channel is reopened for later forces
+					broken[0] = false;
+					java.nio.channels.FileChannel c = channel;
+					c.close();
+					try {
+						super.sync(lsn);
+					} finally {
+						channel = java.nio.channels.FileChannel.open(file, java.nio.file.StandardOpenOption.READ,
+								java.nio.file.StandardOpenOption.WRITE);
+					}
+				} else
+					super.sync(lsn);
+			}
+
+		};
+		log.commit(log.append((byte) 1, 0, "v0"));
+		long durable = log.getDurableLsn();
+		long lsn = log.append((byte) 1, 1, "v1");
+		broken[0] = true;
+		try {
+			log.commit(lsn);
+			Assert.check(false, "commit did not report the failed force");
+		} catch (IOException e) {
+		}
+		try {
+			log.sync();
+			Assert.check(false, "sync after a failed force succeeded");
+		} catch (IOException e) {
+			Assert.check(e.getCause() != null, "no cause");
+		}
+		Assert.equal(durable, log.getDurableLsn(), "durable LSN after a failed force");
+		try {
+			log.close();
+			Assert.check(false, "close did not report the failed force");
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Returns the number of records in the specified log file.
+	 *
+	 * @param file
+	 *            the log file.
+	 * @return the number of records in the log file.
+	 */
+	static int count(Path file) throws IOException {
+		int[] count = { 0 };
+		try (WriteAheadLog log = new WriteAheadLog(file)) {
+			log.replay(log.getBaseLsn(), new WriteAheadLog.Handler() {
+
+				@Override
+				public void handle(long lsn, byte type, Object key, Object value) {
+					count[0]++;
+				}
+
+			});
+		}
+		return count[0];
+	}
+
+}
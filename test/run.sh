@@ -0,0 +1,12 @@
+#!/bin/sh
+# Compiles the sources and the tests and runs every test (or the tests named on the command line).
+# Benchmarks (*Benchmark) are compiled as well and run the same way: java -cp out <name> [arguments].
+cd "$(dirname "$0")/.." || exit 1
+rm -rf out && mkdir out || exit 1
+javac -encoding UTF-8 -Xlint:all -d out \
+	$(find src test -name '*.java') || exit 1
+tests="$*"
+[ -n "$tests" ] || tests=$(cd test && ls *Test.java | sed 's/\.java$//')
+for t in $tests; do
+	java -ea -cp out "$t" || exit 1
+done